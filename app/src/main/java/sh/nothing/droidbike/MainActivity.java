@@ -1,13 +1,17 @@
 package sh.nothing.droidbike;
 
 import android.Manifest;
-import android.animation.ValueAnimator;
 import android.bluetooth.BluetoothDevice;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.res.Configuration;
 import android.databinding.DataBindingUtil;
-import android.hardware.SensorManager;
 import android.location.Location;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
@@ -15,71 +19,118 @@ import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.ViewTreeObserver;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.view.animation.DecelerateInterpolator;
-import android.view.animation.Interpolator;
-import android.view.animation.LinearInterpolator;
 import android.widget.EditText;
 import android.widget.TextView;
 
-import com.annimon.stream.Collectors;
-import com.annimon.stream.Stream;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
 
+import io.reactivex.Completable;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.schedulers.Schedulers;
 import permissions.dispatcher.NeedsPermission;
 import permissions.dispatcher.RuntimePermissions;
 import sh.nothing.droidbike.ble.CscManager;
 import sh.nothing.droidbike.databinding.ActivityMainBinding;
-import sh.nothing.droidbike.location.LocationManager;
-import sh.nothing.droidbike.sensor.SensorsManager;
+import sh.nothing.droidbike.export.FitWriter;
+import sh.nothing.droidbike.export.GpxWriter;
+import sh.nothing.droidbike.export.RideExporter;
+import sh.nothing.droidbike.history.HistoryRange;
+import sh.nothing.droidbike.history.HistoryStore;
+import sh.nothing.droidbike.record.RideRecorder;
+import sh.nothing.droidbike.ride.Altitude;
+import sh.nothing.droidbike.ride.Lap;
+import sh.nothing.droidbike.ride.RideMetricsEngine;
+import sh.nothing.droidbike.ride.RideState;
+import sh.nothing.droidbike.util.AnimatedValue;
+import sh.nothing.droidbike.util.CharText;
+import sh.nothing.droidbike.util.Clock;
+import sh.nothing.droidbike.util.FixedPointFormat;
+import sh.nothing.droidbike.util.FrameScheduler;
 import sh.nothing.droidbike.view.HorizontalBarGraphView;
+import sh.nothing.droidbike.view.TimeSeriesGraphView;
 
 @RuntimePermissions
 public class MainActivity
     extends AppCompatActivity
-    implements CscManager.CscManagerCallback, SensorsManager.SensorsManagerCallback, LocationManager.LocationCallback {
+    implements Choreographer.FrameCallback, FrameScheduler.Renderer {
 
     private static final String TAG = "MainActivity";
     private ActivityMainBinding binding;
 
     static final String PREF_CIRCUMFERENCE_KEY = "circumference";
-    private static final int DEFAULT_CIRCUMFERENCE = 2096;
-    private int circumference = -1;
 
-    int startWheelRevolutions = -1;
-    int startCrankRevolutions = -1;
+    // adb shell am start -n sh.nothing.droidbike/.MainActivity --es replay <file> [--es replay_pace FAST_FORWARD]
+    static final String EXTRA_REPLAY = "replay";
+    static final String EXTRA_REPLAY_PACE = "replay_pace";
+    private static final int DEFAULT_CIRCUMFERENCE = RideMetricsEngine.DEFAULT_CIRCUMFERENCE;
+    private int circumference = -1;
 
-    DurationCounter wheelDurationCounter = new DurationCounter();
-    DurationCounter crankDurationCounter = new DurationCounter();
+    // the ride runs in RideService, which keeps it going with the screen off; the activity
+    // attaches while visible and only reads the state
+    private RideService rideService;
+    private final RideState rideState = new RideState();
+    // a point per few seconds of the graph window, about what the history's 1 s tier resolves
+    private final HistoryRange historyRange = new HistoryRange(256);
+    private final CompositeDisposable subscriptions = new CompositeDisposable();
+    private final ServiceConnection rideConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            onRideServiceConnected(((RideService.LocalBinder) service).getService());
+        }
 
-    // CSC data
-    private CscManager cscManager;
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            onRideServiceDisconnected();
+        }
+    };
 
-    private ValueAnimator speedAnimator;
-    private ValueAnimator cadenceAnimator;
-    private Interpolator normalInterpolator = new LinearInterpolator();
-    private Interpolator fastInterpolator = new DecelerateInterpolator();
+    private int lastConnectionStatus;
 
-    private double distance;
+    // every view update goes through one Choreographer frame; sources only set dirty flags
+    static final int DIRTY_CSC = RideService.CHANGED_CSC;
+    static final int DIRTY_SENSORS = RideService.CHANGED_SENSORS;
+    static final int DIRTY_LOCATION = RideService.CHANGED_LOCATION;
+    static final int DIRTY_CONNECTION = 1 << 3;
+    static final int DIRTY_CLOCK = 1 << 4;
+    static final int DIRTY_ALL = DIRTY_CSC | DIRTY_SENSORS | DIRTY_LOCATION | DIRTY_CONNECTION | DIRTY_CLOCK;
 
-    private SensorsManager sensorsManager;
-    private float lastPressure;
-    private float basePressure;
-    private float lastAzimuth;
-    private PitchCalculator pitchCalculator;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final FrameScheduler frameScheduler = new FrameScheduler(Clock.SYSTEM, this::requestFrame, this);
+    private final AnimatedValue speedValue = new AnimatedValue(1000);
+    private final AnimatedValue cadenceValue = new AnimatedValue(1000);
 
-    private LocationManager locationManager;
     String lastAddress;
     Location lastLocation;
     long lastLocationUpdateAt;
 
-    ValueAnimator clockAnimator;
     private DateFormat timeFormatter;
-    private double lastPitchDistance;
+
+    // dashboard text is formatted into formatBuffer on the main thread and handed to the views
+    // as char[] slices, only when the characters changed
+    private final char[] formatBuffer = new char[64];
+    private final CharText distanceText = new CharText(8);
+    private final CharText distanceSubText = new CharText(4);
+    private final CharText durationText = new CharText(8);
+    private final CharText powerText = new CharText(24);
+    private final CharText ascentText = new CharText(8);
+    private final CharText ascentSubText = new CharText(4);
+    private final CharText altitudeText = new CharText(8);
+    private final CharText altitudeSubText = new CharText(4);
+    private final CharText gpsText = new CharText(64);
+    private final CharText speedText = new CharText(8);
+    private final CharText cadenceText = new CharText(8);
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -87,16 +138,6 @@ public class MainActivity
         setContentView(R.layout.activity_main);
         binding = DataBindingUtil.setContentView(this, R.layout.activity_main);
 
-        sensorsManager = new SensorsManager(this);
-        sensorsManager.registerCallback(this);
-        cscManager = new CscManager(this);
-        cscManager.registerCallback(this);
-
-        locationManager = new LocationManager(this);
-        locationManager.registerCallback(this);
-
-        pitchCalculator = new PitchCalculator();
-
         binding.content.speedGraph.setMax(60.0f);
         binding.content.speedGraph.setMin(0.0f);
         binding.content.speedGraph.setColorResource(R.color.colorAccent);
@@ -108,25 +149,85 @@ public class MainActivity
         binding.content.cadenceRpmGraph.setColorResource(R.color.colorPrimaryDark);
         binding.content.speedRpmGraph.setColorResource(R.color.colorAccent);
         binding.content.ascentGraph.setColorResource(R.color.colorPrimary);
+        binding.content.historyGraph.setColorResource(TimeSeriesGraphView.SPEED, R.color.colorAccent);
+        binding.content.historyGraph.setColorResource(TimeSeriesGraphView.CADENCE, R.color.colorPrimaryDark);
+        binding.content.historyGraph.setColorResource(TimeSeriesGraphView.ALTITUDE, R.color.colorPrimary);
+
+        binding.content.distance.setOnLongClickListener(v -> {
+            exportRide();
+            return true;
+        });
+
+        timeFormatter = SimpleDateFormat.getTimeInstance(SimpleDateFormat.SHORT, Locale.US);
+        ViewTreeObserver observer = binding.root.getViewTreeObserver();
+        observer.addOnGlobalLayoutListener(frameScheduler::onLayout);
+        observer.addOnDrawListener(frameScheduler::onDraw);
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        sensorsManager.start();
-        sensorsManager.setScreenRotation(getWindowManager().getDefaultDisplay().getRotation());
+        // starts the ride unless it is running already; the replay extras are passed on
+        Intent intent = new Intent(this, RideService.class).putExtras(getIntent());
+        startService(intent);
+        bindService(intent, rideConnection, 0);
+    }
 
+    private void onRideServiceConnected(RideService service) {
+        rideService = service;
+        service.getSensorsManager().setScreenRotation(getWindowManager().getDefaultDisplay().getRotation());
         MainActivityPermissionsDispatcher.startLocationManagerWithCheck(this);
         MainActivityPermissionsDispatcher.startBleScanWithCheck(this);
 
-        speedAnimator = initBarGraphAnimator(binding.content.speed, binding.content.speedGraph);
-        cadenceAnimator = initBarGraphAnimator(binding.content.cadence, binding.content.cadenceGraph);
-        clockAnimator = initClockAnimator(binding.content.clock);
+        subscriptions.add(service.getCscManager().getConnectionStatusUpdates().asFlowable()
+            .subscribe(status -> frameScheduler.invalidate(DIRTY_CONNECTION)));
+        // the GPS line only shows the newest fix
+        if (service.getLocations() != null)
+            subscriptions.add(service.getLocations().latest(AndroidSchedulers.mainThread()).subscribe(this::onLocationChanged));
+        service.setViewer(frameScheduler::invalidate);
+        fillHistoryGraph(service);
+
+        frameScheduler.invalidate(DIRTY_ALL);
+        frameScheduler.start();
+        scheduleClockTick();
+    }
+
+    // the graph only sees updates while attached; the ride's history has the rest
+    private void fillHistoryGraph(RideService service) {
+        TimeSeriesGraphView graph = binding.content.historyGraph;
+        long window = graph.getWindowNanos();
+        long now = System.nanoTime();
+        if (!service.queryHistory(HistoryStore.SPEED, window, historyRange))
+            return;
+        graph.setHistory(TimeSeriesGraphView.SPEED, historyRange, now);
+        service.queryHistory(HistoryStore.CADENCE, window, historyRange);
+        graph.setHistory(TimeSeriesGraphView.CADENCE, historyRange, now);
+
+        // the graph shows altitude relative to the base pressure, which falls as pressure rises
+        service.read(rideState);
+        service.queryHistory(HistoryStore.PRESSURE, window, historyRange);
+        for (int i = 0; i < historyRange.size(); i++) {
+            float lowest = Altitude.relative(historyRange.max[i], rideState.basePressure);
+            historyRange.max[i] = Altitude.relative(historyRange.min[i], rideState.basePressure);
+            historyRange.min[i] = lowest;
+        }
+        graph.setHistory(TimeSeriesGraphView.ALTITUDE, historyRange, now);
+    }
+
+    private void onRideServiceDisconnected() {
+        frameScheduler.stop();
+        Choreographer.getInstance().removeFrameCallback(this);
+        mainHandler.removeCallbacks(clockTick);
+        subscriptions.clear();
+        if (rideService != null)
+            rideService.setViewer(null);
+        rideService = null;
     }
 
     @NeedsPermission(Manifest.permission.ACCESS_FINE_LOCATION)
     void startLocationManager() {
-        locationManager.start();
+        if (rideService != null)
+            rideService.startLocation();
     }
 
     @Override
@@ -138,7 +239,8 @@ public class MainActivity
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
-        sensorsManager.setScreenRotation(getWindowManager().getDefaultDisplay().getRotation());
+        if (rideService != null)
+            rideService.getSensorsManager().setScreenRotation(getWindowManager().getDefaultDisplay().getRotation());
     }
 
     @Override
@@ -150,142 +252,237 @@ public class MainActivity
     @Override
     protected void onStop() {
         super.onStop();
-        sensorsManager.stop();
-        locationManager.stop();
-        stopBleScan();
+        Log.d(TAG, frameScheduler.toString());
+        if (rideService != null)
+            rideService.logCounters();
+        onRideServiceDisconnected();
+        // the ride keeps going in the service
+        unbindService(rideConnection);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // leaving with back ends the ride, going home or turning the screen off does not
+        if (isFinishing())
+            startService(new Intent(this, RideService.class).setAction(RideService.ACTION_STOP));
+    }
+
+    /**
+     * Writes the ride recorded so far as FIT and GPX next to each other in the app's external
+     * files, where USB and file managers can reach them.
+     */
+    private void exportRide() {
+        if (rideService == null)
+            return;
+        RideRecorder recorder = rideService.getRecorder();
+        File log = rideService.getRecordingFile();
+        File dir = getExternalFilesDir("exports");
+        if (recorder == null || dir == null)
+            return;
+
+        String name = log.getName().replace(".bin", "");
+        int circumference = getCircumference();
+        Completable
+            .fromAction(() -> {
+                recorder.flush();
+                RideExporter exporter = new RideExporter(circumference);
+                // the writers close their files at the end; a failed export does not get there
+                try (RandomAccessFile fit = new RandomAccessFile(new File(dir, name + ".fit"), "rw")) {
+                    fit.setLength(0);
+                    exporter.export(log, new FitWriter(fit.getChannel()));
+                }
+                try (OutputStream out = new FileOutputStream(new File(dir, name + ".gpx"))) {
+                    exporter.export(log, new GpxWriter(out, name));
+                }
+            })
+            .subscribeOn(Schedulers.io())
+            .observeOn(AndroidSchedulers.mainThread())
+            .subscribe(
+                () -> Snackbar.make(binding.root, "Exported to " + dir, Snackbar.LENGTH_SHORT).show(),
+                throwable -> {
+                    Log.e(TAG, "Export failed", throwable);
+                    Snackbar.make(binding.root, "Export failed", Snackbar.LENGTH_SHORT).show();
+                });
     }
 
     public void onAltitudeClick(View view) {
         resetPressure();
     }
 
-    @Override
-    public void onSensorUpdate(float pressure, float pitch, float azimuth) {
-        lastPressure = pressure;
-        lastAzimuth = azimuth;
-        if (distance <= 0.01) {
-            basePressure = pressure;
-        }
+    public void onDurationClick(View view) {
+        if (rideService == null)
+            return;
+        rideService.lap();
+        rideService.read(rideState);
+        frameScheduler.invalidate(DIRTY_CSC);
+        Lap lap = rideState.lastLap;
+        String duration = new String(formatBuffer, 0, formatDuration(lap.movingTime / 1000000));
+        String distance = new String(formatBuffer, 0, FixedPointFormat.formatFixed(formatBuffer, 0, lap.distance, 2));
+        Snackbar
+            .make(binding.root, "Lap " + (lap.index + 1) + ": " + distance + "km in " + duration + ", " + Math.round(lap.ascent) + "m up", Snackbar.LENGTH_SHORT)
+            .show();
+    }
 
-        updateView();
+    // called on any thread; Choreographer.getInstance() belongs to the calling thread's looper
+    private void requestFrame() {
+        if (Looper.myLooper() == Looper.getMainLooper())
+            Choreographer.getInstance().postFrameCallback(this);
+        else
+            mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(this));
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduler.doFrame(frameTimeNanos);
     }
 
     @Override
-    public void onUpdate(int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm) {
-        runOnUiThread(() -> {
-            if (startWheelRevolutions == -1) {
-                startWheelRevolutions = wheelRevolutions;
-            }
-            if (startCrankRevolutions == -1) {
-                startCrankRevolutions = crankRevolutions;
-            }
-
-            // distance
-            distance = (wheelRevolutions - startWheelRevolutions) * getCircumference() / 1_000_000.0;
-            setFloatText(
-                formatValue((float) distance),
-                binding.content.distance,
-                binding.content.distanceSub
+    public boolean onFrame(int dirty, long frameTimeNanos) {
+        // frames only run while attached, see onRideServiceConnected
+        RideService service = rideService;
+        if ((dirty & (DIRTY_CSC | DIRTY_SENSORS)) != 0)
+            service.read(rideState);
+        if ((dirty & DIRTY_CSC) != 0) {
+            updateCscViews(rideState, frameTimeNanos);
+            binding.content.historyGraph.add(TimeSeriesGraphView.SPEED, frameTimeNanos, rideState.speed);
+            binding.content.historyGraph.add(TimeSeriesGraphView.CADENCE, frameTimeNanos, rideState.cadence);
+        }
+        if ((dirty & DIRTY_SENSORS) != 0) {
+            updateView();
+            binding.content.historyGraph.add(TimeSeriesGraphView.ALTITUDE, frameTimeNanos, rideState.altitude);
+        }
+        if ((dirty & DIRTY_LOCATION) != 0 && lastLocation != null)
+            updateGpsView();
+        if ((dirty & DIRTY_CLOCK) != 0) {
+            updateClock();
+            binding.content.historyGraph.advanceTo(frameTimeNanos);
+        }
+
+        CscManager cscManager = service.getCscManager();
+        int connectionStatus = cscManager.getConnectionStatus();
+        if ((dirty & DIRTY_CONNECTION) != 0 && connectionStatus != lastConnectionStatus) {
+            lastConnectionStatus = connectionStatus;
+            updateConnectionStatusViews(
+                (connectionStatus & CscManager.STATUS_SEARCHING) != 0,
+                (connectionStatus & CscManager.STATUS_FOUND) != 0,
+                (connectionStatus & CscManager.STATUS_CONNECTED) != 0,
+                cscManager.getDevice()
             );
+        }
 
-            // duration
-            long duration = wheelDurationCounter.updateDuration(wheelRpm != 0.0);
-            long durationInMilliseconds = duration / 1000000;
-            binding.content.duration.setText(formatDuration(durationInMilliseconds));
+        boolean animating = updateBarGraph(speedValue, binding.content.speed, speedText, binding.content.speedGraph, frameTimeNanos);
+        animating |= updateBarGraph(cadenceValue, binding.content.cadence, cadenceText, binding.content.cadenceGraph, frameTimeNanos);
+        animating |= binding.content.speedRpmGraph.onFrame(frameTimeNanos);
+        animating |= binding.content.cadenceRpmGraph.onFrame(frameTimeNanos);
+        return animating;
+    }
 
-            if (durationInMilliseconds > 5000) {
-                // average speed
-                binding.content.speedGraph.setAverage((float) (distance / durationInMilliseconds * 3600000));
-            }
+    private void updateCscViews(RideState state, long frameTimeNanos) {
+        // distance
+        setFloatText(
+            (float) state.distance,
+            binding.content.distance, distanceText,
+            binding.content.distanceSub, distanceSubText
+        );
 
-            long crankDuration = crankDurationCounter.updateDuration(crankRpm != 0.0);
-            long crankDurationInMilliseconds = crankDuration / 1000000;
-            if (crankDurationInMilliseconds > 5000) {
-                // average cadence
-                binding.content.cadenceGraph.setAverage((float) ((double) (crankRevolutions - startCrankRevolutions) / crankDurationInMilliseconds * 60000));
-            }
+        // duration
+        long durationInMilliseconds = state.movingTime / 1000000;
+        setText(binding.content.duration, durationText, formatDuration(durationInMilliseconds));
 
-            // speed
-            setAnimatorValue(speedAnimator, calculateSpeed(wheelRpm));
+        // virtual power
+        setText(binding.content.power, powerText, formatPower(state));
 
-            // cadence
-            setAnimatorValue(cadenceAnimator, crankRpm);
+        // average speed
+        if (!Float.isNaN(state.averageSpeed))
+            binding.content.speedGraph.setAverage(state.averageSpeed);
 
-            // wheel rpm
-            binding.content.speedRpmGraph.setRpm(wheelRpm);
+        // average cadence
+        if (!Float.isNaN(state.averageCadence))
+            binding.content.cadenceGraph.setAverage(state.averageCadence);
 
-            // cadence rpm
-            binding.content.cadenceRpmGraph.setRpm(crankRpm);
+        // speed
+        speedValue.animateTo(state.speed, frameTimeNanos);
 
-            updatePitch(distance);
-        });
-    }
+        // cadence
+        cadenceValue.animateTo(state.cadence, frameTimeNanos);
 
-    private void updatePitch(double distance) {
-        lastPitchDistance = distance;
-        float pitch = pitchCalculator.getPitch();
-        binding.content.ascentGraph.setAscent(pitch);
-        String pitchString = formatValue(pitch * 100);
-        setFloatText(pitchString, binding.content.ascent, binding.content.ascentSub);
+        // wheel rpm
+        binding.content.speedRpmGraph.setRpm(state.wheelRpm);
+
+        // cadence rpm
+        binding.content.cadenceRpmGraph.setRpm(state.crankRpm);
+
+        updatePitch(state.gradient);
     }
 
-    private float getLastAltitude() {
-        return calculateAltitude(lastPressure, basePressure);
+    private void updatePitch(float pitch) {
+        binding.content.ascentGraph.setAscent(pitch);
+        setFloatText(pitch * 100, binding.content.ascent, ascentText, binding.content.ascentSub, ascentSubText);
     }
 
-    @Override
-    public void onLocationChanged(Location location) {
+    private void onLocationChanged(Location location) {
         lastLocation = location;
-        updateGpsView();
+        frameScheduler.invalidate(DIRTY_LOCATION);
 
         long oneMinuteInNanos = 60_000_000_000L;
-        if (System.nanoTime() - lastLocationUpdateAt > oneMinuteInNanos) {
+        if (rideService != null && System.nanoTime() - lastLocationUpdateAt > oneMinuteInNanos) {
             lastLocationUpdateAt = System.nanoTime();
-            locationManager.requestGeolocation(location).subscribe(address -> {
-                StringBuilder text = new StringBuilder();
-                for (int i = 1; i <= address.getMaxAddressLineIndex(); i++) {
-                    text.append(address.getAddressLine(i));
-                }
-                lastAddress = text.toString();
-                if (TextUtils.isEmpty(lastAddress)) {
-                    Log.v(TAG, address.toString());
-                    lastAddress = Stream
-                        .of(
-                            address.getAdminArea(),
-                            address.getSubAdminArea(),
-                            address.getLocality()
-                        )
-                        .filterNot(TextUtils::isEmpty)
-                        .collect(Collectors.joining());
-                }
-                updateGpsView();
-            }, throwable -> {});
+            rideService.getLocationManager().requestGeolocation(location).subscribe(address -> {
+                lastAddress = address;
+                frameScheduler.invalidate(DIRTY_LOCATION);
+            }, throwable -> Log.v(TAG, "Geocoding failed", throwable));
         }
     }
 
     void updateView() {
-        float altitude = getLastAltitude();
-        String altitudeString = formatValue(altitude);
-        setFloatText(altitudeString, binding.content.altitude, binding.content.altitudeSub);
-
-        pitchCalculator.updateAltitude(altitude, distance);
+        setFloatText(rideState.altitude, binding.content.altitude, altitudeText, binding.content.altitudeSub, altitudeSubText);
     }
 
     void updateGpsView() {
         binding.content.geolocation.setText(lastAddress);
-        binding.content.gps.setText(
-            String.format(Locale.US, "LAT %.2f LON %.2f ALT %.1fm SPD %.1fkm/h",
-                lastLocation.getLatitude(), lastLocation.getLongitude(),
-                lastLocation.getAltitude(), lastLocation.getSpeed() * 3600 / 1000
-            )
-        );
-    }
-
-    private String formatDuration(long durationInMilliseconds) {
-        int h = (int) (durationInMilliseconds / 3600000);
-        int m = (int) (durationInMilliseconds / 60000) % 60;
-        int s = (int) (durationInMilliseconds / 1000) % 60;
-        return String.format(Locale.US, "%02d:%02d:%02d", h, m, s);
+        // LAT %.2f LON %.2f ALT %.1fm SPD %.1fkm/h
+        char[] out = formatBuffer;
+        int end = FixedPointFormat.append(out, 0, "LAT ");
+        end = FixedPointFormat.formatFixed(out, end, lastLocation.getLatitude(), 2);
+        end = FixedPointFormat.append(out, end, " LON ");
+        end = FixedPointFormat.formatFixed(out, end, lastLocation.getLongitude(), 2);
+        end = FixedPointFormat.append(out, end, " ALT ");
+        end = FixedPointFormat.formatFixed(out, end, lastLocation.getAltitude(), 1);
+        end = FixedPointFormat.append(out, end, "m SPD ");
+        end = FixedPointFormat.formatFixed(out, end, lastLocation.getSpeed() * 3600 / 1000, 1);
+        end = FixedPointFormat.append(out, end, "km/h");
+        setText(binding.content.gps, gpsText, end);
+    }
+
+    /**
+     * Writes %02d:%02d:%02d into formatBuffer.
+     *
+     * @return length written
+     */
+    private int formatDuration(long durationInMilliseconds) {
+        char[] out = formatBuffer;
+        int end = FixedPointFormat.formatInt(out, 0, durationInMilliseconds / 3600000, 2);
+        out[end++] = ':';
+        end = FixedPointFormat.formatInt(out, end, durationInMilliseconds / 60000 % 60, 2);
+        out[end++] = ':';
+        return FixedPointFormat.formatInt(out, end, durationInMilliseconds / 1000 % 60, 2);
+    }
+
+    /**
+     * Writes "%dW 3s %dW NP" into formatBuffer, with "-" for NP during the first 30 s.
+     *
+     * @return length written
+     */
+    private int formatPower(RideState state) {
+        char[] out = formatBuffer;
+        int end = FixedPointFormat.formatInt(out, 0, Math.round(state.power3s), 1);
+        end = FixedPointFormat.append(out, end, "W 3s ");
+        if (Float.isNaN(state.normalizedPower))
+            end = FixedPointFormat.append(out, end, "-");
+        else
+            end = FixedPointFormat.formatInt(out, end, Math.round(state.normalizedPower), 1);
+        return FixedPointFormat.append(out, end, "W NP");
     }
 
     public void onSpeedGraphClick(View view) {
@@ -314,90 +511,49 @@ public class MainActivity
             .show();
     }
 
-    static class DurationCounter {
-        private long currentDurationStartTime = 0;
-        private long lastDuration = 1000;
-
-        private long updateDuration(boolean isRunning) {
-            if (isRunning) {
-                if (currentDurationStartTime == 0) {
-                    currentDurationStartTime = System.nanoTime();
-                }
-                return System.nanoTime() - currentDurationStartTime + lastDuration;
-            } else {
-                if (currentDurationStartTime != 0) {
-                    lastDuration += System.nanoTime() - currentDurationStartTime;
-                    currentDurationStartTime = 0;
-                }
-                return lastDuration;
-            }
-        }
-    }
-
-    private ValueAnimator initBarGraphAnimator(TextView integerView, HorizontalBarGraphView graphView) {
-        ValueAnimator animator = ValueAnimator.ofFloat(0.0f, 0.0f);
-        animator.setDuration(1000);
-        animator.setInterpolator(new LinearInterpolator());
-        animator.addUpdateListener((animation) -> {
-            float value = (Float) animation.getAnimatedValue();
-            integerView.setText(Integer.toString((int) (0 + value)));
-            graphView.setCurrent(value);
-        });
-        animator.start();
-        return animator;
+    /**
+     * @return true while the value is still animating
+     */
+    private boolean updateBarGraph(AnimatedValue value, TextView integerView, CharText integerText, HorizontalBarGraphView graphView, long frameTimeNanos) {
+        if (!value.update(frameTimeNanos) && integerText.length() > 0)
+            return false;
+        setText(integerView, integerText, FixedPointFormat.formatInt(formatBuffer, 0, (int) (0 + value.getValue()), 1));
+        graphView.setCurrent(value.getValue());
+        return value.isRunning();
     }
 
     String lastClockText;
 
-    private ValueAnimator initClockAnimator(TextView clock) {
-        timeFormatter = SimpleDateFormat.getTimeInstance(SimpleDateFormat.SHORT, Locale.US);
-        ValueAnimator animator = ValueAnimator.ofInt(0, 1);
-        animator.setDuration(1000);
-        animator.setInterpolator(new LinearInterpolator());
-        animator.setRepeatCount(ValueAnimator.INFINITE);
-        animator.setRepeatMode(ValueAnimator.RESTART);
-        animator.addUpdateListener((animation) -> {
-            String time = timeFormatter.format(System.currentTimeMillis());
-            if (!TextUtils.equals(time, lastClockText)) {
-                clock.setText(time);
-                lastClockText = time;
-            }
-        });
-        animator.start();
-        return animator;
-    }
-
-    private void setAnimatorValue(ValueAnimator animator, float newValue) {
-        float currentValue = (Float) animator.getAnimatedValue();
-        if (Math.abs(currentValue - newValue) >= 0.01f) {
-            animator.setInterpolator(normalInterpolator);
-            if (currentValue > newValue) {
-                if (currentValue / newValue > 1.2f) {
-                    //currentValue = newValue * 1.2f;
-                    animator.setInterpolator(fastInterpolator);
-                }
-            } else {
-                if (newValue / currentValue > 1.2f) {
-                    //currentValue = newValue / 1.2f;
-                    animator.setInterpolator(fastInterpolator);
-                }
-            }
-            animator.setFloatValues(currentValue, newValue);
-            animator.start();
+    // SHORT time shows minutes at most, so the clock is redrawn at each minute boundary
+    private final Runnable clockTick = () -> {
+        frameScheduler.invalidate(DIRTY_CLOCK);
+        scheduleClockTick();
+    };
+
+    private void scheduleClockTick() {
+        mainHandler.removeCallbacks(clockTick);
+        mainHandler.postDelayed(clockTick, 60_000 - System.currentTimeMillis() % 60_000);
+    }
+
+    private void updateClock() {
+        String time = timeFormatter.format(System.currentTimeMillis());
+        if (!TextUtils.equals(time, lastClockText)) {
+            binding.content.clock.setText(time);
+            lastClockText = time;
         }
     }
 
     private void resetPressure() {
-        basePressure = lastPressure;
+        if (rideService == null)
+            return;
+        rideService.resetBasePressure();
+        rideService.read(rideState);
+        frameScheduler.invalidate(DIRTY_SENSORS);
         Snackbar
-            .make(binding.root, "Pressure Calibrated: " + lastPressure, Snackbar.LENGTH_SHORT)
+            .make(binding.root, "Pressure Calibrated: " + rideState.basePressure, Snackbar.LENGTH_SHORT)
             .show();
     }
 
-    private float calculateSpeed(float wheelRpm) {
-        return (wheelRpm * getCircumference() * 60 / 1000 / 1000);
-    }
-
     public int getCircumference() {
         if (circumference == -1) {
             circumference = PreferenceManager
@@ -412,6 +568,8 @@ public class MainActivity
             circumference = DEFAULT_CIRCUMFERENCE;
 
         this.circumference = circumference;
+        if (rideService != null)
+            rideService.setCircumference(circumference);
         PreferenceManager.getDefaultSharedPreferences(MainActivity.this)
             .edit()
             .putInt(PREF_CIRCUMFERENCE_KEY, circumference)
@@ -420,45 +578,52 @@ public class MainActivity
 
     boolean lastConnectedState;
 
-    @Override
-    public void onConnectionStatusChanged(boolean searching, boolean found, boolean connected, BluetoothDevice device) {
-        runOnUiThread(() -> {
-            binding.content.connectionIndicator1.setImageResource(searching ? R.drawable.indicator : R.drawable.indicator_inactive);
-            binding.content.connectionIndicator2.setImageResource(found ? R.drawable.indicator : R.drawable.indicator_inactive);
-            binding.content.connectionIndicator3.setImageResource(connected ? R.drawable.indicator : R.drawable.indicator_inactive);
-
-            if (!lastConnectedState && connected) {
-                Snackbar
-                    .make(binding.root, "Sensor Connected: " + device.getName(), Snackbar.LENGTH_SHORT)
-                    .show();
-                lastConnectedState = true;
-            } else if (lastConnectedState && !connected) {
-                Snackbar
-                    .make(binding.root, "Sensor Disconnected", Snackbar.LENGTH_SHORT)
-                    .show();
-            }
-        });
+    private void updateConnectionStatusViews(boolean searching, boolean found, boolean connected, BluetoothDevice device) {
+        binding.content.connectionIndicator1.setImageResource(searching ? R.drawable.indicator : R.drawable.indicator_inactive);
+        binding.content.connectionIndicator2.setImageResource(found ? R.drawable.indicator : R.drawable.indicator_inactive);
+        binding.content.connectionIndicator3.setImageResource(connected ? R.drawable.indicator : R.drawable.indicator_inactive);
+
+        if (!lastConnectedState && connected) {
+            Snackbar
+                .make(binding.root, "Sensor Connected: " + (device != null ? device.getName() : ""), Snackbar.LENGTH_SHORT)
+                .show();
+            lastConnectedState = true;
+        } else if (lastConnectedState && !connected) {
+            Snackbar
+                .make(binding.root, "Sensor Disconnected", Snackbar.LENGTH_SHORT)
+                .show();
+        }
     }
 
     @NeedsPermission(Manifest.permission.ACCESS_FINE_LOCATION)
     void startBleScan() {
-        if (!cscManager.connect())
-            cscManager.startScan();
-    }
-
-    void stopBleScan() {
-        if (!cscManager.disconnect())
-            cscManager.stopScan();
+        if (rideService != null)
+            rideService.startBleScan();
     }
 
-    private void setFloatText(String floatString, TextView integer, TextView fraction) {
-        int pointIndex = floatString.indexOf('.');
+    private void setFloatText(float value, TextView integer, CharText integerText, TextView fraction, CharText fractionText) {
+        char[] out = formatBuffer;
+        int end = FixedPointFormat.formatFixed(out, 0, value, 1);
+        int pointIndex = FixedPointFormat.indexOf(out, 0, end, '.');
         if (pointIndex < 0) {
-            floatString = "0.0";
+            // NaN or Infinity
+            out[0] = '0';
+            out[1] = '.';
+            out[2] = '0';
+            end = 3;
             pointIndex = 1;
         }
-        integer.setText(floatString.substring(0, pointIndex));
-        fraction.setText(floatString.substring(pointIndex));
+        setText(integer, integerText, out, 0, pointIndex);
+        setText(fraction, fractionText, out, pointIndex, end - pointIndex);
+    }
+
+    private void setText(TextView view, CharText text, int length) {
+        setText(view, text, formatBuffer, 0, length);
+    }
+
+    private static void setText(TextView view, CharText text, char[] chars, int offset, int length) {
+        if (text.update(chars, offset, length))
+            view.setText(text.chars(), 0, text.length());
     }
 
     private void hideSystemControls() {
@@ -468,52 +633,4 @@ public class MainActivity
                 | View.SYSTEM_UI_FLAG_FULLSCREEN
                 | View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY);
     }
-
-    private static String formatValue(float value) {
-        return String.format(Locale.US, "%.1f", value);
-    }
-
-    private static float calculateAltitude(float lastPressure, float basePressure) {
-        return SensorManager.getAltitude(SensorManager.PRESSURE_STANDARD_ATMOSPHERE, lastPressure) -
-            SensorManager.getAltitude(SensorManager.PRESSURE_STANDARD_ATMOSPHERE, basePressure);
-    }
-
-
-    static class PitchCalculator {
-        static class AscentSet {
-            float altitude;
-            float distance;
-        }
-
-        static final int RESOLUTION = 25; // m
-
-        AscentSet current = new AscentSet();
-        AscentSet last = new AscentSet();
-
-        public PitchCalculator() {
-        }
-
-        public void updateAltitude(float altitude, double distance) {
-            float currentDistance = (float) (distance * 1000); // km -> m
-            if (((int) currentDistance / RESOLUTION) == ((int) current.distance / RESOLUTION)) {
-                current.altitude = current.altitude * 0.9f + altitude * 0.1f;
-            } else {
-                shift();
-                current.altitude = altitude;
-            }
-            current.distance = currentDistance;
-        }
-
-        private void shift() {
-            last.altitude = current.altitude;
-            last.distance = current.distance;
-        }
-
-        public float getPitch() {
-            float distance = current.distance - last.distance;
-            if (distance == 0.0f)
-                return 0.0f;
-            return (current.altitude - last.altitude) / distance;
-        }
-    }
 }
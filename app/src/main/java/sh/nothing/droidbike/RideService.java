@@ -0,0 +1,516 @@
+package sh.nothing.droidbike;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Scheduler;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import sh.nothing.droidbike.ble.CscDispatcher;
+import sh.nothing.droidbike.ble.CscManager;
+import sh.nothing.droidbike.ble.CscSample;
+import sh.nothing.droidbike.ble.CscSampleRing;
+import sh.nothing.droidbike.ble.CscSensorHub;
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.history.HistoryRange;
+import sh.nothing.droidbike.history.HistoryStore;
+import sh.nothing.droidbike.location.LocationManager;
+import sh.nothing.droidbike.record.RidePlayer;
+import sh.nothing.droidbike.record.RideRecorder;
+import sh.nothing.droidbike.record.RideReplay;
+import sh.nothing.droidbike.ride.Lap;
+import sh.nothing.droidbike.ride.RideMetricsEngine;
+import sh.nothing.droidbike.ride.RideState;
+import sh.nothing.droidbike.sensor.SamplingPolicy;
+import sh.nothing.droidbike.sensor.SensorUpdate;
+import sh.nothing.droidbike.sensor.SensorsManager;
+import sh.nothing.droidbike.util.Clock;
+import sh.nothing.droidbike.util.CpuTimeCounters;
+import sh.nothing.droidbike.util.HotStream;
+
+/**
+ * Owns the ride: sensors, metrics and recording keep going in the foreground with the screen
+ * off, and MainActivity only binds to it to show them.
+ * <p>
+ * Nothing runs on the main thread: GATT operations have the "ble" thread, phone sensors and
+ * fixes the "sensors" thread and the metrics the "metrics" thread. The CPU is only kept awake
+ * while the bike moves, by a partial wake lock leased for WAKE_LOCK_TIMEOUT_MILLIS and renewed
+ * by the updates, so a lost sensor or a forgotten ride cannot hold it for longer than that.
+ */
+
+public class RideService extends Service {
+    private static final String TAG = "RideService";
+
+    static final String ACTION_STOP = "sh.nothing.droidbike.action.STOP_RIDE";
+    private static final int NOTIFICATION_ID = 1;
+
+    // updates come every second while moving, the lease only has to outlive a few missing ones
+    private static final long WAKE_LOCK_TIMEOUT_MILLIS = 60_000;
+    // each acquire is a call into the system server, so the lease is not renewed on every update
+    private static final long WAKE_LOCK_RENEW_INTERVAL = 10_000_000_000L;
+
+    // a few seconds of updates of each kind; more would only mean the metrics thread is stuck.
+    // A power of two, it also sizes the CSC ring
+    private static final int METRICS_BUFFER = 512;
+
+    // what changed, passed to the viewer
+    static final int CHANGED_CSC = 1;
+    static final int CHANGED_SENSORS = 1 << 1;
+    static final int CHANGED_LOCATION = 1 << 2;
+
+    interface Viewer {
+        /**
+         * Called on the metrics thread once an update was taken into the ride state.
+         */
+        void onRideChanged(int changes);
+    }
+
+    public class LocalBinder extends Binder {
+        RideService getService() {
+            return RideService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+
+    private HandlerThread bleThread;
+    private HandlerThread sensorsThread;
+    private HandlerThread metricsThread;
+    private Handler metricsHandler;
+    private Scheduler metricsScheduler;
+
+    // ride metrics are computed on the metrics thread from every update; viewers only read the
+    // state. Created by startRide, on the replay's clock when replaying
+    private RideMetricsEngine rideMetrics;
+    private volatile Clock rideClock;
+    // fixed-size min/max/mean history of the whole ride, fed with the metrics; the viewer
+    // fills its graph from it when it attaches
+    private final HistoryStore history = new HistoryStore();
+    private final CompositeDisposable subscriptions = new CompositeDisposable();
+    // CSC notifications reach the metrics thread through a preallocated ring rather than an
+    // update object each; the metrics thread drains it once per burst
+    private final CscSampleRing cscSamples = new CscSampleRing(METRICS_BUFFER);
+    private final CscSample cscSample = new CscSample();
+    private final AtomicBoolean cscDrainPending = new AtomicBoolean();
+    private final Runnable drainCscSamples = this::drainCscSamples;
+    private final CscSensorHub.Listener cscSampleWriter = this::onCscSample;
+    private CscDispatcher cscListeners;
+    private volatile Viewer viewer;
+
+    private CscManager cscManager;
+    private SensorsManager sensorsManager;
+    private LocationManager locationManager;
+    private volatile RideRecorder recorder;
+    private volatile File recordingFile;
+    private RideReplay replay;
+    private HotStream<Location> locations;
+
+    private boolean started;
+    private boolean locationStarted;
+    private boolean bleStarted;
+
+    private PowerManager.WakeLock wakeLock;
+    private long lastWakeLockRenewal;
+    private final CpuTimeCounters cpuCounters = new CpuTimeCounters();
+
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            boolean screenOn = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+            cpuCounters.onScreen(screenOn, System.nanoTime(), cpuTime());
+            if (screenOn)
+                logCounters();
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        bleThread = startThread("ble", Process.THREAD_PRIORITY_DEFAULT);
+        sensorsThread = startThread("sensors", Process.THREAD_PRIORITY_DEFAULT);
+        metricsThread = startThread("metrics", Process.THREAD_PRIORITY_BACKGROUND);
+        metricsHandler = new Handler(metricsThread.getLooper());
+        metricsScheduler = AndroidSchedulers.from(metricsThread.getLooper());
+
+        cscManager = new CscManager(this, bleThread.getLooper());
+        sensorsManager = new SensorsManager(this, new Handler(sensorsThread.getLooper()));
+        locationManager = new LocationManager(this, sensorsThread.getLooper());
+        // the sampling policy reacts to the first wheel turn right on the Binder thread; it is quick
+        cscManager.getListeners().add((role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime) ->
+            sensorsManager.onWheelRpm(wheelRpm));
+
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "DroidBike:ride");
+        // one lease at a time; a renewal replaces the timeout of the previous acquire
+        wakeLock.setReferenceCounted(false);
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(screenReceiver, filter);
+        cpuCounters.start(powerManager.isInteractive(), System.nanoTime(), cpuTime());
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            stopRide();
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        if (!started) {
+            startRide(intent);
+            startForeground(NOTIFICATION_ID, buildNotification());
+        }
+        // the sensors need the permissions MainActivity asks for, so the ride is not restarted
+        // without it
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        stopRide();
+        unregisterReceiver(screenReceiver);
+        logCounters();
+        bleThread.quitSafely();
+        sensorsThread.quitSafely();
+        metricsThread.quitSafely();
+    }
+
+    private static HandlerThread startThread(String name, int priority) {
+        HandlerThread thread = new HandlerThread(name, priority);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @return ns of CPU used by the process, which is this service alone while nothing is shown
+     */
+    private static long cpuTime() {
+        return Process.getElapsedCpuTime() * 1_000_000L;
+    }
+
+    private void startRide(Intent intent) {
+        started = true;
+        int circumference = PreferenceManager
+            .getDefaultSharedPreferences(this)
+            .getInt(MainActivity.PREF_CIRCUMFERENCE_KEY, RideMetricsEngine.DEFAULT_CIRCUMFERENCE);
+        String replayPath = intent != null ? intent.getStringExtra(MainActivity.EXTRA_REPLAY) : null;
+        if (replayPath != null) {
+            replay = new RideReplay(new File(replayPath), metricsHandler);
+            String pace = intent.getStringExtra(MainActivity.EXTRA_REPLAY_PACE);
+            if (pace != null)
+                replay.setPace(RidePlayer.Pace.valueOf(pace));
+            // metrics follow the recorded times, so every pace gives the same ride
+            rideClock = replay.getPlayer().getRideClock();
+            rideMetrics = new RideMetricsEngine(rideClock);
+            rideMetrics.setCircumference(circumference);
+            subscribe(replay.getCscListeners(), replay.getSensorUpdates(), replay.getLocations());
+            replay.start();
+            return;
+        }
+        rideClock = Clock.SYSTEM;
+        rideMetrics = new RideMetricsEngine(rideClock);
+        rideMetrics.setCircumference(circumference);
+        subscribe(cscManager.getListeners(), sensorsManager.getUpdates(), locationManager.getLocations());
+        startRecording();
+        sensorsManager.start();
+    }
+
+    private void stopRide() {
+        if (!started)
+            return;
+        started = false;
+        subscriptions.clear();
+        cscListeners.remove(cscSampleWriter);
+        Log.d(TAG, "CSC samples: " + cscSamples.getWrittenCount() + " written, " + cscSamples.getDroppedCount() + " dropped");
+        if (replay != null) {
+            replay.stop();
+        } else {
+            sensorsManager.stop();
+            Log.d(TAG, sensorsManager.getCounters().toString(sensorsManager.getSamplingPolicy(), System.nanoTime()));
+            if (locationStarted)
+                locationManager.stop();
+            if (bleStarted && !cscManager.disconnect())
+                cscManager.stopScan();
+            stopRecording();
+        }
+        locationStarted = false;
+        bleStarted = false;
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+            cpuCounters.onWakeLockReleased(System.nanoTime(), cpuTime());
+        }
+        stopForeground(true);
+    }
+
+    /**
+     * Called by the viewer once it has the location permission.
+     */
+    void startLocation() {
+        if (!started || replay != null || locationStarted)
+            return;
+        locationStarted = true;
+        locationManager.start();
+    }
+
+    /**
+     * Called by the viewer once it has the location permission, which BLE scans need.
+     */
+    void startBleScan() {
+        if (!started || replay != null || bleStarted)
+            return;
+        bleStarted = true;
+        if (!cscManager.connect())
+            cscManager.startScan();
+    }
+
+    private Notification buildNotification() {
+        PendingIntent content = PendingIntent.getActivity(this, 0,
+            new Intent(this, MainActivity.class).addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP), 0);
+        PendingIntent stop = PendingIntent.getService(this, 0,
+            new Intent(this, RideService.class).setAction(ACTION_STOP), 0);
+        return new Notification.Builder(this)
+            .setSmallIcon(R.mipmap.ic_launcher)
+            .setContentTitle(getString(R.string.app_name))
+            .setContentText(getString(R.string.ride_notification_text))
+            .setContentIntent(content)
+            .setOngoing(true)
+            .addAction(new Notification.Action.Builder(
+                android.R.drawable.ic_menu_close_clear_cancel, getString(R.string.ride_notification_stop), stop).build())
+            .build();
+    }
+
+    private void subscribe(CscDispatcher cscListeners, HotStream<SensorUpdate> sensorUpdates, HotStream<Location> locations) {
+        this.cscListeners = cscListeners;
+        this.locations = locations;
+        // metrics need every update, and are kept off the Binder and sensor threads
+        cscListeners.add(cscSampleWriter);
+        subscriptions.add(sensorUpdates.buffered(metricsScheduler, METRICS_BUFFER).subscribe(this::onSensorUpdate));
+        subscriptions.add(locations.buffered(metricsScheduler, METRICS_BUFFER).subscribe(this::onLocationUpdate));
+    }
+
+    private void startRecording() {
+        File dir = new File(getFilesDir(), "rides");
+        String name = new SimpleDateFormat("'ride-'yyyyMMdd-HHmmss'.bin'", Locale.US).format(System.currentTimeMillis());
+        RideRecorder recorder;
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Cannot create " + dir);
+            recordingFile = new File(dir, name);
+            recorder = new RideRecorder(recordingFile, Clock.SYSTEM);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start recording", e);
+            return;
+        }
+        recorder.start();
+        cscManager.setRecorder(recorder);
+        sensorsManager.setRecorder(recorder);
+        locationManager.setRecorder(recorder);
+        this.recorder = recorder;
+    }
+
+    private void stopRecording() {
+        RideRecorder recorder = this.recorder;
+        if (recorder == null)
+            return;
+        this.recorder = null;
+        cscManager.setRecorder(null);
+        sensorsManager.setRecorder(null);
+        locationManager.setRecorder(null);
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to finish recording", e);
+        }
+        Log.d(TAG, "Recorded " + recorder.getWrittenCount() + " samples, dropped " + recorder.getDroppedCount());
+    }
+
+    // CscManager calls its listeners under the hub lock and the replay from its one thread, so
+    // the ring has a single writer at a time
+    private void onCscSample(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+        cscSamples.write(realTime, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm);
+        // Handler messages are pooled, so waking the metrics thread does not allocate either
+        if (cscDrainPending.compareAndSet(false, true))
+            metricsHandler.post(drainCscSamples);
+    }
+
+    /**
+     * Takes every sample the ring still has into the metrics. Metrics thread only.
+     */
+    private void drainCscSamples() {
+        cscDrainPending.set(false);
+        int count = 0;
+        while (count < cscSamples.capacity() && cscSamples.poll(cscSample)) {
+            onCscUpdate(cscSample);
+            count++;
+        }
+        if (count == 0)
+            return;
+        // a writer faster than this keeps the rest for the next message, after the other updates
+        if (count == cscSamples.capacity() && cscDrainPending.compareAndSet(false, true))
+            metricsHandler.post(drainCscSamples);
+        updateWakeLock(System.nanoTime());
+        notifyViewer(CHANGED_CSC);
+    }
+
+    private void onCscUpdate(CscSample sample) {
+        long now = sample.realTime;
+        rideMetrics.onCsc(now, sample.wheelRevolutions, sample.wheelRpm, sample.crankRevolutions, sample.crankRpm);
+        history.add(HistoryStore.SPEED, now, RideMetricsEngine.speed(sample.wheelRpm, rideMetrics.getCircumference()));
+        history.add(HistoryStore.CADENCE, now, sample.crankRpm);
+    }
+
+    private void onSensorUpdate(SensorUpdate update) {
+        long now = update.realTime;
+        rideMetrics.onPressure(now, update.pressure);
+        rideMetrics.onPitch(now, update.pitch);
+        history.add(HistoryStore.PRESSURE, now, update.pressure);
+        updateWakeLock(System.nanoTime());
+        notifyViewer(CHANGED_SENSORS);
+    }
+
+    private void onLocationUpdate(Location location) {
+        // live fixes carry elapsed realtime, which is not on the System.nanoTime() clock of the
+        // other updates
+        long now = replay != null ? location.getElapsedRealtimeNanos() : System.nanoTime();
+        rideMetrics.onLocation(now, location.getLatitude(), location.getLongitude(), location.getAltitude(), location.getSpeed());
+        if (location.hasAltitude())
+            history.add(HistoryStore.GPS_ALTITUDE, now, (float) location.getAltitude());
+        if (location.hasSpeed())
+            history.add(HistoryStore.GPS_SPEED, now, location.getSpeed() * 3.6f);
+    }
+
+    /**
+     * Leases the wake lock while the sampling policy says the bike moves and lets it go once
+     * it stopped; a stopped bike sends nothing worth waking up for, and the first wheel turn
+     * arrives as a BLE notification, which wakes the CPU by itself. Metrics thread only.
+     */
+    private void updateWakeLock(long now) {
+        if (sensorsManager.getSamplingPolicy().getMode() != SamplingPolicy.Mode.MOVING) {
+            if (wakeLock.isHeld()) {
+                wakeLock.release();
+                cpuCounters.onWakeLockReleased(now, cpuTime());
+            }
+            return;
+        }
+        if (wakeLock.isHeld() && now - lastWakeLockRenewal < WAKE_LOCK_RENEW_INTERVAL)
+            return;
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MILLIS);
+        lastWakeLockRenewal = now;
+        cpuCounters.onWakeLockAcquired(now, cpuTime(), WAKE_LOCK_TIMEOUT_MILLIS * 1_000_000L);
+    }
+
+    private void notifyViewer(int changes) {
+        Viewer viewer = this.viewer;
+        if (viewer != null)
+            viewer.onRideChanged(changes);
+    }
+
+    /**
+     * @param viewer null when detached
+     */
+    void setViewer(Viewer viewer) {
+        this.viewer = viewer;
+    }
+
+    void logCounters() {
+        Log.d(TAG, cpuCounters.toString(System.nanoTime(), cpuTime()));
+        Log.d(TAG, "GATT " + cscManager.getOperations()
+            + ", first notification " + cscManager.getFirstNotificationLatency()
+            + ", reconnect " + cscManager.getReconnectLatency());
+    }
+
+    /**
+     * Fills out with channel over the last window of the ride, in HistoryStore units.
+     *
+     * @return false before the ride started
+     */
+    public boolean queryHistory(int channel, long window, HistoryRange out) {
+        Clock clock = rideClock;
+        if (clock == null)
+            return false;
+        long now = clock.nanoTime();
+        history.query(channel, now - window, now, out);
+        return true;
+    }
+
+    public void read(RideState out) {
+        rideMetrics.read(out);
+    }
+
+    public void lap() {
+        rideMetrics.lap();
+    }
+
+    public void readLap(int index, Lap out) {
+        rideMetrics.readLap(index, out);
+    }
+
+    public void resetBasePressure() {
+        rideMetrics.resetBasePressure();
+    }
+
+    public void setCircumference(int circumference) {
+        rideMetrics.setCircumference(circumference);
+    }
+
+    public CscManager getCscManager() {
+        return cscManager;
+    }
+
+    public SensorsManager getSensorsManager() {
+        return sensorsManager;
+    }
+
+    public LocationManager getLocationManager() {
+        return locationManager;
+    }
+
+    /**
+     * Fixes of the ride, recorded or replayed; null before it started.
+     */
+    public HotStream<Location> getLocations() {
+        return locations;
+    }
+
+    public CpuTimeCounters getCpuCounters() {
+        return cpuCounters;
+    }
+
+    /**
+     * @return null unless recording
+     */
+    public RideRecorder getRecorder() {
+        return recorder;
+    }
+
+    public File getRecordingFile() {
+        return recordingFile;
+    }
+}
@@ -15,13 +15,28 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import sh.nothing.droidbike.ble.GattOperationQueue.Step;
+import sh.nothing.droidbike.record.RideRecorder;
+import sh.nothing.droidbike.util.HotStream;
+import sh.nothing.droidbike.util.LatencyHistogram;
 
 /**
  * Created by tnj on 2/19/17.
@@ -33,43 +48,78 @@ public class CscManager {
 
     private static final UUID SERVICE_UUID = UUID.fromString("00001816-0000-1000-8000-00805f9b34fb");
     private static final UUID CHARACTERISTIC_UUID = UUID.fromString("00002A5B-0000-1000-8000-00805f9b34fb");
+    private static final UUID FEATURE_CHARACTERISTIC_UUID = UUID.fromString("00002A5C-0000-1000-8000-00805f9b34fb");
     private static final UUID CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
-    private static final byte WHEEL_REVOLUTIONS_DATA_PRESENT = 0x01; // 1 bit
-    private static final byte CRANK_REVOLUTION_DATA_PRESENT = 0x02; // 1 bit
+    public static final int STATUS_SEARCHING = 0x01;
+    public static final int STATUS_FOUND = 0x02;
+    public static final int STATUS_CONNECTED = 0x04;
+
+    // a separate speed and cadence sensor plus a spare combo one
+    private static final int MAX_SENSORS = 3;
+    // keep scanning this long after the first sensor was found, to pick up the others
+    private static final long SCAN_WINDOW_MS = 10_000;
+
+    static final String PREF_SENSOR_ADDRESSES_KEY = "csc_sensor_addresses";
 
     private Context context;
+    private BluetoothAdapter bluetoothAdapter;
     private BluetoothLeScanner bluetoothLeScanner;
-    private BluetoothDevice device;
+    private SharedPreferences preferences;
+    private final Handler handler;
+    private final Scheduler scheduler;
+
+    private final List<SensorConnection> connections = new CopyOnWriteArrayList<>();
+    private final GattOperationQueue operations;
+    private final LatencyHistogram firstNotificationLatency = new LatencyHistogram();
+    private final LatencyHistogram reconnectLatency = new LatencyHistogram();
+    private final CscDispatcher listeners = new CscDispatcher();
+    private final CscSensorHub hub = new CscSensorHub(listeners);
+    // recorded source id per sensor address, kept while connections come and go
+    private final Map<String, Integer> sourceIds = new HashMap<>();
 
     private ScanCallback callback = new ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
             super.onScanResult(callbackType, result);
 
-            if (device == null) {
-                Log.v("BLEScan", result.toString());
-                initWithDevice(result.getDevice());
-                bluetoothLeScanner.stopScan(this);
-                setScanning(false);
+            BluetoothDevice device = result.getDevice();
+            SensorConnection existing = findConnection(device.getAddress());
+            if (existing != null) {
+                if (existing.reconnector.isActive())
+                    existing.connect();
+                return;
             }
+            if (connections.size() >= MAX_SENSORS)
+                return;
+
+            Log.v("BLEScan", result.toString());
+            if (connections.isEmpty())
+                handler.postDelayed(stopScanRunnable, SCAN_WINDOW_MS);
+            initWithDevice(device);
+            if (connections.size() >= MAX_SENSORS)
+                stopScan();
         }
     };
-    private BluetoothGatt gatt;
-    private BluetoothGattCharacteristic characteristic;
-
-    private CscRevolutionsCounter wheel = new CscRevolutionsCounter();
-    private CscRevolutionsCounter crank = new CscRevolutionsCounter();
+    private final Runnable stopScanRunnable = this::stopScan;
 
     private boolean scanning;
-    private boolean connected;
-    private boolean found;
+    private volatile int connectionStatus;
 
-    public CscManager(Context context) {
+    /**
+     * @param looper runs the GATT operation queue, reconnects and the scan window
+     */
+    public CscManager(Context context, Looper looper) {
         this.context = context;
+        handler = new Handler(looper);
+        scheduler = new HandlerScheduler(handler);
+        operations = new GattOperationQueue(scheduler);
         BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
-        BluetoothAdapter bluetoothAdapter = bluetoothManager.getAdapter();
+        bluetoothAdapter = bluetoothManager.getAdapter();
         bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
+        preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        operations.setListener(this::onOperationFailed);
+        listeners.add(this::onHubUpdate);
     }
 
     public boolean supported() {
@@ -77,10 +127,8 @@ public class CscManager {
     }
 
     public void startScan() {
-        if (device != null) {
-            initWithDevice(device);
+        if (scanning)
             return;
-        }
 
         ScanSettings settings = new ScanSettings.Builder()
             .setScanMode(ScanSettings.SCAN_MODE_BALANCED)
@@ -97,74 +145,359 @@ public class CscManager {
     }
 
     public void stopScan() {
+        handler.removeCallbacks(stopScanRunnable);
         bluetoothLeScanner.stopScan(callback);
         setScanning(false);
     }
 
+    /**
+     * Reconnects the sensors of the previous session, or the ones remembered from earlier runs,
+     * without a full scan.
+     *
+     * @return false if there were none
+     */
     public boolean connect() {
-        if (device != null) {
-            initWithDevice(device);
-            return true;
-        }
-        return false;
+        if (connections.isEmpty())
+            restoreConnections();
+        if (connections.isEmpty())
+            return false;
+
+        for (SensorConnection connection : connections)
+            connection.reconnect();
+        return true;
     }
 
     public boolean disconnect() {
-        if (gatt != null) {
-            gatt.close();
-            gatt = null;
-            return true;
+        boolean disconnected = false;
+        for (SensorConnection connection : connections) {
+            connection.reconnector.cancel();
+            connection.cancelAttempt();
+            disconnected |= connection.close();
+            connection.detachSensor();
         }
-        return false;
+        operations.clear();
+        emitConnectionStatus();
+        return disconnected;
     }
 
     private void initWithDevice(BluetoothDevice device) {
-        this.device = device;
-        gatt = device.connectGatt(context, false, new GattCallback());
-        setFound(true);
+        SensorConnection connection = new SensorConnection(device);
+        connections.add(connection);
+        connection.connect();
     }
 
-    private CscManagerCallback cscCallback;
+    private void restoreConnections() {
+        for (String address : preferences.getStringSet(PREF_SENSOR_ADDRESSES_KEY, Collections.<String>emptySet())) {
+            if (BluetoothAdapter.checkBluetoothAddress(address) && connections.size() < MAX_SENSORS)
+                connections.add(new SensorConnection(bluetoothAdapter.getRemoteDevice(address)));
+        }
+    }
+
+    private synchronized int sourceId(String address) {
+        Integer id = sourceIds.get(address);
+        if (id == null) {
+            // the log stores a byte; 256 different sensors in one ride would be a first
+            id = sourceIds.size() & 0xff;
+            sourceIds.put(address, id);
+        }
+        return id;
+    }
+
+    private synchronized void rememberAddress(String address, boolean remember) {
+        Set<String> addresses = new HashSet<>(preferences.getStringSet(PREF_SENSOR_ADDRESSES_KEY, Collections.<String>emptySet()));
+        if (remember ? addresses.add(address) : addresses.remove(address))
+            preferences.edit().putStringSet(PREF_SENSOR_ADDRESSES_KEY, addresses).apply();
+    }
+
+    private SensorConnection findConnection(String address) {
+        for (SensorConnection connection : connections) {
+            if (connection.device.getAddress().equals(address))
+                return connection;
+        }
+        return null;
+    }
+
+    private final HotStream<CscUpdate> updates = new HotStream<>();
+    private final HotStream<Integer> connectionStatusUpdates = new HotStream<>();
+    private volatile RideRecorder recorder;
+
+    /**
+     * Merged state of all sensors on every notification, without an update object per listener.
+     * Listeners without an Executor run on the Binder thread under the hub lock.
+     */
+    public CscDispatcher getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Merged state of all sensors, emitted on the Binder thread of each notification.
+     */
+    public HotStream<CscUpdate> getUpdates() {
+        return updates;
+    }
 
-    public void registerCallback(CscManagerCallback callback) {
-        cscCallback = callback;
+    /**
+     * STATUS_* bits whenever a connection changes, emitted on the main, the looper's or a Binder thread.
+     */
+    public HotStream<Integer> getConnectionStatusUpdates() {
+        return connectionStatusUpdates;
+    }
+
+    /**
+     * Every decoded measurement is appended to recorder; null stops recording.
+     */
+    public void setRecorder(RideRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @return STATUS_* bits of the latest connection state
+     */
+    public int getConnectionStatus() {
+        return connectionStatus;
+    }
+
+    /**
+     * @return the first connected sensor, or null
+     */
+    public BluetoothDevice getDevice() {
+        for (SensorConnection connection : connections) {
+            if (connection.connected)
+                return connection.device;
+        }
+        return null;
+    }
+
+    /**
+     * Per-sensor roles and notification stats.
+     */
+    public CscSensorHub getSensorHub() {
+        return hub;
+    }
+
+    /**
+     * Per-step GATT latencies, retries and timeouts.
+     */
+    public GattOperationQueue getOperations() {
+        return operations;
+    }
+
+    /**
+     * Time from starting a connection until its first CSC notification.
+     */
+    public LatencyHistogram getFirstNotificationLatency() {
+        return firstNotificationLatency;
+    }
+
+    /**
+     * Time from losing a sensor until it was connected again.
+     */
+    public LatencyHistogram getReconnectLatency() {
+        return reconnectLatency;
     }
 
     void setScanning(boolean scanning) {
         this.scanning = scanning;
-        doConnectionStatusCallback();
+        emitConnectionStatus();
     }
 
-    void setConnected(boolean connected) {
-        this.connected = connected;
-        doConnectionStatusCallback();
+    private void emitConnectionStatus() {
+        boolean searching = scanning;
+        boolean found = false;
+        boolean connected = false;
+        for (SensorConnection connection : connections) {
+            searching |= connection.reconnector.isActive();
+            connected |= connection.connected;
+            found |= connection.gatt != null && !connection.connected && !connection.autoConnecting;
+        }
+        connectionStatus = (searching ? STATUS_SEARCHING : 0)
+            | (found ? STATUS_FOUND : 0)
+            | (connected ? STATUS_CONNECTED : 0);
+        connectionStatusUpdates.emit(connectionStatus);
     }
 
-    void setFound(boolean found) {
-        this.found = found;
-        doConnectionStatusCallback();
+    // first listener, called under the hub lock
+    private void onHubUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+        if (updates.hasSubscribers())
+            updates.emit(new CscUpdate(realTime, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm));
     }
 
-    private void doConnectionStatusCallback() {
-        if (cscCallback != null)
-            cscCallback.onConnectionStatusChanged(scanning, found, connected, device);
+    private void onOperationFailed(Object owner, Step step) {
+        SensorConnection connection = (SensorConnection) owner;
+        Log.w(TAG, "Giving up " + step + " on " + connection.device.getAddress());
+        // the role falls back to the measurement flags, anything else leaves the sensor unusable
+        if (step != Step.READ_CHARACTERISTIC)
+            connection.lost();
     }
 
-    class GattCallback extends BluetoothGattCallback {
+    class SensorConnection extends BluetoothGattCallback implements Reconnector.Target {
+        final BluetoothDevice device;
+        final int source;
+        final Reconnector reconnector;
+        volatile CscSensor sensor;
+        volatile BluetoothGatt gatt;
+        volatile boolean connected;
+        volatile boolean autoConnecting;
+        boolean reconnectScanning;
+        long connectStartedAt;
+        boolean notified;
+
+        private final ScanCallback reconnectScanCallback = new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult result) {
+                super.onScanResult(callbackType, result);
+                stopReconnectScan();
+                connect();
+            }
+        };
+
+        SensorConnection(BluetoothDevice device) {
+            this.device = device;
+            this.source = sourceId(device.getAddress());
+            this.reconnector = new Reconnector(scheduler, new BackoffReconnectStrategy(), this);
+        }
+
+        void connect() {
+            if (connected)
+                return;
+            // a scan found the sensor before the pending direct connect did
+            if (autoConnecting)
+                closeGatt();
+            if (gatt != null)
+                return;
+
+            connectStartedAt = System.nanoTime();
+            notified = false;
+            operations.enqueue(this, Step.CONNECT, () -> {
+                // a retry replaces the client of the attempt that timed out
+                if (gatt != null)
+                    gatt.close();
+                gatt = device.connectGatt(context, false, this);
+                emitConnectionStatus();
+                return gatt != null;
+            });
+        }
+
+        void reconnect() {
+            if (!connected && gatt == null)
+                reconnector.start();
+            emitConnectionStatus();
+        }
+
+        boolean close() {
+            operations.cancel(this);
+            connected = false;
+            return closeGatt();
+        }
+
+        private boolean closeGatt() {
+            autoConnecting = false;
+            BluetoothGatt gatt = this.gatt;
+            if (gatt == null)
+                return false;
+            gatt.close();
+            this.gatt = null;
+            return true;
+        }
+
+        void detachSensor() {
+            CscSensor sensor = this.sensor;
+            if (sensor != null) {
+                hub.removeSensor(sensor);
+                this.sensor = null;
+            }
+        }
+
+        void lost() {
+            close();
+            detachSensor();
+            reconnector.start();
+            emitConnectionStatus();
+        }
+
+        @Override
+        public void connectDirect() {
+            if (gatt != null)
+                return;
+            Log.v(TAG, "connectDirect " + device.getAddress());
+            connectStartedAt = System.nanoTime();
+            notified = false;
+            autoConnecting = true;
+            // the controller connects as soon as the sensor advertises again; no GATT
+            // operation is outstanding meanwhile, so this stays out of the queue
+            gatt = device.connectGatt(context, true, this);
+            emitConnectionStatus();
+        }
+
+        @Override
+        public void startFilteredScan() {
+            Log.v(TAG, "startFilteredScan " + device.getAddress());
+            ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
+                .build();
+
+            List<ScanFilter> filters = new ArrayList<>();
+            filters.add(new ScanFilter.Builder()
+                .setDeviceAddress(device.getAddress())
+                .build());
+
+            bluetoothLeScanner.startScan(filters, settings, reconnectScanCallback);
+            reconnectScanning = true;
+        }
+
+        @Override
+        public void cancelAttempt() {
+            stopReconnectScan();
+            if (autoConnecting && !connected)
+                closeGatt();
+        }
+
+        @Override
+        public void onGaveUp() {
+            Log.w(TAG, "Giving up reconnecting " + device.getAddress());
+            close();
+            detachSensor();
+            connections.remove(this);
+            rememberAddress(device.getAddress(), false);
+            emitConnectionStatus();
+            CscManager.this.startScan();
+        }
+
+        private void stopReconnectScan() {
+            if (reconnectScanning) {
+                bluetoothLeScanner.stopScan(reconnectScanCallback);
+                reconnectScanning = false;
+            }
+        }
+
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
             switch (newState) {
                 case BluetoothProfile.STATE_CONNECTED:
-                    Log.v("GattCallback", "STATE_CONNECTED");
-                    gatt.discoverServices();
-                    setConnected(true);
-                    setFound(false);
+                    Log.v("GattCallback", "STATE_CONNECTED " + device.getAddress());
+                    connected = true;
+                    autoConnecting = false;
+                    if (reconnector.onConnected()) {
+                        reconnectLatency.record(reconnector.getLastTimeToReconnectNanos());
+                        Log.i(TAG, "Reconnected " + device.getAddress()
+                            + " in " + reconnector.getLastTimeToReconnectNanos() / 1_000_000 + "ms"
+                            + " after " + reconnector.getLastAttempts() + " attempts");
+                    }
+                    if (sensor == null)
+                        sensor = hub.addSensor(device.getAddress());
+                    rememberAddress(device.getAddress(), true);
+                    operations.enqueue(this, Step.DISCOVER_SERVICES, gatt::discoverServices);
+                    operations.complete(this, Step.CONNECT, true);
+                    emitConnectionStatus();
                     break;
                 case BluetoothProfile.STATE_DISCONNECTED:
-                    Log.e("GattCallback", "STATE_DISCONNECTED");
-                    setConnected(false);
-                    device = null;
-                    startScan();
+                    Log.e("GattCallback", "STATE_DISCONNECTED " + device.getAddress() + " status=" + status);
+                    connected = false;
+                    // a failed connection attempt is retried by the queue
+                    if (!operations.complete(this, Step.CONNECT, false))
+                        lost();
+                    else
+                        emitConnectionStatus();
                     break;
                 default:
                     Log.e("GattCallback", "newState=" + newState);
@@ -176,106 +509,79 @@ public class CscManager {
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
             super.onServicesDiscovered(gatt, status);
 
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                operations.complete(this, Step.DISCOVER_SERVICES, false);
+                return;
+            }
+
             BluetoothGattService service = gatt.getService(SERVICE_UUID);
             if (service != null) {
-                characteristic = service.getCharacteristic(CHARACTERISTIC_UUID);
-
-                gatt.setCharacteristicNotification(characteristic, true);
-                final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID);
-                if (descriptor != null) {
-                    descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                    gatt.writeDescriptor(descriptor);
+                // enable notifications first; the role can wait for the feature read
+                final BluetoothGattCharacteristic characteristic = service.getCharacteristic(CHARACTERISTIC_UUID);
+                if (characteristic != null) {
+                    gatt.setCharacteristicNotification(characteristic, true);
+                    final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID);
+                    if (descriptor != null) {
+                        operations.enqueue(this, Step.WRITE_DESCRIPTOR, () -> {
+                            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                            return gatt.writeDescriptor(descriptor);
+                        });
+                    }
                 }
+
+                final BluetoothGattCharacteristic feature = service.getCharacteristic(FEATURE_CHARACTERISTIC_UUID);
+                if (feature != null)
+                    operations.enqueue(this, Step.READ_CHARACTERISTIC, () -> gatt.readCharacteristic(feature));
+            }
+            operations.complete(this, Step.DISCOVER_SERVICES, true);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicRead(gatt, characteristic, status);
+
+            boolean success = status == BluetoothGatt.GATT_SUCCESS;
+            CscSensor sensor = this.sensor;
+            if (success && sensor != null && FEATURE_CHARACTERISTIC_UUID.equals(characteristic.getUuid())) {
+                Integer features = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, 0);
+                if (features != null)
+                    hub.onFeatures(sensor, features);
+                Log.v("GattCallback", device.getAddress() + " role=" + sensor.getRole());
             }
+            operations.complete(this, Step.READ_CHARACTERISTIC, success);
         }
 
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            super.onDescriptorWrite(gatt, descriptor, status);
+            operations.complete(this, Step.WRITE_DESCRIPTOR, status == BluetoothGatt.GATT_SUCCESS);
+        }
 
         // Heavily borrowed from https://github.com/NordicSemiconductor/Android-nRF-Toolbox/blob/0b2e3aba170e784ccb1d4ff7eed3212a7f6a084b/app/src/main/java/no/nordicsemi/android/nrftoolbox/csc/CSCManager.java
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
             super.onCharacteristicChanged(gatt, characteristic);
 
-            // Decode the new data
-            int offset = 0;
-            final byte flags = characteristic.getValue()[offset]; // 1 byte
-            offset += 1;
-
-            final boolean wheelRevPresent = (flags & WHEEL_REVOLUTIONS_DATA_PRESENT) > 0;
-            final boolean crankRevPreset = (flags & CRANK_REVOLUTION_DATA_PRESENT) > 0;
+            CscSensor sensor = this.sensor;
+            if (sensor == null)
+                return;
 
             long realTime = System.nanoTime();
-
-            if (wheelRevPresent) {
-                final int wheelRevolutions = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
-                offset += 4;
-
-                final int wheelEventTime = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, offset); // 1/1024 s
-                offset += 2;
-
-                wheel.setRevolutionEvent(wheelRevolutions, wheelEventTime, realTime);
+            if (!notified) {
+                notified = true;
+                firstNotificationLatency.record(realTime - connectStartedAt);
             }
 
-            if (crankRevPreset) {
-                final int crankRevolutions = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, offset);
-                offset += 2;
-
-                final int crankEventTime = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, offset);
-                offset += 2;
-
-                crank.setRevolutionEvent(crankRevolutions, crankEventTime, realTime);
-            }
-
-            if (cscCallback != null)
-                cscCallback.onUpdate(wheel.lastRevolutions, wheel.lastRpm, crank.lastRevolutions, crank.lastRpm);
-        }
-    }
-
-    static class CscRevolutionsCounter {
-        int lastRevolutions;
-        int lastEventTime;
-        float lastRpm;
-        long lastEventRealTime;
-
-        void setRevolutionEvent(int revolutions, int eventTime, long realTime) {
-            if (revolutions < lastRevolutions) {
-                Log.d(TAG, "Ignoring reverse revolution event: " + lastRevolutions + " -> " + revolutions);
+            // Decoded in place; getIntValue() would box every field
+            if (!hub.onMeasurement(sensor, characteristic.getValue(), realTime)) {
+                Log.w(TAG, "Ignoring malformed CSC measurement from " + device.getAddress());
                 return;
             }
-            lastRpm = calcurateRpm(revolutions, eventTime, realTime);
-            lastRevolutions = revolutions;
-            lastEventTime = eventTime;
-        }
-
-        private float calcurateRpm(int revolutions, int eventTime, long realTime) {
-            float rpm = 0.0f;
-            if (lastRevolutions == revolutions) {
-                float elapsed = (float) ((realTime - lastEventRealTime) / 1_000_000_000.0);
-                float secondsNeeded = (60.0f / lastRpm);
-                if (secondsNeeded * 2.0 > elapsed)
-                    rpm = lastRpm;
-            } else if (lastRevolutions != 0) {
-                rpm = rpm(revolutions, lastRevolutions, eventTime, lastEventTime);
-                lastEventRealTime = realTime;
-            }
-            return rpm;
-        }
-
-        static float rpm(int newRevolutions, int lastRevolutions, int newTime, int lastTime) {
-            int diff = timeDiff(newTime, lastTime);
-            if (diff == 0)
-                return 0.0f;
-            return (float) (newRevolutions - lastRevolutions) / diff * 1024.0f * 60.0f;
-        }
 
-        static int timeDiff(int newTime, int lastTime) {
-            return newTime - lastTime + (newTime < lastTime ? 65535 : 0);
+            RideRecorder recorder = CscManager.this.recorder;
+            if (recorder != null)
+                recorder.recordCsc(realTime, source, sensor.role, sensor.measurement);
         }
     }
 
-
-    public interface CscManagerCallback {
-        void onUpdate(int wheelRevolutions, float wheelRpm, int cranksRevolutions, float crankRpm);
-
-        void onConnectionStatusChanged(boolean searching, boolean found, boolean connected, BluetoothDevice device);
-    }
 }
@@ -0,0 +1,30 @@
+package sh.nothing.droidbike.ble;
+
+import android.os.Handler;
+
+/**
+ * Scheduler running tasks on a Handler's Looper.
+ */
+
+public class HandlerScheduler implements Scheduler {
+    private final Handler handler;
+
+    public HandlerScheduler(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+}
@@ -5,10 +5,14 @@ import android.location.Address;
 import android.location.Geocoder;
 import android.location.Location;
 import android.os.Bundle;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.annimon.stream.Collectors;
+import com.annimon.stream.Stream;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
@@ -20,12 +24,16 @@ import com.google.android.gms.location.LocationSettingsRequest;
 import com.google.android.gms.location.LocationSettingsResult;
 import com.google.android.gms.location.LocationSettingsStatusCodes;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
-import io.reactivex.Single;
-import io.reactivex.SingleOnSubscribe;
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.schedulers.Schedulers;
+import sh.nothing.droidbike.record.RideRecorder;
+import sh.nothing.droidbike.util.HotStream;
 
 /**
  * Created by tnj on 2/27/17.
@@ -34,23 +42,40 @@ import io.reactivex.schedulers.Schedulers;
 @SuppressWarnings("MissingPermission")
 public class LocationManager implements GoogleApiClient.ConnectionCallbacks, LocationListener, GoogleApiClient.OnConnectionFailedListener {
     private static final String TAG = "LocationManager";
+    private static final String GEOCODE_CACHE_FILE = "geocode.cache";
+    // RideExporter dead reckons between fixes, see DeadReckoningEvaluator for the accuracy
+    private static final long LOCATION_INTERVAL_MILLIS = 5000;
+    // fixes other apps asked for come for free
+    private static final long FASTEST_LOCATION_INTERVAL_MILLIS = 1000;
     private GoogleApiClient googleClient;
-    private Location lastLocation;
+    private final Looper looper;
     private LocationRequest locationRequest;
-    private LocationCallback callback;
+    private final HotStream<Location> locations = new HotStream<>();
     private Geocoder geocoder;
-
-    public LocationManager(Context context) {
+    private final GeocodeCache geocodeCache;
+    private final File geocodeCacheFile;
+    private volatile RideRecorder recorder;
+
+    /**
+     * @param looper fixes are delivered on
+     */
+    public LocationManager(Context context, Looper looper) {
+        this.looper = looper;
         googleClient = new GoogleApiClient.Builder(context)
             .addApi(LocationServices.API)
             .addConnectionCallbacks(this)
             .addOnConnectionFailedListener(this)
             .build();
         geocoder = new Geocoder(context);
+        geocodeCache = new GeocodeCache(this::lookupAddress);
+        geocodeCacheFile = new File(context.getCacheDir(), GEOCODE_CACHE_FILE);
     }
 
     public void start() {
         googleClient.connect();
+        Completable.fromAction(() -> geocodeCache.load(geocodeCacheFile))
+            .subscribeOn(Schedulers.io())
+            .subscribe(() -> {}, throwable -> Log.w(TAG, "Cannot load geocode cache", throwable));
     }
 
     public void stop() {
@@ -58,11 +83,23 @@ public class LocationManager implements GoogleApiClient.ConnectionCallbacks, Loc
             LocationServices.FusedLocationApi.removeLocationUpdates(googleClient, this);
 
         googleClient.disconnect();
+
+        Log.d(TAG, "geocode cache: " + geocodeCache);
+        if (geocodeCache.isModified()) {
+            Completable.fromAction(() -> geocodeCache.save(geocodeCacheFile))
+                .subscribeOn(Schedulers.io())
+                .subscribe(() -> {}, throwable -> Log.w(TAG, "Cannot save geocode cache", throwable));
+        }
+    }
+
+    public GeocodeCache getGeocodeCache() {
+        return geocodeCache;
     }
 
     protected void createLocationRequest() {
         locationRequest = new LocationRequest();
-        locationRequest.setInterval(1000);
+        locationRequest.setInterval(LOCATION_INTERVAL_MILLIS);
+        locationRequest.setFastestInterval(FASTEST_LOCATION_INTERVAL_MILLIS);
         locationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
 
         LocationSettingsRequest.Builder builder = new LocationSettingsRequest.Builder().addLocationRequest(locationRequest);
@@ -86,7 +123,7 @@ public class LocationManager implements GoogleApiClient.ConnectionCallbacks, Loc
     }
 
     private void requestLocationUpdates() {
-        LocationServices.FusedLocationApi.requestLocationUpdates(googleClient, locationRequest, this);
+        LocationServices.FusedLocationApi.requestLocationUpdates(googleClient, locationRequest, this, looper);
     }
 
     @Override
@@ -105,17 +142,26 @@ public class LocationManager implements GoogleApiClient.ConnectionCallbacks, Loc
 
     @Override
     public void onLocationChanged(Location location) {
-        lastLocation = location;
-        doCallback();
+        RideRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.recordLocation(System.nanoTime(), location.getLatitude(), location.getLongitude(),
+                (float) location.getAltitude(), location.getBearing(), location.getSpeed(), location.getAccuracy());
+        }
+        locations.emit(location);
     }
 
-    public void registerCallback(LocationCallback callback) {
-        this.callback = callback;
+    /**
+     * Every fix, emitted on the looper's thread.
+     */
+    public HotStream<Location> getLocations() {
+        return locations;
     }
 
-    void doCallback() {
-        if (callback != null)
-            callback.onLocationChanged(lastLocation);
+    /**
+     * Every fix is appended to recorder; null stops recording.
+     */
+    public void setRecorder(RideRecorder recorder) {
+        this.recorder = recorder;
     }
 
     @Override
@@ -123,19 +169,36 @@ public class LocationManager implements GoogleApiClient.ConnectionCallbacks, Loc
         Log.e(TAG, "Failed to connect Google API: " + connectionResult.getErrorMessage());
     }
 
-    public Single<Address> requestGeolocation(Location location) {
-        return Single.create((SingleOnSubscribe<Address>) e -> {
-            try {
-                e.onSuccess(geocoder.getFromLocation(location.getLatitude(), location.getLongitude(), 1).get(0));
-            } catch (IOException ignored) {
-                e.onError(ignored);
-            }
-        })
+    /**
+     * Place name of location, from the cache when a nearby position was looked up before.
+     * Completes empty if there is no name for it.
+     */
+    public Maybe<String> requestGeolocation(Location location) {
+        return Maybe.fromCallable(() -> geocodeCache.get(location.getLatitude(), location.getLongitude()))
             .subscribeOn(Schedulers.io())
             .observeOn(AndroidSchedulers.mainThread());
     }
 
-    public interface LocationCallback {
-        void onLocationChanged(Location location);
+    // runs on an io thread for cache misses only
+    private String lookupAddress(double latitude, double longitude) throws IOException {
+        List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
+        if (addresses == null || addresses.isEmpty())
+            return null;
+        Address address = addresses.get(0);
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= address.getMaxAddressLineIndex(); i++) {
+            text.append(address.getAddressLine(i));
+        }
+        if (text.length() > 0)
+            return text.toString();
+        Log.v(TAG, address.toString());
+        return Stream
+            .of(
+                address.getAdminArea(),
+                address.getSubAdminArea(),
+                address.getLocality()
+            )
+            .filterNot(TextUtils::isEmpty)
+            .collect(Collectors.joining());
     }
 }
@@ -0,0 +1,150 @@
+package sh.nothing.droidbike.record;
+
+import android.location.Location;
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+import sh.nothing.droidbike.ble.CscDispatcher;
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.ble.CscUpdate;
+import sh.nothing.droidbike.sensor.SensorUpdate;
+import sh.nothing.droidbike.util.HotStream;
+
+/**
+ * Stands in for CscManager, SensorsManager and LocationManager by playing a recorded ride
+ * into streams like theirs, on the threads the live managers use: CSC updates on a background
+ * thread, sensor and location updates on the given Handler.
+ */
+
+public class RideReplay implements RidePlayer.Listener {
+    private static final String TAG = "RideReplay";
+
+    private final RidePlayer player;
+    private final Handler handler;
+
+    private final CscDispatcher cscListeners = new CscDispatcher();
+    private final HotStream<CscUpdate> cscUpdates = new HotStream<>();
+    private final HotStream<SensorUpdate> sensorUpdates = new HotStream<>();
+    private final HotStream<Location> locations = new HotStream<>();
+
+    // smoothed and rate limited like SensorsManager, on recorded time
+    private final SensorReplay sensors = new SensorReplay(this::emitSensorUpdate);
+    private Thread thread;
+
+    public RideReplay(File file, Handler handler) {
+        this.player = new RidePlayer(file);
+        this.handler = handler;
+        player.registerCallback(this);
+    }
+
+    /**
+     * Same as CscManager#getListeners for the replayed ride, called on the replay thread.
+     */
+    public CscDispatcher getCscListeners() {
+        return cscListeners;
+    }
+
+    /**
+     * Same as CscManager#getUpdates for the replayed ride.
+     */
+    public HotStream<CscUpdate> getCscUpdates() {
+        return cscUpdates;
+    }
+
+    /**
+     * Same as SensorsManager#getUpdates for the replayed ride.
+     */
+    public HotStream<SensorUpdate> getSensorUpdates() {
+        return sensorUpdates;
+    }
+
+    /**
+     * Same as LocationManager#getLocations for the replayed ride.
+     */
+    public HotStream<Location> getLocations() {
+        return locations;
+    }
+
+    public void setPace(RidePlayer.Pace pace) {
+        player.setPace(pace);
+    }
+
+    public RidePlayer getPlayer() {
+        return player;
+    }
+
+    public synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new Thread(() -> {
+            long started = System.nanoTime();
+            try {
+                long played = player.play();
+                Log.i(TAG, "Played " + played + " records in " + (System.nanoTime() - started) / 1_000_000 + " ms, max lag "
+                    + player.getMaxLagNanos() / 1_000_000 + " ms");
+            } catch (IOException e) {
+                Log.e(TAG, "Replay failed", e);
+            }
+        }, "RideReplay");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (thread == null)
+            return;
+        player.stop();
+        // wakes the player if it is waiting for the next record, so joining is quick
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    @Override
+    public void onUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+        cscListeners.onUpdate(role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime);
+        if (cscUpdates.hasSubscribers())
+            cscUpdates.emit(new CscUpdate(realTime, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm));
+    }
+
+    @Override
+    public void onPressure(float pressure, long realTime) {
+        sensors.onPressure(pressure, realTime);
+    }
+
+    @Override
+    public void onHeading(float azimuth, long realTime) {
+        sensors.onHeading(azimuth, realTime);
+    }
+
+    private void emitSensorUpdate(long realTime, float pressure, float pitch, float azimuth) {
+        if (!sensorUpdates.hasSubscribers())
+            return;
+        final SensorUpdate update = new SensorUpdate(realTime, pressure, pitch, azimuth);
+        handler.post(() -> sensorUpdates.emit(update));
+    }
+
+    @Override
+    public void onLocation(RideRecord record) {
+        if (!locations.hasSubscribers())
+            return;
+
+        final Location location = new Location("replay");
+        location.setTime(player.getStartWallClock() + (record.realTime - player.getStartRealTime()) / 1_000_000);
+        // the recorded time, on the clock of the other replayed updates
+        location.setElapsedRealtimeNanos(record.realTime);
+        location.setLatitude(record.latitude);
+        location.setLongitude(record.longitude);
+        location.setAltitude(record.altitude);
+        location.setBearing(record.bearing);
+        location.setSpeed(record.speed);
+        location.setAccuracy(record.accuracy);
+        handler.post(() -> locations.emit(location));
+    }
+}
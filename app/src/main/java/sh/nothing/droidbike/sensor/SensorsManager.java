@@ -5,8 +5,13 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.util.Log;
 import android.view.Surface;
 
+import sh.nothing.droidbike.record.RideRecorder;
+import sh.nothing.droidbike.util.HotStream;
+
 /**
  * Created by tnj on 2/27/17.
  */
@@ -14,14 +19,20 @@ import android.view.Surface;
 public class SensorsManager implements SensorEventListener {
     public static final String TAG = "SensorsManager";
 
+    // enough for DeadReckoning, which weighs the azimuth by distance anyway
+    private static final long HEADING_RECORD_INTERVAL = 250_000_000;
+
     private SensorManager sensorManager;
+    private final Handler handler;
     private Sensor pressure;
     private Sensor accelerometer;
     private Sensor magneticField;
     private int screenRotation;
 
     private long lastSensorUpdate = 0L;
-    private float lastPressure = Float.NaN;
+    private long lastHeadingRecord = 0L;
+    // smoothed on the sensor timestamps, which batching does not bunch up
+    private final PressureFilter pressureFilter = new PressureFilter();
     private float lastPitch = Float.NaN;
     private float lastAzimuth = Float.NaN;
 
@@ -31,56 +42,142 @@ public class SensorsManager implements SensorEventListener {
     private final float[] orientationAngles = new float[3];
     private final float[] remappedRotationMatrix = new float[9];
 
-    private SensorsManagerCallback callback;
+    private final SamplingPolicy policy = new SamplingPolicy();
+    private final SensorCounters counters = new SensorCounters();
+    private volatile boolean running;
 
-    public SensorsManager(Context context) {
+    private final SensorDispatcher listeners = new SensorDispatcher();
+    private final HotStream<SensorUpdate> updates = new HotStream<>();
+    private volatile RideRecorder recorder;
+
+    /**
+     * @param handler sensor events are delivered on
+     */
+    public SensorsManager(Context context, Handler handler) {
+        this.handler = handler;
         sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         pressure = sensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
         accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         magneticField = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        listeners.add(this::emitUpdate);
     }
 
     public void setScreenRotation(int rotation) {
         screenRotation = rotation;
     }
 
-    public void start() {
-        sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
-        sensorManager.registerListener(this, magneticField, SensorManager.SENSOR_DELAY_NORMAL);
-        sensorManager.registerListener(this, pressure, SensorManager.SENSOR_DELAY_NORMAL);
+    public synchronized void start() {
         lastSensorUpdate = System.nanoTime();
+        policy.start(lastSensorUpdate);
+        running = true;
+        register(policy.getMode());
     }
 
-    public void stop() {
+    public synchronized void stop() {
+        running = false;
         sensorManager.unregisterListener(this);
     }
 
-    public void registerCallback(SensorsManagerCallback callback) {
-        this.callback = callback;
+    /**
+     * Fed from CSC updates; sensors slow down once the wheel has stood still for a while
+     * and speed up again on the first turn.
+     */
+    public void onWheelRpm(float wheelRpm) {
+        if (policy.onWheelRpm(wheelRpm, System.nanoTime()))
+            onModeChanged();
+    }
+
+    public SamplingPolicy getSamplingPolicy() {
+        return policy;
+    }
+
+    public SensorCounters getCounters() {
+        return counters;
     }
 
-    private void doCallback() {
-        if (callback != null)
-            callback.onSensorUpdate(lastPressure, lastPitch, lastAzimuth);
+    private synchronized void onModeChanged() {
+        if (running)
+            register(policy.getMode());
+    }
+
+    private void register(SamplingPolicy.Mode mode) {
+        sensorManager.unregisterListener(this);
+        register(accelerometer, mode);
+        register(magneticField, mode);
+        register(pressure, mode);
+        Log.d(TAG, "sampling " + mode);
+    }
+
+    private void register(Sensor sensor, SamplingPolicy.Mode mode) {
+        if (sensor == null)
+            return;
+        // without a FIFO a report latency would only be ignored, so ask for plain delivery
+        int maxReportLatencyUs = sensor.getFifoMaxEventCount() > 0 ? mode.maxReportLatencyUs : 0;
+        sensorManager.registerListener(this, sensor, mode.samplingPeriodUs, maxReportLatencyUs, handler);
+    }
+
+    /**
+     * Called on the sensor handler's thread, at most 60 times per second, without an update object per
+     * listener.
+     */
+    public SensorDispatcher getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Emitted on the sensor handler's thread, at most 60 per second.
+     */
+    public HotStream<SensorUpdate> getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Every raw barometer sample and the unsmoothed azimuth at 4 Hz are appended to recorder;
+     * null stops recording.
+     */
+    public void setRecorder(RideRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    private void emitUpdate(long realTime, float pressure, float pitch, float azimuth) {
+        if (updates.hasSubscribers())
+            updates.emit(new SensorUpdate(realTime, pressure, pitch, azimuth));
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
+        long now = System.nanoTime();
+        if (policy.update(now))
+            onModeChanged();
+        SamplingPolicy.Mode mode = policy.getMode();
+
         if (event.sensor == pressure) {
-            if (Float.isNaN(lastPressure))
-                lastPressure = event.values[0];
-            lastPressure = lastPressure * 0.9f + event.values[0] * 0.1f;
+            counters.onEvent(mode, SensorCounters.PRESSURE);
+            RideRecorder recorder = this.recorder;
+            if (recorder != null)
+                recorder.recordPressure(now, event.values[0]);
+            pressureFilter.update(event.timestamp, event.values[0]);
         } else if (event.sensor == accelerometer) {
+            counters.onEvent(mode, SensorCounters.ACCELEROMETER);
             System.arraycopy(event.values, 0, accelerometerReading, 0, accelerometerReading.length);
         } else if (event.sensor == magneticField) {
+            counters.onEvent(mode, SensorCounters.MAGNETIC_FIELD);
             System.arraycopy(event.values, 0, magnetometerReading, 0, magnetometerReading.length);
         }
 
         // limit to 60 calls/sec
-        if (System.nanoTime() - lastSensorUpdate >= 16_666_666) {
-            lastSensorUpdate = System.nanoTime();
-            processSensorReadings();
-            doCallback();
+        if (now - lastSensorUpdate >= 16_666_666) {
+            lastSensorUpdate = now;
+            if (mode.computeOrientation) {
+                processSensorReadings();
+                recordHeading(now);
+            } else {
+                // standing still: a stale pitch is ignored by GradientFilter, azimuth is kept
+                lastPitch = Float.NaN;
+            }
+            counters.onOrientation(mode.computeOrientation);
+            counters.onCallback();
+            listeners.onSensorUpdate(now, pressureFilter.getValue(), lastPitch, lastAzimuth);
         }
     }
 
@@ -89,6 +186,14 @@ public class SensorsManager implements SensorEventListener {
 
     }
 
+    private void recordHeading(long now) {
+        RideRecorder recorder = this.recorder;
+        if (recorder == null || now - lastHeadingRecord < HEADING_RECORD_INTERVAL)
+            return;
+        lastHeadingRecord = now;
+        recorder.recordHeading(now, orientationAngles[0]);
+    }
+
     @SuppressWarnings("SuspiciousNameCombination")
     private void processSensorReadings() {
         SensorManager.getRotationMatrix(rotationMatrix, null, accelerometerReading, magnetometerReading);
@@ -111,18 +216,11 @@ public class SensorsManager implements SensorEventListener {
         SensorManager.remapCoordinateSystem(rotationMatrix, axisX, axisY, remappedRotationMatrix);
         SensorManager.getOrientation(remappedRotationMatrix, orientationAngles);
 
-        float pitch = (float) Math.tan(-orientationAngles[1]);
-        if (Float.isNaN(lastPitch))
-            lastPitch = pitch;
-        // if (Math.abs(lastPitch - pitch) > 0.1f) // ignore too big jump (+10%)
-            lastPitch = lastPitch * 0.99f + pitch * 0.01f;
+        // unsmoothed; GradientFilter weighs it against barometer and distance
+        lastPitch = (float) Math.tan(-orientationAngles[1]);
 
         if (Float.isNaN(lastAzimuth))
             lastAzimuth = orientationAngles[0];
         lastAzimuth = lastAzimuth * 0.95f + orientationAngles[0] * 0.05f;
     }
-
-    public interface SensorsManagerCallback {
-        void onSensorUpdate(float pressure, float pitch, float azimuth);
-    }
 }
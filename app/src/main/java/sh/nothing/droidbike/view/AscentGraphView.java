@@ -3,6 +3,7 @@ package sh.nothing.droidbike.view;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.support.annotation.ColorInt;
 import android.support.annotation.ColorRes;
 import android.support.annotation.Nullable;
@@ -18,6 +19,7 @@ public class AscentGraphView extends View {
     float ascent = 0.0f;
     int color = 0xff0000ff;
     Paint paint = new Paint();
+    private final Rect dirty = new Rect();
 
     public AscentGraphView(Context context) {
         this(context, null);
@@ -36,12 +38,32 @@ public class AscentGraphView extends View {
         setupPaint();
     }
 
+    /**
+     * Changes that move the line ends by less than half a pixel are not drawn; otherwise only
+     * the band the old and new line sweep is invalidated.
+     */
     public void setAscent(float ascent) {
-        if (this.ascent == ascent)
+        if (this.ascent == ascent || (Float.isNaN(ascent) && Float.isNaN(this.ascent)))
+            return;
+        if (getWidth() == 0) {
+            // not laid out yet; drawn with the first frame
+            this.ascent = ascent;
+            return;
+        }
+
+        float oldY = ascentY(this.ascent);
+        float newY = ascentY(ascent);
+        if (Math.abs(newY - oldY) < 0.5f)
             return;
 
         this.ascent = ascent;
-        invalidate();
+        float centerY = getHeight() / 2;
+        float reach = Math.max(Math.abs(oldY), Math.abs(newY));
+        if (Float.isNaN(reach))
+            reach = getHeight();
+        int pad = (int) Math.ceil(paint.getStrokeWidth() / 2) + 1;
+        dirty.set(0, (int) Math.floor(centerY - reach) - pad, getWidth(), (int) Math.ceil(centerY + reach) + pad);
+        invalidate(dirty);
     }
 
     public void setColorResource(@ColorRes int color) {
@@ -60,10 +82,14 @@ public class AscentGraphView extends View {
         int width = getWidth();
         int height = getHeight();
         float centerY = height / 2;
-        float ascentY = width / 2 * ascent;
+        float ascentY = ascentY(ascent);
         canvas.drawLine(0.0f, centerY + ascentY, (float) width, centerY - ascentY, paint);
     }
 
+    private float ascentY(float ascent) {
+        return getWidth() / 2 * ascent;
+    }
+
     void setupPaint() {
         paint = new Paint();
         paint.setColor(color);
@@ -1,26 +1,29 @@
 package sh.nothing.droidbike.view;
 
-import android.animation.ValueAnimator;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.support.annotation.ColorInt;
 import android.support.annotation.ColorRes;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.util.TypedValue;
 import android.view.View;
-import android.view.animation.LinearInterpolator;
 
 /**
  * Created by tnj on 2/26/17.
  */
 
 public class CircularRevolutionsView extends View {
-    float rpm = 0.0f;
     int color = 0xff0000ff;
     Paint paint = new Paint();
-    ValueAnimator animator;
+    final RevolutionDots dots = new RevolutionDots();
+    // the center circle never moves; drawn once per size and color
+    Bitmap background;
+    private final int[] dirtyBounds = new int[4];
+    private final Rect dirty = new Rect();
 
     public CircularRevolutionsView(Context context) {
         this(context, null);
@@ -37,74 +40,77 @@ public class CircularRevolutionsView extends View {
     public CircularRevolutionsView(Context context, @Nullable AttributeSet attrs, int defStyleAttr, int defStyleRes) {
         super(context, attrs, defStyleAttr, defStyleRes);
         setupPaint();
-
-        animator = new ValueAnimator();
-        animator.setInterpolator(new LinearInterpolator());
-        animator.setRepeatCount(ValueAnimator.INFINITE);
-        animator.setRepeatMode(ValueAnimator.RESTART);
-        animator.setFloatValues(0.0f, 1.0f);
-        animator.addUpdateListener((animator) -> invalidate());
-        animator.start();
-        setRpm(rpm);
     }
 
+    /**
+     * Takes effect from the next onFrame(); the dot keeps its position.
+     */
     public void setRpm(float rpm) {
-        long playTime = animator.getCurrentPlayTime();
-        long lastDuartion = animator.getDuration();
-        long newDuration = (long) (60000 / rpm);
-        animator.setDuration(newDuration);
-        animator.setCurrentPlayTime((long) (playTime * ((double) newDuration / lastDuartion)));
-        this.rpm = rpm;
+        if (dots.setRpm(rpm)) {
+            dots.getDotBounds(dirtyBounds);
+            invalidateDirty();
+        }
+    }
+
+    /**
+     * Called once per frame by the owner's FrameScheduler instead of running an animator.
+     * Only the area the dot left and entered is invalidated, and only when it steps.
+     *
+     * @return true while the dot is moving
+     */
+    public boolean onFrame(long frameTimeNanos) {
+        if (dots.onFrame(frameTimeNanos)) {
+            dots.getDirtyBounds(dirtyBounds);
+            invalidateDirty();
+        }
+        return dots.isMoving();
     }
 
     public void setColorResource(@ColorRes int color) {
-        this.color = getResources().getColor(color);
-        paint.setColor(this.color);
+        setColor(getResources().getColor(color));
     }
 
     public void setColor(@ColorInt int color) {
         this.color = color;
         paint.setColor(this.color);
+        renderBackground();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        dots.setSize(w, h);
+        renderBackground();
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
+        if (background != null)
+            canvas.drawBitmap(background, 0, 0, null);
+        if (dots.isMoving())
+            canvas.drawCircle(dots.getDotX(), dots.getDotY(), dots.getDotRadius(), paint);
+    }
+
+    private void renderBackground() {
         int width = getWidth();
         int height = getHeight();
-        int x = 0;
-        int y = 0;
-        int split = 8;
-        if (width > height) {
-            x = (width - height) / 2;
-            width = height;
+        if (width == 0 || height == 0)
+            return;
+        if (background == null || background.getWidth() != width || background.getHeight() != height) {
+            if (background != null)
+                background.recycle();
+            background = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         } else {
-            y = (height - width) / 2;
-            height = width;
-        }
-
-        int centerX = width / 2 + x;
-        int centerY = height / 2 + y;
-        canvas.drawCircle(centerX, centerY, width / 16, paint);
-
-        if (rpm != 0.0f) {
-            int step = (int) ((Float) animator.getAnimatedValue() * split);
-            float degree = step / (float) split;
-            // canvas.drawArc(x, y, x + width, y + height, degree * 360 - 90, 360 / split, true, paint);
-
-            canvas.drawCircle(
-                centerX - (float) Math.cos(2 * Math.PI * degree) * (width / 2) * 0.75f,
-                centerY - (float) Math.sin(2 * Math.PI * degree) * (height / 2) * 0.75f,
-                width / 8,
-                paint);
+            background.eraseColor(0);
         }
+        new Canvas(background).drawCircle(dots.getCenterX(), dots.getCenterY(), dots.getCenterRadius(), paint);
+    }
 
-//        int centerX = width / 2;
-//        int centerY = height / 2;
-//            centerX - (float)Math.cos(2 * Math.PI * degree) * centerX,
-//            centerY - (float)Math.sin(2 * Math.PI * degree) * centerY,
-//            centerX - (float)Math.cos(2 * Math.PI * (degree + 0.5f)) * centerX,
-//            centerY - (float)Math.sin(2 * Math.PI * (degree + 0.5f)) * centerY,
+    private void invalidateDirty() {
+        dirty.set(dirtyBounds[0], dirtyBounds[1], dirtyBounds[2], dirtyBounds[3]);
+        invalidate(dirty);
     }
 
     void setupPaint() {
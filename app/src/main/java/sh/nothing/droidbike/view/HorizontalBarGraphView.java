@@ -3,6 +3,7 @@ package sh.nothing.droidbike.view;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.support.annotation.ColorInt;
 import android.support.annotation.ColorRes;
 import android.support.annotation.Nullable;
@@ -26,6 +27,7 @@ public class HorizontalBarGraphView extends View {
     Paint paint = new Paint();
     Paint averagePaint = new Paint();
     private int averageAlpha = 96;
+    private final Rect dirty = new Rect();
 
     public HorizontalBarGraphView(Context context) {
         this(context, null);
@@ -54,21 +56,33 @@ public class HorizontalBarGraphView extends View {
         invalidate();
     }
 
+    /**
+     * Only the strip between the old and the new bar is invalidated, and nothing if the bar
+     * stays on the same pixel.
+     */
     public void setCurrent(float current) {
         if (this.current == current)
             return;
 
+        int oldX = xOf(this.current);
         this.current = current;
-        invalidate();
+        int newX = xOf(current);
+        if (newX != oldX)
+            invalidateColumns(oldX, newX, 0, getHeight());
     }
 
     public void setAverage(float average) {
         if (this.average == average)
             return;
 
+        int oldX = averageSet ? xOf(this.average) : 0;
         this.average = average;
         averageSet = true;
-        invalidate();
+        int newX = xOf(average);
+        if (newX != oldX) {
+            int height = getHeight();
+            invalidateColumns(oldX, newX, height - height / 4, height);
+        }
     }
 
     public void setColorResource(@ColorRes int color) {
@@ -85,16 +99,27 @@ public class HorizontalBarGraphView extends View {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        int x = (int) (canvas.getWidth() * ((Math.min(current, max) - min) / (max - min)));
+        int x = xOf(current);
         int height = getHeight();
         canvas.drawLine(x, 0, x, height, paint);
 
         if (averageSet) {
-            int averageX = (int) (canvas.getWidth() * ((Math.min(average, max) - min) / (max - min)));
+            int averageX = xOf(average);
             canvas.drawRect(0, height - height / 4, averageX, height, averagePaint);
         }
     }
 
+    private int xOf(float value) {
+        return (int) (getWidth() * ((Math.min(value, max) - min) / (max - min)));
+    }
+
+    private void invalidateColumns(int x0, int x1, int top, int bottom) {
+        // the bar is stroked, so it reaches half its width past x
+        int pad = (int) Math.ceil(paint.getStrokeWidth() / 2) + 1;
+        dirty.set(Math.min(x0, x1) - pad, top, Math.max(x0, x1) + pad, bottom);
+        invalidate(dirty);
+    }
+
     void setupPaint() {
         paint = new Paint();
         paint.setColor(color);
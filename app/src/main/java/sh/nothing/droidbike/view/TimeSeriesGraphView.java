@@ -0,0 +1,179 @@
+package sh.nothing.droidbike.view;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.annotation.ColorInt;
+import android.support.annotation.ColorRes;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+import sh.nothing.droidbike.history.HistoryRange;
+
+/**
+ * Speed, cadence and altitude over the last few minutes, scrolling right to left. Each series
+ * keeps one min/max column per pixel in a MinMaxRing and is drawn with a single drawLines()
+ * into a preallocated point array, so drawing is O(width) and onDraw allocates nothing.
+ */
+
+public class TimeSeriesGraphView extends View {
+    public static final int SPEED = 0;
+    public static final int CADENCE = 1;
+    public static final int ALTITUDE = 2;
+    static final int SERIES = 3;
+
+    static final int DEFAULT_WINDOW_MINUTES = 10;
+    // until laid out
+    static final int DEFAULT_COLUMNS = 256;
+
+    long windowNanos = DEFAULT_WINDOW_MINUTES * 60_000_000_000L;
+    final MinMaxRing[] rings = new MinMaxRing[SERIES];
+    final Paint[] paints = new Paint[SERIES];
+    // fixed ranges; NaN scales to the values in view
+    final float[] lows = {0.0f, 0.0f, Float.NaN};
+    final float[] highs = {60.0f, 150.0f, Float.NaN};
+    float[] points;
+    private final float[] range = new float[2];
+
+    public TimeSeriesGraphView(Context context) {
+        this(context, null);
+    }
+
+    public TimeSeriesGraphView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public TimeSeriesGraphView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        this(context, attrs, defStyleAttr, 0);
+    }
+
+    public TimeSeriesGraphView(Context context, @Nullable AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+        setupPaint();
+        setColumns(DEFAULT_COLUMNS);
+    }
+
+    /**
+     * @param series SPEED, CADENCE or ALTITUDE
+     */
+    public void add(int series, long realTime, float value) {
+        if (rings[series].add(realTime, value))
+            invalidate();
+    }
+
+    /**
+     * Replaces series with the points of range, moved so that the range ends at realTime;
+     * e.g. with the ride history for a viewer that was not attached while it was recorded.
+     */
+    public void setHistory(int series, HistoryRange range, long realTime) {
+        MinMaxRing ring = rings[series];
+        ring.clear();
+        long shift = realTime - (range.time[0] + range.size() * range.getStep());
+        for (int i = 0; i < range.size(); i++) {
+            // empty points only scroll
+            ring.add(range.time[i] + shift, range.min[i]);
+            ring.add(range.time[i] + shift, range.max[i]);
+        }
+        ring.advanceTo(realTime);
+        invalidate();
+    }
+
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+
+    /**
+     * Scrolls without a new sample, e.g. while nothing is reported.
+     */
+    public void advanceTo(long realTime) {
+        boolean changed = false;
+        for (MinMaxRing ring : rings)
+            changed |= ring.advanceTo(realTime);
+        if (changed)
+            invalidate();
+    }
+
+    /**
+     * Drops the history.
+     */
+    public void setWindowMinutes(int minutes) {
+        windowNanos = minutes * 60_000_000_000L;
+        for (int i = 0; i < SERIES; i++)
+            rings[i] = new MinMaxRing(rings[i].capacity(), windowNanos / rings[i].capacity());
+        invalidate();
+    }
+
+    public void setRange(int series, float low, float high) {
+        lows[series] = low;
+        highs[series] = high;
+        invalidate();
+    }
+
+    public void setColorResource(int series, @ColorRes int color) {
+        setColor(series, getResources().getColor(color));
+    }
+
+    public void setColor(int series, @ColorInt int color) {
+        paints[series].setColor(color);
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (w > 0 && w != rings[0].capacity())
+            setColumns(w);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int width = getWidth();
+        int height = getHeight();
+        float stroke = paints[0].getStrokeWidth();
+        for (int i = 0; i < SERIES; i++) {
+            MinMaxRing ring = rings[i];
+            if (ring.size() == 0)
+                continue;
+            float lo = lows[i];
+            float hi = highs[i];
+            if (Float.isNaN(lo) || Float.isNaN(hi)) {
+                ring.getRange(range);
+                // keep a flat trace off the edges
+                lo = range[0] - 1.0f;
+                hi = range[1] + 1.0f;
+            }
+            int count = ring.toLines(points, width, (float) width / ring.capacity(),
+                height - stroke, height - 2 * stroke, lo, hi);
+            canvas.drawLines(points, 0, count, paints[i]);
+        }
+    }
+
+    // re-bins the history so a resize keeps it
+    private void setColumns(int columns) {
+        for (int i = 0; i < SERIES; i++) {
+            MinMaxRing ring = new MinMaxRing(columns, windowNanos / columns);
+            if (rings[i] != null)
+                ring.addAll(rings[i]);
+            rings[i] = ring;
+        }
+        points = new float[columns * 4];
+    }
+
+    void setupPaint() {
+        for (int i = 0; i < SERIES; i++) {
+            Paint paint = new Paint();
+            paint.setColor(0xff0000ff);
+            paint.setAntiAlias(false);
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeWidth(dp2px(1));
+            paints[i] = paint;
+        }
+    }
+
+    public float dp2px(float dp) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp, getResources().getDisplayMetrics());
+    }
+}
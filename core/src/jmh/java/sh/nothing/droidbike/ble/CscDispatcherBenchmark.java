@@ -0,0 +1,70 @@
+package sh.nothing.droidbike.ble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.disposables.CompositeDisposable;
+import sh.nothing.droidbike.util.HotStream;
+
+/**
+ * Cost of handing one CSC update to N listeners. dispatch calls them on the dispatching
+ * thread; executor goes through an inline Executor, so it measures the captured copy of the
+ * event without a thread hop; stream is the same fan-out through HotStream subscribers, which
+ * needs an update object. Run with -prof gc: dispatch should not allocate.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class CscDispatcherBenchmark {
+    @Param({"1", "4", "16"})
+    public int listeners;
+
+    private final CscDispatcher dispatcher = new CscDispatcher();
+    private final CscDispatcher executorDispatcher = new CscDispatcher();
+    private final HotStream<CscUpdate> stream = new HotStream<>();
+    private final CompositeDisposable subscriptions = new CompositeDisposable();
+    private int revolutions;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        for (int i = 0; i < listeners; i++) {
+            dispatcher.add((role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime) -> blackhole.consume(wheelRevolutions));
+            executorDispatcher.add((role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime) -> blackhole.consume(wheelRevolutions), Runnable::run);
+            subscriptions.add(stream.asFlowable().subscribe(update -> blackhole.consume(update.wheelRevolutions)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        subscriptions.clear();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        int r = revolutions++;
+        dispatcher.onUpdate(CscSensorRole.COMBO, r, 60.0f, r, 90.0f, r);
+    }
+
+    @Benchmark
+    public void executor() {
+        int r = revolutions++;
+        executorDispatcher.onUpdate(CscSensorRole.COMBO, r, 60.0f, r, 90.0f, r);
+    }
+
+    @Benchmark
+    public void stream() {
+        int r = revolutions++;
+        stream.emit(new CscUpdate(r, r, 60.0f, r, 90.0f));
+    }
+}
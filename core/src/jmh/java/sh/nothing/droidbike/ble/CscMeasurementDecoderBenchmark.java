@@ -0,0 +1,97 @@
+package sh.nothing.droidbike.ble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares CscMeasurementDecoder with the BluetoothGattCharacteristic#getIntValue based path
+ * that CscManager used before. Run with `./gradlew :core:jmh`; the gc profiler adds
+ * gc.alloc.rate.norm (bytes/op) to the report.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CscMeasurementDecoderBenchmark {
+
+    // Wheel and crank data present, with values large enough to escape the Integer cache
+    private final byte[] value = {
+        0x03,
+        0x10, 0x27, 0x00, 0x00,
+        0x00, 0x7c,
+        (byte) 0xe8, 0x03,
+        0x00, 0x40,
+    };
+    private final CscMeasurement measurement = new CscMeasurement();
+
+    @Benchmark
+    public void decoder(Blackhole bh) {
+        CscMeasurementDecoder.decode(value, measurement);
+        bh.consume(measurement.wheelRevolutions);
+        bh.consume(measurement.wheelEventTime);
+        bh.consume(measurement.crankRevolutions);
+        bh.consume(measurement.crankEventTime);
+    }
+
+    @Benchmark
+    public void getIntValue(Blackhole bh) {
+        int offset = 0;
+        final byte flags = value[offset];
+        offset += 1;
+
+        if ((flags & CscMeasurementDecoder.WHEEL_REVOLUTIONS_DATA_PRESENT) > 0) {
+            final int wheelRevolutions = getIntValue(value, FORMAT_UINT32, offset);
+            offset += 4;
+            final int wheelEventTime = getIntValue(value, FORMAT_UINT16, offset);
+            offset += 2;
+            bh.consume(wheelRevolutions);
+            bh.consume(wheelEventTime);
+        }
+
+        if ((flags & CscMeasurementDecoder.CRANK_REVOLUTION_DATA_PRESENT) > 0) {
+            final int crankRevolutions = getIntValue(value, FORMAT_UINT16, offset);
+            offset += 2;
+            final int crankEventTime = getIntValue(value, FORMAT_UINT16, offset);
+            bh.consume(crankRevolutions);
+            bh.consume(crankEventTime);
+        }
+    }
+
+    private static final int FORMAT_UINT16 = 0x12;
+    private static final int FORMAT_UINT32 = 0x14;
+
+    // Mirrors android.bluetooth.BluetoothGattCharacteristic#getIntValue (API 25), boxing included
+    private static Integer getIntValue(byte[] mValue, int formatType, int offset) {
+        if ((offset + (formatType & 0xF)) > mValue.length) return null;
+
+        switch (formatType) {
+            case FORMAT_UINT16:
+                return unsignedBytesToInt(mValue[offset], mValue[offset + 1]);
+
+            case FORMAT_UINT32:
+                return unsignedBytesToInt(mValue[offset], mValue[offset + 1],
+                    mValue[offset + 2], mValue[offset + 3]);
+        }
+
+        return null;
+    }
+
+    private static int unsignedByteToInt(byte b) {
+        return b & 0xFF;
+    }
+
+    private static int unsignedBytesToInt(byte b0, byte b1) {
+        return (unsignedByteToInt(b0) + (unsignedByteToInt(b1) << 8));
+    }
+
+    private static int unsignedBytesToInt(byte b0, byte b1, byte b2, byte b3) {
+        return (unsignedByteToInt(b0) + (unsignedByteToInt(b1) << 8))
+            + (unsignedByteToInt(b2) << 16) + (unsignedByteToInt(b3) << 24);
+    }
+}
@@ -0,0 +1,87 @@
+package sh.nothing.droidbike.ble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sensor notification throughput and latency of CscSensorHub with a speed, a cadence and
+ * a combo sensor notifying concurrently, one thread each, like MultiSensorHarnessTest without
+ * the GATT setup. Throughput is reported per sensor; SampleTime gives the latency distribution,
+ * which includes waiting for the hub lock while another sensor is merged.
+ */
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
+public class CscSensorHubBenchmark {
+    private CscSensorHub hub;
+    private CscSensor speed;
+    private CscSensor cadence;
+    private CscSensor combo;
+
+    /**
+     * One sensor's notifications, counting up one revolution per half second of event time.
+     */
+    @State(Scope.Thread)
+    public static class Notifications {
+        private final CscMeasurement measurement = new CscMeasurement();
+        private int count;
+
+        CscMeasurement next(boolean wheel, boolean crank) {
+            int i = ++count;
+            int time = (i * 512) & 0xffff;
+            measurement.wheelRevolutionsPresent = wheel;
+            measurement.wheelRevolutions = i;
+            measurement.wheelEventTime = time;
+            measurement.crankRevolutionsPresent = crank;
+            measurement.crankRevolutions = i & 0xffff;
+            measurement.crankEventTime = time;
+            return measurement;
+        }
+    }
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        hub = new CscSensorHub((role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime) -> blackhole.consume(wheelRevolutions));
+        speed = addSensor("speed", CscSensorRole.FEATURE_WHEEL_REVOLUTION_DATA_SUPPORTED);
+        cadence = addSensor("cadence", CscSensorRole.FEATURE_CRANK_REVOLUTION_DATA_SUPPORTED);
+        combo = addSensor("combo", CscSensorRole.FEATURE_WHEEL_REVOLUTION_DATA_SUPPORTED | CscSensorRole.FEATURE_CRANK_REVOLUTION_DATA_SUPPORTED);
+    }
+
+    private CscSensor addSensor(String address, int features) {
+        CscSensor sensor = hub.addSensor(address);
+        hub.onFeatures(sensor, features);
+        return sensor;
+    }
+
+    @Benchmark
+    @Group("sensors")
+    @GroupThreads(1)
+    public void speed(Notifications notifications) {
+        hub.onMeasurement(speed, notifications.next(true, false), System.nanoTime());
+    }
+
+    @Benchmark
+    @Group("sensors")
+    @GroupThreads(1)
+    public void cadence(Notifications notifications) {
+        hub.onMeasurement(cadence, notifications.next(false, true), System.nanoTime());
+    }
+
+    @Benchmark
+    @Group("sensors")
+    @GroupThreads(1)
+    public void combo(Notifications notifications) {
+        hub.onMeasurement(combo, notifications.next(true, true), System.nanoTime());
+    }
+}
@@ -0,0 +1,73 @@
+package sh.nothing.droidbike.export;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import sh.nothing.droidbike.record.BenchmarkRide;
+
+/**
+ * Exports a one-hour ride log. The score is time per export; the tear down prints the rate
+ * in MB of log read per second, which is what bounds export of long rides.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class RideExporterBenchmark {
+    @Param({"FIT", "GPX"})
+    public String format;
+
+    private File log;
+    private File output;
+    private long exports;
+    private long nanos;
+
+    @Setup
+    public void setUp() throws IOException {
+        log = BenchmarkRide.write(3600);
+        output = File.createTempFile("ride", "." + format.toLowerCase());
+    }
+
+    @TearDown
+    public void tearDown() {
+        double seconds = nanos / 1e9;
+        System.out.printf("%n%s: log %.1f MB, output %.1f MB, %.1f MB/s of log%n", format,
+            log.length() / 1e6, output.length() / 1e6, exports * log.length() / 1e6 / seconds);
+        log.delete();
+        output.delete();
+    }
+
+    @Benchmark
+    public TrackSummary export() throws IOException {
+        long started = System.nanoTime();
+        TrackSummary summary;
+        RideExporter exporter = new RideExporter(2096);
+        if ("FIT".equals(format)) {
+            RandomAccessFile file = new RandomAccessFile(output, "rw");
+            file.setLength(0);
+            summary = exporter.export(log, new FitWriter(file.getChannel()));
+        } else {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                summary = exporter.export(log, new GpxWriter(out, "benchmark"));
+            }
+        }
+        nanos += System.nanoTime() - started;
+        exports++;
+        return summary;
+    }
+}
@@ -0,0 +1,72 @@
+package sh.nothing.droidbike.history;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding a sample and querying a 6 hour ride fed at 25 Hz. Setup prints the store's heap
+ * footprint, measured as retained heap and as counted array bytes, next to what keeping every
+ * raw sample would take.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class HistoryStoreBenchmark {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long RIDE = 6 * 3600 * SECOND;
+    private static final long INTERVAL = SECOND / 25;
+
+    private HistoryStore store;
+    private final HistoryRange whole = new HistoryRange(300);
+    private final HistoryRange recent = new HistoryRange(300);
+    private long time;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Runtime runtime = Runtime.getRuntime();
+        long before = usedHeap(runtime);
+        store = new HistoryStore();
+        for (time = 0; time < RIDE; time += INTERVAL) {
+            for (int channel = 0; channel < HistoryStore.CHANNELS; channel++)
+                store.add(channel, time, 20.0f + (time % 1000));
+        }
+        long after = usedHeap(runtime);
+        long rawBytes = store.getSamples() * (8 + 4);
+        System.out.printf("%nhistory of %d samples: %d KiB retained, %d KiB in arrays, %d KiB as raw samples%n",
+            store.getSamples(), (after - before) / 1024, store.getFootprintBytes() / 1024, rawBytes / 1024);
+    }
+
+    @Benchmark
+    public HistoryStore add() {
+        time += INTERVAL;
+        store.add(HistoryStore.PRESSURE, time, 1013.25f);
+        return store;
+    }
+
+    @Benchmark
+    public HistoryRange queryWholeRide() {
+        store.query(HistoryStore.SPEED, 0, RIDE, whole);
+        return whole;
+    }
+
+    @Benchmark
+    public HistoryRange queryLastFiveMinutes() {
+        store.query(HistoryStore.SPEED, RIDE - 300 * SECOND, RIDE, recent);
+        return recent;
+    }
+
+    private static long usedHeap(Runtime runtime) {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,40 @@
+package sh.nothing.droidbike.record;
+
+import java.io.File;
+import java.io.IOException;
+
+import sh.nothing.droidbike.ble.CscMeasurement;
+import sh.nothing.droidbike.ble.CscSensorRole;
+
+/**
+ * Ride logs for benchmarks: 4 Hz CSC, 25 Hz barometer and 1 Hz GPS.
+ */
+
+public class BenchmarkRide {
+    private static final long SECOND = 1_000_000_000L;
+
+    public static File write(int seconds) throws IOException {
+        File file = File.createTempFile("ride", ".bin");
+        CscMeasurement measurement = new CscMeasurement();
+        measurement.wheelRevolutionsPresent = true;
+        measurement.crankRevolutionsPresent = true;
+        try (RideRecorder recorder = new RideRecorder(file, 1_488_000_000_000L, 0, RideLog.RECORDS_PER_CHUNK)) {
+            for (long t = 0; t <= seconds * SECOND; t += SECOND / 100) {
+                if (t % (SECOND / 4) == 0) {
+                    measurement.wheelRevolutions = (int) (t * 2 / SECOND);
+                    measurement.wheelEventTime = measurement.wheelRevolutions * 512 & 0xffff;
+                    measurement.crankRevolutions = (int) (t * 3 / 2 / SECOND) & 0xffff;
+                    measurement.crankEventTime = measurement.crankRevolutions * 683 & 0xffff;
+                    recorder.recordCsc(t, 0, CscSensorRole.COMBO, measurement);
+                }
+                if (t % (SECOND / 25) == 0)
+                    recorder.recordPressure(t, 1000.0f + (float) Math.sin(t / 60e9));
+                if (t % SECOND == 0) {
+                    recorder.recordLocation(t, 35.0 + t / 1e15, 139.0, 40.0f, 0.0f, 8.0f, 3.0f);
+                    recorder.flush();
+                }
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,84 @@
+package sh.nothing.droidbike.record;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.ride.RideMetricsEngine;
+import sh.nothing.droidbike.ride.RideState;
+
+/**
+ * Whole-pipeline replay: log reading, CSC hub and ride metrics for every record, with the
+ * state read back on every CSC update as the UI would. One operation plays a one-hour ride
+ * (4 Hz CSC, 25 Hz barometer, 1 Hz GPS).
+ * <p>
+ * UNLIMITED measures the pipeline itself; FAST_FORWARD plays a shorter ride at 100x to show
+ * whether the pipeline keeps up with the pace.
+ */
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class RidePlayerBenchmark {
+    @Param({"UNLIMITED", "FAST_FORWARD"})
+    public String pace;
+
+    private File file;
+    private RidePlayer player;
+    private RideMetricsEngine engine;
+    private final RideState state = new RideState();
+
+    @Setup
+    public void setUp() throws IOException {
+        // FAST_FORWARD takes ride time / 100, keep it to a few seconds
+        file = BenchmarkRide.write("UNLIMITED".equals(pace) ? 3600 : 300);
+
+        player = new RidePlayer(file);
+        player.setPace(RidePlayer.Pace.valueOf(pace));
+        engine = new RideMetricsEngine(player.getRideClock());
+        player.registerCallback(new RidePlayer.Listener() {
+            @Override
+            public void onUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+                engine.onCsc(realTime, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm);
+                engine.read(state);
+            }
+
+            @Override
+            public void onPressure(float pressure, long realTime) {
+                engine.onPressure(realTime, pressure);
+            }
+
+            @Override
+            public void onLocation(RideRecord location) {
+                engine.onLocation(location.realTime, location.latitude, location.longitude, location.altitude, location.speed);
+            }
+
+            @Override
+            public void onHeading(float azimuth, long realTime) {
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("records " + player.getPlayedCount() + ", max lag " + player.getMaxLagNanos() / 1_000_000 + " ms");
+        file.delete();
+    }
+
+    @Benchmark
+    public long play() throws IOException {
+        engine.reset();
+        return player.play();
+    }
+}
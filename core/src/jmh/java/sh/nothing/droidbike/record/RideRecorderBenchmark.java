@@ -0,0 +1,71 @@
+package sh.nothing.droidbike.record;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import sh.nothing.droidbike.ble.CscMeasurement;
+import sh.nothing.droidbike.ble.CscSensorRole;
+
+/**
+ * Samples per second the recorder accepts with its writer thread running. A rejected sample
+ * is retried, so the score is the sustained rate into the file, not just into the ring.
+ * The target is 1 kHz.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class RideRecorderBenchmark {
+    private File file;
+    private RideRecorder recorder;
+    private final CscMeasurement measurement = new CscMeasurement();
+    private long time;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        file = File.createTempFile("ride", ".bin");
+        recorder = new RideRecorder(file, 0, 0, RideRecorder.DEFAULT_RING_CAPACITY);
+        recorder.start();
+        measurement.wheelRevolutionsPresent = true;
+        measurement.crankRevolutionsPresent = true;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        recorder.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void pressure() {
+        time++;
+        while (!recorder.recordPressure(time, 1000.0f))
+            Thread.yield();
+    }
+
+    @Benchmark
+    public void csc() {
+        time++;
+        measurement.wheelRevolutions++;
+        while (!recorder.recordCsc(time, 0, CscSensorRole.COMBO, measurement))
+            Thread.yield();
+    }
+
+    @Benchmark
+    public void location() {
+        time++;
+        while (!recorder.recordLocation(time, 35.0, 139.0, 40.0f, 90.0f, 5.0f, 3.0f))
+            Thread.yield();
+    }
+}
@@ -0,0 +1,51 @@
+package sh.nothing.droidbike.ride;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one barometer sample into altitude, through the table and through Math.pow,
+ * and of one accumulator update. Run with -prof gc to confirm nothing is allocated.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class AscentAccumulatorBenchmark {
+    private AscentAccumulator accumulator;
+    private long time;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        accumulator = new AscentAccumulator();
+    }
+
+    private float pressure() {
+        return 1000.0f + (i++ & 0xff) * 0.01f;
+    }
+
+    @Benchmark
+    public float tableAltitude() {
+        return Altitude.fromPressure(Altitude.PRESSURE_STANDARD_ATMOSPHERE, pressure());
+    }
+
+    @Benchmark
+    public float powAltitude() {
+        return Altitude.fromPressureExact(Altitude.PRESSURE_STANDARD_ATMOSPHERE, pressure());
+    }
+
+    @Benchmark
+    public float accumulate() {
+        time += 200_000_000L;
+        accumulator.onAltitude(time, Altitude.fromPressure(Altitude.PRESSURE_STANDARD_ATMOSPHERE, pressure()), (i & 0x400) == 0);
+        return accumulator.getAscent();
+    }
+}
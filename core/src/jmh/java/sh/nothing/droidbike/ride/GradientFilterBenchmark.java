@@ -0,0 +1,53 @@
+package sh.nothing.droidbike.ride;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one update of each kind. Run with -prof gc to confirm nothing is allocated.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class GradientFilterBenchmark {
+    private GradientFilter filter;
+    private long time;
+    private double distance;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        filter = new GradientFilter();
+        filter.onAltitude(100.0f, 0);
+    }
+
+    @Benchmark
+    public float distance() {
+        time += 250_000_000L;
+        distance += 1.25;
+        filter.onDistance(distance, time);
+        return filter.getGradient();
+    }
+
+    @Benchmark
+    public float altitude() {
+        time += 40_000_000L;
+        filter.onAltitude(100.0f + (i++ & 7) * 0.1f, time);
+        return filter.getGradient();
+    }
+
+    @Benchmark
+    public float pitch() {
+        time += 16_000_000L;
+        filter.onPitch(0.05f + (i++ & 7) * 0.01f, time);
+        return filter.getGradient();
+    }
+}
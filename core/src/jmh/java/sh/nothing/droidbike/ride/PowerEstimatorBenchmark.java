@@ -0,0 +1,36 @@
+package sh.nothing.droidbike.ride;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one speed sample at the 4 Hz CSC rate, closing a second every fourth, and of
+ * reading the averages back as RideMetricsEngine does after each.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PowerEstimatorBenchmark {
+    private PowerEstimator estimator;
+    private long time;
+
+    @Setup
+    public void setUp() {
+        estimator = new PowerEstimator();
+    }
+
+    @Benchmark
+    public float speedUpdate() {
+        time += 250_000_000L;
+        estimator.onSpeed(time, 8.0f + (time >> 28 & 0x7) / 4.0f, 0.02f, true);
+        return estimator.getPower3s() + estimator.getPower30s() + estimator.getNormalizedPower();
+    }
+}
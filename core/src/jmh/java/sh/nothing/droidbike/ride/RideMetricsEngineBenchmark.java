@@ -0,0 +1,51 @@
+package sh.nothing.droidbike.ride;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import sh.nothing.droidbike.util.Clock;
+
+/**
+ * Cost of feeding one CSC sample, one pressure sample and reading the state back,
+ * i.e. the per-update work that used to run inside MainActivity.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RideMetricsEngineBenchmark {
+    private RideMetricsEngine engine;
+    private RideState state;
+    private long time;
+    private int revolutions;
+
+    @Setup
+    public void setUp() {
+        engine = new RideMetricsEngine(Clock.SYSTEM);
+        state = new RideState();
+    }
+
+    @Benchmark
+    public RideState cscUpdate() {
+        time += 250_000_000L;
+        revolutions++;
+        engine.onCsc(time, revolutions, 60.0f, revolutions, 90.0f);
+        engine.read(state);
+        return state;
+    }
+
+    @Benchmark
+    public RideState pressureUpdate() {
+        time += 16_000_000L;
+        engine.onPressure(time, 1000.0f + (time & 0xff) / 1000.0f);
+        engine.read(state);
+        return state;
+    }
+}
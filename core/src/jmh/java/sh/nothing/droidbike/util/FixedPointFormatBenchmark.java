@@ -0,0 +1,91 @@
+package sh.nothing.droidbike.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The dashboard's per-update text: one "%.1f" value split at the point, a "%02d:%02d:%02d"
+ * duration and the GPS line, with String.format against FixedPointFormat into CharText.
+ * Run with -prof gc to compare allocation.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FixedPointFormatBenchmark {
+    private final char[] buffer = new char[64];
+    private final CharText integer = new CharText(16);
+    private final CharText fraction = new CharText(4);
+    private final CharText duration = new CharText(12);
+    private final CharText gps = new CharText(64);
+
+    private float value = 12.34f;
+    private long millis = 3_723_000;
+
+    @Benchmark
+    public int valueStringFormat() {
+        value += 0.01f;
+        String text = String.format(Locale.US, "%.1f", value);
+        int point = text.indexOf('.');
+        return text.substring(0, point).length() + text.substring(point).length();
+    }
+
+    @Benchmark
+    public int valueFixedPoint() {
+        value += 0.01f;
+        int end = FixedPointFormat.formatFixed(buffer, 0, value, 1);
+        int point = FixedPointFormat.indexOf(buffer, 0, end, '.');
+        boolean changed = integer.update(buffer, 0, point);
+        changed |= fraction.update(buffer, point, end - point);
+        return changed ? end : 0;
+    }
+
+    @Benchmark
+    public String durationStringFormat() {
+        millis += 16;
+        int h = (int) (millis / 3600000);
+        int m = (int) (millis / 60000) % 60;
+        int s = (int) (millis / 1000) % 60;
+        return String.format(Locale.US, "%02d:%02d:%02d", h, m, s);
+    }
+
+    @Benchmark
+    public boolean durationFixedPoint() {
+        millis += 16;
+        int end = FixedPointFormat.formatInt(buffer, 0, millis / 3600000, 2);
+        buffer[end++] = ':';
+        end = FixedPointFormat.formatInt(buffer, end, millis / 60000 % 60, 2);
+        buffer[end++] = ':';
+        end = FixedPointFormat.formatInt(buffer, end, millis / 1000 % 60, 2);
+        return duration.update(buffer, 0, end);
+    }
+
+    @Benchmark
+    public String gpsStringFormat() {
+        value += 0.01f;
+        return String.format(Locale.US, "LAT %.2f LON %.2f ALT %.1fm SPD %.1fkm/h",
+            35.681236, 139.767125 + value, 40.5, value);
+    }
+
+    @Benchmark
+    public boolean gpsFixedPoint() {
+        value += 0.01f;
+        int end = FixedPointFormat.append(buffer, 0, "LAT ");
+        end = FixedPointFormat.formatFixed(buffer, end, 35.681236, 2);
+        end = FixedPointFormat.append(buffer, end, " LON ");
+        end = FixedPointFormat.formatFixed(buffer, end, 139.767125 + value, 2);
+        end = FixedPointFormat.append(buffer, end, " ALT ");
+        end = FixedPointFormat.formatFixed(buffer, end, 40.5, 1);
+        end = FixedPointFormat.append(buffer, end, "m SPD ");
+        end = FixedPointFormat.formatFixed(buffer, end, value, 1);
+        end = FixedPointFormat.append(buffer, end, "km/h");
+        return gps.update(buffer, 0, end);
+    }
+}
@@ -0,0 +1,50 @@
+package sh.nothing.droidbike.ble;
+
+/**
+ * Direct connect first, then filtered scans separated by exponentially growing pauses.
+ */
+
+public class BackoffReconnectStrategy implements ReconnectStrategy {
+    private final long directWindowMillis;
+    private final long scanWindowMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxAttempts;
+
+    public BackoffReconnectStrategy() {
+        this(5_000, 10_000, 2_000, 120_000, 30);
+    }
+
+    /**
+     * @param maxAttempts attempts before giving up, 0 to never give up
+     */
+    public BackoffReconnectStrategy(long directWindowMillis, long scanWindowMillis,
+                                    long initialBackoffMillis, long maxBackoffMillis, int maxAttempts) {
+        this.directWindowMillis = directWindowMillis;
+        this.scanWindowMillis = scanWindowMillis;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Override
+    public Action action(int attempt) {
+        if (maxAttempts > 0 && attempt >= maxAttempts)
+            return Action.GIVE_UP;
+        return attempt == 0 ? Action.DIRECT_CONNECT : Action.SCAN;
+    }
+
+    @Override
+    public long delayMillis(int attempt) {
+        if (attempt == 0)
+            return 0;
+        // cap the shift before it overflows
+        int shift = Math.min(attempt - 1, 30);
+        return Math.min(initialBackoffMillis << shift, maxBackoffMillis);
+    }
+
+    @Override
+    public long windowMillis(int attempt) {
+        return attempt == 0 ? directWindowMillis : scanWindowMillis;
+    }
+}
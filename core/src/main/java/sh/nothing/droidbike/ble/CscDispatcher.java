@@ -0,0 +1,22 @@
+package sh.nothing.droidbike.ble;
+
+import sh.nothing.droidbike.util.ListenerList;
+
+/**
+ * Fans the merged CSC state out to any number of listeners. Synchronous listeners cost a call
+ * each; only listeners with an Executor capture the arguments.
+ */
+
+public class CscDispatcher extends ListenerList<CscSensorHub.Listener> implements CscSensorHub.Listener {
+
+    @Override
+    public void onUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+        for (Entry<CscSensorHub.Listener> entry : entries()) {
+            CscSensorHub.Listener listener = entry.listener;
+            if (entry.executor == null)
+                listener.onUpdate(role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime);
+            else
+                entry.executor.execute(() -> listener.onUpdate(role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime));
+        }
+    }
+}
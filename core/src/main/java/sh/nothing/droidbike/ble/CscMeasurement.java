@@ -0,0 +1,34 @@
+package sh.nothing.droidbike.ble;
+
+/**
+ * Mutable holder for one decoded CSC Measurement (0x2A5B) notification.
+ * Reused across notifications so that decoding does not allocate.
+ */
+
+public class CscMeasurement {
+    public boolean wheelRevolutionsPresent;
+    public int wheelRevolutions; // uint32
+    public int wheelEventTime; // 1/1024 s
+
+    public boolean crankRevolutionsPresent;
+    public int crankRevolutions; // uint16
+    public int crankEventTime; // 1/1024 s
+
+    public void copyFrom(CscMeasurement other) {
+        wheelRevolutionsPresent = other.wheelRevolutionsPresent;
+        wheelRevolutions = other.wheelRevolutions;
+        wheelEventTime = other.wheelEventTime;
+        crankRevolutionsPresent = other.crankRevolutionsPresent;
+        crankRevolutions = other.crankRevolutions;
+        crankEventTime = other.crankEventTime;
+    }
+
+    void clear() {
+        wheelRevolutionsPresent = false;
+        wheelRevolutions = 0;
+        wheelEventTime = 0;
+        crankRevolutionsPresent = false;
+        crankRevolutions = 0;
+        crankEventTime = 0;
+    }
+}
@@ -0,0 +1,73 @@
+package sh.nothing.droidbike.ble;
+
+/**
+ * Decodes raw CSC Measurement (0x2A5B) characteristic values in place.
+ * Unlike BluetoothGattCharacteristic#getIntValue, nothing is boxed or copied.
+ */
+
+public final class CscMeasurementDecoder {
+
+    static final byte WHEEL_REVOLUTIONS_DATA_PRESENT = 0x01; // 1 bit
+    static final byte CRANK_REVOLUTION_DATA_PRESENT = 0x02; // 1 bit
+
+    private static final int FLAGS_SIZE = 1;
+    private static final int WHEEL_DATA_SIZE = 4 + 2;
+    private static final int CRANK_DATA_SIZE = 2 + 2;
+
+    private CscMeasurementDecoder() {
+    }
+
+    /**
+     * @return false if value is too short for the fields its flags announce;
+     * out is cleared in that case.
+     */
+    public static boolean decode(byte[] value, CscMeasurement out) {
+        out.clear();
+        if (value == null || value.length < FLAGS_SIZE)
+            return false;
+
+        int offset = 0;
+        final byte flags = value[offset];
+        offset += FLAGS_SIZE;
+
+        final boolean wheelRevPresent = (flags & WHEEL_REVOLUTIONS_DATA_PRESENT) != 0;
+        final boolean crankRevPresent = (flags & CRANK_REVOLUTION_DATA_PRESENT) != 0;
+
+        int expected = FLAGS_SIZE
+            + (wheelRevPresent ? WHEEL_DATA_SIZE : 0)
+            + (crankRevPresent ? CRANK_DATA_SIZE : 0);
+        if (value.length < expected)
+            return false;
+
+        if (wheelRevPresent) {
+            out.wheelRevolutions = uint32(value, offset);
+            offset += 4;
+            out.wheelEventTime = uint16(value, offset);
+            offset += 2;
+            out.wheelRevolutionsPresent = true;
+        }
+
+        if (crankRevPresent) {
+            out.crankRevolutions = uint16(value, offset);
+            offset += 2;
+            out.crankEventTime = uint16(value, offset);
+            offset += 2;
+            out.crankRevolutionsPresent = true;
+        }
+
+        return true;
+    }
+
+    // little endian, same as BluetoothGattCharacteristic.FORMAT_UINT16
+    static int uint16(byte[] value, int offset) {
+        return (value[offset] & 0xff) | (value[offset + 1] & 0xff) << 8;
+    }
+
+    // little endian, same as BluetoothGattCharacteristic.FORMAT_UINT32 (wraps to negative above 2^31)
+    static int uint32(byte[] value, int offset) {
+        return (value[offset] & 0xff)
+            | (value[offset + 1] & 0xff) << 8
+            | (value[offset + 2] & 0xff) << 16
+            | (value[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,245 @@
+package sh.nothing.droidbike.ble;
+
+/**
+ * Turns cumulative revolution events of one CSC sensor channel (wheel or crank) into RPM.
+ * <p>
+ * The rate comes from the sensor's own 1/1024 s event clock only: accepted events are kept as
+ * running totals of revolutions and ticks in a small ring, and the RPM is revolutions over
+ * ticks across the last WINDOW_TICKS, so each event costs O(1) and one late or early event
+ * only moves the average a little. Arrival time is used for nothing but noticing that the
+ * revolutions stopped: a sensor repeats its last event while nothing turns.
+ * <p>
+ * Repeated packets are counted and ignored. An event implying an impossible or a much different
+ * rate than the window is held back from it; if the next event agrees with the window it is
+ * dropped as a glitch, if it agrees with the held one both are taken as a real change, or as a
+ * sensor that restarted its counters. Revolutions are counted as soon as they could have been
+ * ridden, so distance does not wait for that.
+ */
+
+class CscRevolutionsCounter {
+    static final int WHEEL_BITS = 32;
+    static final int CRANK_BITS = 16;
+    static final float MAX_WHEEL_RPM = 1500.0f; // 190 km/h on a 2.1 m wheel
+    static final float MAX_CRANK_RPM = 250.0f;
+
+    static final int TICKS_PER_SECOND = 1024;
+    // ticks averaged over; events further apart than this give a rate of their own pair
+    static final int WINDOW_TICKS = 3 * TICKS_PER_SECOND;
+    static final int CAPACITY = 16;
+    // an event whose own rate is this far off the window's is held back
+    static final float OUTLIER_RATIO = 2.0f;
+    // while nothing turns the RPM is held for two of its periods, and at least as long as
+    // notifications may be held back and delivered together, then decays as 1/elapsed
+    static final float HOLD_PERIODS = 2.0f;
+    static final long MIN_HOLD_NANOS = 2_000_000_000L;
+    // after this long without a revolution the RPM is 0 and the window starts over
+    static final long STOP_NANOS = 6_000_000_000L;
+
+    private final int revolutionMask;
+    private final float maxRpm;
+
+    // running totals of accepted events, oldest at tail
+    private final long[] totalRevolutions = new long[CAPACITY];
+    private final long[] totalTicks = new long[CAPACITY];
+    private int head;
+    private int size;
+
+    private boolean hasEvent;
+    // the newest event in the window
+    private int lastRawRevolutions;
+    private int lastEventTime;
+    private long lastEventRealTime;
+    private float windowRpm;
+
+    private boolean hasSuspect;
+    private int suspectRevolutions;
+    private int suspectEventTime;
+    // raw count up to which revolutions are counted, ahead of the window after a held back event
+    private int countedRevolutions;
+
+    // revolutions counted since the first event; never decreases
+    int revolutions;
+    float lastRpm;
+
+    int duplicateEvents;
+    int rejectedEvents;
+    int restarts;
+
+    /**
+     * @param revolutionBits width of the sensor's revolution counter, 32 for wheel, 16 for crank
+     */
+    CscRevolutionsCounter(int revolutionBits, float maxRpm) {
+        this.revolutionMask = revolutionBits >= 32 ? -1 : (1 << revolutionBits) - 1;
+        this.maxRpm = maxRpm;
+    }
+
+    void setRevolutionEvent(int revolutions, int eventTime, long realTime) {
+        revolutions &= revolutionMask;
+        eventTime &= 0xffff;
+        if (!hasEvent) {
+            hasEvent = true;
+            countedRevolutions = revolutions;
+            moveReference(revolutions, eventTime, realTime);
+            clearWindow();
+            return;
+        }
+
+        // a sensor repeats its last event while nothing turns; the revolutions of a held back
+        // event at another time are not a repeat but possibly its correction
+        boolean repeated = revolutions == lastRawRevolutions
+            || hasSuspect && revolutions == suspectRevolutions && eventTime == suspectEventTime;
+        if (repeated) {
+            duplicateEvents++;
+            lastRpm = decayed(realTime);
+            if (lastRpm == 0.0f && size > 1)
+                clearWindow();
+            return;
+        }
+
+        // the window is stale and the event clock may have wrapped since, so only the pause
+        // itself tells whether the revolutions could have been ridden or the sensor restarted
+        long pause = realTime - lastEventRealTime;
+        if (pause >= STOP_NANOS) {
+            int uncounted = (revolutions - countedRevolutions) & revolutionMask;
+            if (uncounted > 0 && uncounted <= maxRpm * (pause / 60_000_000_000.0))
+                this.revolutions += uncounted;
+            countedRevolutions = revolutions;
+            moveReference(revolutions, eventTime, realTime);
+            hasSuspect = false;
+            clearWindow();
+            return;
+        }
+
+        int deltaRevolutions = (revolutions - lastRawRevolutions) & revolutionMask;
+        int deltaTicks = timeDiff(eventTime, lastEventTime);
+        boolean plausible = plausible(deltaRevolutions, deltaTicks);
+        if (plausible && !offRate(deltaRevolutions, deltaTicks)) {
+            if (hasSuspect) {
+                rejectedEvents++;
+                hasSuspect = false;
+            }
+            count(revolutions, deltaRevolutions);
+            accept(deltaRevolutions, deltaTicks, revolutions, eventTime, realTime);
+            return;
+        }
+
+        if (hasSuspect && agreesWithSuspect(revolutions, eventTime)) {
+            // whatever the held back event did not count is lost with the old counts
+            restarts++;
+            countedRevolutions = suspectRevolutions;
+            moveReference(suspectRevolutions, suspectEventTime, lastEventRealTime);
+            clearWindow();
+            deltaRevolutions = (revolutions - suspectRevolutions) & revolutionMask;
+            count(revolutions, deltaRevolutions);
+            accept(deltaRevolutions, timeDiff(eventTime, suspectEventTime), revolutions, eventTime, realTime);
+            hasSuspect = false;
+            return;
+        }
+
+        if (hasSuspect)
+            rejectedEvents++;
+        hasSuspect = true;
+        suspectRevolutions = revolutions;
+        suspectEventTime = eventTime;
+        // revolutions that could have been ridden count even when their timing is off
+        if (plausible)
+            count(revolutions, deltaRevolutions);
+        lastRpm = decayed(realTime);
+    }
+
+    /**
+     * Ticks from lastTime to newTime on the 16 bit event clock, which wraps every 64 s.
+     */
+    static int timeDiff(int newTime, int lastTime) {
+        return (newTime - lastTime) & 0xffff;
+    }
+
+    static float rpm(long revolutions, long ticks) {
+        if (ticks <= 0)
+            return 0.0f;
+        return (float) ((double) revolutions * TICKS_PER_SECOND * 60 / ticks);
+    }
+
+    private void moveReference(int revolutions, int eventTime, long realTime) {
+        lastRawRevolutions = revolutions;
+        lastEventTime = eventTime;
+        lastEventRealTime = realTime;
+    }
+
+    /**
+     * Counts the revolutions from the reference event to this one that a held back event did not.
+     */
+    private void count(int revolutions, int deltaRevolutions) {
+        int counted = (countedRevolutions - lastRawRevolutions) & revolutionMask;
+        if (counted >= 0 && counted < deltaRevolutions)
+            this.revolutions += deltaRevolutions - counted;
+        countedRevolutions = revolutions;
+    }
+
+    private void accept(int deltaRevolutions, int deltaTicks, int revolutions, int eventTime, long realTime) {
+        moveReference(revolutions, eventTime, realTime);
+        int newest = newest();
+        push(totalRevolutions[newest] + deltaRevolutions, totalTicks[newest] + deltaTicks);
+        // keep the shortest tail that still spans the window, and at least one pair
+        while (size > 2 && totalTicks[newest()] - totalTicks[(tail() + 1) % CAPACITY] >= WINDOW_TICKS)
+            size--;
+        newest = newest();
+        int tail = tail();
+        windowRpm = rpm(totalRevolutions[newest] - totalRevolutions[tail], totalTicks[newest] - totalTicks[tail]);
+        lastRpm = windowRpm;
+    }
+
+    private void push(long revolutions, long ticks) {
+        totalRevolutions[head] = revolutions;
+        totalTicks[head] = ticks;
+        head = (head + 1) % CAPACITY;
+        if (size < CAPACITY)
+            size++;
+    }
+
+    private void clearWindow() {
+        int newest = newest();
+        long revolutions = totalRevolutions[newest];
+        long ticks = totalTicks[newest];
+        size = 0;
+        head = 0;
+        push(revolutions, ticks);
+        windowRpm = 0.0f;
+        lastRpm = 0.0f;
+    }
+
+    private int newest() {
+        return (head + CAPACITY - 1) % CAPACITY;
+    }
+
+    private int tail() {
+        return (head + CAPACITY - size) % CAPACITY;
+    }
+
+    private boolean plausible(int deltaRevolutions, int deltaTicks) {
+        // a 32 bit count going back shows up as negative
+        return deltaRevolutions > 0 && deltaTicks > 0 && rpm(deltaRevolutions, deltaTicks) <= maxRpm;
+    }
+
+    private boolean offRate(int deltaRevolutions, int deltaTicks) {
+        if (size < 2)
+            return false;
+        float rpm = rpm(deltaRevolutions, deltaTicks);
+        return rpm > windowRpm * OUTLIER_RATIO || rpm * OUTLIER_RATIO < windowRpm;
+    }
+
+    private boolean agreesWithSuspect(int revolutions, int eventTime) {
+        int deltaRevolutions = (revolutions - suspectRevolutions) & revolutionMask;
+        return deltaRevolutions > 0 && plausible(deltaRevolutions, timeDiff(eventTime, suspectEventTime));
+    }
+
+    private float decayed(long realTime) {
+        long elapsedNanos = realTime - lastEventRealTime;
+        if (elapsedNanos >= STOP_NANOS)
+            return 0.0f;
+        float elapsed = elapsedNanos / 1_000_000_000.0f;
+        if (elapsedNanos <= MIN_HOLD_NANOS || elapsed * windowRpm <= 60.0f * HOLD_PERIODS)
+            return windowRpm;
+        return Math.min(windowRpm, 60.0f * HOLD_PERIODS / elapsed);
+    }
+}
@@ -0,0 +1,13 @@
+package sh.nothing.droidbike.ble;
+
+/**
+ * Reader side copy of one CscSampleRing slot.
+ */
+
+public class CscSample {
+    public long realTime; // System.nanoTime() when the notification arrived
+    public int wheelRevolutions;
+    public float wheelRpm;
+    public int crankRevolutions;
+    public float crankRpm;
+}
@@ -0,0 +1,128 @@
+package sh.nothing.droidbike.ble;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preallocated single-producer/single-consumer ring of CSC samples.
+ * <p>
+ * The producer (the GATT callback thread) never blocks: when the consumer falls behind,
+ * the oldest samples are overwritten and counted as dropped on the consumer side.
+ * Each slot carries a sequence number which the consumer checks before and after
+ * copying, so a slot overwritten mid-read is dropped rather than returned torn.
+ */
+
+public class CscSampleRing {
+    private static final int SEQUENCE = 0;
+    private static final int REAL_TIME = 1;
+    private static final int WHEEL = 2; // revolutions << 32 | rpm bits
+    private static final int CRANK = 3; // revolutions << 32 | rpm bits
+    private static final int STRIDE = 4;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray slots;
+    private final AtomicLong writeIndex = new AtomicLong();
+
+    // consumer side only
+    private long readIndex;
+    private volatile long readCount;
+    private volatile long droppedCount;
+
+    public CscSampleRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = new AtomicLongArray(capacity * STRIDE);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Producer only.
+     */
+    public void write(long realTime, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm) {
+        long index = writeIndex.get();
+        int base = (int) (index & mask) * STRIDE;
+        slots.set(base + SEQUENCE, -(index + 1)); // mark as being written
+        slots.set(base + REAL_TIME, realTime);
+        slots.set(base + WHEEL, pack(wheelRevolutions, wheelRpm));
+        slots.set(base + CRANK, pack(crankRevolutions, crankRpm));
+        slots.set(base + SEQUENCE, index + 1);
+        writeIndex.set(index + 1);
+    }
+
+    /**
+     * Consumer only. Copies the oldest unread sample into out.
+     *
+     * @return false if there is nothing to read
+     */
+    public boolean poll(CscSample out) {
+        while (true) {
+            long available = writeIndex.get();
+            if (readIndex >= available)
+                return false;
+
+            if (available - readIndex > capacity) {
+                droppedCount += available - capacity - readIndex;
+                readIndex = available - capacity;
+            }
+
+            long expected = readIndex + 1;
+            int base = (int) (readIndex & mask) * STRIDE;
+            readIndex++;
+
+            if (slots.get(base + SEQUENCE) != expected) {
+                droppedCount++;
+                continue;
+            }
+            long realTime = slots.get(base + REAL_TIME);
+            long wheel = slots.get(base + WHEEL);
+            long crank = slots.get(base + CRANK);
+            if (slots.get(base + SEQUENCE) != expected) {
+                droppedCount++;
+                continue;
+            }
+
+            out.realTime = realTime;
+            out.wheelRevolutions = (int) (wheel >> 32);
+            out.wheelRpm = Float.intBitsToFloat((int) wheel);
+            out.crankRevolutions = (int) (crank >> 32);
+            out.crankRpm = Float.intBitsToFloat((int) crank);
+            readCount++;
+            return true;
+        }
+    }
+
+    /**
+     * Consumer only. Reads everything currently available, leaving the latest sample in out.
+     * Bounded by the capacity so a fast producer cannot keep the consumer spinning.
+     *
+     * @return number of samples read
+     */
+    public int drain(CscSample out) {
+        int count = 0;
+        while (count < capacity && poll(out))
+            count++;
+        return count;
+    }
+
+    public long getWrittenCount() {
+        return writeIndex.get();
+    }
+
+    public long getReadCount() {
+        return readCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private static long pack(int revolutions, float rpm) {
+        return (long) revolutions << 32 | (Float.floatToRawIntBits(rpm) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,80 @@
+package sh.nothing.droidbike.ble;
+
+/**
+ * State of one connected CSC sensor: its own wheel/crank counters and notification stats.
+ * Owned and mutated by CscSensorHub.
+ */
+
+public class CscSensor {
+    final String address;
+    CscSensorRole role;
+
+    // wheel revolutions are a uint32, crank revolutions a uint16
+    final CscRevolutionsCounter wheel = new CscRevolutionsCounter(CscRevolutionsCounter.WHEEL_BITS, CscRevolutionsCounter.MAX_WHEEL_RPM);
+    final CscRevolutionsCounter crank = new CscRevolutionsCounter(CscRevolutionsCounter.CRANK_BITS, CscRevolutionsCounter.MAX_CRANK_RPM);
+    final CscMeasurement measurement = new CscMeasurement();
+
+    boolean hasWheelData;
+    boolean hasCrankData;
+    int lastWheelRevolutions;
+    int lastCrankRevolutions;
+
+    long notifications;
+    long malformedNotifications;
+    long totalLatencyNanos;
+    long maxLatencyNanos;
+
+    CscSensor(String address) {
+        this.address = address;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return null until the sensor reported its features or its first measurement
+     */
+    public CscSensorRole getRole() {
+        return role;
+    }
+
+    public long getNotifications() {
+        return notifications;
+    }
+
+    public long getMalformedNotifications() {
+        return malformedNotifications;
+    }
+
+    /**
+     * @return mean time from notification arrival until the merged update was delivered
+     */
+    public long getAverageLatencyNanos() {
+        return notifications == 0 ? 0 : totalLatencyNanos / notifications;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * @return notifications that repeated the last wheel and crank events
+     */
+    public int getDuplicateEvents() {
+        return wheel.duplicateEvents + crank.duplicateEvents;
+    }
+
+    /**
+     * @return wheel and crank events dropped as glitches
+     */
+    public int getRejectedEvents() {
+        return wheel.rejectedEvents + crank.rejectedEvents;
+    }
+
+    void recordLatency(long latencyNanos) {
+        totalLatencyNanos += latencyNanos;
+        if (latencyNanos > maxLatencyNanos)
+            maxLatencyNanos = latencyNanos;
+    }
+}
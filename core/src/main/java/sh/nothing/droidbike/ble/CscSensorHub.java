@@ -0,0 +1,153 @@
+package sh.nothing.droidbike.ble;
+
+import java.util.ArrayList;
+
+/**
+ * Merges notifications of several concurrently connected CSC sensors into one stream.
+ * <p>
+ * Wheel data is taken from a dedicated speed sensor when one is connected, otherwise from a
+ * combo sensor; crank data likewise prefers a dedicated cadence sensor. The merged revolution
+ * counts accumulate per-sensor deltas, so they stay continuous when the source sensor changes.
+ * <p>
+ * GATT callbacks of different connections may arrive on different Binder threads, so every
+ * entry point is synchronized; listener calls are therefore never concurrent.
+ */
+
+public class CscSensorHub {
+
+    public interface Listener {
+        /**
+         * @param role role of the sensor whose notification caused this update
+         */
+        void onUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime);
+    }
+
+    private final ArrayList<CscSensor> sensors = new ArrayList<>();
+    private final Listener listener;
+
+    private int wheelRevolutions;
+    private float wheelRpm;
+    private int crankRevolutions;
+    private float crankRpm;
+
+    public CscSensorHub(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized CscSensor addSensor(String address) {
+        CscSensor sensor = new CscSensor(address);
+        sensors.add(sensor);
+        return sensor;
+    }
+
+    public synchronized void removeSensor(CscSensor sensor) {
+        sensors.remove(sensor);
+        if (wheelSource() == null)
+            wheelRpm = 0.0f;
+        if (crankSource() == null)
+            crankRpm = 0.0f;
+    }
+
+    public synchronized CscSensor findSensor(String address) {
+        for (int i = 0; i < sensors.size(); i++) {
+            CscSensor sensor = sensors.get(i);
+            if (sensor.address.equals(address))
+                return sensor;
+        }
+        return null;
+    }
+
+    public synchronized int getSensorCount() {
+        return sensors.size();
+    }
+
+    public synchronized CscSensor getSensor(int index) {
+        return sensors.get(index);
+    }
+
+    /**
+     * @param features value of the CSC Feature (0x2A5C) characteristic
+     */
+    public synchronized void onFeatures(CscSensor sensor, int features) {
+        CscSensorRole role = CscSensorRole.fromFeatures(features);
+        if (role != null)
+            sensor.role = role;
+    }
+
+    /**
+     * @param value    raw CSC Measurement (0x2A5B) value
+     * @param realTime System.nanoTime() when the notification arrived
+     * @return false if the value was malformed and ignored
+     */
+    public synchronized boolean onMeasurement(CscSensor sensor, byte[] value, long realTime) {
+        if (!CscMeasurementDecoder.decode(value, sensor.measurement)) {
+            sensor.malformedNotifications++;
+            return false;
+        }
+        update(sensor, realTime);
+        return true;
+    }
+
+    /**
+     * Same as onMeasurement(CscSensor, byte[], long) for an already decoded measurement,
+     * e.g. one read back from a ride log.
+     */
+    public synchronized void onMeasurement(CscSensor sensor, CscMeasurement measurement, long realTime) {
+        sensor.measurement.copyFrom(measurement);
+        update(sensor, realTime);
+    }
+
+    private void update(CscSensor sensor, long realTime) {
+        CscMeasurement measurement = sensor.measurement;
+        if (sensor.role == null)
+            sensor.role = CscSensorRole.of(measurement.wheelRevolutionsPresent, measurement.crankRevolutionsPresent);
+
+        if (measurement.wheelRevolutionsPresent) {
+            sensor.wheel.setRevolutionEvent(measurement.wheelRevolutions, measurement.wheelEventTime, realTime);
+            int delta = sensor.hasWheelData ? sensor.wheel.revolutions - sensor.lastWheelRevolutions : 0;
+            sensor.lastWheelRevolutions = sensor.wheel.revolutions;
+            sensor.hasWheelData = true;
+            if (wheelSource() == sensor) {
+                wheelRevolutions += delta;
+                wheelRpm = sensor.wheel.lastRpm;
+            }
+        }
+
+        if (measurement.crankRevolutionsPresent) {
+            sensor.crank.setRevolutionEvent(measurement.crankRevolutions, measurement.crankEventTime, realTime);
+            int delta = sensor.hasCrankData ? sensor.crank.revolutions - sensor.lastCrankRevolutions : 0;
+            sensor.lastCrankRevolutions = sensor.crank.revolutions;
+            sensor.hasCrankData = true;
+            if (crankSource() == sensor) {
+                crankRevolutions += delta;
+                crankRpm = sensor.crank.lastRpm;
+            }
+        }
+
+        if (listener != null)
+            listener.onUpdate(sensor.role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime);
+
+        sensor.notifications++;
+        sensor.recordLatency(System.nanoTime() - realTime);
+    }
+
+    private CscSensor wheelSource() {
+        return source(true, CscSensorRole.SPEED);
+    }
+
+    private CscSensor crankSource() {
+        return source(false, CscSensorRole.CADENCE);
+    }
+
+    private CscSensor source(boolean wheel, CscSensorRole dedicated) {
+        CscSensor source = null;
+        for (int i = 0; i < sensors.size(); i++) {
+            CscSensor sensor = sensors.get(i);
+            if (!(wheel ? sensor.hasWheelData : sensor.hasCrankData))
+                continue;
+            if (source == null || (source.role != dedicated && sensor.role == dedicated))
+                source = sensor;
+        }
+        return source;
+    }
+}
@@ -0,0 +1,47 @@
+package sh.nothing.droidbike.ble;
+
+/**
+ * What a connected CSC sensor measures.
+ */
+
+public enum CscSensorRole {
+    SPEED,
+    CADENCE,
+    COMBO;
+
+    static final int FEATURE_WHEEL_REVOLUTION_DATA_SUPPORTED = 0x01;
+    static final int FEATURE_CRANK_REVOLUTION_DATA_SUPPORTED = 0x02;
+
+    /**
+     * @param features value of the CSC Feature (0x2A5C) characteristic
+     * @return null if neither wheel nor crank data is supported
+     */
+    public static CscSensorRole fromFeatures(int features) {
+        return of((features & FEATURE_WHEEL_REVOLUTION_DATA_SUPPORTED) != 0,
+            (features & FEATURE_CRANK_REVOLUTION_DATA_SUPPORTED) != 0);
+    }
+
+    /**
+     * @return CSC Feature bits of a sensor with this role
+     */
+    public int toFeatures() {
+        switch (this) {
+            case SPEED:
+                return FEATURE_WHEEL_REVOLUTION_DATA_SUPPORTED;
+            case CADENCE:
+                return FEATURE_CRANK_REVOLUTION_DATA_SUPPORTED;
+            default:
+                return FEATURE_WHEEL_REVOLUTION_DATA_SUPPORTED | FEATURE_CRANK_REVOLUTION_DATA_SUPPORTED;
+        }
+    }
+
+    static CscSensorRole of(boolean wheel, boolean crank) {
+        if (wheel && crank)
+            return COMBO;
+        if (wheel)
+            return SPEED;
+        if (crank)
+            return CADENCE;
+        return null;
+    }
+}
@@ -0,0 +1,21 @@
+package sh.nothing.droidbike.ble;
+
+/**
+ * Merged state of all CSC sensors after one notification.
+ */
+
+public class CscUpdate {
+    public final long realTime; // System.nanoTime() when the notification arrived
+    public final int wheelRevolutions;
+    public final float wheelRpm;
+    public final int crankRevolutions;
+    public final float crankRpm;
+
+    public CscUpdate(long realTime, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm) {
+        this.realTime = realTime;
+        this.wheelRevolutions = wheelRevolutions;
+        this.wheelRpm = wheelRpm;
+        this.crankRevolutions = crankRevolutions;
+        this.crankRpm = crankRpm;
+    }
+}
@@ -0,0 +1,298 @@
+package sh.nothing.droidbike.ble;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import sh.nothing.droidbike.util.LatencyHistogram;
+
+/**
+ * Runs GATT operations one at a time. Android allows only one outstanding GATT operation,
+ * so the next one is started only after the callback matching the current one called
+ * complete().
+ * <p>
+ * An operation that fails to start, reports failure or gets no callback within its step's
+ * timeout is retried up to maxAttempts times; after that the Listener is told and the queue
+ * moves on. Latency from first start to successful completion is recorded per step.
+ * <p>
+ * Operations are started and the Listener is called after the queue's lock was released, on
+ * the thread that made them due, so either may call into code that takes its own locks and
+ * calls back into the queue.
+ */
+
+public class GattOperationQueue {
+
+    public enum Step {
+        CONNECT(10_000),
+        DISCOVER_SERVICES(10_000),
+        WRITE_DESCRIPTOR(2_000),
+        READ_CHARACTERISTIC(2_000);
+
+        final long defaultTimeoutMillis;
+
+        Step(long defaultTimeoutMillis) {
+            this.defaultTimeoutMillis = defaultTimeoutMillis;
+        }
+    }
+
+    public interface Operation {
+        /**
+         * @return false if the operation could not be started
+         */
+        boolean execute();
+    }
+
+    public interface Listener {
+        /**
+         * Called when an operation ran out of attempts.
+         */
+        void onOperationFailed(Object owner, Step step);
+    }
+
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long RETRY_DELAY_MILLIS = 100;
+
+    private class Entry {
+        final Object owner;
+        final Step step;
+        final Operation operation;
+        int attempts;
+        // attempts was incremented, but execute() was not called for it yet
+        boolean starting;
+        long startedAt;
+        Runnable timeout;
+
+        Entry(Object owner, Step step, Operation operation) {
+            this.owner = owner;
+            this.step = step;
+            this.operation = operation;
+        }
+    }
+
+    private final Scheduler scheduler;
+    private final int maxAttempts;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    // out of attempts, the Listener was not told yet
+    private final ArrayDeque<Entry> failed = new ArrayDeque<>();
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Step.values().length];
+    private final long[] timeoutMillis = new long[Step.values().length];
+    private Entry current;
+    private Listener listener;
+
+    private long retries;
+    private long timeouts;
+    private long failures;
+
+    public GattOperationQueue(Scheduler scheduler) {
+        this(scheduler, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public GattOperationQueue(Scheduler scheduler, int maxAttempts) {
+        this.scheduler = scheduler;
+        this.maxAttempts = maxAttempts;
+        for (Step step : Step.values()) {
+            histograms[step.ordinal()] = new LatencyHistogram();
+            timeoutMillis[step.ordinal()] = step.defaultTimeoutMillis;
+        }
+    }
+
+    public synchronized void setTimeout(Step step, long millis) {
+        timeoutMillis[step.ordinal()] = millis;
+    }
+
+    public synchronized long getTimeout(Step step) {
+        return timeoutMillis[step.ordinal()];
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param owner connection the operation belongs to, used by complete() and cancel()
+     */
+    public void enqueue(Object owner, Step step, Operation operation) {
+        synchronized (this) {
+            queue.add(new Entry(owner, step, operation));
+            if (current == null)
+                next();
+        }
+        dispatch();
+    }
+
+    /**
+     * Called from the GATT callback that finishes step of owner. Callbacks that do not match
+     * the running operation, e.g. late ones for an attempt that already timed out, are ignored.
+     *
+     * @return false if owner had no such operation running
+     */
+    public boolean complete(Object owner, Step step, boolean success) {
+        synchronized (this) {
+            Entry entry = current;
+            if (entry == null || entry.owner != owner || entry.step != step)
+                return false;
+
+            scheduler.cancel(entry.timeout);
+            if (success) {
+                histograms[step.ordinal()].record(scheduler.nanoTime() - entry.startedAt);
+                current = null;
+                next();
+            } else {
+                retryOrFail(entry);
+            }
+        }
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Drops every operation of owner, e.g. after its connection went away.
+     */
+    public void cancel(Object owner) {
+        synchronized (this) {
+            Iterator<Entry> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().owner == owner)
+                    iterator.remove();
+            }
+            if (current != null && current.owner == owner) {
+                scheduler.cancel(current.timeout);
+                current = null;
+                next();
+            }
+        }
+        dispatch();
+    }
+
+    public synchronized void clear() {
+        queue.clear();
+        failed.clear();
+        if (current != null)
+            scheduler.cancel(current.timeout);
+        current = null;
+    }
+
+    public synchronized boolean isIdle() {
+        return current == null && queue.isEmpty();
+    }
+
+    public synchronized int size() {
+        return queue.size() + (current != null ? 1 : 0);
+    }
+
+    public LatencyHistogram getHistogram(Step step) {
+        return histograms[step.ordinal()];
+    }
+
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder()
+            .append(retries).append(" retries, ")
+            .append(timeouts).append(" timeouts, ")
+            .append(failures).append(" failures");
+        for (Step step : Step.values())
+            builder.append(", ").append(step).append(' ').append(histograms[step.ordinal()]);
+        return builder.toString();
+    }
+
+    // next(), attempt() and retryOrFail() run under the lock and only make operations due;
+    // dispatch() then starts them
+
+    private void next() {
+        if (current == null && !queue.isEmpty()) {
+            Entry entry = queue.poll();
+            current = entry;
+            entry.startedAt = scheduler.nanoTime();
+            attempt(entry);
+        }
+    }
+
+    private void attempt(Entry entry) {
+        final int attempt = ++entry.attempts;
+        entry.starting = true;
+        entry.timeout = () -> onTimeout(entry, attempt);
+        scheduler.schedule(entry.timeout, timeoutMillis[entry.step.ordinal()]);
+    }
+
+    private void onTimeout(Entry entry, int attempt) {
+        synchronized (this) {
+            if (current != entry || entry.attempts != attempt)
+                return;
+            timeouts++;
+            retryOrFail(entry);
+        }
+        dispatch();
+    }
+
+    private void retryOrFail(Entry entry) {
+        if (entry.attempts < maxAttempts) {
+            retries++;
+            final int attempt = entry.attempts;
+            scheduler.schedule(() -> {
+                synchronized (GattOperationQueue.this) {
+                    if (current != entry || entry.attempts != attempt)
+                        return;
+                    attempt(entry);
+                }
+                dispatch();
+            }, RETRY_DELAY_MILLIS);
+            return;
+        }
+
+        failures++;
+        current = null;
+        failed.add(entry);
+        next();
+    }
+
+    /**
+     * Tells the Listener about failed operations and starts the current one, without the lock.
+     */
+    private void dispatch() {
+        while (true) {
+            Entry entry;
+            boolean failure;
+            int attempt;
+            Listener listener;
+            synchronized (this) {
+                listener = this.listener;
+                entry = failed.poll();
+                failure = entry != null;
+                if (!failure) {
+                    entry = current;
+                    if (entry == null || !entry.starting)
+                        return;
+                    entry.starting = false;
+                }
+                attempt = entry.attempts;
+            }
+
+            if (failure) {
+                if (listener != null)
+                    listener.onOperationFailed(entry.owner, entry.step);
+                continue;
+            }
+            if (entry.operation.execute())
+                continue;
+            synchronized (this) {
+                // execute() may complete synchronously, and the owner may be cancelled
+                // meanwhile, so check it is still current afterwards
+                if (current == entry && entry.attempts == attempt) {
+                    scheduler.cancel(entry.timeout);
+                    retryOrFail(entry);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package sh.nothing.droidbike.ble;
+
+/**
+ * Decides how a Reconnector tries to get a lost sensor back.
+ */
+
+public interface ReconnectStrategy {
+
+    enum Action {
+        /**
+         * connectGatt(autoConnect=true) to the cached address; the controller connects as soon
+         * as the sensor advertises again, without a host-side scan.
+         */
+        DIRECT_CONNECT,
+        /**
+         * Low duty scan filtered on the cached address.
+         */
+        SCAN,
+        GIVE_UP
+    }
+
+    /**
+     * @param attempt 0 for the first attempt after the connection was lost
+     */
+    Action action(int attempt);
+
+    /**
+     * @return how long to wait before starting attempt
+     */
+    long delayMillis(int attempt);
+
+    /**
+     * @return how long attempt may run before the next one is scheduled
+     */
+    long windowMillis(int attempt);
+}
@@ -0,0 +1,176 @@
+package sh.nothing.droidbike.ble;
+
+import sh.nothing.droidbike.util.LatencyHistogram;
+
+/**
+ * Runs a ReconnectStrategy for one sensor after its connection was lost, and records
+ * time-to-reconnect and attempts per reconnect.
+ * <p>
+ * The next step is decided under the lock, but the Target is called after releasing it: its
+ * calls reach the GATT queue, whose callers in turn ask isActive(). So a Target call may arrive
+ * just after a cancel() or onConnected() and has to ignore what no longer applies.
+ */
+
+public class Reconnector {
+
+    public interface Target {
+        void connectDirect();
+
+        void startFilteredScan();
+
+        /**
+         * Abandon whatever the current attempt started (pending direct connect, scan).
+         */
+        void cancelAttempt();
+
+        void onGaveUp();
+    }
+
+    private final Scheduler scheduler;
+    private final ReconnectStrategy strategy;
+    private final Target target;
+    private final Runnable attemptTask = this::runAttempt;
+    private final Runnable windowTask = this::onWindowExpired;
+
+    private boolean active;
+    private int attempt;
+    private int started;
+    private long lostAt;
+
+    private final LatencyHistogram timeToReconnect = new LatencyHistogram();
+    private int lastAttempts;
+    private long lastTimeToReconnect;
+    private long reconnects;
+    private long totalAttempts;
+
+    public Reconnector(Scheduler scheduler, ReconnectStrategy strategy, Target target) {
+        this.scheduler = scheduler;
+        this.strategy = strategy;
+        this.target = target;
+    }
+
+    /**
+     * Connection was lost; does nothing if already reconnecting.
+     */
+    public void start() {
+        synchronized (this) {
+            if (active)
+                return;
+            active = true;
+            attempt = 0;
+            started = 0;
+            lostAt = scheduler.nanoTime();
+            if (scheduleAttempt())
+                return;
+        }
+        target.onGaveUp();
+    }
+
+    /**
+     * @return true if this connection ended a reconnect
+     */
+    public synchronized boolean onConnected() {
+        if (!active)
+            return false;
+        stop();
+        reconnects++;
+        lastTimeToReconnect = scheduler.nanoTime() - lostAt;
+        timeToReconnect.record(lastTimeToReconnect);
+        lastAttempts = started;
+        return true;
+    }
+
+    public synchronized void cancel() {
+        if (active)
+            stop();
+    }
+
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return 0-based attempt currently running or scheduled
+     */
+    public synchronized int getAttempt() {
+        return attempt;
+    }
+
+    public synchronized long getReconnects() {
+        return reconnects;
+    }
+
+    public synchronized long getTotalAttempts() {
+        return totalAttempts;
+    }
+
+    /**
+     * @return attempts started before the last successful reconnect
+     */
+    public synchronized int getLastAttempts() {
+        return lastAttempts;
+    }
+
+    public synchronized long getLastTimeToReconnectNanos() {
+        return lastTimeToReconnect;
+    }
+
+    public LatencyHistogram getTimeToReconnect() {
+        return timeToReconnect;
+    }
+
+    private void stop() {
+        active = false;
+        scheduler.cancel(attemptTask);
+        scheduler.cancel(windowTask);
+    }
+
+    /**
+     * @return false if the strategy gave up, which stopped the reconnect
+     */
+    private boolean scheduleAttempt() {
+        if (strategy.action(attempt) == ReconnectStrategy.Action.GIVE_UP) {
+            stop();
+            return false;
+        }
+        scheduler.schedule(attemptTask, strategy.delayMillis(attempt));
+        return true;
+    }
+
+    private void runAttempt() {
+        ReconnectStrategy.Action action;
+        synchronized (this) {
+            if (!active)
+                return;
+            started++;
+            totalAttempts++;
+            action = strategy.action(attempt);
+            scheduler.schedule(windowTask, strategy.windowMillis(attempt));
+        }
+        switch (action) {
+            case DIRECT_CONNECT:
+                target.connectDirect();
+                break;
+            case SCAN:
+                target.startFilteredScan();
+                break;
+        }
+    }
+
+    private void onWindowExpired() {
+        synchronized (this) {
+            if (!active)
+                return;
+        }
+        target.cancelAttempt();
+        synchronized (this) {
+            // reconnected or cancelled while the attempt was cancelled
+            if (!active)
+                return;
+            attempt++;
+            if (scheduleAttempt())
+                return;
+        }
+        target.onGaveUp();
+    }
+}
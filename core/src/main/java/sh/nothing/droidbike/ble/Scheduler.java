@@ -0,0 +1,14 @@
+package sh.nothing.droidbike.ble;
+
+import sh.nothing.droidbike.util.Clock;
+
+/**
+ * Time source and delayed execution, so BLE state machines can run on a Handler
+ * in the app and on a fake clock in tests.
+ */
+
+public interface Scheduler extends Clock {
+    void schedule(Runnable task, long delayMillis);
+
+    void cancel(Runnable task);
+}
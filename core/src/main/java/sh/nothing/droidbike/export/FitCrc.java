@@ -0,0 +1,42 @@
+package sh.nothing.droidbike.export;
+
+/**
+ * CRC-16 used by FIT files (polynomial 0xA001, initial value 0).
+ */
+
+final class FitCrc {
+    private static final int[] TABLE = {
+        0x0000, 0xCC01, 0xD801, 0x1400, 0xF001, 0x3C00, 0x2800, 0xE401,
+        0xA001, 0x6C00, 0x7800, 0xB401, 0x5000, 0x9C01, 0x8801, 0x4400
+    };
+
+    private FitCrc() {
+    }
+
+    static int update(int crc, byte b) {
+        int tmp = TABLE[crc & 0xf];
+        crc = (crc >> 4) & 0x0fff;
+        crc = crc ^ tmp ^ TABLE[b & 0xf];
+        tmp = TABLE[crc & 0xf];
+        crc = (crc >> 4) & 0x0fff;
+        crc = crc ^ tmp ^ TABLE[(b >> 4) & 0xf];
+        return crc;
+    }
+
+    static int update(int crc, byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++)
+            crc = update(crc, bytes[i]);
+        return crc;
+    }
+
+    /**
+     * CRC of a || b given crc(a) and crc(b), where b is length bytes long. The CRC is linear
+     * with no final xor, so crc(a || b) = crc(b) ^ crc(a || zeros(length)).
+     */
+    static int combine(int crcA, int crcB, long length) {
+        int crc = crcA;
+        for (long i = 0; i < length && crc != 0; i++)
+            crc = update(crc, (byte) 0);
+        return crc ^ crcB;
+    }
+}
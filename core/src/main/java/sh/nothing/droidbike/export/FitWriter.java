@@ -0,0 +1,267 @@
+package sh.nothing.droidbike.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.TimeZone;
+
+/**
+ * Writes a FIT activity file: file_id, timer start, one record per point, timer stop, and a
+ * lap, session and activity summarizing the ride.
+ * <p>
+ * Messages go through a fixed buffer straight to the channel. The header holds the data size,
+ * so it is written last; the file CRC, which covers the header, is derived from the CRC of
+ * the data instead of reading the file back.
+ */
+
+public class FitWriter implements TrackWriter {
+    static final int HEADER_SIZE = 14;
+    static final byte PROTOCOL_VERSION = 0x10; // 1.0
+    static final short PROFILE_VERSION = 2100; // 21.00
+
+    // seconds from the Unix epoch to the FIT epoch, 1989-12-31T00:00:00Z
+    static final long FIT_EPOCH_OFFSET = 631_065_600L;
+    static final double SEMICIRCLES_PER_DEGREE = (1L << 31) / 180.0;
+
+    static final int MESG_FILE_ID = 0;
+    static final int MESG_SESSION = 18;
+    static final int MESG_LAP = 19;
+    static final int MESG_RECORD = 20;
+    static final int MESG_EVENT = 21;
+    static final int MESG_ACTIVITY = 34;
+
+    private static final int LOCAL_FILE_ID = 0;
+    private static final int LOCAL_EVENT = 1;
+    private static final int LOCAL_RECORD = 2;
+    private static final int LOCAL_LAP = 3;
+    private static final int LOCAL_SESSION = 4;
+    private static final int LOCAL_ACTIVITY = 5;
+
+    private static final int ENUM = 0x00;
+    private static final int UINT8 = 0x02;
+    private static final int UINT16 = 0x84;
+    private static final int SINT32 = 0x85;
+    private static final int UINT32 = 0x86;
+    private static final int UINT32Z = 0x8c;
+
+    static final int INVALID_SINT32 = 0x7fffffff;
+    static final int INVALID_UINT16 = 0xffff;
+    static final int INVALID_UINT8 = 0xff;
+    static final int INVALID_UINT32 = 0xffffffff;
+
+    private static final int FIELD_TIMESTAMP = 253;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private long start;
+    private long dataSize;
+    private int dataCrc;
+    private long startTime;
+
+    /**
+     * @param channel written from its current position; closed by end()
+     */
+    public FitWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void begin(long startTime) throws IOException {
+        this.startTime = startTime;
+        start = channel.position();
+        channel.position(start + HEADER_SIZE);
+
+        define(LOCAL_FILE_ID, MESG_FILE_ID,
+            0, 1, ENUM, // type
+            1, 2, UINT16, // manufacturer
+            2, 2, UINT16, // product
+            3, 4, UINT32Z, // serial_number
+            4, 4, UINT32); // time_created
+        buffer.put((byte) LOCAL_FILE_ID);
+        buffer.put((byte) 4); // activity
+        buffer.putShort((short) 255); // development
+        buffer.putShort((short) 0);
+        buffer.putInt(1);
+        buffer.putInt(fitTime(startTime));
+
+        define(LOCAL_EVENT, MESG_EVENT,
+            FIELD_TIMESTAMP, 4, UINT32,
+            0, 1, ENUM, // event
+            1, 1, ENUM, // event_type
+            4, 1, UINT8); // event_group
+        event(startTime, 0); // timer start
+
+        define(LOCAL_RECORD, MESG_RECORD,
+            FIELD_TIMESTAMP, 4, UINT32,
+            0, 4, SINT32, // position_lat
+            1, 4, SINT32, // position_long
+            2, 2, UINT16, // altitude
+            5, 4, UINT32, // distance
+            6, 2, UINT16, // speed
+            4, 1, UINT8); // cadence
+    }
+
+    @Override
+    public void point(TrackPoint point) throws IOException {
+        ensure(1 + 21);
+        buffer.put((byte) LOCAL_RECORD);
+        buffer.putInt(fitTime(point.time));
+        buffer.putInt(point.hasPosition ? semicircles(point.latitude) : INVALID_SINT32);
+        buffer.putInt(point.hasPosition ? semicircles(point.longitude) : INVALID_SINT32);
+        buffer.putShort((short) (point.hasAltitude ? clamp(Math.round((point.altitude + 500) * 5), INVALID_UINT16 - 1) : INVALID_UINT16));
+        buffer.putInt((int) Math.min(Math.round(point.distance * 100), 0xfffffffeL));
+        buffer.putShort((short) clamp(Math.round(point.speed * 1000), INVALID_UINT16 - 1));
+        buffer.put((byte) (point.hasCadence ? clamp(Math.round(point.cadence), INVALID_UINT8 - 1) : INVALID_UINT8));
+    }
+
+    @Override
+    public void end(TrackSummary summary) throws IOException {
+        try {
+            int timestamp = fitTime(summary.endTime);
+            int elapsed = (int) (summary.endTime - summary.startTime);
+            int timer = (int) summary.timerTime;
+            int distance = (int) Math.min(Math.round(summary.distance * 100), 0xfffffffeL);
+
+            event(summary.endTime, 4); // timer stop_all
+
+            define(LOCAL_LAP, MESG_LAP,
+                FIELD_TIMESTAMP, 4, UINT32,
+                0, 1, ENUM, // event
+                1, 1, ENUM, // event_type
+                2, 4, UINT32, // start_time
+                7, 4, UINT32, // total_elapsed_time
+                8, 4, UINT32, // total_timer_time
+                9, 4, UINT32); // total_distance
+            buffer.put((byte) LOCAL_LAP);
+            buffer.putInt(timestamp);
+            buffer.put((byte) 9); // lap
+            buffer.put((byte) 1); // stop
+            buffer.putInt(fitTime(summary.startTime));
+            buffer.putInt(elapsed);
+            buffer.putInt(timer);
+            buffer.putInt(distance);
+
+            define(LOCAL_SESSION, MESG_SESSION,
+                FIELD_TIMESTAMP, 4, UINT32,
+                0, 1, ENUM, // event
+                1, 1, ENUM, // event_type
+                2, 4, UINT32, // start_time
+                5, 1, ENUM, // sport
+                6, 1, ENUM, // sub_sport
+                7, 4, UINT32, // total_elapsed_time
+                8, 4, UINT32, // total_timer_time
+                9, 4, UINT32, // total_distance
+                25, 2, UINT16, // first_lap_index
+                26, 2, UINT16); // num_laps
+            buffer.put((byte) LOCAL_SESSION);
+            buffer.putInt(timestamp);
+            buffer.put((byte) 8); // session
+            buffer.put((byte) 1); // stop
+            buffer.putInt(fitTime(summary.startTime));
+            buffer.put((byte) 2); // cycling
+            buffer.put((byte) 0); // generic
+            buffer.putInt(elapsed);
+            buffer.putInt(timer);
+            buffer.putInt(distance);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 1);
+
+            define(LOCAL_ACTIVITY, MESG_ACTIVITY,
+                FIELD_TIMESTAMP, 4, UINT32,
+                0, 4, UINT32, // total_timer_time
+                1, 2, UINT16, // num_sessions
+                2, 1, ENUM, // type
+                3, 1, ENUM, // event
+                4, 1, ENUM, // event_type
+                5, 4, UINT32); // local_timestamp
+            buffer.put((byte) LOCAL_ACTIVITY);
+            buffer.putInt(timestamp);
+            buffer.putInt(timer);
+            buffer.putShort((short) 1);
+            buffer.put((byte) 0); // manual
+            buffer.put((byte) 26); // activity
+            buffer.put((byte) 1); // stop
+            buffer.putInt(timestamp + TimeZone.getDefault().getOffset(summary.endTime) / 1000);
+            flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put((byte) HEADER_SIZE);
+            header.put(PROTOCOL_VERSION);
+            header.putShort(PROFILE_VERSION);
+            header.putInt((int) dataSize);
+            header.put((byte) '.').put((byte) 'F').put((byte) 'I').put((byte) 'T');
+            int headerCrc = FitCrc.update(0, header.array(), 0, 12);
+            header.putShort((short) headerCrc);
+            int fileCrc = FitCrc.combine(FitCrc.update(0, header.array(), 0, HEADER_SIZE), dataCrc, dataSize);
+
+            header.flip();
+            writeFully(header, start);
+
+            ByteBuffer crc = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+            crc.putShort((short) fileCrc);
+            crc.flip();
+            writeFully(crc, start + HEADER_SIZE + dataSize);
+        } finally {
+            channel.close();
+        }
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    static int fitTime(long epochMillis) {
+        return (int) (epochMillis / 1000 - FIT_EPOCH_OFFSET);
+    }
+
+    static int semicircles(double degrees) {
+        return (int) Math.round(degrees * SEMICIRCLES_PER_DEGREE);
+    }
+
+    private static int clamp(long value, int max) {
+        return (int) Math.max(0, Math.min(value, max));
+    }
+
+    /**
+     * @param fields triples of field definition number, size and base type
+     */
+    private void define(int localType, int globalMessage, int... fields) throws IOException {
+        ensure(6 + fields.length);
+        buffer.put((byte) (0x40 | localType));
+        buffer.put((byte) 0); // reserved
+        buffer.put((byte) 0); // little endian
+        buffer.putShort((short) globalMessage);
+        buffer.put((byte) (fields.length / 3));
+        for (int field : fields)
+            buffer.put((byte) field);
+    }
+
+    private void event(long time, int eventType) throws IOException {
+        ensure(1 + 7);
+        buffer.put((byte) LOCAL_EVENT);
+        buffer.putInt(fitTime(time));
+        buffer.put((byte) 0); // timer
+        buffer.put((byte) eventType);
+        buffer.put((byte) 0);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        dataCrc = FitCrc.update(dataCrc, buffer.array(), buffer.arrayOffset(), buffer.limit());
+        int length = buffer.limit();
+        writeFully(buffer, start + HEADER_SIZE + dataSize);
+        dataSize += length;
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining())
+            position += channel.write(bytes, position);
+    }
+}
@@ -0,0 +1,102 @@
+package sh.nothing.droidbike.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Writes GPX 1.1 with cadence in the Garmin TrackPointExtension. Points without a position
+ * are skipped, GPX cannot hold them.
+ */
+
+public class GpxWriter implements TrackWriter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Writer out;
+    private final String name;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+    private final StringBuilder line = new StringBuilder(256);
+
+    /**
+     * @param out closed by end()
+     */
+    public GpxWriter(OutputStream out, String name) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, UTF_8), 64 * 1024);
+        this.name = name;
+        timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Override
+    public void begin(long startTime) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<gpx version=\"1.1\" creator=\"DroidBike\" xmlns=\"http://www.topografix.com/GPX/1/1\""
+            + " xmlns:gpxtpx=\"http://www.garmin.com/xmlschemas/TrackPointExtension/v1\">\n");
+        out.write(" <metadata><time>" + timeFormat.format(startTime) + "</time></metadata>\n");
+        out.write(" <trk>\n  <name>" + escape(name) + "</name>\n  <type>cycling</type>\n  <trkseg>\n");
+    }
+
+    @Override
+    public void point(TrackPoint point) throws IOException {
+        if (!point.hasPosition)
+            return;
+
+        StringBuilder line = this.line;
+        line.setLength(0);
+        line.append("   <trkpt lat=\"");
+        appendFixed(line, point.latitude, 7);
+        line.append("\" lon=\"");
+        appendFixed(line, point.longitude, 7);
+        line.append("\">");
+        if (point.hasAltitude) {
+            line.append("<ele>");
+            appendFixed(line, point.altitude, 1);
+            line.append("</ele>");
+        }
+        line.append("<time>").append(timeFormat.format(point.time)).append("</time>");
+        if (point.hasCadence) {
+            line.append("<extensions><gpxtpx:TrackPointExtension><gpxtpx:cad>")
+                .append(Math.round(point.cadence))
+                .append("</gpxtpx:cad></gpxtpx:TrackPointExtension></extensions>");
+        }
+        line.append("</trkpt>\n");
+        out.append(line);
+    }
+
+    @Override
+    public void end(TrackSummary summary) throws IOException {
+        out.write("  </trkseg>\n </trk>\n</gpx>\n");
+        out.close();
+    }
+
+    /**
+     * Appends value with a fixed number of decimals; Double.toString may use exponents,
+     * which XML decimals do not allow.
+     */
+    static void appendFixed(StringBuilder out, double value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++)
+            scale *= 10;
+        // rounded away from zero on both sides
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0)
+            out.append('-');
+        out.append(scaled / scale);
+        if (decimals == 0)
+            return;
+        out.append('.');
+        long fraction = scaled % scale;
+        for (long digit = scale / 10; digit > 1 && fraction < digit; digit /= 10)
+            out.append('0');
+        out.append(fraction);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,160 @@
+package sh.nothing.droidbike.export;
+
+import java.io.File;
+import java.io.IOException;
+
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.location.DeadReckoning;
+import sh.nothing.droidbike.record.RidePlayer;
+import sh.nothing.droidbike.record.RideRecord;
+import sh.nothing.droidbike.ride.Altitude;
+import sh.nothing.droidbike.ride.RideMetricsEngine;
+import sh.nothing.droidbike.ride.RideState;
+import sh.nothing.droidbike.sensor.PressureFilter;
+
+/**
+ * Exports a ride log in a single pass. The log is played as fast as possible through a
+ * RideMetricsEngine, the same way the live app computes its metrics, and a point is written
+ * every interval of ride time. Memory use does not depend on the length of the ride.
+ * <p>
+ * Positions between GPS fixes are dead reckoned from wheel distance and the recorded compass,
+ * so a track recorded with sparse fixes still follows the road.
+ */
+
+public class RideExporter {
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    private final int circumference;
+    private long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+
+    public RideExporter(int circumference) {
+        this.circumference = circumference;
+    }
+
+    public void setInterval(long millis) {
+        if (millis <= 0)
+            throw new IllegalArgumentException("interval must be positive");
+        intervalMillis = millis;
+    }
+
+    /**
+     * @return the exported ride's totals
+     */
+    public TrackSummary export(File log, TrackWriter writer) throws IOException {
+        RidePlayer player = new RidePlayer(log);
+        player.setPace(RidePlayer.Pace.UNLIMITED);
+        Export export = new Export(player, writer);
+        player.registerCallback(export);
+        player.play();
+        if (export.error != null)
+            throw export.error;
+        return export.finish();
+    }
+
+    private class Export implements RidePlayer.Listener {
+        final RidePlayer player;
+        final TrackWriter writer;
+        final RideMetricsEngine engine;
+        final RideState state = new RideState();
+        final TrackPoint point = new TrackPoint();
+        final TrackSummary summary = new TrackSummary();
+        final DeadReckoning position = new DeadReckoning();
+        final long interval = intervalMillis * 1_000_000L;
+
+        final PressureFilter pressureFilter = new PressureFilter();
+        boolean hasCrank;
+        boolean started;
+        long nextPoint;
+        long lastRealTime;
+        IOException error;
+
+        Export(RidePlayer player, TrackWriter writer) {
+            this.player = player;
+            this.writer = writer;
+            this.engine = new RideMetricsEngine(player.getRideClock());
+            engine.setCircumference(circumference);
+        }
+
+        @Override
+        public void onUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+            hasCrank |= role != CscSensorRole.SPEED;
+            engine.onCsc(realTime, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm);
+            position.onDistance(realTime, wheelRevolutions * (circumference / 1000.0));
+            tick(realTime);
+        }
+
+        @Override
+        public void onPressure(float pressure, long realTime) {
+            // smoothed like SensorsManager
+            engine.onPressure(realTime, pressureFilter.update(realTime, pressure));
+            tick(realTime);
+        }
+
+        @Override
+        public void onLocation(RideRecord location) {
+            engine.onLocation(location.realTime, location.latitude, location.longitude, location.altitude, location.speed);
+            position.onFix(location.realTime, location.latitude, location.longitude, location.accuracy);
+            tick(location.realTime);
+        }
+
+        @Override
+        public void onHeading(float azimuth, long realTime) {
+            position.onHeading(realTime, azimuth);
+        }
+
+        private void tick(long realTime) {
+            lastRealTime = realTime;
+            if (error != null)
+                return;
+            try {
+                if (!started) {
+                    started = true;
+                    nextPoint = realTime;
+                    summary.startTime = wallClock(realTime);
+                    writer.begin(summary.startTime);
+                }
+                if (realTime < nextPoint)
+                    return;
+                // after a gap, continue from now instead of catching up point by point
+                nextPoint = Math.max(nextPoint + interval, realTime);
+                writePoint(realTime);
+            } catch (IOException e) {
+                error = e;
+                player.stop();
+            }
+        }
+
+        private void writePoint(long realTime) throws IOException {
+            engine.read(state);
+            point.time = wallClock(realTime);
+            point.hasPosition = position.hasPosition();
+            point.latitude = position.getLatitude();
+            point.longitude = position.getLongitude();
+            point.hasAltitude = !Float.isNaN(state.pressure);
+            point.altitude = point.hasAltitude ? Altitude.fromPressure(Altitude.PRESSURE_STANDARD_ATMOSPHERE, state.pressure) : 0.0f;
+            point.distance = state.distance * 1000;
+            point.speed = state.speed / 3.6f;
+            point.hasCadence = hasCrank;
+            point.cadence = state.cadence;
+            writer.point(point);
+            summary.points++;
+        }
+
+        private long wallClock(long realTime) {
+            return player.getStartWallClock() + (realTime - player.getStartRealTime()) / 1_000_000;
+        }
+
+        TrackSummary finish() throws IOException {
+            if (!started) {
+                summary.startTime = player.getStartWallClock();
+                writer.begin(summary.startTime);
+            }
+            engine.read(state);
+            summary.endTime = started ? wallClock(lastRealTime) : summary.startTime;
+            summary.timerTime = state.movingTime / 1_000_000;
+            summary.distance = state.distance * 1000;
+            writer.end(summary);
+            return summary;
+        }
+    }
+}
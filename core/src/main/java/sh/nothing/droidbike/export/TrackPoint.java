@@ -0,0 +1,22 @@
+package sh.nothing.droidbike.export;
+
+/**
+ * One exported sample of a ride. Reused for every point.
+ */
+
+public class TrackPoint {
+    public long time; // epoch ms
+
+    public boolean hasPosition;
+    public double latitude;
+    public double longitude;
+
+    public boolean hasAltitude;
+    public float altitude; // m, barometric
+
+    public double distance; // m
+    public float speed; // m/s
+
+    public boolean hasCadence;
+    public float cadence; // rpm
+}
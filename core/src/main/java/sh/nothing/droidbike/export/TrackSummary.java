@@ -0,0 +1,13 @@
+package sh.nothing.droidbike.export;
+
+/**
+ * Totals of an exported ride, passed to TrackWriter#end.
+ */
+
+public class TrackSummary {
+    public long startTime; // epoch ms
+    public long endTime; // epoch ms
+    public long timerTime; // ms, while the wheel was turning
+    public double distance; // m
+    public long points;
+}
@@ -0,0 +1,16 @@
+package sh.nothing.droidbike.export;
+
+import java.io.IOException;
+
+/**
+ * Streaming output of an export. Points arrive in time order; nothing is kept between calls
+ * except what the format needs for its trailer.
+ */
+
+public interface TrackWriter {
+    void begin(long startTime) throws IOException;
+
+    void point(TrackPoint point) throws IOException;
+
+    void end(TrackSummary summary) throws IOException;
+}
@@ -0,0 +1,89 @@
+package sh.nothing.droidbike.history;
+
+/**
+ * Result of HistoryStore.query(): the range split into equal steps, each with min, max, mean
+ * and sample count. Steps without samples have count 0 and NaN values. Reusable; the arrays
+ * are allocated once for the number of points asked for.
+ */
+
+public class HistoryRange {
+    public final long[] time;
+    public final float[] min;
+    public final float[] max;
+    public final float[] mean;
+    public final int[] count;
+    private final double[] sum;
+
+    private long from;
+    private long step;
+    private int size;
+    private long resolution;
+
+    public HistoryRange(int points) {
+        if (points <= 0)
+            throw new IllegalArgumentException("points: " + points);
+        time = new long[points];
+        min = new float[points];
+        max = new float[points];
+        mean = new float[points];
+        count = new int[points];
+        sum = new double[points];
+    }
+
+    public int capacity() {
+        return time.length;
+    }
+
+    /**
+     * @return points filled by the last query
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return time covered by each point
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * @return bucket length of the tier the points were built from, 0 for raw samples
+     */
+    public long getResolution() {
+        return resolution;
+    }
+
+    void reset(long from, long to, long resolution) {
+        this.from = from;
+        this.resolution = resolution;
+        size = capacity();
+        step = Math.max(1, (to - from + size - 1) / size);
+        for (int i = 0; i < size; i++) {
+            time[i] = from + i * step;
+            min[i] = Float.NaN;
+            max[i] = Float.NaN;
+            mean[i] = Float.NaN;
+            count[i] = 0;
+            sum[i] = 0;
+        }
+    }
+
+    void merge(long bucketTime, float bucketMin, float bucketMax, double bucketSum, int bucketCount) {
+        int i = (int) Math.max(0, Math.min(size - 1, (bucketTime - from) / step));
+        if (count[i] == 0 || bucketMin < min[i])
+            min[i] = bucketMin;
+        if (count[i] == 0 || bucketMax > max[i])
+            max[i] = bucketMax;
+        sum[i] += bucketSum;
+        count[i] += bucketCount;
+    }
+
+    void finish() {
+        for (int i = 0; i < size; i++) {
+            if (count[i] > 0)
+                mean[i] = (float) (sum[i] / count[i]);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package sh.nothing.droidbike.history;
+
+/**
+ * Ride history that stays the same size however long the ride: the last few minutes of raw
+ * samples, then 1 s, 10 s and 1 min buckets with min, max, mean and count, each tier in a
+ * fixed ring of primitive arrays. Every sample goes into every tier.
+ * <p>
+ * query() answers from the coarsest tier that still resolves the requested step and still
+ * holds the start of the range, so its cost is bounded by the tier sizes, not the ride length.
+ */
+
+public class HistoryStore {
+    public static final int SPEED = 0;
+    public static final int CADENCE = 1;
+    public static final int PRESSURE = 2;
+    public static final int GPS_ALTITUDE = 3;
+    public static final int GPS_SPEED = 4;
+    public static final int CHANNELS = 5;
+
+    private static final long SECOND = 1_000_000_000L;
+
+    // about 5 minutes of the 25 Hz barometer
+    static final int RAW_CAPACITY = 8192;
+    // resolution and how long it is kept
+    static final long[] TIER_RESOLUTIONS = {SECOND, 10 * SECOND, 60 * SECOND};
+    static final long[] TIER_RETENTIONS = {3600 * SECOND, 6 * 3600 * SECOND, 24 * 3600 * SECOND};
+
+    private final long[][] rawTime = new long[CHANNELS][];
+    private final float[][] rawValue = new float[CHANNELS][];
+    private final int[] rawHead = new int[CHANNELS];
+    private final int[] rawSize = new int[CHANNELS];
+    private final HistoryTier[][] tiers = new HistoryTier[CHANNELS][TIER_RESOLUTIONS.length];
+    private long samples;
+
+    public HistoryStore() {
+        this(RAW_CAPACITY);
+    }
+
+    HistoryStore(int rawCapacity) {
+        for (int c = 0; c < CHANNELS; c++) {
+            rawTime[c] = new long[rawCapacity];
+            rawValue[c] = new float[rawCapacity];
+            for (int t = 0; t < TIER_RESOLUTIONS.length; t++)
+                tiers[c][t] = new HistoryTier(TIER_RESOLUTIONS[t], (int) (TIER_RETENTIONS[t] / TIER_RESOLUTIONS[t]));
+        }
+    }
+
+    /**
+     * NaN values are ignored. Times are expected to increase per channel; older ones are
+     * counted in the newest bucket.
+     */
+    public synchronized void add(int channel, long realTime, float value) {
+        if (Float.isNaN(value))
+            return;
+        long[] times = rawTime[channel];
+        int head = rawHead[channel];
+        times[head] = realTime;
+        rawValue[channel][head] = value;
+        rawHead[channel] = (head + 1) % times.length;
+        if (rawSize[channel] < times.length)
+            rawSize[channel]++;
+        for (HistoryTier tier : tiers[channel])
+            tier.add(realTime, value);
+        samples++;
+    }
+
+    /**
+     * Fills out with out.capacity() points covering [from, to).
+     */
+    public synchronized void query(int channel, long from, long to, HistoryRange out) {
+        if (to <= from)
+            throw new IllegalArgumentException("from: " + from + ", to: " + to);
+        long step = Math.max(1, (to - from + out.capacity() - 1) / out.capacity());
+
+        HistoryTier[] channelTiers = tiers[channel];
+        HistoryTier chosen = null;
+        for (int t = channelTiers.length - 1; t >= 0; t--) {
+            HistoryTier tier = channelTiers[t];
+            if (tier.resolution <= step && tier.oldestTime() <= from) {
+                chosen = tier;
+                break;
+            }
+        }
+        if (chosen == null && rawOldest(channel) <= from) {
+            out.reset(from, to, 0);
+            queryRaw(channel, from, to, out);
+            out.finish();
+            return;
+        }
+        if (chosen == null) {
+            // too fine for any tier that reaches back to from: the finest one that does,
+            // or else the one reaching back furthest
+            for (HistoryTier tier : channelTiers) {
+                if (tier.oldestTime() <= from) {
+                    chosen = tier;
+                    break;
+                }
+            }
+            if (chosen == null)
+                chosen = channelTiers[channelTiers.length - 1];
+        }
+        out.reset(from, to, chosen.resolution);
+        chosen.query(from, to, out);
+        out.finish();
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return bytes held in sample and bucket arrays; fixed at construction
+     */
+    public int getFootprintBytes() {
+        int bytes = 0;
+        for (int c = 0; c < CHANNELS; c++) {
+            bytes += rawTime[c].length * (8 + 4);
+            for (HistoryTier tier : tiers[c])
+                bytes += tier.footprintBytes();
+        }
+        return bytes;
+    }
+
+    private long rawOldest(int channel) {
+        if (rawSize[channel] == 0)
+            return Long.MAX_VALUE;
+        long[] times = rawTime[channel];
+        return times[(rawHead[channel] - rawSize[channel] + times.length) % times.length];
+    }
+
+    private void queryRaw(int channel, long from, long to, HistoryRange out) {
+        long[] times = rawTime[channel];
+        float[] values = rawValue[channel];
+        int size = rawSize[channel];
+        int oldest = (rawHead[channel] - size + times.length) % times.length;
+
+        // first sample at or after from
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[(oldest + mid) % times.length] < from)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        for (int i = lo; i < size; i++) {
+            int index = (oldest + i) % times.length;
+            if (times[index] >= to)
+                break;
+            out.merge(times[index], values[index], values[index], values[index], 1);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package sh.nothing.droidbike.history;
+
+/**
+ * Ring of fixed-length time buckets with min, max, sum and count of the samples in each.
+ * Buckets are addressed by slot = floor(time / resolution); skipped slots are left empty.
+ */
+
+class HistoryTier {
+    final long resolution;
+    private final float[] min;
+    private final float[] max;
+    private final double[] sum;
+    private final int[] count;
+
+    private int head;
+    private long headSlot = Long.MIN_VALUE;
+
+    HistoryTier(long resolution, int capacity) {
+        this.resolution = resolution;
+        min = new float[capacity];
+        max = new float[capacity];
+        sum = new double[capacity];
+        count = new int[capacity];
+    }
+
+    void add(long time, float value) {
+        long slot = floorDiv(time, resolution);
+        if (headSlot == Long.MIN_VALUE) {
+            headSlot = slot;
+            clear(head);
+        } else if (slot > headSlot) {
+            long steps = Math.min(slot - headSlot, count.length);
+            for (long i = 0; i < steps; i++) {
+                head = (head + 1) % count.length;
+                clear(head);
+            }
+            headSlot = slot;
+        }
+        // late samples are folded into the newest bucket
+        int i = head;
+        if (count[i] == 0 || value < min[i])
+            min[i] = value;
+        if (count[i] == 0 || value > max[i])
+            max[i] = value;
+        sum[i] += value;
+        count[i]++;
+    }
+
+    boolean isEmpty() {
+        return headSlot == Long.MIN_VALUE;
+    }
+
+    /**
+     * @return start of the oldest bucket the ring holds, Long.MAX_VALUE before the first sample
+     */
+    long oldestTime() {
+        if (isEmpty())
+            return Long.MAX_VALUE;
+        return (headSlot - count.length + 1) * resolution;
+    }
+
+    /**
+     * Merges the buckets starting in [from, to) into out, cost bounded by the capacity.
+     */
+    void query(long from, long to, HistoryRange out) {
+        if (isEmpty())
+            return;
+        long first = Math.max(floorDiv(from, resolution), headSlot - count.length + 1);
+        long last = Math.min(floorDiv(to - 1, resolution), headSlot);
+        for (long slot = first; slot <= last; slot++) {
+            int i = (int) ((head - (headSlot - slot)) % count.length + count.length) % count.length;
+            if (count[i] > 0)
+                out.merge(slot * resolution, min[i], max[i], sum[i], count[i]);
+        }
+    }
+
+    int footprintBytes() {
+        return count.length * (4 + 4 + 8 + 4);
+    }
+
+    private void clear(int i) {
+        min[i] = 0;
+        max[i] = 0;
+        sum[i] = 0;
+        count[i] = 0;
+    }
+
+    static long floorDiv(long x, long y) {
+        // Math.floorDiv is not available before Android N
+        long q = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0)))
+            q--;
+        return q;
+    }
+}
@@ -0,0 +1,197 @@
+package sh.nothing.droidbike.location;
+
+/**
+ * Estimates the position between GPS fixes from wheel distance and compass heading.
+ * <p>
+ * Each fix resets the estimate; wheel distance since then is laid along the heading on a local
+ * flat earth. The compass azimuth is of the device, not of the bike, and points to magnetic
+ * north, so the offset to the course over ground is learned from the chord between fixes: the
+ * chord is the distance weighted vector sum of the headings ridden, whatever the path between
+ * them was. Frequent fixes are too close for a chord, so it spans as many as it takes. Until an
+ * offset is known, or without a compass, the last chord's direction is used instead.
+ */
+
+public class DeadReckoning {
+    public static final double EARTH_RADIUS = 6_371_008.8; // m, mean
+
+    // chords shorter than this are mostly GPS noise
+    static final double MIN_CHORD = 30.0; // m
+    // and so are chords much shorter than the wheel distance, e.g. after a U-turn
+    static final double MIN_CHORD_RATIO = 0.5;
+    static final double OFFSET_GAIN = 0.3;
+    // error growth per metre ridden, with a calibrated compass and with the chord direction
+    static final double DRIFT_COMPASS = 0.05;
+    static final double DRIFT_CHORD = 0.15;
+
+    private boolean hasFix;
+    private double latitude;
+    private double longitude;
+    private double fixLatitude;
+    private double fixLongitude;
+    private float fixAccuracy;
+    private long fixTime;
+
+    private boolean hasDistance;
+    private double lastDistance;
+    private double distanceSinceFix;
+
+    private float azimuth = Float.NaN;
+    // start of the chord being ridden, and the distance weighted azimuth since
+    private double chordLatitude;
+    private double chordLongitude;
+    private double chordDistance;
+    private double azimuthSin;
+    private double azimuthCos;
+
+    private boolean hasOffset;
+    private double offsetSin;
+    private double offsetCos;
+    private double chordHeading = Double.NaN;
+
+    private long fixes;
+    private long calibrations;
+
+    /**
+     * @param accuracy of the fix, m
+     */
+    public synchronized void onFix(long realTime, double latitude, double longitude, float accuracy) {
+        if (!hasFix || calibrate(latitude, longitude)) {
+            chordLatitude = latitude;
+            chordLongitude = longitude;
+            chordDistance = 0;
+            azimuthSin = azimuthCos = 0;
+        }
+        hasFix = true;
+        this.latitude = fixLatitude = latitude;
+        this.longitude = fixLongitude = longitude;
+        fixAccuracy = accuracy;
+        fixTime = realTime;
+        distanceSinceFix = 0;
+        fixes++;
+    }
+
+    /**
+     * @param distance wheel distance ridden since any fixed point, m; only its changes are used
+     */
+    public synchronized void onDistance(long realTime, double distance) {
+        double delta = distance - lastDistance;
+        lastDistance = distance;
+        if (!hasDistance) {
+            hasDistance = true;
+            return;
+        }
+        // counter restarted
+        if (delta <= 0)
+            return;
+
+        distanceSinceFix += delta;
+        chordDistance += delta;
+        if (!Float.isNaN(azimuth)) {
+            azimuthSin += delta * Math.sin(azimuth);
+            azimuthCos += delta * Math.cos(azimuth);
+        }
+        if (!hasFix)
+            return;
+        double heading = heading();
+        if (Double.isNaN(heading))
+            return;
+        latitude += Math.toDegrees(delta * Math.cos(heading) / EARTH_RADIUS);
+        longitude += Math.toDegrees(delta * Math.sin(heading) / (EARTH_RADIUS * Math.cos(Math.toRadians(latitude))));
+    }
+
+    /**
+     * @param azimuth of the device from magnetic north, rad, or NaN if not known
+     */
+    public synchronized void onHeading(long realTime, float azimuth) {
+        this.azimuth = azimuth;
+    }
+
+    public synchronized boolean hasPosition() {
+        return hasFix;
+    }
+
+    public synchronized double getLatitude() {
+        return latitude;
+    }
+
+    public synchronized double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return estimated error of the position, m; grows with the distance since the last fix
+     */
+    public synchronized float getAccuracy() {
+        return (float) (fixAccuracy + distanceSinceFix * (hasOffset && !Float.isNaN(azimuth) ? DRIFT_COMPASS : DRIFT_CHORD));
+    }
+
+    public synchronized double getDistanceSinceFix() {
+        return distanceSinceFix;
+    }
+
+    public synchronized long getFixTime() {
+        return fixTime;
+    }
+
+    /**
+     * @return course over ground the position is moved along, rad clockwise from true north, or NaN
+     */
+    public synchronized double getHeading() {
+        return heading();
+    }
+
+    /**
+     * @return learned difference between the course over ground and the device azimuth, rad, or NaN
+     */
+    public synchronized double getOffset() {
+        return hasOffset ? Math.atan2(offsetSin, offsetCos) : Double.NaN;
+    }
+
+    public synchronized long getFixCount() {
+        return fixes;
+    }
+
+    /**
+     * @return number of chords the offset was learned from
+     */
+    public synchronized long getCalibrationCount() {
+        return calibrations;
+    }
+
+    private double heading() {
+        if (hasOffset && !Float.isNaN(azimuth))
+            return azimuth + Math.atan2(offsetSin, offsetCos);
+        return chordHeading;
+    }
+
+    /**
+     * @return whether the chord is done with and the next one starts at this fix
+     */
+    private boolean calibrate(double latitude, double longitude) {
+        double north = Math.toRadians(latitude - chordLatitude) * EARTH_RADIUS;
+        double east = Math.toRadians(longitude - chordLongitude) * EARTH_RADIUS * Math.cos(Math.toRadians(chordLatitude));
+        double chord = Math.hypot(north, east);
+        if (chordDistance >= MIN_CHORD && chord < chordDistance * MIN_CHORD_RATIO) {
+            chordHeading = Double.NaN;
+            return true;
+        }
+        if (chord < MIN_CHORD)
+            return false;
+        chordHeading = Math.atan2(east, north);
+
+        double ridden = Math.hypot(azimuthSin, azimuthCos);
+        if (ridden < MIN_CHORD)
+            return true;
+        double offset = chordHeading - Math.atan2(azimuthSin, azimuthCos);
+        if (!hasOffset) {
+            hasOffset = true;
+            offsetSin = Math.sin(offset);
+            offsetCos = Math.cos(offset);
+        } else {
+            offsetSin += (Math.sin(offset) - offsetSin) * OFFSET_GAIN;
+            offsetCos += (Math.cos(offset) - offsetCos) * OFFSET_GAIN;
+        }
+        calibrations++;
+        return true;
+    }
+}
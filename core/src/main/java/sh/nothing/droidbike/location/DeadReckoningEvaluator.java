@@ -0,0 +1,147 @@
+package sh.nothing.droidbike.location;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.record.RidePlayer;
+import sh.nothing.droidbike.record.RideRecord;
+
+/**
+ * Replays a ride log recorded with frequent fixes as if GPS had been asked for one fix per
+ * interval. Only those fixes reach DeadReckoning; every fix in between is held out and the
+ * estimate at its time is compared against it. Holding the last kept fix is measured alongside
+ * as the baseline, which is what a sparse location request gives without dead reckoning.
+ */
+
+public class DeadReckoningEvaluator {
+    // fixes do not come exactly on time
+    private static final long JITTER = 500_000_000;
+
+    private final int circumference;
+
+    /**
+     * @param circumference of the wheel, mm
+     */
+    public DeadReckoningEvaluator(int circumference) {
+        this.circumference = circumference;
+    }
+
+    public Result evaluate(File log, long intervalMillis) throws IOException {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("interval must be positive");
+        RidePlayer player = new RidePlayer(log);
+        player.setPace(RidePlayer.Pace.UNLIMITED);
+        Evaluation evaluation = new Evaluation(intervalMillis * 1_000_000L);
+        player.registerCallback(evaluation);
+        player.play();
+        return evaluation.result(intervalMillis);
+    }
+
+    /**
+     * Distance between two positions on a local flat earth, m.
+     */
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double north = Math.toRadians(latitude2 - latitude1) * DeadReckoning.EARTH_RADIUS;
+        double east = Math.toRadians(longitude2 - longitude1) * DeadReckoning.EARTH_RADIUS * Math.cos(Math.toRadians(latitude1));
+        return Math.hypot(north, east);
+    }
+
+    public static class Result {
+        public long intervalMillis;
+        public int fixesUsed;
+        public int fixesHeldOut;
+        public float meanError; // m
+        public float p95Error;
+        public float maxError;
+        public float meanHoldError;
+        public float p95HoldError;
+        public long calibrations;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%5d ms: %d fixes used, %d held out, error mean %.1f m p95 %.1f m max %.1f m, "
+                    + "holding the last fix mean %.1f m p95 %.1f m, %d calibrations",
+                intervalMillis, fixesUsed, fixesHeldOut, meanError, p95Error, maxError, meanHoldError, p95HoldError, calibrations);
+        }
+    }
+
+    private class Evaluation implements RidePlayer.Listener {
+        final DeadReckoning estimator = new DeadReckoning();
+        final long interval;
+        long nextFix = Long.MIN_VALUE;
+        int used;
+        double holdLatitude;
+        double holdLongitude;
+        float[] errors = new float[256];
+        float[] holdErrors = new float[256];
+        int heldOut;
+
+        Evaluation(long interval) {
+            this.interval = interval;
+        }
+
+        @Override
+        public void onUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+            estimator.onDistance(realTime, wheelRevolutions * (circumference / 1000.0));
+        }
+
+        @Override
+        public void onPressure(float pressure, long realTime) {
+        }
+
+        @Override
+        public void onHeading(float azimuth, long realTime) {
+            estimator.onHeading(realTime, azimuth);
+        }
+
+        @Override
+        public void onLocation(RideRecord location) {
+            if (location.realTime >= nextFix) {
+                // like a location request, the next fix is due an interval after this one
+                nextFix = location.realTime + interval - JITTER;
+                estimator.onFix(location.realTime, location.latitude, location.longitude, location.accuracy);
+                holdLatitude = location.latitude;
+                holdLongitude = location.longitude;
+                used++;
+                return;
+            }
+            if (heldOut == errors.length) {
+                errors = Arrays.copyOf(errors, heldOut * 2);
+                holdErrors = Arrays.copyOf(holdErrors, heldOut * 2);
+            }
+            errors[heldOut] = (float) distance(location.latitude, location.longitude, estimator.getLatitude(), estimator.getLongitude());
+            holdErrors[heldOut] = (float) distance(location.latitude, location.longitude, holdLatitude, holdLongitude);
+            heldOut++;
+        }
+
+        Result result(long intervalMillis) {
+            Result result = new Result();
+            result.intervalMillis = intervalMillis;
+            result.fixesUsed = used;
+            result.fixesHeldOut = heldOut;
+            result.calibrations = estimator.getCalibrationCount();
+            if (heldOut == 0)
+                return result;
+            float[] errors = Arrays.copyOf(this.errors, heldOut);
+            float[] holdErrors = Arrays.copyOf(this.holdErrors, heldOut);
+            Arrays.sort(errors);
+            Arrays.sort(holdErrors);
+            result.meanError = mean(errors);
+            result.p95Error = errors[(heldOut - 1) * 95 / 100];
+            result.maxError = errors[heldOut - 1];
+            result.meanHoldError = mean(holdErrors);
+            result.p95HoldError = holdErrors[(heldOut - 1) * 95 / 100];
+            return result;
+        }
+
+        private float mean(float[] values) {
+            double sum = 0;
+            for (float value : values)
+                sum += value;
+            return (float) (sum / values.length);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package sh.nothing.droidbike.location;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * LRU cache of place names keyed by geohash cell, in front of a ReverseGeocoder. Positions in
+ * the same cell share one lookup; a lookup already running for a cell is joined instead of
+ * repeated. Places without a name are cached too, failures are not.
+ * <p>
+ * get() blocks and is meant for background threads. save() and load() keep the cache across
+ * rides in a small file, written atomically.
+ */
+
+public class GeocodeCache {
+    public static final int DEFAULT_PRECISION = 7;
+    public static final int DEFAULT_CAPACITY = 512;
+
+    static final int MAGIC = 0x44424743;
+    static final int VERSION = 1;
+    // cached for positions the geocoder has no name for
+    private static final String NO_NAME = "";
+
+    private static class Lookup {
+        String name;
+        IOException error;
+        boolean done;
+    }
+
+    private final ReverseGeocoder geocoder;
+    private final int precision;
+    private final int capacity;
+    private final LinkedHashMap<String, String> entries;
+    private final Map<String, Lookup> inFlight = new HashMap<>();
+    // entries added so far, and how many of them the last successful save() held
+    private long changes;
+    private long savedChanges;
+
+    private long hits;
+    private long misses;
+    private long joined;
+    private long failures;
+    private long evictions;
+
+    public GeocodeCache(ReverseGeocoder geocoder) {
+        this(geocoder, DEFAULT_PRECISION, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param precision geohash length of a cell
+     * @param capacity  cells kept, least recently used dropped first
+     */
+    public GeocodeCache(ReverseGeocoder geocoder, int precision, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity: " + capacity);
+        this.geocoder = geocoder;
+        this.precision = precision;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                if (size() <= GeocodeCache.this.capacity)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return place name for the cell holding the position, or null if it has none
+     * @throws IOException if the geocoder failed; the next call for the cell tries again
+     */
+    public String get(double latitude, double longitude) throws IOException {
+        String key = Geohash.encode(latitude, longitude, precision);
+        Lookup lookup;
+        boolean owner = false;
+        synchronized (this) {
+            String name = entries.get(key);
+            if (name != null) {
+                hits++;
+                return name.isEmpty() ? null : name;
+            }
+            lookup = inFlight.get(key);
+            if (lookup == null) {
+                misses++;
+                lookup = new Lookup();
+                inFlight.put(key, lookup);
+                owner = true;
+            } else {
+                joined++;
+            }
+        }
+
+        if (owner)
+            resolve(key, lookup, latitude, longitude);
+
+        synchronized (lookup) {
+            try {
+                while (!lookup.done)
+                    lookup.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for " + key);
+            }
+            if (lookup.error != null)
+                throw lookup.error;
+            return lookup.name;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return true if entries changed since the last save() or load()
+     */
+    public synchronized boolean isModified() {
+        return changes != savedChanges;
+    }
+
+    /**
+     * Adds the entries in file that are not cached yet. A missing file, or one written with a
+     * different precision, is ignored.
+     *
+     * @return entries added
+     */
+    public int load(File file) throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            return 0;
+        }
+        int added = 0;
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != precision)
+                return 0;
+            int count = in.readInt();
+            // oldest first, so the LRU order survives
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String name = in.readUTF();
+                synchronized (this) {
+                    if (!entries.containsKey(key) && !inFlight.containsKey(key)) {
+                        entries.put(key, name);
+                        added++;
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // truncated; keep what was read
+        } finally {
+            in.close();
+        }
+        return added;
+    }
+
+    /**
+     * Writes every entry to file through a temporary file, so a crash never leaves it half
+     * written.
+     */
+    public void save(File file) throws IOException {
+        String[] keys;
+        String[] names;
+        long saving;
+        synchronized (this) {
+            keys = entries.keySet().toArray(new String[entries.size()]);
+            names = entries.values().toArray(new String[entries.size()]);
+            saving = changes;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(precision);
+            out.writeInt(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                out.writeUTF(keys[i]);
+                out.writeUTF(names[i]);
+            }
+        }
+        if (!temp.renameTo(file))
+            throw new IOException("cannot rename " + temp + " to " + file);
+        // entries added while writing are still to be saved
+        synchronized (this) {
+            savedChanges = Math.max(savedChanges, saving);
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return requests that went to the geocoder
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return requests that waited for a lookup already running for their cell
+     */
+    public synchronized long getJoined() {
+        return joined;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return share of requests answered without a geocoder call of their own
+     */
+    public synchronized double getHitRate() {
+        long requests = hits + misses + joined;
+        return requests == 0 ? 0 : (double) (hits + joined) / requests;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d cells, %d hits, %d misses, %d joined, %d failures, %d evictions, hit rate %.1f%%",
+            entries.size(), hits, misses, joined, failures, evictions, getHitRate() * 100);
+    }
+
+    private void resolve(String key, Lookup lookup, double latitude, double longitude) {
+        String name = null;
+        IOException error = null;
+        try {
+            name = geocoder.lookup(latitude, longitude);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException("geocoder failed for " + key, e);
+        } finally {
+            synchronized (this) {
+                inFlight.remove(key);
+                if (error == null) {
+                    entries.put(key, name == null || name.isEmpty() ? NO_NAME : name);
+                    changes++;
+                } else {
+                    failures++;
+                }
+            }
+            synchronized (lookup) {
+                lookup.name = name == null || name.isEmpty() ? null : name;
+                lookup.error = error;
+                lookup.done = true;
+                lookup.notifyAll();
+            }
+        }
+    }
+}
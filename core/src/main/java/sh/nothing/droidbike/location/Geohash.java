@@ -0,0 +1,57 @@
+package sh.nothing.droidbike.location;
+
+/**
+ * Geohash encoding, used to put nearby positions into the same grid cell. Each character
+ * halves the cell five times; 7 characters are about 150 m x 150 m at the equator.
+ */
+
+public final class Geohash {
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    public static final int MAX_PRECISION = 12;
+
+    private Geohash() {
+    }
+
+    public static String encode(double latitude, double longitude, int precision) {
+        if (precision < 1 || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("precision: " + precision);
+        double latMin = -90;
+        double latMax = 90;
+        double lonMin = -180;
+        double lonMax = 180;
+        char[] hash = new char[precision];
+        boolean even = true;
+        int bits = 0;
+        int ch = 0;
+        int length = 0;
+        while (length < precision) {
+            if (even) {
+                double mid = (lonMin + lonMax) / 2;
+                if (longitude >= mid) {
+                    ch = (ch << 1) | 1;
+                    lonMin = mid;
+                } else {
+                    ch <<= 1;
+                    lonMax = mid;
+                }
+            } else {
+                double mid = (latMin + latMax) / 2;
+                if (latitude >= mid) {
+                    ch = (ch << 1) | 1;
+                    latMin = mid;
+                } else {
+                    ch <<= 1;
+                    latMax = mid;
+                }
+            }
+            even = !even;
+            if (++bits == 5) {
+                hash[length++] = BASE32[ch];
+                bits = 0;
+                ch = 0;
+            }
+        }
+        return new String(hash);
+    }
+}
@@ -0,0 +1,16 @@
+package sh.nothing.droidbike.location;
+
+import java.io.IOException;
+
+/**
+ * Turns a position into a place name; android.location.Geocoder in the app, a fake in tests.
+ */
+
+public interface ReverseGeocoder {
+    /**
+     * Called on a background thread; may block on the network.
+     *
+     * @return place name, or null if there is none for the position
+     */
+    String lookup(double latitude, double longitude) throws IOException;
+}
@@ -0,0 +1,79 @@
+package sh.nothing.droidbike.record;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the binary ride log.
+ * <p>
+ * The file is a sequence of CHUNK_SIZE chunks. Each chunk starts with a header slot and holds
+ * RECORDS_PER_CHUNK fixed-width little-endian records after it. A record whose type is
+ * TYPE_NONE ends the chunk; the recorder writes the type byte last so a record is either
+ * complete or absent. Chunks are self-describing, so losing one does not affect the others.
+ *
+ * <pre>
+ * chunk header  0 int magic, 4 short version, 6 short record size, 8 int chunk index,
+ *              12 int chunk size, 16 long start wall clock (ms), 24 long start real time (ns)
+ * record        0 byte type, 1 byte source, 2 short flags, 4 int aux, 8 long real time (ns),
+ *              16 payload (32 bytes)
+ * CSC          16 int wheel revolutions, 20 int wheel event time, 24 int crank revolutions,
+ *              28 int crank event time; aux is the sensor role ordinal or -1 if not known
+ *              yet, flags FLAG_WHEEL / FLAG_CRANK
+ * PRESSURE     16 float pressure (hPa)
+ * LOCATION     16 double latitude, 24 double longitude, 32 float altitude (m),
+ *              36 float bearing (deg), 40 float speed (m/s), 44 float accuracy (m)
+ * HEADING      16 float azimuth of the device from magnetic north (rad), unsmoothed
+ * </pre>
+ */
+
+public final class RideLog {
+    public static final int MAGIC = 0x44424b31; // "DBK1"
+    public static final short VERSION = 1;
+
+    public static final int RECORD_SIZE = 48;
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final int RECORDS_PER_CHUNK = CHUNK_SIZE / RECORD_SIZE - 1;
+
+    public static final byte TYPE_NONE = 0;
+    public static final byte TYPE_CSC = 1;
+    public static final byte TYPE_PRESSURE = 2;
+    public static final byte TYPE_LOCATION = 3;
+    public static final byte TYPE_HEADING = 4;
+
+    public static final int FLAG_WHEEL = 0x01;
+    public static final int FLAG_CRANK = 0x02;
+
+    static final int OFFSET_TYPE = 0;
+    static final int OFFSET_SOURCE = 1;
+    static final int OFFSET_FLAGS = 2;
+    static final int OFFSET_AUX = 4;
+    static final int OFFSET_REAL_TIME = 8;
+    static final int OFFSET_PAYLOAD = 16;
+
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_VERSION = 4;
+    static final int HEADER_RECORD_SIZE = 6;
+    static final int HEADER_CHUNK_INDEX = 8;
+    static final int HEADER_CHUNK_SIZE = 12;
+    static final int HEADER_START_WALL_CLOCK = 16;
+    static final int HEADER_START_REAL_TIME = 24;
+
+    private RideLog() {
+    }
+
+    static void writeHeader(ByteBuffer buffer, int chunkIndex, long startWallClock, long startRealTime) {
+        buffer.putInt(HEADER_MAGIC, MAGIC);
+        buffer.putShort(HEADER_VERSION, VERSION);
+        buffer.putShort(HEADER_RECORD_SIZE, (short) RECORD_SIZE);
+        buffer.putInt(HEADER_CHUNK_INDEX, chunkIndex);
+        buffer.putInt(HEADER_CHUNK_SIZE, CHUNK_SIZE);
+        buffer.putLong(HEADER_START_WALL_CLOCK, startWallClock);
+        buffer.putLong(HEADER_START_REAL_TIME, startRealTime);
+    }
+
+    static boolean isValidHeader(ByteBuffer buffer) {
+        return buffer.getInt(HEADER_MAGIC) == MAGIC
+            && buffer.getShort(HEADER_VERSION) == VERSION
+            && buffer.getShort(HEADER_RECORD_SIZE) == RECORD_SIZE
+            && buffer.getInt(HEADER_CHUNK_SIZE) == CHUNK_SIZE;
+    }
+}
@@ -0,0 +1,149 @@
+package sh.nothing.droidbike.record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads records of a ride log in order, one chunk in memory at a time. Chunks with a broken
+ * header, e.g. one that was being written when the device died, are skipped.
+ */
+
+public class RideLogReader implements Closeable {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer chunk = ByteBuffer.allocate(RideLog.CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final long chunkCount;
+
+    private long nextChunk;
+    private int position = RideLog.CHUNK_SIZE;
+    private long startWallClock;
+    private long startRealTime;
+    private boolean hasStart;
+    private long skippedChunks;
+
+    public RideLogReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.chunkCount = (channel.size() + RideLog.CHUNK_SIZE - 1) / RideLog.CHUNK_SIZE;
+    }
+
+    /**
+     * Reads the next record into out.
+     *
+     * @return false at the end of the log
+     */
+    public boolean next(RideRecord out) throws IOException {
+        while (true) {
+            if (position + RideLog.RECORD_SIZE <= RideLog.CHUNK_SIZE) {
+                byte type = chunk.get(position + RideLog.OFFSET_TYPE);
+                if (type != RideLog.TYPE_NONE) {
+                    decode(position, type, out);
+                    position += RideLog.RECORD_SIZE;
+                    return true;
+                }
+            }
+            if (!readNextChunk())
+                return false;
+        }
+    }
+
+    /**
+     * Rewinds to the first record.
+     */
+    public void rewind() {
+        nextChunk = 0;
+        position = RideLog.CHUNK_SIZE;
+        skippedChunks = 0;
+    }
+
+    /**
+     * @return epoch millis at getStartRealTime() of the first readable chunk, valid after the
+     * first record was read
+     */
+    public long getStartWallClock() {
+        return startWallClock;
+    }
+
+    public long getStartRealTime() {
+        return startRealTime;
+    }
+
+    public boolean hasStart() {
+        return hasStart;
+    }
+
+    public long getSkippedChunks() {
+        return skippedChunks;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private boolean readNextChunk() throws IOException {
+        while (nextChunk < chunkCount) {
+            long offset = nextChunk * RideLog.CHUNK_SIZE;
+            nextChunk++;
+
+            chunk.clear();
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk, offset + chunk.position()) < 0)
+                    break;
+            }
+            // a short last chunk reads as zeros past the end
+            while (chunk.hasRemaining())
+                chunk.put((byte) 0);
+
+            if (!RideLog.isValidHeader(chunk)) {
+                skippedChunks++;
+                continue;
+            }
+            if (!hasStart) {
+                hasStart = true;
+                startWallClock = chunk.getLong(RideLog.HEADER_START_WALL_CLOCK);
+                startRealTime = chunk.getLong(RideLog.HEADER_START_REAL_TIME);
+            }
+            position = RideLog.RECORD_SIZE;
+            return true;
+        }
+        return false;
+    }
+
+    private void decode(int offset, byte type, RideRecord out) {
+        out.type = type;
+        out.source = chunk.get(offset + RideLog.OFFSET_SOURCE) & 0xff;
+        out.realTime = chunk.getLong(offset + RideLog.OFFSET_REAL_TIME);
+        switch (type) {
+            case RideLog.TYPE_CSC:
+                int flags = chunk.getShort(offset + RideLog.OFFSET_FLAGS);
+                out.role = chunk.getInt(offset + RideLog.OFFSET_AUX);
+                out.wheelRevolutionsPresent = (flags & RideLog.FLAG_WHEEL) != 0;
+                out.wheelRevolutions = chunk.getInt(offset + 16);
+                out.wheelEventTime = chunk.getInt(offset + 20);
+                out.crankRevolutionsPresent = (flags & RideLog.FLAG_CRANK) != 0;
+                out.crankRevolutions = chunk.getInt(offset + 24);
+                out.crankEventTime = chunk.getInt(offset + 28);
+                break;
+            case RideLog.TYPE_PRESSURE:
+                out.pressure = chunk.getFloat(offset + 16);
+                break;
+            case RideLog.TYPE_LOCATION:
+                out.latitude = chunk.getDouble(offset + 16);
+                out.longitude = chunk.getDouble(offset + 24);
+                out.altitude = chunk.getFloat(offset + 32);
+                out.bearing = chunk.getFloat(offset + 36);
+                out.speed = chunk.getFloat(offset + 40);
+                out.accuracy = chunk.getFloat(offset + 44);
+                break;
+            case RideLog.TYPE_HEADING:
+                out.azimuth = chunk.getFloat(offset + 16);
+                break;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package sh.nothing.droidbike.record;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import sh.nothing.droidbike.ble.CscMeasurement;
+import sh.nothing.droidbike.ble.CscSensor;
+import sh.nothing.droidbike.ble.CscSensorHub;
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.util.Clock;
+
+/**
+ * Plays a ride log back in recorded order. CSC records go through a CscSensorHub like live
+ * notifications do, so rpm and merged revolutions are computed by the same code.
+ * <p>
+ * Listener times are the recorded ones, and getRideClock() follows them, so metrics computed
+ * from a replay do not depend on the pace. The pace only decides how long play() waits between
+ * records.
+ */
+
+public class RidePlayer {
+
+    public enum Pace {
+        REAL_TIME(1.0),
+        FAST_FORWARD(100.0),
+        UNLIMITED(0.0);
+
+        final double speed;
+
+        Pace(double speed) {
+            this.speed = speed;
+        }
+    }
+
+    public interface Listener extends CscSensorHub.Listener {
+        /**
+         * @param pressure raw barometer reading, hPa
+         */
+        void onPressure(float pressure, long realTime);
+
+        /**
+         * @param location reused for the next record; copy what is needed
+         */
+        void onLocation(RideRecord location);
+
+        /**
+         * @param azimuth of the device from magnetic north, rad, unsmoothed
+         */
+        void onHeading(float azimuth, long realTime);
+    }
+
+    private static final int MAX_SOURCES = 256;
+
+    private final File file;
+    private final Clock clock;
+    private Listener listener;
+    private final RideRecord record = new RideRecord();
+    private final CscMeasurement measurement = new CscMeasurement();
+
+    private volatile double speed = Pace.REAL_TIME.speed;
+    private volatile boolean stopped;
+    private volatile long rideTime;
+    private volatile long startWallClock;
+    private volatile long startRealTime;
+
+    private long played;
+    private long maxLagNanos;
+
+    private final Clock rideClock = new Clock() {
+        @Override
+        public long nanoTime() {
+            return rideTime;
+        }
+    };
+
+    public RidePlayer(File file) {
+        this(file, Clock.SYSTEM);
+    }
+
+    /**
+     * @param clock used to pace playback
+     */
+    public RidePlayer(File file, Clock clock) {
+        this.file = file;
+        this.clock = clock;
+    }
+
+    public void registerCallback(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setPace(Pace pace) {
+        speed = pace.speed;
+    }
+
+    /**
+     * @param speed multiple of real time, or 0 to play as fast as possible
+     */
+    public void setSpeed(double speed) {
+        if (speed < 0 || Double.isNaN(speed))
+            throw new IllegalArgumentException("speed must be >= 0");
+        this.speed = speed;
+    }
+
+    /**
+     * Plays the whole log on the calling thread, until the end or until stop() is called.
+     *
+     * @return number of records played
+     */
+    public long play() throws IOException {
+        stopped = false;
+        played = 0;
+        maxLagNanos = 0;
+
+        Listener listener = this.listener;
+        CscSensorHub hub = new CscSensorHub(listener);
+        CscSensor[] sensors = new CscSensor[MAX_SOURCES];
+
+        try (RideLogReader reader = new RideLogReader(file)) {
+            long firstRealTime = 0;
+            long anchor = 0;
+            while (!stopped && reader.next(record)) {
+                if (played == 0) {
+                    firstRealTime = record.realTime;
+                    anchor = clock.nanoTime();
+                    startWallClock = reader.getStartWallClock();
+                    startRealTime = reader.getStartRealTime();
+                }
+
+                double speed = this.speed;
+                if (speed > 0)
+                    waitUntil(anchor + (long) ((record.realTime - firstRealTime) / speed));
+                if (stopped)
+                    break;
+
+                rideTime = record.realTime;
+                if (listener != null)
+                    dispatch(listener, hub, sensors);
+                played++;
+            }
+        }
+        return played;
+    }
+
+    /**
+     * Makes play() return before the next record; may be called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return clock that reads the recorded time of the record being played
+     */
+    public Clock getRideClock() {
+        return rideClock;
+    }
+
+    /**
+     * @return epoch millis at getStartRealTime() of the recording, valid once play() started
+     */
+    public long getStartWallClock() {
+        return startWallClock;
+    }
+
+    public long getStartRealTime() {
+        return startRealTime;
+    }
+
+    /**
+     * @return records played by the last or current play()
+     */
+    public long getPlayedCount() {
+        return played;
+    }
+
+    /**
+     * @return how far behind schedule the slowest record was delivered, i.e. how much the
+     * listeners could not keep up with the pace
+     */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    private void waitUntil(long due) {
+        long now;
+        while (!stopped && (now = clock.nanoTime()) < due)
+            LockSupport.parkNanos(due - now);
+        long lag = clock.nanoTime() - due;
+        if (lag > maxLagNanos)
+            maxLagNanos = lag;
+    }
+
+    private void dispatch(Listener listener, CscSensorHub hub, CscSensor[] sensors) {
+        switch (record.type) {
+            case RideLog.TYPE_CSC:
+                CscSensor sensor = sensors[record.source];
+                if (sensor == null) {
+                    sensor = sensors[record.source] = hub.addSensor("replay-" + record.source);
+                    if (record.role >= 0 && record.role < CscSensorRole.values().length)
+                        hub.onFeatures(sensor, CscSensorRole.values()[record.role].toFeatures());
+                }
+                measurement.wheelRevolutionsPresent = record.wheelRevolutionsPresent;
+                measurement.wheelRevolutions = record.wheelRevolutions;
+                measurement.wheelEventTime = record.wheelEventTime;
+                measurement.crankRevolutionsPresent = record.crankRevolutionsPresent;
+                measurement.crankRevolutions = record.crankRevolutions;
+                measurement.crankEventTime = record.crankEventTime;
+                hub.onMeasurement(sensor, measurement, record.realTime);
+                break;
+            case RideLog.TYPE_PRESSURE:
+                listener.onPressure(record.pressure, record.realTime);
+                break;
+            case RideLog.TYPE_LOCATION:
+                listener.onLocation(record);
+                break;
+            case RideLog.TYPE_HEADING:
+                listener.onHeading(record.azimuth, record.realTime);
+                break;
+        }
+    }
+}
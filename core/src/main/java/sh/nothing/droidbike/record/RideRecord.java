@@ -0,0 +1,34 @@
+package sh.nothing.droidbike.record;
+
+/**
+ * Mutable holder for one record read from a ride log. Only the fields of its type are valid.
+ */
+
+public class RideRecord {
+    public byte type;
+    public int source;
+    public long realTime; // ns
+
+    // TYPE_CSC
+    public int role; // CscSensorRole ordinal, -1 if not known
+    public boolean wheelRevolutionsPresent;
+    public int wheelRevolutions;
+    public int wheelEventTime;
+    public boolean crankRevolutionsPresent;
+    public int crankRevolutions;
+    public int crankEventTime;
+
+    // TYPE_PRESSURE
+    public float pressure;
+
+    // TYPE_LOCATION
+    public double latitude;
+    public double longitude;
+    public float altitude;
+    public float bearing;
+    public float speed;
+    public float accuracy;
+
+    // TYPE_HEADING
+    public float azimuth;
+}
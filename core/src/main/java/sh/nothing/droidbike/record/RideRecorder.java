@@ -0,0 +1,350 @@
+package sh.nothing.droidbike.record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import sh.nothing.droidbike.ble.CscMeasurement;
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.util.Clock;
+
+/**
+ * Appends CSC, pressure and location samples to a ride log (see RideLog).
+ * <p>
+ * The record* methods only copy the sample into a preallocated staging ring and return, so
+ * they are safe to call from sensor callbacks and do not allocate. A writer thread moves
+ * staged records into the memory-mapped chunk at the end of the file, waking up every
+ * FLUSH_INTERVAL_MILLIS or when the ring is half full. Mapped pages belong to the kernel, so
+ * a killed process loses only what is still staged, which is less than a chunk; completed
+ * chunks are also forced to storage before the next one is mapped.
+ * <p>
+ * The recorder's monitor only guards the ring indices and counters. Flushing takes the staged
+ * range under it, maps and copies outside of it under writeLock, and only then frees the
+ * slots, so producers never wait for a page fault or a new mapping.
+ */
+
+public class RideRecorder implements Closeable {
+    public static final int DEFAULT_RING_CAPACITY = 1024;
+    static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long startWallClock;
+    private final long startRealTime;
+
+    private final ByteBuffer ring;
+    private final int ringCapacity;
+    private int ringHead;
+    private int ringCount;
+
+    // serializes flushes; guards chunk, chunkIndex and chunkRecords
+    private final Object writeLock = new Object();
+    private MappedByteBuffer chunk;
+    private int chunkIndex;
+    private int chunkRecords;
+
+    private Thread writer;
+    private boolean closed;
+    private IOException error;
+
+    private long recorded;
+    private long written;
+    private long dropped;
+    private long chunks;
+
+    public RideRecorder(File file, Clock clock) throws IOException {
+        this(file, System.currentTimeMillis(), clock.nanoTime(), DEFAULT_RING_CAPACITY);
+    }
+
+    /**
+     * @param startWallClock epoch millis at startRealTime, used to convert record times to UTC
+     */
+    public RideRecorder(File file, long startWallClock, long startRealTime, int ringCapacity) throws IOException {
+        if (ringCapacity <= 0 || ringCapacity > RideLog.RECORDS_PER_CHUNK)
+            throw new IllegalArgumentException("ringCapacity must be in 1.." + RideLog.RECORDS_PER_CHUNK);
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.startWallClock = startWallClock;
+        this.startRealTime = startRealTime;
+        this.ringCapacity = ringCapacity;
+        this.ring = ByteBuffer.allocate(ringCapacity * RideLog.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        // append after whatever is there, starting a fresh chunk
+        chunkIndex = (int) ((channel.size() + RideLog.CHUNK_SIZE - 1) / RideLog.CHUNK_SIZE) - 1;
+        try {
+            mapNextChunk();
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the writer thread. Without it, records reach the file only through flush().
+     */
+    public synchronized void start() {
+        if (writer != null || closed)
+            return;
+        writer = new Thread(this::runWriter, "RideRecorder");
+        writer.start();
+    }
+
+    public boolean recordCsc(long realTime, int source, CscSensorRole role, CscMeasurement measurement) {
+        int flags = (measurement.wheelRevolutionsPresent ? RideLog.FLAG_WHEEL : 0)
+            | (measurement.crankRevolutionsPresent ? RideLog.FLAG_CRANK : 0);
+        synchronized (this) {
+            int offset = reserve();
+            if (offset < 0)
+                return false;
+            ring.put(offset + RideLog.OFFSET_SOURCE, (byte) source);
+            ring.putShort(offset + RideLog.OFFSET_FLAGS, (short) flags);
+            ring.putInt(offset + RideLog.OFFSET_AUX, role != null ? role.ordinal() : -1);
+            ring.putLong(offset + RideLog.OFFSET_REAL_TIME, realTime);
+            ring.putInt(offset + 16, measurement.wheelRevolutions);
+            ring.putInt(offset + 20, measurement.wheelEventTime);
+            ring.putInt(offset + 24, measurement.crankRevolutions);
+            ring.putInt(offset + 28, measurement.crankEventTime);
+            commit(offset, RideLog.TYPE_CSC);
+            return true;
+        }
+    }
+
+    /**
+     * @param pressure raw barometer reading, hPa
+     */
+    public synchronized boolean recordPressure(long realTime, float pressure) {
+        int offset = reserve();
+        if (offset < 0)
+            return false;
+        ring.putLong(offset + RideLog.OFFSET_REAL_TIME, realTime);
+        ring.putFloat(offset + 16, pressure);
+        commit(offset, RideLog.TYPE_PRESSURE);
+        return true;
+    }
+
+    public synchronized boolean recordLocation(long realTime, double latitude, double longitude, float altitude, float bearing, float speed, float accuracy) {
+        int offset = reserve();
+        if (offset < 0)
+            return false;
+        ring.putLong(offset + RideLog.OFFSET_REAL_TIME, realTime);
+        ring.putDouble(offset + 16, latitude);
+        ring.putDouble(offset + 24, longitude);
+        ring.putFloat(offset + 32, altitude);
+        ring.putFloat(offset + 36, bearing);
+        ring.putFloat(offset + 40, speed);
+        ring.putFloat(offset + 44, accuracy);
+        commit(offset, RideLog.TYPE_LOCATION);
+        return true;
+    }
+
+    /**
+     * @param azimuth of the device from magnetic north, rad, unsmoothed
+     */
+    public synchronized boolean recordHeading(long realTime, float azimuth) {
+        int offset = reserve();
+        if (offset < 0)
+            return false;
+        ring.putLong(offset + RideLog.OFFSET_REAL_TIME, realTime);
+        ring.putFloat(offset + 16, azimuth);
+        commit(offset, RideLog.TYPE_HEADING);
+        return true;
+    }
+
+    /**
+     * Moves staged records into the mapped file.
+     *
+     * @return number of records moved
+     */
+    public int flush() throws IOException {
+        synchronized (writeLock) {
+            int index;
+            int count;
+            synchronized (this) {
+                if (error != null)
+                    throw error;
+                index = ringHead;
+                count = ringCount;
+            }
+            if (chunk == null)
+                return 0;
+
+            // producers only fill slots after the staged range, which stays theirs to skip until
+            // the indices move below
+            MappedByteBuffer completed = null;
+            int moved = 0;
+            try {
+                while (moved < count) {
+                    if (chunkRecords == RideLog.RECORDS_PER_CHUNK) {
+                        // only the latest completed chunk is forced; an older one can only be
+                        // pending if forcing it already failed
+                        completed = chunk;
+                        mapNextChunk();
+                    }
+                    copyRecord(index * RideLog.RECORD_SIZE, (chunkRecords + 1) * RideLog.RECORD_SIZE);
+                    chunkRecords++;
+                    index = index + 1 == ringCapacity ? 0 : index + 1;
+                    moved++;
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    error = e;
+                }
+                throw e;
+            } finally {
+                synchronized (this) {
+                    ringHead = index;
+                    ringCount -= moved;
+                    written += moved;
+                }
+            }
+            if (completed != null)
+                completed.force();
+            return moved;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Thread writer;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            writer = this.writer;
+            notifyAll();
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            flush();
+            synchronized (writeLock) {
+                if (chunk != null)
+                    chunk.force();
+                chunk = null;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    /**
+     * @return samples accepted by record*
+     */
+    public synchronized long getRecordedCount() {
+        return recorded;
+    }
+
+    /**
+     * @return samples moved into the file
+     */
+    public synchronized long getWrittenCount() {
+        return written;
+    }
+
+    /**
+     * @return samples rejected because the ring was full, the recorder closed or writing failed
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * @return chunks mapped by this recorder
+     */
+    public synchronized long getChunkCount() {
+        return chunks;
+    }
+
+    public long getStartWallClock() {
+        return startWallClock;
+    }
+
+    public long getStartRealTime() {
+        return startRealTime;
+    }
+
+    private int reserve() {
+        if (closed || error != null || ringCount == ringCapacity) {
+            dropped++;
+            return -1;
+        }
+        int index = ringHead + ringCount;
+        if (index >= ringCapacity)
+            index -= ringCapacity;
+        int offset = index * RideLog.RECORD_SIZE;
+        // the slot still holds an older record, possibly of another type
+        for (int i = 0; i < RideLog.RECORD_SIZE; i += 8)
+            ring.putLong(offset + i, 0L);
+        return offset;
+    }
+
+    private void commit(int offset, byte type) {
+        ring.put(offset + RideLog.OFFSET_TYPE, type);
+        ringCount++;
+        recorded++;
+        if (ringCount == ringCapacity / 2 && writer != null)
+            notifyAll();
+    }
+
+    private void copyRecord(int from, int to) {
+        // payload first and the type byte last, so a torn record reads as the end of the chunk
+        for (int i = 8; i < RideLog.RECORD_SIZE; i += 8)
+            chunk.putLong(to + i, ring.getLong(from + i));
+        chunk.putShort(to + RideLog.OFFSET_FLAGS, ring.getShort(from + RideLog.OFFSET_FLAGS));
+        chunk.putInt(to + RideLog.OFFSET_AUX, ring.getInt(from + RideLog.OFFSET_AUX));
+        chunk.put(to + RideLog.OFFSET_SOURCE, ring.get(from + RideLog.OFFSET_SOURCE));
+        chunk.put(to + RideLog.OFFSET_TYPE, ring.get(from + RideLog.OFFSET_TYPE));
+    }
+
+    private void mapNextChunk() throws IOException {
+        chunkIndex++;
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkIndex * RideLog.CHUNK_SIZE, RideLog.CHUNK_SIZE);
+        chunk.order(ByteOrder.LITTLE_ENDIAN);
+        RideLog.writeHeader(chunk, chunkIndex, startWallClock, startRealTime);
+        chunkRecords = 0;
+        synchronized (this) {
+            chunks++;
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            synchronized (this) {
+                if (!closed && ringCount < ringCapacity / 2) {
+                    try {
+                        wait(FLUSH_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed)
+                    return;
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                // kept in error; further samples are counted as dropped
+                return;
+            }
+        }
+    }
+}
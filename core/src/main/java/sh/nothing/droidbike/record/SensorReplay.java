@@ -0,0 +1,51 @@
+package sh.nothing.droidbike.record;
+
+import sh.nothing.droidbike.sensor.PressureFilter;
+import sh.nothing.droidbike.sensor.SensorListener;
+
+/**
+ * Turns recorded barometer and compass records back into the updates SensorsManager made of
+ * them: pressure smoothed by PressureFilter, azimuth smoothed the same way and at most 60
+ * updates per second of recorded time. The pitch is not recorded, so it is always NaN.
+ * <p>
+ * All state is in primitive fields, nothing allocates. Not thread safe.
+ */
+
+public class SensorReplay {
+    // SensorsManager limits its callbacks to 60 calls/sec
+    static final long SENSOR_UPDATE_INTERVAL = 16_666_666;
+
+    private final SensorListener listener;
+    private final PressureFilter pressureFilter = new PressureFilter();
+    private float lastAzimuth = Float.NaN;
+    private boolean updated;
+    private long lastSensorUpdate;
+
+    public SensorReplay(SensorListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param pressure raw barometer reading, hPa
+     */
+    public void onPressure(float pressure, long realTime) {
+        pressureFilter.update(realTime, pressure);
+
+        if (updated && realTime - lastSensorUpdate < SENSOR_UPDATE_INTERVAL)
+            return;
+        updated = true;
+        lastSensorUpdate = realTime;
+        listener.onSensorUpdate(realTime, pressureFilter.getValue(), Float.NaN, lastAzimuth);
+    }
+
+    /**
+     * Delivered with the next pressure update.
+     *
+     * @param azimuth unsmoothed, rad
+     */
+    public void onHeading(float azimuth, long realTime) {
+        if (Float.isNaN(lastAzimuth))
+            lastAzimuth = azimuth;
+        lastAzimuth = lastAzimuth * 0.95f + azimuth * 0.05f;
+    }
+}
@@ -0,0 +1,53 @@
+package sh.nothing.droidbike.ride;
+
+/**
+ * Barometric altitude, same formula as android.hardware.SensorManager#getAltitude.
+ * <p>
+ * The pressure ratio's 1/5.255th power is looked up in a table and interpolated linearly, to
+ * within 2 cm of Math.pow from 12 km up to 1200 hPa; only ratios outside of that go through
+ * pow.
+ */
+
+public final class Altitude {
+    public static final float PRESSURE_STANDARD_ATMOSPHERE = 1013.25f;
+
+    private static final float EXPONENT = 1.0f / 5.255f;
+    // pressure ratios covered by the table, p / p0
+    static final float TABLE_MIN_RATIO = 0.2f;
+    static final float TABLE_MAX_RATIO = 1.2f;
+    private static final int TABLE_STEPS = 1024;
+    private static final float TABLE_SCALE = TABLE_STEPS / (TABLE_MAX_RATIO - TABLE_MIN_RATIO);
+    private static final float[] POWERS = new float[TABLE_STEPS + 2];
+
+    static {
+        for (int i = 0; i < POWERS.length; i++)
+            POWERS[i] = (float) Math.pow(TABLE_MIN_RATIO + i / (double) TABLE_SCALE, EXPONENT);
+    }
+
+    private Altitude() {
+    }
+
+    public static float fromPressure(float p0, float p) {
+        float ratio = p / p0;
+        if (!(ratio >= TABLE_MIN_RATIO && ratio <= TABLE_MAX_RATIO))
+            return fromPressureExact(p0, p);
+        float x = (ratio - TABLE_MIN_RATIO) * TABLE_SCALE;
+        int i = (int) x;
+        float power = POWERS[i] + (POWERS[i + 1] - POWERS[i]) * (x - i);
+        return 44330.0f * (1.0f - power);
+    }
+
+    /**
+     * fromPressure through Math.pow, as SensorManager#getAltitude computes it.
+     */
+    static float fromPressureExact(float p0, float p) {
+        return 44330.0f * (1.0f - (float) Math.pow(p / p0, EXPONENT));
+    }
+
+    /**
+     * @return altitude of pressure relative to basePressure, in m
+     */
+    public static float relative(float pressure, float basePressure) {
+        return fromPressure(PRESSURE_STANDARD_ATMOSPHERE, pressure) - fromPressure(PRESSURE_STANDARD_ATMOSPHERE, basePressure);
+    }
+}
@@ -0,0 +1,194 @@
+package sh.nothing.droidbike.ride;
+
+/**
+ * Total ascent and descent from barometric altitude.
+ * <p>
+ * Counting follows the altitude with hysteresis: while climbing every new high counts as
+ * ascent, and the climb only turns into a descent once the altitude fell HYSTERESIS below its
+ * top, and the other way round. Noise smaller than that is counted at most once, at a turn,
+ * instead of on every wiggle.
+ * <p>
+ * Barometers drift with their temperature as the phone warms up or cools in the wind, and with
+ * the weather; there is no temperature to correct them with, so the drift is measured instead:
+ * while the wheel stands still the road does not climb, so any altitude change is drift. It is
+ * left out of the counts and, over stops long enough to tell, learned as a rate that is taken
+ * off the altitude while riding. The rate of a stop is the least squares slope of its samples,
+ * kept as running sums, and stops are averaged by duration over the last DRIFT_MEMORY of them.
+ * <p>
+ * All state is in primitive fields, nothing allocates. Not thread safe.
+ */
+
+public class AscentAccumulator {
+    // altitude must turn by this much to change between climbing and descending, m; six
+    // standard deviations of the smoothed barometer
+    public static final float HYSTERESIS = 3.0f;
+
+    // a stop must last this long for its altitude change to be taken as a drift rate
+    static final long MIN_DRIFT_STOP = 60_000_000_000L;
+    // drift rates beyond this are not drift, m/s; 30 m/h is a fast weather front or a phone
+    // heating up in the sun
+    static final float MAX_DRIFT_RATE = 30.0f / 3600.0f;
+    // stopped time the drift rate is averaged over, s; drift changes slowly, but it does change
+    static final double DRIFT_MEMORY = 900.0;
+
+    private static final int UNKNOWN = 0;
+    private static final int CLIMBING = 1;
+    private static final int DESCENDING = -1;
+
+    private boolean hasAltitude;
+    private long lastRealTime;
+    private float lastAltitude;
+    // taken off the measured altitude, accumulated drift
+    private float offset;
+    private float driftRate; // m/s
+    // stopped time behind driftRate, s
+    private double driftEvidence;
+
+    private boolean stopped;
+    private long stopStartTime;
+    // sums over the stop's samples of time since its start in s, and of altitude, for the slope
+    private int stopSamples;
+    private double sumTime;
+    private double sumAltitude;
+    private double sumTimeSquared;
+    private double sumTimeAltitude;
+
+    private int direction = UNKNOWN;
+    // highest corrected altitude while climbing, lowest while descending, the start before either
+    private float extreme;
+
+    private float ascent;
+    private float descent;
+
+    public void reset() {
+        hasAltitude = false;
+        offset = 0.0f;
+        driftRate = 0.0f;
+        driftEvidence = 0.0;
+        stopped = false;
+        direction = UNKNOWN;
+        ascent = 0.0f;
+        descent = 0.0f;
+    }
+
+    /**
+     * @param altitude m, on any fixed reference
+     * @param moving   false while the wheel is known to stand still
+     */
+    public void onAltitude(long realTime, float altitude, boolean moving) {
+        if (!hasAltitude) {
+            hasAltitude = true;
+            lastRealTime = realTime;
+            lastAltitude = altitude;
+            extreme = altitude;
+            if (!moving)
+                startStop(realTime, altitude);
+            return;
+        }
+
+        float change = altitude - lastAltitude;
+        long elapsed = realTime - lastRealTime;
+        lastRealTime = realTime;
+        lastAltitude = altitude;
+
+        if (!moving) {
+            if (!stopped)
+                startStop(realTime, altitude);
+            else
+                addStopSample(realTime, altitude);
+            // the road does not climb under a wheel that stands still
+            offset += change;
+            return;
+        }
+        if (stopped)
+            endStop(realTime);
+        if (elapsed > 0)
+            offset += driftRate * (elapsed / 1_000_000_000.0f);
+
+        float corrected = altitude - offset;
+        if (direction == CLIMBING) {
+            if (corrected > extreme) {
+                ascent += corrected - extreme;
+                extreme = corrected;
+            } else if (extreme - corrected >= HYSTERESIS) {
+                turn(corrected, DESCENDING);
+            }
+        } else if (direction == DESCENDING) {
+            if (corrected < extreme) {
+                descent += extreme - corrected;
+                extreme = corrected;
+            } else if (corrected - extreme >= HYSTERESIS) {
+                turn(corrected, CLIMBING);
+            }
+        } else if (Math.abs(corrected - extreme) >= HYSTERESIS) {
+            // the first climb or descent counts from the start
+            turn(corrected, corrected > extreme ? CLIMBING : DESCENDING);
+        }
+    }
+
+    /**
+     * @return m climbed
+     */
+    public float getAscent() {
+        return ascent;
+    }
+
+    /**
+     * @return m descended
+     */
+    public float getDescent() {
+        return descent;
+    }
+
+    /**
+     * @return m/s currently taken off the altitude as barometer drift
+     */
+    public float getDriftRate() {
+        return driftRate;
+    }
+
+    private void turn(float corrected, int direction) {
+        if (direction == CLIMBING)
+            ascent += corrected - extreme;
+        else
+            descent += extreme - corrected;
+        extreme = corrected;
+        this.direction = direction;
+    }
+
+    private void startStop(long realTime, float altitude) {
+        stopped = true;
+        stopStartTime = realTime;
+        stopSamples = 0;
+        sumTime = 0.0;
+        sumAltitude = 0.0;
+        sumTimeSquared = 0.0;
+        sumTimeAltitude = 0.0;
+        addStopSample(realTime, altitude);
+    }
+
+    private void addStopSample(long realTime, float altitude) {
+        double time = (realTime - stopStartTime) / 1_000_000_000.0;
+        stopSamples++;
+        sumTime += time;
+        sumAltitude += altitude;
+        sumTimeSquared += time * time;
+        sumTimeAltitude += time * altitude;
+    }
+
+    private void endStop(long realTime) {
+        stopped = false;
+        if (realTime - stopStartTime < MIN_DRIFT_STOP)
+            return;
+        double spread = stopSamples * sumTimeSquared - sumTime * sumTime;
+        if (spread <= 0.0)
+            return;
+        double rate = (stopSamples * sumTimeAltitude - sumTime * sumAltitude) / spread;
+        if (Math.abs(rate) > MAX_DRIFT_RATE)
+            return;
+        double duration = (realTime - stopStartTime) / 1_000_000_000.0;
+        double evidence = Math.max(0.0, Math.min(driftEvidence, DRIFT_MEMORY - duration));
+        driftRate = (float) ((driftRate * evidence + rate * duration) / (evidence + duration));
+        driftEvidence = evidence + duration;
+    }
+}
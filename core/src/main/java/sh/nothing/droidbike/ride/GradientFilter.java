@@ -0,0 +1,203 @@
+package sh.nothing.droidbike.ride;
+
+/**
+ * Kalman filter estimating road gradient from barometric altitude, wheel distance and
+ * accelerometer pitch.
+ * <p>
+ * The state is altitude h, gradient g and the pitch offset b of the phone mount. Moving ds
+ * meters predicts h += g * ds; the barometer observes h and the accelerometer observes g + b.
+ * While moving, altitude change over distance pins g down and the mount offset is learned;
+ * when stopped, or between barometer updates, pitch keeps the estimate responsive. Pitch
+ * readings far outside the expected spread (bumps, braking) are rejected.
+ * <p>
+ * All state is in primitive fields, nothing allocates. Not thread safe.
+ */
+
+public class GradientFilter {
+    // variance of the barometric altitude after SensorsManager smoothing, m^2
+    static final double ALTITUDE_VARIANCE = 0.5 * 0.5;
+    // variance of a single tan(pitch) reading on a bike, mostly vibration
+    static final double PITCH_VARIANCE = 0.1 * 0.1;
+    // how fast the road gradient changes, per m travelled
+    static final double GRADIENT_NOISE = 1e-5;
+    // altitude model error per m travelled, m^2
+    static final double ALTITUDE_NOISE = 1e-2;
+    // how fast the phone mount can shift, per s
+    static final double OFFSET_NOISE = 1e-6;
+    // innovations beyond this many standard deviations are rejected
+    static final double GATE_SIGMAS = 3.0;
+
+    static final double INITIAL_GRADIENT_VARIANCE = 0.1 * 0.1;
+    static final double INITIAL_OFFSET_VARIANCE = 0.2 * 0.2;
+
+    // state
+    private double h;
+    private double g;
+    private double b;
+
+    // symmetric covariance
+    private double p00, p01, p02;
+    private double p11, p12;
+    private double p22;
+
+    private boolean initialized;
+    private double lastDistance = Double.NaN;
+    private long lastRealTime;
+    private boolean hasTime;
+
+    private long altitudeUpdates;
+    private long pitchUpdates;
+    private long rejectedPitches;
+
+    public GradientFilter() {
+        reset();
+    }
+
+    public void reset() {
+        h = 0.0;
+        g = 0.0;
+        b = 0.0;
+        p00 = 0.0;
+        p01 = 0.0;
+        p02 = 0.0;
+        p11 = INITIAL_GRADIENT_VARIANCE;
+        p12 = 0.0;
+        p22 = INITIAL_OFFSET_VARIANCE;
+        initialized = false;
+        lastDistance = Double.NaN;
+        hasTime = false;
+        altitudeUpdates = 0;
+        pitchUpdates = 0;
+        rejectedPitches = 0;
+    }
+
+    /**
+     * @param distance total distance travelled, m
+     */
+    public void onDistance(double distance, long realTime) {
+        advance(realTime);
+        if (Double.isNaN(lastDistance) || distance < lastDistance) {
+            // first reading, or a new ride
+            lastDistance = distance;
+            return;
+        }
+        double ds = distance - lastDistance;
+        lastDistance = distance;
+        if (ds == 0.0)
+            return;
+
+        h += g * ds;
+        p00 += 2 * ds * p01 + ds * ds * p11 + ALTITUDE_NOISE * ds;
+        p01 += ds * p11;
+        p02 += ds * p12;
+        p11 += GRADIENT_NOISE * ds;
+    }
+
+    /**
+     * @param altitude barometric altitude on any fixed reference, m
+     */
+    public void onAltitude(float altitude, long realTime) {
+        if (Float.isNaN(altitude))
+            return;
+        advance(realTime);
+        if (!initialized) {
+            initialized = true;
+            h = altitude;
+            p00 = ALTITUDE_VARIANCE;
+            return;
+        }
+        update(1.0, 0.0, 0.0, altitude, ALTITUDE_VARIANCE, Double.POSITIVE_INFINITY);
+        altitudeUpdates++;
+    }
+
+    /**
+     * @param pitch tan of the device pitch, i.e. gradient as seen by the accelerometer
+     */
+    public void onPitch(float pitch, long realTime) {
+        if (Float.isNaN(pitch) || Float.isInfinite(pitch))
+            return;
+        advance(realTime);
+        if (update(0.0, 1.0, 1.0, pitch, PITCH_VARIANCE, GATE_SIGMAS))
+            pitchUpdates++;
+        else
+            rejectedPitches++;
+    }
+
+    /**
+     * @return gradient estimate, rise / run
+     */
+    public float getGradient() {
+        return (float) g;
+    }
+
+    /**
+     * @return standard deviation of the gradient estimate
+     */
+    public float getGradientError() {
+        return (float) Math.sqrt(p11);
+    }
+
+    /**
+     * @return estimated pitch offset of the phone mount, tan
+     */
+    public float getPitchOffset() {
+        return (float) b;
+    }
+
+    public float getAltitude() {
+        return (float) h;
+    }
+
+    public long getAltitudeUpdates() {
+        return altitudeUpdates;
+    }
+
+    public long getPitchUpdates() {
+        return pitchUpdates;
+    }
+
+    public long getRejectedPitches() {
+        return rejectedPitches;
+    }
+
+    private void advance(long realTime) {
+        if (hasTime && realTime > lastRealTime)
+            p22 += OFFSET_NOISE * (realTime - lastRealTime) / 1e9;
+        lastRealTime = realTime;
+        hasTime = true;
+    }
+
+    /**
+     * Scalar measurement z = c0 * h + c1 * g + c2 * b with variance r.
+     *
+     * @return false if the measurement was outside the gate and ignored
+     */
+    private boolean update(double c0, double c1, double c2, double z, double r, double gateSigmas) {
+        // P H^T
+        double ph0 = p00 * c0 + p01 * c1 + p02 * c2;
+        double ph1 = p01 * c0 + p11 * c1 + p12 * c2;
+        double ph2 = p02 * c0 + p12 * c1 + p22 * c2;
+
+        double s = c0 * ph0 + c1 * ph1 + c2 * ph2 + r;
+        double innovation = z - (c0 * h + c1 * g + c2 * b);
+        if (innovation * innovation > gateSigmas * gateSigmas * s)
+            return false;
+
+        double k0 = ph0 / s;
+        double k1 = ph1 / s;
+        double k2 = ph2 / s;
+
+        h += k0 * innovation;
+        g += k1 * innovation;
+        b += k2 * innovation;
+
+        // P -= K (P H^T)^T
+        p00 -= k0 * ph0;
+        p01 -= k0 * ph1;
+        p02 -= k0 * ph2;
+        p11 -= k1 * ph1;
+        p12 -= k1 * ph2;
+        p22 -= k2 * ph2;
+        return true;
+    }
+}
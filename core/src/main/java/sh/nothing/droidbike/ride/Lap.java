@@ -0,0 +1,60 @@
+package sh.nothing.droidbike.ride;
+
+/**
+ * Primitive summary of one lap, filled by LapDetector.
+ * Meant to be preallocated and reused by the reader.
+ */
+
+public class Lap {
+    public enum Trigger {
+        // the lap is still running
+        NONE,
+        MANUAL,
+        DISTANCE,
+        TIME,
+        // riding resumed after a long stop
+        PAUSE
+    }
+
+    public int index; // 0 for the first lap of the ride
+    public Trigger trigger = Trigger.NONE; // what ended the lap
+    public long startTime; // ns, realTime
+    public long endTime; // ns, realTime; the latest update while running
+
+    public double distance; // km
+    public long movingTime; // ns, wheel turning
+    public long pedalingTime; // ns, crank turning
+    public float averageSpeed = Float.NaN; // km/h, NaN without moving time
+    public float maxSpeed; // km/h
+    public float averageCadence = Float.NaN; // rpm, NaN without pedaling time
+    public float maxCadence; // rpm
+    public float ascent; // m
+    public float descent; // m
+    public int pauses; // wheel stops
+    public long pausedTime; // ns
+
+    /**
+     * @return ns from start to end, pauses included
+     */
+    public long getElapsedTime() {
+        return endTime - startTime;
+    }
+
+    public void copyFrom(Lap other) {
+        index = other.index;
+        trigger = other.trigger;
+        startTime = other.startTime;
+        endTime = other.endTime;
+        distance = other.distance;
+        movingTime = other.movingTime;
+        pedalingTime = other.pedalingTime;
+        averageSpeed = other.averageSpeed;
+        maxSpeed = other.maxSpeed;
+        averageCadence = other.averageCadence;
+        maxCadence = other.maxCadence;
+        ascent = other.ascent;
+        descent = other.descent;
+        pauses = other.pauses;
+        pausedTime = other.pausedTime;
+    }
+}
@@ -0,0 +1,254 @@
+package sh.nothing.droidbike.ride;
+
+import java.util.Arrays;
+
+/**
+ * Splits a ride into laps: by hand, every autoLapDistance of wheel distance, every autoLapTime
+ * of moving time, and where riding resumes after a stop of at least autoLapPause. Stops are the
+ * wheel RPM dropping to 0, which the CSC counters do a few seconds after the last revolution.
+ * <p>
+ * A lap's distance, times, revolutions and climbing are the ride's running totals minus those
+ * at its start, and its maxima and pauses are updated as samples come, so a sample and a lap
+ * summary cost O(1) however long the ride: nothing is ever rescanned. An auto-lap's next one of
+ * the same kind is counted from where it was due rather than where it was noticed, so a run of
+ * distance or of time laps does not drift by the sample interval. Any other lap restarts both
+ * from its start, so with distance and time on, no lap is longer than either.
+ * <p>
+ * Finished laps are kept for getLap(), which allocates one Lap per lap; nothing else does.
+ * Not thread safe.
+ */
+
+public class LapDetector {
+    private double autoLapDistance; // km, 0 for off
+    private long autoLapTime; // ns of moving time, 0 for off
+    private long autoLapPause; // ns, 0 for off
+
+    private boolean started;
+    // the ride's running totals at the latest sample
+    private double distance;
+    private long movingTime;
+    private long pedalingTime;
+    private int crankRevolutions;
+    private float ascent;
+    private float descent;
+
+    private boolean moving;
+    private boolean hasMoved;
+    private long stopTime;
+
+    // the running lap: totals at its start, and what is updated as it goes
+    private int lapIndex;
+    private long lapStartTime;
+    private double lapStartDistance;
+    private long lapStartMovingTime;
+    private long lapStartPedalingTime;
+    private int lapStartCrankRevolutions;
+    private float lapStartAscent;
+    private float lapStartDescent;
+    private float lapMaxSpeed;
+    private float lapMaxCadence;
+    private int lapPauses;
+    private long lapPausedTime;
+
+    // where the next auto-lap is due, in ride totals; startLap() counts both from the lap's
+    // start, an auto-lap then moves its own kind back to where it was due
+    private double nextLapDistance;
+    private long nextLapMovingTime;
+
+    private Lap[] laps = new Lap[16];
+    private int lapCount;
+
+    /**
+     * @param distance km, 0 for no auto-lap by distance
+     */
+    public void setAutoLapDistance(double distance) {
+        autoLapDistance = Math.max(0.0, distance);
+        nextLapDistance = lapStartDistance + autoLapDistance;
+    }
+
+    /**
+     * @param time ns of moving time, 0 for no auto-lap by time
+     */
+    public void setAutoLapTime(long time) {
+        autoLapTime = Math.max(0, time);
+        nextLapMovingTime = lapStartMovingTime + autoLapTime;
+    }
+
+    /**
+     * @param time ns a stop must last to end the lap, 0 for never
+     */
+    public void setAutoLapPause(long time) {
+        autoLapPause = Math.max(0, time);
+    }
+
+    public void reset() {
+        started = false;
+        moving = false;
+        hasMoved = false;
+        lapCount = 0;
+        Arrays.fill(laps, null);
+        take(0.0, 0, 0, 0, 0.0f, 0.0f);
+        startLap(0);
+    }
+
+    /**
+     * @param state ride totals as RideMetricsEngine has them after a CSC sample
+     */
+    public void onCsc(RideState state) {
+        long now = state.realTime;
+        boolean wasMoving = moving;
+        moving = state.wheelRpm != 0.0f;
+        if (!started) {
+            started = true;
+            hasMoved = moving;
+            take(state);
+            startLap(now);
+            return;
+        }
+
+        if (moving && !wasMoving && hasMoved) {
+            long pause = now - stopTime;
+            if (autoLapPause > 0 && pause >= autoLapPause) {
+                // the lap ended where the wheel stopped and the next starts from those totals, so
+                // the revolutions of this sample count; the stop itself belongs to neither
+                lapPauses--;
+                finishLap(Lap.Trigger.PAUSE, stopTime);
+                startLap(now);
+            } else {
+                lapPausedTime += now - Math.max(stopTime, lapStartTime);
+            }
+        } else if (!moving && wasMoving) {
+            stopTime = now;
+            lapPauses++;
+        }
+        if (moving)
+            hasMoved = true;
+
+        take(state);
+        lapMaxSpeed = Math.max(lapMaxSpeed, state.speed);
+        lapMaxCadence = Math.max(lapMaxCadence, state.cadence);
+
+        if (autoLapDistance > 0 && distance >= nextLapDistance) {
+            double due = nextLapDistance;
+            finishLap(Lap.Trigger.DISTANCE, now);
+            startLap(now);
+            // a gap in the samples may cover several laps; they are not made up
+            nextLapDistance = due + autoLapDistance * Math.floor((distance - due) / autoLapDistance + 1);
+        } else if (autoLapTime > 0 && movingTime >= nextLapMovingTime) {
+            long due = nextLapMovingTime;
+            finishLap(Lap.Trigger.TIME, now);
+            startLap(now);
+            nextLapMovingTime = due + autoLapTime * ((movingTime - due) / autoLapTime + 1);
+        }
+    }
+
+    /**
+     * Ends the running lap at now by hand.
+     *
+     * @param state ride totals, with moving times advanced to now
+     */
+    public void lap(RideState state, long now) {
+        if (!started) {
+            started = true;
+            take(state);
+            startLap(now);
+            return;
+        }
+        take(state);
+        if (!moving && hasMoved)
+            lapPausedTime += now - Math.max(stopTime, lapStartTime);
+        finishLap(Lap.Trigger.MANUAL, now);
+        startLap(now);
+    }
+
+    /**
+     * Fills out with the running lap as of now.
+     *
+     * @param state ride totals, with moving times advanced to now
+     */
+    public void read(RideState state, long now, Lap out) {
+        if (!started) {
+            fill(out, Lap.Trigger.NONE, now, now, 0.0, 0, 0, 0, 0.0f, 0.0f);
+            return;
+        }
+        fill(out, Lap.Trigger.NONE, lapStartTime, Math.max(now, lapStartTime),
+            state.distance, state.movingTime, state.pedalingTime, state.crankRevolutions, state.ascent, state.descent);
+        if (!moving && hasMoved)
+            out.pausedTime += Math.max(0, now - Math.max(stopTime, lapStartTime));
+    }
+
+    /**
+     * @return finished laps
+     */
+    public int getLapCount() {
+        return lapCount;
+    }
+
+    /**
+     * @param index 0 for the first finished lap
+     */
+    public void getLap(int index, Lap out) {
+        if (index < 0 || index >= lapCount)
+            throw new IndexOutOfBoundsException("lap " + index + " of " + lapCount);
+        out.copyFrom(laps[index]);
+    }
+
+    private void take(RideState state) {
+        take(state.distance, state.movingTime, state.pedalingTime, state.crankRevolutions, state.ascent, state.descent);
+    }
+
+    private void take(double distance, long movingTime, long pedalingTime, int crankRevolutions, float ascent, float descent) {
+        this.distance = distance;
+        this.movingTime = movingTime;
+        this.pedalingTime = pedalingTime;
+        this.crankRevolutions = crankRevolutions;
+        this.ascent = ascent;
+        this.descent = descent;
+    }
+
+    private void startLap(long startTime) {
+        lapIndex = lapCount;
+        lapStartTime = startTime;
+        lapStartDistance = distance;
+        lapStartMovingTime = movingTime;
+        lapStartPedalingTime = pedalingTime;
+        lapStartCrankRevolutions = crankRevolutions;
+        lapStartAscent = ascent;
+        lapStartDescent = descent;
+        lapMaxSpeed = 0.0f;
+        lapMaxCadence = 0.0f;
+        lapPauses = 0;
+        lapPausedTime = 0;
+        nextLapDistance = distance + autoLapDistance;
+        nextLapMovingTime = movingTime + autoLapTime;
+    }
+
+    private void finishLap(Lap.Trigger trigger, long endTime) {
+        if (lapCount == laps.length)
+            laps = Arrays.copyOf(laps, lapCount * 2);
+        Lap lap = new Lap();
+        fill(lap, trigger, lapStartTime, endTime, distance, movingTime, pedalingTime, crankRevolutions, ascent, descent);
+        laps[lapCount++] = lap;
+    }
+
+    private void fill(Lap out, Lap.Trigger trigger, long startTime, long endTime,
+                      double distance, long movingTime, long pedalingTime, int crankRevolutions, float ascent, float descent) {
+        out.index = lapIndex;
+        out.trigger = trigger;
+        out.startTime = startTime;
+        out.endTime = endTime;
+        out.distance = distance - lapStartDistance;
+        out.movingTime = movingTime - lapStartMovingTime;
+        out.pedalingTime = pedalingTime - lapStartPedalingTime;
+        out.averageSpeed = out.movingTime > 0 ? (float) (out.distance / out.movingTime * 3_600_000_000_000.0) : Float.NaN;
+        out.maxSpeed = lapMaxSpeed;
+        out.averageCadence = out.pedalingTime > 0
+            ? (float) ((double) (crankRevolutions - lapStartCrankRevolutions) / out.pedalingTime * 60_000_000_000.0)
+            : Float.NaN;
+        out.maxCadence = lapMaxCadence;
+        out.ascent = ascent - lapStartAscent;
+        out.descent = descent - lapStartDescent;
+        out.pauses = lapPauses;
+        out.pausedTime = lapPausedTime;
+    }
+}
@@ -0,0 +1,38 @@
+package sh.nothing.droidbike.ride;
+
+/**
+ * Accumulates the time during which something (wheel, crank) was turning.
+ */
+
+class MovingTimeCounter {
+    private long currentStartTime = -1;
+    private long lastDuration;
+
+    /**
+     * @return total moving time up to realTime, in ns
+     */
+    long update(boolean isRunning, long realTime) {
+        if (isRunning) {
+            if (currentStartTime < 0)
+                currentStartTime = realTime;
+        } else if (currentStartTime >= 0) {
+            lastDuration += realTime - currentStartTime;
+            currentStartTime = -1;
+        }
+        return duration(realTime);
+    }
+
+    /**
+     * @return total moving time up to realTime without changing the running state, in ns
+     */
+    long duration(long realTime) {
+        if (currentStartTime >= 0)
+            return lastDuration + Math.max(0, realTime - currentStartTime);
+        return lastDuration;
+    }
+
+    void reset() {
+        currentStartTime = -1;
+        lastDuration = 0;
+    }
+}
@@ -0,0 +1,197 @@
+package sh.nothing.droidbike.ride;
+
+import java.util.Arrays;
+
+/**
+ * Virtual power: what the rider must put into the cranks to ride at the measured speed on the
+ * estimated gradient, from rolling resistance, aerodynamic drag, gravity and the change of
+ * kinetic energy between two updates, through the drivetrain losses. No wind is assumed.
+ * <p>
+ * Power is spread over 1 s buckets as energy, like a power meter records it, so the 3 s and
+ * 30 s averages and normalized power (the 4th root of the mean 4th power of the 30 s rolling
+ * average) come out the same whatever the update rate. Each update costs O(1): the last 30 s
+ * are a ring of per second powers with a running sum.
+ * <p>
+ * All state is in primitive fields, nothing allocates. Not thread safe.
+ */
+
+public class PowerEstimator {
+    public static final float GRAVITY = 9.80665f; // m/s^2
+
+    static final int WINDOW_SECONDS = 30;
+    static final int SHORT_SECONDS = 3;
+    // longer gaps between updates are a pause and left out, like an auto paused head unit
+    static final long MAX_GAP = 5_000_000_000L;
+    // beyond this the speed change is a glitch of the wheel sensor, not the rider, m/s^2
+    static final float MAX_ACCELERATION = 3.0f;
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private RiderProfile profile = RiderProfile.DEFAULT;
+
+    private boolean hasUpdate;
+    private long lastRealTime;
+    private float lastSpeed;
+    private float power;
+
+    // the second being filled
+    private long bucketStart;
+    private double bucketEnergy;
+
+    // powers of the last WINDOW_SECONDS whole seconds, newest at head - 1
+    private final float[] seconds = new float[WINDOW_SECONDS];
+    private int head;
+    private long secondCount;
+    private double windowSum;
+
+    private double energy;
+    private double normalizedSum;
+    private long normalizedCount;
+
+    public void setProfile(RiderProfile profile) {
+        this.profile = profile;
+    }
+
+    public RiderProfile getProfile() {
+        return profile;
+    }
+
+    public void reset() {
+        hasUpdate = false;
+        power = 0.0f;
+        bucketEnergy = 0.0;
+        Arrays.fill(seconds, 0.0f);
+        head = 0;
+        secondCount = 0;
+        windowSum = 0.0;
+        energy = 0.0;
+        normalizedSum = 0.0;
+        normalizedCount = 0;
+    }
+
+    /**
+     * @param speed    m/s
+     * @param gradient rise / run
+     * @param pedaling false while the cranks are known to stand still; the rider puts in nothing then
+     */
+    public void onSpeed(long realTime, float speed, float gradient, boolean pedaling) {
+        if (!hasUpdate || realTime - lastRealTime > MAX_GAP) {
+            hasUpdate = true;
+            lastRealTime = realTime;
+            lastSpeed = speed;
+            bucketStart = realTime;
+            bucketEnergy = 0.0;
+            power = 0.0f;
+            return;
+        }
+        long elapsed = realTime - lastRealTime;
+        if (elapsed <= 0)
+            return;
+
+        float dt = elapsed / (float) SECOND;
+        float limit = MAX_ACCELERATION * dt;
+        float endSpeed = Math.max(lastSpeed - limit, Math.min(speed, lastSpeed + limit));
+        power = pedaling ? Math.max(0.0f, crankPower(profile, lastSpeed, endSpeed, dt, gradient)) : 0.0f;
+        lastSpeed = speed;
+        lastRealTime = realTime;
+
+        long time = realTime - elapsed;
+        while (realTime - bucketStart >= SECOND) {
+            long end = bucketStart + SECOND;
+            bucketEnergy += power * (double) (end - time) / SECOND;
+            closeSecond((float) bucketEnergy);
+            bucketStart = end;
+            bucketEnergy = 0.0;
+            time = end;
+        }
+        bucketEnergy += power * (double) (realTime - time) / SECOND;
+    }
+
+    /**
+     * @return power over the last update, W
+     */
+    public float getPower() {
+        return power;
+    }
+
+    /**
+     * @return mean power of the last 3 whole seconds, W
+     */
+    public float getPower3s() {
+        int count = (int) Math.min(secondCount, SHORT_SECONDS);
+        if (count == 0)
+            return 0.0f;
+        float sum = 0.0f;
+        for (int i = 1; i <= count; i++)
+            sum += seconds[(head - i + WINDOW_SECONDS) % WINDOW_SECONDS];
+        return sum / count;
+    }
+
+    /**
+     * @return mean power of the last 30 whole seconds, or of as many as there are, W
+     */
+    public float getPower30s() {
+        int count = (int) Math.min(secondCount, WINDOW_SECONDS);
+        return count == 0 ? 0.0f : (float) (windowSum / count);
+    }
+
+    /**
+     * @return normalized power, W, or NaN for the first 30 s
+     */
+    public float getNormalizedPower() {
+        if (normalizedCount == 0)
+            return Float.NaN;
+        return (float) Math.sqrt(Math.sqrt(normalizedSum / normalizedCount));
+    }
+
+    /**
+     * @return mean power over the ridden time, coasting included, W, or NaN before the first second
+     */
+    public float getAveragePower() {
+        return secondCount == 0 ? Float.NaN : (float) (energy / secondCount);
+    }
+
+    /**
+     * @return work done by the rider, J
+     */
+    public double getEnergy() {
+        return energy + bucketEnergy;
+    }
+
+    /**
+     * @return ridden seconds the averages are over
+     */
+    public long getSeconds() {
+        return secondCount;
+    }
+
+    /**
+     * Crank power to change speed from startSpeed to endSpeed in dt seconds on a gradient.
+     *
+     * @return W, negative when the bike slows down more than the resistances alone would make it
+     */
+    public static float crankPower(RiderProfile profile, float startSpeed, float endSpeed, float dt, float gradient) {
+        float mass = profile.getMass();
+        float speed = (startSpeed + endSpeed) / 2;
+        // gradient is tan; the normal force goes with cos, the slope force with sin
+        float secant = (float) Math.sqrt(1 + gradient * gradient);
+        float rolling = mass * GRAVITY * profile.crr / secant;
+        float slope = mass * GRAVITY * gradient / secant;
+        float drag = 0.5f * profile.airDensity * profile.cda * speed * speed;
+        float kinetic = 0.5f * mass * (endSpeed * endSpeed - startSpeed * startSpeed) / dt;
+        return ((rolling + slope + drag) * speed + kinetic) / profile.drivetrainEfficiency;
+    }
+
+    private void closeSecond(float power) {
+        windowSum += power - seconds[head];
+        seconds[head] = power;
+        head = (head + 1) % WINDOW_SECONDS;
+        secondCount++;
+        energy += power;
+        if (secondCount >= WINDOW_SECONDS) {
+            double rolling = windowSum / WINDOW_SECONDS;
+            normalizedSum += rolling * rolling * rolling * rolling;
+            normalizedCount++;
+        }
+    }
+}
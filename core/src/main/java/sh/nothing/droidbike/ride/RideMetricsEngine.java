@@ -0,0 +1,280 @@
+package sh.nothing.droidbike.ride;
+
+import sh.nothing.droidbike.util.Clock;
+
+/**
+ * Distance, moving time, averages, altitude, ascent, gradient, virtual power and laps of a
+ * ride, computed from timestamped wheel/crank, pressure, pitch and location samples. The
+ * gradient comes from a GradientFilter fusing all three of distance, altitude and pitch; ascent
+ * and descent from an AscentAccumulator told when the wheel stands still; power from a
+ * PowerEstimator fed with speed and that gradient on every CSC sample; laps from a LapDetector
+ * fed with the running totals.
+ * <p>
+ * Producers may call the on* methods from their own threads; readers copy the current state
+ * with read(), which also advances moving time to the clock's now. Nothing here allocates but
+ * the summary kept for each finished lap.
+ */
+
+public class RideMetricsEngine {
+    public static final int DEFAULT_CIRCUMFERENCE = 2096; // mm
+
+    // averages are shown only after this much moving time
+    static final long AVERAGE_MIN_DURATION = 5_000_000_000L;
+    // a crank revolution as recent as this means pedaling, whatever the cadence
+    static final long PEDALING_HOLD = 2_000_000_000L;
+    // base pressure follows the sensor until the ride has covered this distance
+    static final double BASE_PRESSURE_DISTANCE = 0.01; // km
+
+    private static final Lap EMPTY_LAP = new Lap();
+
+    private final Clock clock;
+    private final RideState state = new RideState();
+    private final MovingTimeCounter wheelTime = new MovingTimeCounter();
+    private final MovingTimeCounter crankTime = new MovingTimeCounter();
+    private final GradientFilter gradientFilter = new GradientFilter();
+    private final PowerEstimator powerEstimator = new PowerEstimator();
+    private final AscentAccumulator ascentAccumulator = new AscentAccumulator();
+    private final LapDetector lapDetector = new LapDetector();
+
+    private int circumference = DEFAULT_CIRCUMFERENCE;
+    private boolean started;
+    private int startWheelRevolutions;
+    private int startCrankRevolutions;
+    // altitude of basePressure, m
+    private float baseAltitude;
+    // without a crank sensor the rider is taken to pedal whenever the model needs power
+    private boolean hasCadence;
+    private int lastCrankRevolutions;
+    private long lastCrankRevolutionTime = Long.MIN_VALUE / 2;
+
+    public RideMetricsEngine(Clock clock) {
+        this.clock = clock;
+    }
+
+    public synchronized void setCircumference(int circumference) {
+        this.circumference = circumference > 0 ? circumference : DEFAULT_CIRCUMFERENCE;
+        updateDistance();
+    }
+
+    public synchronized int getCircumference() {
+        return circumference;
+    }
+
+    public synchronized void setRiderProfile(RiderProfile profile) {
+        powerEstimator.setProfile(profile);
+    }
+
+    public synchronized RiderProfile getRiderProfile() {
+        return powerEstimator.getProfile();
+    }
+
+    /**
+     * @param distance km, 0 for no auto-lap by distance
+     */
+    public synchronized void setAutoLapDistance(double distance) {
+        lapDetector.setAutoLapDistance(distance);
+    }
+
+    /**
+     * @param time ns of moving time, 0 for no auto-lap by time
+     */
+    public synchronized void setAutoLapTime(long time) {
+        lapDetector.setAutoLapTime(time);
+    }
+
+    /**
+     * @param time ns a stop must last to start a new lap when riding resumes, 0 for never
+     */
+    public synchronized void setAutoLapPause(long time) {
+        lapDetector.setAutoLapPause(time);
+    }
+
+    public synchronized void onCsc(long realTime, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm) {
+        if (!started) {
+            started = true;
+            startWheelRevolutions = wheelRevolutions;
+            startCrankRevolutions = crankRevolutions;
+        }
+
+        state.realTime = realTime;
+        state.wheelRevolutions = wheelRevolutions;
+        state.crankRevolutions = crankRevolutions;
+        state.wheelRpm = wheelRpm;
+        state.crankRpm = crankRpm;
+        state.speed = speed(wheelRpm, circumference);
+        state.cadence = crankRpm;
+
+        wheelTime.update(wheelRpm != 0.0f, realTime);
+        crankTime.update(crankRpm != 0.0f, realTime);
+        updateDistance();
+        updateDurations(realTime);
+        gradientFilter.onDistance(state.distance * 1000, realTime);
+        state.gradient = gradientFilter.getGradient();
+
+        if (crankRpm != 0.0f)
+            hasCadence = true;
+        if (crankRevolutions != lastCrankRevolutions) {
+            lastCrankRevolutions = crankRevolutions;
+            lastCrankRevolutionTime = realTime;
+        }
+        powerEstimator.onSpeed(realTime, state.speed / 3.6f, state.gradient, !hasCadence || isPedaling(realTime, crankRpm));
+        updatePower();
+
+        lapDetector.onCsc(state);
+        updateLaps();
+    }
+
+    /**
+     * @param pressure smoothed barometer reading, hPa
+     */
+    public synchronized void onPressure(long realTime, float pressure) {
+        state.pressure = pressure;
+        float altitude = Altitude.fromPressure(Altitude.PRESSURE_STANDARD_ATMOSPHERE, pressure);
+        if (Float.isNaN(state.basePressure) || state.distance <= BASE_PRESSURE_DISTANCE) {
+            state.basePressure = pressure;
+            baseAltitude = altitude;
+        }
+
+        state.altitude = altitude - baseAltitude;
+        gradientFilter.onAltitude(altitude, realTime);
+        // without a wheel sensor there is no telling a stop from a flat
+        ascentAccumulator.onAltitude(realTime, altitude, !started || state.wheelRpm != 0.0f);
+        state.ascent = ascentAccumulator.getAscent();
+        state.descent = ascentAccumulator.getDescent();
+        state.gradient = gradientFilter.getGradient();
+    }
+
+    /**
+     * @param pitch tan of the device pitch from the accelerometer, unsmoothed
+     */
+    public synchronized void onPitch(long realTime, float pitch) {
+        gradientFilter.onPitch(pitch, realTime);
+        state.gradient = gradientFilter.getGradient();
+    }
+
+    /**
+     * @param speed m/s, as reported by Location#getSpeed
+     */
+    public synchronized void onLocation(long realTime, double latitude, double longitude, double altitude, float speed) {
+        state.hasLocation = true;
+        state.latitude = latitude;
+        state.longitude = longitude;
+        state.locationAltitude = altitude;
+        state.locationSpeed = speed * 3600 / 1000;
+    }
+
+    /**
+     * Use the current pressure as the zero altitude.
+     */
+    public synchronized void resetBasePressure() {
+        if (Float.isNaN(state.pressure))
+            return;
+        state.basePressure = state.pressure;
+        baseAltitude += state.altitude;
+        state.altitude = 0.0f;
+    }
+
+    /**
+     * Ends the running lap now, as the lap button of a head unit.
+     */
+    public synchronized void lap() {
+        long now = clock.nanoTime();
+        updateDurations(now);
+        lapDetector.lap(state, now);
+        updateLaps();
+    }
+
+    /**
+     * Copies a finished lap into out.
+     *
+     * @param index 0 for the first lap, up to RideState#laps - 1
+     */
+    public synchronized void readLap(int index, Lap out) {
+        lapDetector.getLap(index, out);
+    }
+
+    public synchronized void reset() {
+        started = false;
+        wheelTime.reset();
+        crankTime.reset();
+        gradientFilter.reset();
+        powerEstimator.reset();
+        hasCadence = false;
+        lastCrankRevolutionTime = Long.MIN_VALUE / 2;
+        updatePower();
+        ascentAccumulator.reset();
+        state.ascent = 0.0f;
+        state.descent = 0.0f;
+        lapDetector.reset();
+        updateLaps();
+        state.distance = 0.0;
+        state.movingTime = 0;
+        state.pedalingTime = 0;
+        state.averageSpeed = Float.NaN;
+        state.averageCadence = Float.NaN;
+    }
+
+    /**
+     * Copies the current state into out, with moving times advanced to now.
+     */
+    public synchronized void read(RideState out) {
+        long now = clock.nanoTime();
+        updateDurations(now);
+        lapDetector.read(state, now, state.lap);
+        out.copyFrom(state);
+    }
+
+    /**
+     * @return km/h
+     */
+    public static float speed(float wheelRpm, int circumference) {
+        return wheelRpm * circumference * 60 / 1000 / 1000;
+    }
+
+    /**
+     * The crank RPM drops to 0 only seconds after the cranks stop and takes two revolutions to
+     * come back, so pedaling goes by the revolutions themselves: the cranks turn until two of
+     * their periods, or PEDALING_HOLD, passed without one.
+     */
+    private boolean isPedaling(long realTime, float crankRpm) {
+        long hold = crankRpm > 0.0f ? Math.max(PEDALING_HOLD, (long) (2 * 60_000_000_000L / crankRpm)) : PEDALING_HOLD;
+        return realTime - lastCrankRevolutionTime <= hold;
+    }
+
+    private void updatePower() {
+        state.power = powerEstimator.getPower();
+        state.power3s = powerEstimator.getPower3s();
+        state.power30s = powerEstimator.getPower30s();
+        state.averagePower = powerEstimator.getAveragePower();
+        state.normalizedPower = powerEstimator.getNormalizedPower();
+        state.energy = powerEstimator.getEnergy();
+    }
+
+    private void updateLaps() {
+        int count = lapDetector.getLapCount();
+        if (count == state.laps)
+            return;
+        state.laps = count;
+        if (count > 0)
+            lapDetector.getLap(count - 1, state.lastLap);
+        else
+            state.lastLap.copyFrom(EMPTY_LAP);
+    }
+
+    private void updateDistance() {
+        if (started)
+            state.distance = (state.wheelRevolutions - startWheelRevolutions) * circumference / 1_000_000.0;
+    }
+
+    private void updateDurations(long now) {
+        long movingTime = wheelTime.duration(now);
+        long pedalingTime = crankTime.duration(now);
+        state.movingTime = movingTime;
+        state.pedalingTime = pedalingTime;
+
+        if (movingTime > AVERAGE_MIN_DURATION)
+            state.averageSpeed = (float) (state.distance / movingTime * 3_600_000_000_000.0);
+        if (pedalingTime > AVERAGE_MIN_DURATION)
+            state.averageCadence = (float) ((double) (state.crankRevolutions - startCrankRevolutions) / pedalingTime * 60_000_000_000.0);
+    }
+}
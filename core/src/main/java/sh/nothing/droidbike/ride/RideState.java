@@ -0,0 +1,82 @@
+package sh.nothing.droidbike.ride;
+
+/**
+ * Primitive copy of the ride metrics, filled by RideMetricsEngine#read.
+ * Meant to be preallocated and reused by the reader.
+ */
+
+public class RideState {
+    public long realTime;
+
+    public int wheelRevolutions;
+    public int crankRevolutions;
+    public float wheelRpm;
+    public float crankRpm;
+
+    public double distance; // km
+    public float speed; // km/h
+    public float cadence; // rpm
+    public long movingTime; // ns, wheel turning
+    public long pedalingTime; // ns, crank turning
+    public float averageSpeed = Float.NaN; // km/h, NaN until there is enough moving time
+    public float averageCadence = Float.NaN; // rpm, NaN until there is enough pedaling time
+
+    public float pressure = Float.NaN; // hPa
+    public float basePressure = Float.NaN; // hPa
+    public float altitude; // m, relative to basePressure
+    public float gradient; // rise / run
+    public float ascent; // m, total climbed
+    public float descent; // m, total descended
+
+    public float power; // W, virtual, over the last CSC sample
+    public float power3s; // W
+    public float power30s; // W
+    public float averagePower = Float.NaN; // W, NaN until the first whole second
+    public float normalizedPower = Float.NaN; // W, NaN for the first 30 s
+    public double energy; // J
+
+    public final Lap lap = new Lap(); // running
+    public final Lap lastLap = new Lap(); // finished, if laps > 0
+    public int laps; // finished
+
+    public boolean hasLocation;
+    public double latitude;
+    public double longitude;
+    public double locationAltitude; // m
+    public float locationSpeed; // km/h
+
+    public void copyFrom(RideState other) {
+        realTime = other.realTime;
+        wheelRevolutions = other.wheelRevolutions;
+        crankRevolutions = other.crankRevolutions;
+        wheelRpm = other.wheelRpm;
+        crankRpm = other.crankRpm;
+        distance = other.distance;
+        speed = other.speed;
+        cadence = other.cadence;
+        movingTime = other.movingTime;
+        pedalingTime = other.pedalingTime;
+        averageSpeed = other.averageSpeed;
+        averageCadence = other.averageCadence;
+        pressure = other.pressure;
+        basePressure = other.basePressure;
+        altitude = other.altitude;
+        gradient = other.gradient;
+        ascent = other.ascent;
+        descent = other.descent;
+        power = other.power;
+        power3s = other.power3s;
+        power30s = other.power30s;
+        averagePower = other.averagePower;
+        normalizedPower = other.normalizedPower;
+        energy = other.energy;
+        lap.copyFrom(other.lap);
+        lastLap.copyFrom(other.lastLap);
+        laps = other.laps;
+        hasLocation = other.hasLocation;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        locationAltitude = other.locationAltitude;
+        locationSpeed = other.locationSpeed;
+    }
+}
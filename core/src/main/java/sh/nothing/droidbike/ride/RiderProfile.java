@@ -0,0 +1,31 @@
+package sh.nothing.droidbike.ride;
+
+/**
+ * Rider, bike and air parameters of the virtual power model.
+ */
+
+public class RiderProfile {
+    public static final RiderProfile DEFAULT = new RiderProfile(70.0f, 9.0f, 0.32f, 0.005f, 0.976f, 1.204f);
+
+    public final float riderMass; // kg
+    public final float bikeMass; // kg
+    public final float cda; // drag area, m^2; 0.32 on the hoods, 0.25 in the drops
+    public final float crr; // rolling resistance coefficient
+    public final float drivetrainEfficiency; // wheel power / crank power
+    public final float airDensity; // kg/m^3; 1.204 at 20 C at sea level
+
+    public RiderProfile(float riderMass, float bikeMass, float cda, float crr, float drivetrainEfficiency, float airDensity) {
+        if (!(riderMass + bikeMass > 0) || !(cda >= 0) || !(crr >= 0) || !(drivetrainEfficiency > 0 && drivetrainEfficiency <= 1) || !(airDensity >= 0))
+            throw new IllegalArgumentException("invalid rider profile");
+        this.riderMass = riderMass;
+        this.bikeMass = bikeMass;
+        this.cda = cda;
+        this.crr = crr;
+        this.drivetrainEfficiency = drivetrainEfficiency;
+        this.airDensity = airDensity;
+    }
+
+    public float getMass() {
+        return riderMass + bikeMass;
+    }
+}
@@ -0,0 +1,44 @@
+package sh.nothing.droidbike.sensor;
+
+/**
+ * Barometer smoothing shared by SensorsManager, the replay and the exporter, so a recorded
+ * ride gives the altitude the live app showed.
+ * <p>
+ * A first order low pass over time rather than per sample: batched and 1 Hz STOPPED samples
+ * are weighed like the 5 Hz MOVING ones, at which TIME_CONSTANT gives the former 0.9/0.1.
+ * All state is in primitive fields, nothing allocates. Not thread safe.
+ */
+
+public class PressureFilter {
+    public static final float TIME_CONSTANT = 1.8f; // s
+
+    private float value = Float.NaN;
+    private long lastTime;
+
+    /**
+     * @param time     ns of the sample, on any clock that only moves forward
+     * @param pressure raw reading, hPa
+     * @return the smoothed pressure
+     */
+    public float update(long time, float pressure) {
+        if (Float.isNaN(value)) {
+            value = pressure;
+        } else if (time > lastTime) {
+            float elapsed = (time - lastTime) / 1_000_000_000.0f;
+            value += (pressure - value) * elapsed / (TIME_CONSTANT + elapsed);
+        }
+        lastTime = time;
+        return value;
+    }
+
+    /**
+     * @return the smoothed pressure, NaN before the first sample
+     */
+    public float getValue() {
+        return value;
+    }
+
+    public void reset() {
+        value = Float.NaN;
+    }
+}
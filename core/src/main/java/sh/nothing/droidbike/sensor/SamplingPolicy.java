@@ -0,0 +1,115 @@
+package sh.nothing.droidbike.sensor;
+
+/**
+ * Decides how fast the phone sensors are sampled from what the bike is doing. The wheel
+ * turning keeps them at MOVING rates; after stopDelay without wheel rpm they drop to STOPPED
+ * rates with hardware batching and orientation is no longer computed. The first non-zero rpm
+ * switches back immediately.
+ * <p>
+ * Methods return true when the mode changed, so the caller can re-register its sensors
+ * outside of any lock here.
+ */
+
+public class SamplingPolicy {
+
+    public enum Mode {
+        // SENSOR_DELAY_NORMAL, delivered as they come
+        MOVING(200_000, 0, true),
+        // 1 Hz, batched in the sensor hub FIFO for up to 5 s where supported
+        STOPPED(1_000_000, 5_000_000, false);
+
+        public final int samplingPeriodUs;
+        public final int maxReportLatencyUs;
+        public final boolean computeOrientation;
+
+        Mode(int samplingPeriodUs, int maxReportLatencyUs, boolean computeOrientation) {
+            this.samplingPeriodUs = samplingPeriodUs;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+            this.computeOrientation = computeOrientation;
+        }
+    }
+
+    public static final long DEFAULT_STOP_DELAY_MILLIS = 30_000;
+
+    private final long stopDelay;
+    private final long[] timeInMode = new long[Mode.values().length];
+
+    private Mode mode = Mode.MOVING;
+    private long modeSince;
+    private long lastMoving;
+    private boolean started;
+    private long modeChanges;
+
+    public SamplingPolicy() {
+        this(DEFAULT_STOP_DELAY_MILLIS);
+    }
+
+    public SamplingPolicy(long stopDelayMillis) {
+        this.stopDelay = stopDelayMillis * 1_000_000L;
+    }
+
+    /**
+     * Starts in MOVING, so sensors are live until the bike is known to stand still.
+     */
+    public synchronized void start(long realTime) {
+        if (started)
+            accumulate(realTime);
+        started = true;
+        mode = Mode.MOVING;
+        modeSince = realTime;
+        lastMoving = realTime;
+    }
+
+    /**
+     * @param wheelRpm latest wheel rpm reported by CscManager
+     */
+    public synchronized boolean onWheelRpm(float wheelRpm, long realTime) {
+        if (wheelRpm > 0.0f) {
+            lastMoving = realTime;
+            return setMode(Mode.MOVING, realTime);
+        }
+        return update(realTime);
+    }
+
+    /**
+     * Called on every sensor event; also notices when CSC notifications stopped coming at all.
+     */
+    public synchronized boolean update(long realTime) {
+        if (mode == Mode.MOVING && realTime - lastMoving >= stopDelay)
+            return setMode(Mode.STOPPED, realTime);
+        return false;
+    }
+
+    public synchronized Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return ns spent in mode up to realTime
+     */
+    public synchronized long getTimeInMode(Mode mode, long realTime) {
+        long time = timeInMode[mode.ordinal()];
+        if (started && this.mode == mode)
+            time += realTime - modeSince;
+        return time;
+    }
+
+    public synchronized long getModeChanges() {
+        return modeChanges;
+    }
+
+    private boolean setMode(Mode mode, long realTime) {
+        if (!started || this.mode == mode)
+            return false;
+        accumulate(realTime);
+        this.mode = mode;
+        modeSince = realTime;
+        modeChanges++;
+        return true;
+    }
+
+    private void accumulate(long realTime) {
+        timeInMode[mode.ordinal()] += realTime - modeSince;
+        modeSince = realTime;
+    }
+}
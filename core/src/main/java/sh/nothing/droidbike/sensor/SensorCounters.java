@@ -0,0 +1,89 @@
+package sh.nothing.droidbike.sensor;
+
+import java.util.Locale;
+
+/**
+ * Sensor events, orientation computations and callbacks per sampling mode, and what the
+ * STOPPED mode saved compared to staying at MOVING rates.
+ */
+
+public class SensorCounters {
+    public static final int PRESSURE = 0;
+    public static final int ACCELEROMETER = 1;
+    public static final int MAGNETIC_FIELD = 2;
+    static final int KINDS = 3;
+
+    private final long[][] events = new long[SamplingPolicy.Mode.values().length][KINDS];
+    private long orientationUpdates;
+    private long orientationSkipped;
+    private long callbacks;
+
+    public synchronized void onEvent(SamplingPolicy.Mode mode, int kind) {
+        events[mode.ordinal()][kind]++;
+    }
+
+    public synchronized void onOrientation(boolean computed) {
+        if (computed)
+            orientationUpdates++;
+        else
+            orientationSkipped++;
+    }
+
+    public synchronized void onCallback() {
+        callbacks++;
+    }
+
+    public synchronized long getEvents(SamplingPolicy.Mode mode, int kind) {
+        return events[mode.ordinal()][kind];
+    }
+
+    public synchronized long getEvents(SamplingPolicy.Mode mode) {
+        long total = 0;
+        for (long count : events[mode.ordinal()])
+            total += count;
+        return total;
+    }
+
+    public synchronized long getOrientationUpdates() {
+        return orientationUpdates;
+    }
+
+    /**
+     * @return sensor events on which orientation would have been computed at MOVING rates
+     */
+    public synchronized long getOrientationSkipped() {
+        return orientationSkipped;
+    }
+
+    public synchronized long getCallbacks() {
+        return callbacks;
+    }
+
+    /**
+     * @return events that would have been delivered in STOPPED time at the rates observed
+     * while MOVING, minus those actually delivered
+     */
+    public synchronized long getSavedEvents(SamplingPolicy policy, long realTime) {
+        double moving = policy.getTimeInMode(SamplingPolicy.Mode.MOVING, realTime);
+        double stopped = policy.getTimeInMode(SamplingPolicy.Mode.STOPPED, realTime);
+        if (moving <= 0)
+            return 0;
+        long saved = 0;
+        for (int kind = 0; kind < KINDS; kind++) {
+            double rate = events[SamplingPolicy.Mode.MOVING.ordinal()][kind] / moving;
+            saved += Math.round(rate * stopped) - events[SamplingPolicy.Mode.STOPPED.ordinal()][kind];
+        }
+        return Math.max(0, saved);
+    }
+
+    public synchronized String toString(SamplingPolicy policy, long realTime) {
+        return String.format(Locale.US,
+            "moving %ds %d events, stopped %ds %d events, saved %d events, orientation %d computed %d skipped, %d callbacks",
+            policy.getTimeInMode(SamplingPolicy.Mode.MOVING, realTime) / 1_000_000_000L,
+            getEvents(SamplingPolicy.Mode.MOVING),
+            policy.getTimeInMode(SamplingPolicy.Mode.STOPPED, realTime) / 1_000_000_000L,
+            getEvents(SamplingPolicy.Mode.STOPPED),
+            getSavedEvents(policy, realTime),
+            orientationUpdates, orientationSkipped, callbacks);
+    }
+}
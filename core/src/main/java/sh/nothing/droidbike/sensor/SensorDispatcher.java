@@ -0,0 +1,22 @@
+package sh.nothing.droidbike.sensor;
+
+import sh.nothing.droidbike.util.ListenerList;
+
+/**
+ * Fans barometer and orientation state out to any number of listeners. Synchronous listeners
+ * cost a call each; only listeners with an Executor capture the arguments.
+ */
+
+public class SensorDispatcher extends ListenerList<SensorListener> implements SensorListener {
+
+    @Override
+    public void onSensorUpdate(long realTime, float pressure, float pitch, float azimuth) {
+        for (Entry<SensorListener> entry : entries()) {
+            SensorListener listener = entry.listener;
+            if (entry.executor == null)
+                listener.onSensorUpdate(realTime, pressure, pitch, azimuth);
+            else
+                entry.executor.execute(() -> listener.onSensorUpdate(realTime, pressure, pitch, azimuth));
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package sh.nothing.droidbike.sensor;
+
+/**
+ * Receives barometer and orientation state from SensorsManager, at most 60 times per second.
+ */
+
+public interface SensorListener {
+    /**
+     * @param pressure smoothed, hPa
+     * @param pitch    tan of the device pitch, unsmoothed, NaN while standing still
+     * @param azimuth  smoothed, rad
+     */
+    void onSensorUpdate(long realTime, float pressure, float pitch, float azimuth);
+}
@@ -0,0 +1,19 @@
+package sh.nothing.droidbike.sensor;
+
+/**
+ * Barometer and orientation state, at most 60 per second.
+ */
+
+public class SensorUpdate {
+    public final long realTime;
+    public final float pressure; // smoothed, hPa
+    public final float pitch; // tan of the device pitch, unsmoothed, NaN while standing still
+    public final float azimuth; // smoothed, rad
+
+    public SensorUpdate(long realTime, float pressure, float pitch, float azimuth) {
+        this.realTime = realTime;
+        this.pressure = pressure;
+        this.pitch = pitch;
+        this.azimuth = azimuth;
+    }
+}
@@ -0,0 +1,65 @@
+package sh.nothing.droidbike.util;
+
+/**
+ * A number that glides to each new target over a fixed duration, advanced by frame time.
+ * Jumps of more than 20% decelerate so they catch up quickly; smaller steps move linearly.
+ */
+
+public class AnimatedValue {
+    private static final float FAST_RATIO = 1.2f;
+    private static final float MIN_CHANGE = 0.01f;
+
+    private final long durationNanos;
+    private float from;
+    private float to;
+    private float value;
+    private long startTime;
+    private boolean fast;
+    private boolean running;
+
+    public AnimatedValue(long durationMillis) {
+        this.durationNanos = durationMillis * 1_000_000L;
+    }
+
+    /**
+     * Starts from the current value; targets within 0.01 of it are ignored.
+     */
+    public void animateTo(float target, long frameTimeNanos) {
+        if (Math.abs(value - target) < MIN_CHANGE)
+            return;
+        float ratio = value > target ? value / target : target / value;
+        fast = ratio > FAST_RATIO;
+        from = value;
+        to = target;
+        startTime = frameTimeNanos;
+        running = true;
+    }
+
+    /**
+     * @return true while still animating
+     */
+    public boolean update(long frameTimeNanos) {
+        if (!running)
+            return false;
+        float t = (float) (frameTimeNanos - startTime) / durationNanos;
+        if (t >= 1.0f) {
+            value = to;
+            running = false;
+            return false;
+        }
+        if (t < 0.0f)
+            t = 0.0f;
+        if (fast)
+            t = 1.0f - (1.0f - t) * (1.0f - t);
+        value = from + (to - from) * t;
+        return true;
+    }
+
+    public float getValue() {
+        return value;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+}
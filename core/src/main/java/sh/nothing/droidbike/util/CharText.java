@@ -0,0 +1,57 @@
+package sh.nothing.droidbike.util;
+
+/**
+ * The characters last handed to a TextView through setText(char[], int, int). The TextView
+ * keeps a reference to chars(), so update() only writes to it when the text differs and the
+ * caller is about to call setText() again.
+ */
+
+public class CharText {
+    private char[] chars;
+    private int length = -1;
+
+    public CharText(int capacity) {
+        chars = new char[capacity];
+    }
+
+    /**
+     * @return true if the text changed and the view needs setText(chars(), 0, length())
+     */
+    public boolean update(char[] text, int offset, int length) {
+        if (length == this.length && regionEquals(text, offset, length))
+            return false;
+        if (length > chars.length)
+            chars = new char[length];
+        System.arraycopy(text, offset, chars, 0, length);
+        this.length = length;
+        return true;
+    }
+
+    public char[] chars() {
+        return chars;
+    }
+
+    public int length() {
+        return Math.max(length, 0);
+    }
+
+    /**
+     * Forgets the current text so the next update() reports a change.
+     */
+    public void invalidate() {
+        length = -1;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length());
+    }
+
+    private boolean regionEquals(char[] text, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (chars[i] != text[offset + i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package sh.nothing.droidbike.util;
+
+/**
+ * Monotonic time source, injectable so time-dependent logic runs on a fake clock in tests.
+ */
+
+public interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    long nanoTime();
+}
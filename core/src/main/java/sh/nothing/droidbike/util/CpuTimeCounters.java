@@ -0,0 +1,130 @@
+package sh.nothing.droidbike.util;
+
+import java.util.Locale;
+
+/**
+ * Wall time, process CPU time and wake lock time with the screen on and off, to see what a
+ * ride costs in the pocket.
+ * <p>
+ * Wake locks are counted as leases: each acquisition holds until its timeout or a release,
+ * whichever comes first, and renewing a held lock only extends it. Times are accumulated
+ * whenever something changes and on every read, so they can be fed from any thread.
+ */
+
+public class CpuTimeCounters {
+    public static final int SCREEN_ON = 0;
+    public static final int SCREEN_OFF = 1;
+    static final int SCREEN_STATES = 2;
+
+    private final long[] wallTime = new long[SCREEN_STATES];
+    private final long[] cpuTime = new long[SCREEN_STATES];
+    private final long[] wakeLockTime = new long[SCREEN_STATES];
+    private final long[] wakeLockAcquisitions = new long[SCREEN_STATES];
+    private long wakeLockRenewals;
+
+    private boolean started;
+    private int screen = SCREEN_ON;
+    private long lastRealTime;
+    private long lastCpuTime;
+    // realTime the wake lock lease runs out, lastRealTime or before when not held
+    private long wakeLockHeldUntil;
+
+    /**
+     * @param realTime ns
+     * @param cpuTime  ns of CPU used by the process so far
+     */
+    public synchronized void start(boolean screenOn, long realTime, long cpuTime) {
+        if (started)
+            update(realTime, cpuTime);
+        started = true;
+        screen = screenOn ? SCREEN_ON : SCREEN_OFF;
+        lastRealTime = realTime;
+        lastCpuTime = cpuTime;
+        wakeLockHeldUntil = realTime;
+    }
+
+    public synchronized void onScreen(boolean screenOn, long realTime, long cpuTime) {
+        update(realTime, cpuTime);
+        screen = screenOn ? SCREEN_ON : SCREEN_OFF;
+    }
+
+    /**
+     * @param timeout ns the lock is held for unless released earlier
+     */
+    public synchronized void onWakeLockAcquired(long realTime, long cpuTime, long timeout) {
+        update(realTime, cpuTime);
+        if (wakeLockHeldUntil > realTime)
+            wakeLockRenewals++;
+        else
+            wakeLockAcquisitions[screen]++;
+        wakeLockHeldUntil = realTime + timeout;
+    }
+
+    public synchronized void onWakeLockReleased(long realTime, long cpuTime) {
+        update(realTime, cpuTime);
+        wakeLockHeldUntil = Math.min(wakeLockHeldUntil, realTime);
+    }
+
+    /**
+     * Accumulates the time since the last change into the current screen state.
+     */
+    public synchronized void update(long realTime, long cpuTime) {
+        if (!started || realTime < lastRealTime)
+            return;
+        wallTime[screen] += realTime - lastRealTime;
+        this.cpuTime[screen] += Math.max(0, cpuTime - lastCpuTime);
+        if (wakeLockHeldUntil > lastRealTime)
+            wakeLockTime[screen] += Math.min(realTime, wakeLockHeldUntil) - lastRealTime;
+        lastRealTime = realTime;
+        lastCpuTime = Math.max(lastCpuTime, cpuTime);
+    }
+
+    public synchronized boolean isWakeLockHeld(long realTime) {
+        return wakeLockHeldUntil > realTime;
+    }
+
+    public synchronized long getWallTime(int screen) {
+        return wallTime[screen];
+    }
+
+    public synchronized long getCpuTime(int screen) {
+        return cpuTime[screen];
+    }
+
+    /**
+     * @return CPU time per wall time in screen, NaN before any wall time passed
+     */
+    public synchronized float getCpuLoad(int screen) {
+        if (wallTime[screen] == 0)
+            return Float.NaN;
+        return (float) cpuTime[screen] / wallTime[screen];
+    }
+
+    public synchronized long getWakeLockTime(int screen) {
+        return wakeLockTime[screen];
+    }
+
+    public synchronized long getWakeLockAcquisitions(int screen) {
+        return wakeLockAcquisitions[screen];
+    }
+
+    public synchronized long getWakeLockRenewals() {
+        return wakeLockRenewals;
+    }
+
+    public synchronized String toString(long realTime, long cpuTime) {
+        update(realTime, cpuTime);
+        return String.format(Locale.US,
+            "screen on %ds cpu %dms %.1f%% wake lock %ds, screen off %ds cpu %dms %.1f%% wake lock %ds, %d acquired %d renewed",
+            wallTime[SCREEN_ON] / 1_000_000_000L,
+            this.cpuTime[SCREEN_ON] / 1_000_000L,
+            getCpuLoad(SCREEN_ON) * 100,
+            wakeLockTime[SCREEN_ON] / 1_000_000_000L,
+            wallTime[SCREEN_OFF] / 1_000_000_000L,
+            this.cpuTime[SCREEN_OFF] / 1_000_000L,
+            getCpuLoad(SCREEN_OFF) * 100,
+            wakeLockTime[SCREEN_OFF] / 1_000_000_000L,
+            wakeLockAcquisitions[SCREEN_ON] + wakeLockAcquisitions[SCREEN_OFF],
+            wakeLockRenewals);
+    }
+}
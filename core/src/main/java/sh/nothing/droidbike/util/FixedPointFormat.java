@@ -0,0 +1,100 @@
+package sh.nothing.droidbike.util;
+
+/**
+ * Writes numbers as decimal digits into a caller-owned char[], for text that is refreshed every
+ * frame. Nothing is allocated; every method returns the offset just past what it wrote and the
+ * caller sizes the buffer.
+ * <p>
+ * Fixed-point values are rounded half away from zero like String.format("%.nf") does, except
+ * that the decision is made on value * 10^n rather than on the shortest decimal form of value,
+ * so the last digit may differ on exact ties that doubles cannot represent.
+ */
+
+public final class FixedPointFormat {
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L,
+    };
+    private static final char[] NAN = "NaN".toCharArray();
+    private static final char[] INFINITY = "Infinity".toCharArray();
+
+    public static final int MAX_DECIMALS = POWERS_OF_TEN.length - 1;
+
+    private FixedPointFormat() {
+    }
+
+    /**
+     * Same output as String.format(Locale.US, "%.{decimals}f", value) for finite values whose
+     * scaled magnitude fits a long; larger ones are clamped.
+     */
+    public static int formatFixed(char[] out, int offset, double value, int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS)
+            throw new IllegalArgumentException("decimals: " + decimals);
+        if (Double.isNaN(value))
+            return copy(NAN, out, offset);
+        if (Double.isInfinite(value)) {
+            if (value < 0)
+                out[offset++] = '-';
+            return copy(INFINITY, out, offset);
+        }
+
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = Math.round(Math.abs(value) * scale);
+        // String.format keeps the sign of values that round to zero
+        if (value < 0 || (value == 0 && 1 / value < 0))
+            out[offset++] = '-';
+        offset = formatInt(out, offset, scaled / scale, 1);
+        if (decimals == 0)
+            return offset;
+        out[offset++] = '.';
+        return formatInt(out, offset, scaled % scale, decimals);
+    }
+
+    /**
+     * @param minDigits zero-padded to at least this many digits, like "%0{minDigits}d"
+     */
+    public static int formatInt(char[] out, int offset, long value, int minDigits) {
+        if (value < 0) {
+            out[offset++] = '-';
+            if (value == Long.MIN_VALUE) {
+                // cannot be negated; its last digit is 8
+                offset = formatInt(out, offset, -(value / 10), minDigits - 1);
+                out[offset++] = '8';
+                return offset;
+            }
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10)
+            digits++;
+        if (digits < minDigits)
+            digits = minDigits;
+        int end = offset + digits;
+        for (int i = end - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Copies text without going through String.toCharArray().
+     */
+    public static int append(char[] out, int offset, String text) {
+        int length = text.length();
+        text.getChars(0, length, out, offset);
+        return offset + length;
+    }
+
+    public static int indexOf(char[] chars, int offset, int end, char c) {
+        for (int i = offset; i < end; i++) {
+            if (chars[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    private static int copy(char[] text, char[] out, int offset) {
+        System.arraycopy(text, 0, out, offset, text.length);
+        return offset + text.length;
+    }
+}
@@ -0,0 +1,204 @@
+package sh.nothing.droidbike.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces view updates from every source into one pass per vsync. Producers on any thread
+ * call invalidate() with their dirty flags; the first one since the last frame asks the
+ * Requester for a frame, and doFrame() on the UI thread hands the Renderer everything that
+ * became dirty in between. The Renderer keeps frames coming for as long as it animates.
+ * <p>
+ * Counts frames, updates per frame, time spent rendering, and layout/draw passes reported by
+ * the UI so that more than one traversal per frame shows up.
+ */
+
+public class FrameScheduler {
+
+    public interface Requester {
+        /**
+         * Called on any thread; doFrame() must follow on the UI thread at the next vsync.
+         */
+        void requestFrame();
+    }
+
+    public interface Renderer {
+        /**
+         * @param dirty flags passed to invalidate() since the previous frame, 0 if only animating
+         * @return true to get another frame even if nothing is invalidated
+         */
+        boolean onFrame(int dirty, long frameTimeNanos);
+    }
+
+    private final Clock clock;
+    private final Requester requester;
+    private final Renderer renderer;
+
+    private final AtomicInteger dirty = new AtomicInteger();
+    private final AtomicBoolean requested = new AtomicBoolean();
+    private final AtomicLong updates = new AtomicLong();
+    private volatile boolean running;
+
+    private final LatencyHistogram renderTime = new LatencyHistogram();
+    private long frames;
+    private long animationFrames;
+    private long lastFrameTime;
+    private long duplicateFrames;
+    private long updatesAtLastFrame;
+    private long maxUpdatesPerFrame;
+    private long layouts;
+    private long draws;
+    private int layoutsThisFrame;
+    private int drawsThisFrame;
+    private long extraTraversals;
+
+    public FrameScheduler(Clock clock, Requester requester, Renderer renderer) {
+        this.clock = clock;
+        this.requester = requester;
+        this.renderer = renderer;
+    }
+
+    /**
+     * Called on any thread. Nothing is rendered until the next frame.
+     */
+    public void invalidate(int flags) {
+        updates.incrementAndGet();
+        int previous;
+        do {
+            previous = dirty.get();
+        } while ((previous & flags) != flags && !dirty.compareAndSet(previous, previous | flags));
+        request();
+    }
+
+    /**
+     * Starts requesting frames, e.g. when the UI becomes visible. Updates received while
+     * stopped are delivered with the first frame.
+     */
+    public void start() {
+        running = true;
+        requested.set(false);
+        if (dirty.get() != 0)
+            request();
+    }
+
+    /**
+     * The Requester is no longer called; a frame it already requested is harmless.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Called on the UI thread for a requested frame.
+     */
+    public void doFrame(long frameTimeNanos) {
+        requested.set(false);
+        if (!running)
+            return;
+        int flags = dirty.getAndSet(0);
+
+        long start = clock.nanoTime();
+        boolean animating = renderer.onFrame(flags, frameTimeNanos);
+        long end = clock.nanoTime();
+
+        long updates = this.updates.get();
+        synchronized (this) {
+            renderTime.record(end - start);
+            frames++;
+            if (flags == 0)
+                animationFrames++;
+            if (frameTimeNanos == lastFrameTime)
+                duplicateFrames++;
+            lastFrameTime = frameTimeNanos;
+            maxUpdatesPerFrame = Math.max(maxUpdatesPerFrame, updates - updatesAtLastFrame);
+            updatesAtLastFrame = updates;
+            layoutsThisFrame = 0;
+            drawsThisFrame = 0;
+        }
+
+        if (animating)
+            request();
+    }
+
+    /**
+     * Called by the UI for every layout pass.
+     */
+    public synchronized void onLayout() {
+        layouts++;
+        if (++layoutsThisFrame == 2)
+            extraTraversals++;
+    }
+
+    /**
+     * Called by the UI for every draw pass.
+     */
+    public synchronized void onDraw() {
+        draws++;
+        if (++drawsThisFrame == 2)
+            extraTraversals++;
+    }
+
+    public LatencyHistogram getRenderTime() {
+        return renderTime;
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return frames rendered only because the Renderer was animating
+     */
+    public synchronized long getAnimationFrames() {
+        return animationFrames;
+    }
+
+    /**
+     * @return frames rendered with the same vsync time as the previous one; should stay 0
+     */
+    public synchronized long getDuplicateFrames() {
+        return duplicateFrames;
+    }
+
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    public synchronized long getMaxUpdatesPerFrame() {
+        return maxUpdatesPerFrame;
+    }
+
+    public synchronized double getMeanUpdatesPerFrame() {
+        return frames == 0 ? 0 : (double) updatesAtLastFrame / frames;
+    }
+
+    public synchronized long getLayouts() {
+        return layouts;
+    }
+
+    public synchronized long getDraws() {
+        return draws;
+    }
+
+    /**
+     * @return frames with more than one layout or draw pass; should stay 0
+     */
+    public synchronized long getExtraTraversals() {
+        return extraTraversals;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+            "%d frames (%d animation, %d duplicate), %.2f updates/frame (max %d), %d layouts, %d draws, %d extra traversals, render %s",
+            frames, animationFrames, duplicateFrames, getMeanUpdatesPerFrame(), maxUpdatesPerFrame,
+            layouts, draws, extraTraversals, renderTime);
+    }
+
+    private void request() {
+        if (running && requested.compareAndSet(false, true))
+            requester.requestFrame();
+    }
+}
@@ -0,0 +1,75 @@
+package sh.nothing.droidbike.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
+
+/**
+ * Hot stream of updates for any number of subscribers. emit() may be called from any thread,
+ * concurrently too, and never blocks or waits for a subscriber: each subscriber picks how it
+ * falls behind, and it only ever affects that subscriber.
+ * <ul>
+ * <li>latest(): only the newest update is kept, for views that show the current state</li>
+ * <li>buffered(): every update up to a capacity, the oldest is dropped and counted beyond it,
+ * for consumers that need the whole sequence</li>
+ * </ul>
+ */
+
+public class HotStream<T> {
+    // what observeOn asks for ahead; buffered() holds up to capacity + PREFETCH
+    static final int PREFETCH = 16;
+
+    private final FlowableProcessor<T> processor = PublishProcessor.<T>create().toSerialized();
+    private final AtomicLong emitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public void emit(T update) {
+        emitted.incrementAndGet();
+        processor.onNext(update);
+    }
+
+    /**
+     * Lets producers skip building an update nobody would receive.
+     */
+    public boolean hasSubscribers() {
+        return processor.hasSubscribers();
+    }
+
+    /**
+     * @return updates on the emitting thread; a subscriber must be quick and must not block
+     */
+    public Flowable<T> asFlowable() {
+        return processor.onBackpressureLatest();
+    }
+
+    /**
+     * @return updates on scheduler, skipping all but the newest while the subscriber is busy
+     */
+    public Flowable<T> latest(Scheduler scheduler) {
+        return processor.onBackpressureLatest().observeOn(scheduler, false, 1);
+    }
+
+    /**
+     * @return every update on scheduler, in order, unless more than capacity are waiting
+     */
+    public Flowable<T> buffered(Scheduler scheduler, int capacity) {
+        return processor
+            .onBackpressureBuffer(capacity, dropped::incrementAndGet, BackpressureOverflowStrategy.DROP_OLDEST)
+            .observeOn(scheduler, false, PREFETCH);
+    }
+
+    public long getEmittedCount() {
+        return emitted.get();
+    }
+
+    /**
+     * @return updates dropped by all buffered() subscribers together
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
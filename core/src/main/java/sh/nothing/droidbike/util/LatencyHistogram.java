@@ -0,0 +1,81 @@
+package sh.nothing.droidbike.util;
+
+import java.util.Locale;
+
+/**
+ * Fixed-size latency histogram with power-of-two microsecond buckets.
+ * Recording never allocates; percentiles are reported as the upper bound of their bucket.
+ */
+
+public class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    // bucket 0: < 1 us, bucket n: [2^(n-1), 2^n) us
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public synchronized void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts[bucket(nanos / 1000)]++;
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos)
+            maxNanos = nanos;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @param percentile 0.0 - 100.0
+     * @return upper bound of the bucket holding the percentile, capped at the maximum seen
+     */
+    public synchronized long getPercentileNanos(double percentile) {
+        if (count == 0)
+            return 0;
+        long threshold = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= threshold && seen > 0)
+                return Math.min(upperBoundNanos(i), maxNanos);
+        }
+        return maxNanos;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = 0;
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "n=%d mean=%.2fms p50=%.2fms p95=%.2fms max=%.2fms",
+            count, getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6, getPercentileNanos(95) / 1e6, maxNanos / 1e6);
+    }
+
+    private static int bucket(long micros) {
+        if (micros <= 0)
+            return 0;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static long upperBoundNanos(int bucket) {
+        return (1L << bucket) * 1000;
+    }
+}
@@ -0,0 +1,80 @@
+package sh.nothing.droidbike.util;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Copy-on-write listeners of a dispatcher. Adding and removing copy the array; a dispatch reads
+ * it once without locking or allocating, so listeners added or removed meanwhile take effect
+ * from the next event. Each listener is called either right on the dispatching thread, or
+ * through its own Executor when it is slow or must run on a particular thread.
+ * <p>
+ * Subclasses implement the listener interface of their event and loop over entries(), which
+ * keeps events in primitive arguments all the way to the listeners.
+ */
+
+public abstract class ListenerList<L> {
+    protected static final class Entry<L> {
+        public final L listener;
+        public final Executor executor; // null to call on the dispatching thread
+
+        Entry(L listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    private volatile Entry<L>[] entries = newEntries(0);
+
+    /**
+     * Calls listener on the dispatching thread; it must be quick and must not block.
+     */
+    public void add(L listener) {
+        add(listener, null);
+    }
+
+    /**
+     * Calls listener through executor, with its own copy of each event.
+     */
+    public synchronized void add(L listener, Executor executor) {
+        if (listener == null)
+            throw new NullPointerException("listener");
+        Entry<L>[] old = entries;
+        Entry<L>[] copy = newEntries(old.length + 1);
+        System.arraycopy(old, 0, copy, 0, old.length);
+        copy[old.length] = new Entry<>(listener, executor);
+        entries = copy;
+    }
+
+    /**
+     * Removes the first registration of listener.
+     *
+     * @return whether it was registered
+     */
+    public synchronized boolean remove(L listener) {
+        Entry<L>[] old = entries;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i].listener != listener)
+                continue;
+            Entry<L>[] copy = newEntries(old.length - 1);
+            System.arraycopy(old, 0, copy, 0, i);
+            System.arraycopy(old, i + 1, copy, i, old.length - i - 1);
+            entries = copy;
+            return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    protected final Entry<L>[] entries() {
+        return entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <L> Entry<L>[] newEntries(int length) {
+        // entries never leave as anything but Entry<L>
+        return (Entry<L>[]) new Entry<?>[length];
+    }
+}
@@ -0,0 +1,202 @@
+package sh.nothing.droidbike.view;
+
+/**
+ * Fixed number of time columns, each holding the min and max of the samples that fell into its
+ * time slot, in float[] rings. A graph with one column per pixel therefore draws in O(width)
+ * however many samples arrived, and adding a sample is O(1) except when skipping empty
+ * columns. Columns without samples hold NaN.
+ */
+
+public class MinMaxRing {
+    private final float[] min;
+    private final float[] max;
+    private final long columnNanos;
+
+    // index of the newest column and the time slot it covers
+    private int head;
+    private long headSlot = Long.MIN_VALUE;
+    private int size;
+
+    /**
+     * @param columns     columns kept, oldest dropped first
+     * @param columnNanos time covered by one column
+     */
+    public MinMaxRing(int columns, long columnNanos) {
+        if (columns <= 0 || columnNanos <= 0)
+            throw new IllegalArgumentException("columns: " + columns + ", columnNanos: " + columnNanos);
+        this.min = new float[columns];
+        this.max = new float[columns];
+        this.columnNanos = columnNanos;
+        clear();
+    }
+
+    /**
+     * NaN samples only advance time. Samples older than the newest column are folded into it.
+     *
+     * @return true if what a graph shows changed: a new column or a wider newest column
+     */
+    public boolean add(long realTime, float value) {
+        boolean changed = advanceTo(realTime);
+        if (Float.isNaN(value))
+            return changed;
+        if (Float.isNaN(min[head]) || value < min[head]) {
+            min[head] = value;
+            changed = true;
+        }
+        if (Float.isNaN(max[head]) || value > max[head]) {
+            max[head] = value;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Scrolls to the column covering realTime, leaving empty columns behind.
+     *
+     * @return true if a new column was started
+     */
+    public boolean advanceTo(long realTime) {
+        long slot = floorDiv(realTime, columnNanos);
+        if (headSlot == Long.MIN_VALUE) {
+            headSlot = slot;
+            size = 1;
+            return true;
+        }
+        if (slot <= headSlot)
+            return false;
+        long steps = Math.min(slot - headSlot, min.length);
+        for (long i = 0; i < steps; i++) {
+            head = (head + 1) % min.length;
+            min[head] = Float.NaN;
+            max[head] = Float.NaN;
+        }
+        size = (int) Math.min(min.length, size + slot - headSlot);
+        headSlot = slot;
+        return true;
+    }
+
+    /**
+     * Folds every column of other into this ring, e.g. after a resize changed the column
+     * width. O(other columns).
+     */
+    public void addAll(MinMaxRing other) {
+        for (int i = 0; i < other.size; i++) {
+            long time = (other.headSlot - other.size + 1 + i) * other.columnNanos;
+            add(time, other.getMin(i));
+            add(time, other.getMax(i));
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < min.length; i++) {
+            min[i] = Float.NaN;
+            max[i] = Float.NaN;
+        }
+        head = 0;
+        headSlot = Long.MIN_VALUE;
+        size = 0;
+    }
+
+    public int capacity() {
+        return min.length;
+    }
+
+    /**
+     * @return columns since the first sample, at most capacity()
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getColumnNanos() {
+        return columnNanos;
+    }
+
+    /**
+     * @param index 0 is the oldest column, size() - 1 the newest
+     */
+    public float getMin(int index) {
+        return min[slot(index)];
+    }
+
+    public float getMax(int index) {
+        return max[slot(index)];
+    }
+
+    /**
+     * Range over all columns, for scaling a graph; NaN if there is no sample.
+     *
+     * @param out min, max
+     */
+    public void getRange(float[] out) {
+        float lo = Float.NaN;
+        float hi = Float.NaN;
+        for (int i = 0; i < min.length; i++) {
+            if (Float.isNaN(lo) || min[i] < lo)
+                lo = min[i];
+            if (Float.isNaN(hi) || max[i] > hi)
+                hi = max[i];
+        }
+        out[0] = lo;
+        out[1] = hi;
+    }
+
+    /**
+     * Vertical segments for Canvas.drawLines(), one per column with samples, newest at right.
+     * Each segment is stretched to meet its left neighbour so the trace stays continuous, and
+     * to at least one pixel so flat stretches remain visible.
+     *
+     * @param out    4 floats per column, i.e. capacity() * 4
+     * @param lo     value drawn at bottom
+     * @param hi     value drawn at bottom - height
+     * @return floats written to out
+     */
+    public int toLines(float[] out, float right, float columnWidth, float bottom, float height, float lo, float hi) {
+        float scale = hi > lo ? height / (hi - lo) : 0.0f;
+        float previousMin = Float.NaN;
+        float previousMax = Float.NaN;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            float columnMin = getMin(i);
+            float columnMax = getMax(i);
+            if (Float.isNaN(columnMin)) {
+                previousMin = Float.NaN;
+                previousMax = Float.NaN;
+                continue;
+            }
+            float top = columnMax;
+            float base = columnMin;
+            if (!Float.isNaN(previousMin)) {
+                top = Math.max(top, previousMin);
+                base = Math.min(base, previousMax);
+            }
+            previousMin = columnMin;
+            previousMax = columnMax;
+
+            float x = right - (size - 1 - i) * columnWidth - columnWidth / 2;
+            float y0 = bottom - (base - lo) * scale;
+            float y1 = bottom - (top - lo) * scale;
+            if (y0 - y1 < 1.0f)
+                y1 = y0 - 1.0f;
+            out[count++] = x;
+            out[count++] = y0;
+            out[count++] = x;
+            out[count++] = y1;
+        }
+        return count;
+    }
+
+    private static long floorDiv(long x, long y) {
+        // Math.floorDiv is not available before Android N
+        long q = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0)))
+            q--;
+        return q;
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        return (head - size + 1 + index + min.length) % min.length;
+    }
+}
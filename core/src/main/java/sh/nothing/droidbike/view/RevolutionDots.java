@@ -0,0 +1,150 @@
+package sh.nothing.droidbike.view;
+
+/**
+ * Geometry and timing of the dot circling a CircularRevolutionsView. The dot only ever sits on
+ * one of POSITIONS points, which are computed once per size; onFrame() reports a change only
+ * when the dot steps to the next one, so at 90 rpm the view is drawn 12 times a second and at
+ * 0 rpm not at all.
+ */
+
+public class RevolutionDots {
+    public static final int POSITIONS = 8;
+
+    private final float[] x = new float[POSITIONS];
+    private final float[] y = new float[POSITIONS];
+    private float centerX;
+    private float centerY;
+    private float centerRadius;
+    private float dotRadius;
+
+    private float rpm;
+    // fraction of one revolution
+    private double rotation;
+    private long lastFrameTime;
+    private int step;
+    private int previousStep;
+    private long steps;
+
+    /**
+     * Lays the dial out in the largest square centered in width x height.
+     */
+    public void setSize(int width, int height) {
+        int left = 0;
+        int top = 0;
+        if (width > height) {
+            left = (width - height) / 2;
+            width = height;
+        } else {
+            top = (height - width) / 2;
+            height = width;
+        }
+        centerX = width / 2 + left;
+        centerY = height / 2 + top;
+        centerRadius = width / 16;
+        dotRadius = width / 8;
+        for (int i = 0; i < POSITIONS; i++) {
+            double angle = 2 * Math.PI * i / POSITIONS;
+            x[i] = centerX - (float) Math.cos(angle) * (width / 2) * 0.75f;
+            y[i] = centerY - (float) Math.sin(angle) * (height / 2) * 0.75f;
+        }
+    }
+
+    /**
+     * @param rpm zero, negative or not finite stops the dot
+     * @return true if the dot appeared or disappeared
+     */
+    public boolean setRpm(float rpm) {
+        boolean wasMoving = isMoving();
+        this.rpm = rpm > 0.0f && !Float.isInfinite(rpm) ? rpm : 0.0f;
+        if (!isMoving())
+            lastFrameTime = 0;
+        return wasMoving != isMoving();
+    }
+
+    public float getRpm() {
+        return rpm;
+    }
+
+    public boolean isMoving() {
+        return rpm != 0.0f;
+    }
+
+    /**
+     * Advances the rotation to frameTimeNanos.
+     *
+     * @return true if the dot moved to another position and needs drawing
+     */
+    public boolean onFrame(long frameTimeNanos) {
+        if (!isMoving())
+            return false;
+        long elapsed = lastFrameTime == 0 ? 0 : frameTimeNanos - lastFrameTime;
+        lastFrameTime = frameTimeNanos;
+        rotation = (rotation + elapsed * (rpm / 60e9)) % 1.0;
+        int next = (int) (rotation * POSITIONS) % POSITIONS;
+        if (next == step)
+            return false;
+        previousStep = step;
+        step = next;
+        steps++;
+        return true;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return position changes since creation, i.e. draws the dot caused
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    public float getDotX() {
+        return x[step];
+    }
+
+    public float getDotY() {
+        return y[step];
+    }
+
+    public float getDotRadius() {
+        return dotRadius;
+    }
+
+    public float getCenterX() {
+        return centerX;
+    }
+
+    public float getCenterY() {
+        return centerY;
+    }
+
+    public float getCenterRadius() {
+        return centerRadius;
+    }
+
+    /**
+     * Bounds covering the dot at its previous and current position, for invalidate(Rect).
+     *
+     * @param out left, top, right, bottom
+     */
+    public void getDirtyBounds(int[] out) {
+        bounds(previousStep, step, out);
+    }
+
+    /**
+     * Bounds of the dot at its current position only, e.g. when it appears or disappears.
+     */
+    public void getDotBounds(int[] out) {
+        bounds(step, step, out);
+    }
+
+    private void bounds(int from, int to, int[] out) {
+        float r = dotRadius + 1;
+        out[0] = (int) Math.floor(Math.min(x[from], x[to]) - r);
+        out[1] = (int) Math.floor(Math.min(y[from], y[to]) - r);
+        out[2] = (int) Math.ceil(Math.max(x[from], x[to]) + r);
+        out[3] = (int) Math.ceil(Math.max(y[from], y[to]) + r);
+    }
+}
@@ -0,0 +1,114 @@
+package sh.nothing.droidbike.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CscDispatcherTest {
+    private final CscDispatcher dispatcher = new CscDispatcher();
+    private final List<String> calls = new ArrayList<>();
+
+    private CscSensorHub.Listener recording(String name) {
+        return (role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime) ->
+            calls.add(name + " " + role + " " + wheelRevolutions + " " + wheelRpm + " " + crankRevolutions + " " + crankRpm + " " + realTime);
+    }
+
+    @Test
+    public void callsEveryListenerInOrderOnTheDispatchingThread() {
+        Thread thread = Thread.currentThread();
+        dispatcher.add(recording("a"));
+        dispatcher.add(recording("b"));
+        dispatcher.add((role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime) -> assertSame(thread, Thread.currentThread()));
+
+        dispatcher.onUpdate(CscSensorRole.COMBO, 10, 60.0f, 20, 90.0f, 1234L);
+
+        assertEquals(3, dispatcher.size());
+        assertEquals(2, calls.size());
+        assertEquals("a COMBO 10 60.0 20 90.0 1234", calls.get(0));
+        assertEquals("b COMBO 10 60.0 20 90.0 1234", calls.get(1));
+    }
+
+    @Test
+    public void executorListenersGetTheirOwnCopyOfTheEvent() {
+        List<Runnable> queued = new ArrayList<>();
+        dispatcher.add(recording("sync"));
+        dispatcher.add(recording("async"), queued::add);
+
+        dispatcher.onUpdate(CscSensorRole.SPEED, 1, 10.0f, 0, 0.0f, 1L);
+        dispatcher.onUpdate(CscSensorRole.SPEED, 2, 20.0f, 0, 0.0f, 2L);
+        assertEquals(2, calls.size());
+        assertEquals(2, queued.size());
+
+        for (Runnable runnable : queued)
+            runnable.run();
+        assertEquals("async SPEED 1 10.0 0 0.0 1", calls.get(2));
+        assertEquals("async SPEED 2 20.0 0 0.0 2", calls.get(3));
+    }
+
+    @Test
+    public void removeTakesOutOneRegistration() {
+        CscSensorHub.Listener a = recording("a");
+        dispatcher.add(a);
+        dispatcher.add(recording("b"));
+        dispatcher.add(a);
+
+        assertTrue(dispatcher.remove(a));
+        dispatcher.onUpdate(CscSensorRole.CADENCE, 0, 0.0f, 5, 80.0f, 0L);
+        assertEquals(2, calls.size());
+        assertTrue(calls.get(0).startsWith("b "));
+        assertTrue(calls.get(1).startsWith("a "));
+
+        assertTrue(dispatcher.remove(a));
+        assertFalse(dispatcher.remove(a));
+        assertEquals(1, dispatcher.size());
+    }
+
+    @Test
+    public void changesDuringADispatchApplyFromTheNextEvent() {
+        CscSensorHub.Listener late = recording("late");
+        CscSensorHub.Listener self = new CscSensorHub.Listener() {
+            @Override
+            public void onUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+                calls.add("once");
+                dispatcher.remove(this);
+                dispatcher.add(late);
+            }
+        };
+        dispatcher.add(self);
+
+        dispatcher.onUpdate(CscSensorRole.COMBO, 0, 0.0f, 0, 0.0f, 0L);
+        assertEquals(1, calls.size());
+        dispatcher.onUpdate(CscSensorRole.COMBO, 0, 0.0f, 0, 0.0f, 0L);
+        assertEquals(2, calls.size());
+        assertTrue(calls.get(1).startsWith("late "));
+    }
+
+    @Test
+    public void feedsTheHubsMergedState() {
+        CscSensorHub hub = new CscSensorHub(dispatcher);
+        dispatcher.add(recording("a"));
+        dispatcher.add(recording("b"));
+        CscSensor sensor = hub.addSensor("s");
+        hub.onFeatures(sensor, CscSensorRole.COMBO.toFeatures());
+
+        CscMeasurement measurement = new CscMeasurement();
+        measurement.wheelRevolutionsPresent = true;
+        measurement.wheelRevolutions = 3;
+        measurement.wheelEventTime = 1024;
+        hub.onMeasurement(sensor, measurement, 100L);
+
+        assertEquals(2, calls.size());
+        assertEquals(calls.get(0).substring(2), calls.get(1).substring(2));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNull() {
+        dispatcher.add(null);
+    }
+}
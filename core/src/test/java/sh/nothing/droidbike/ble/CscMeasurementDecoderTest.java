@@ -0,0 +1,60 @@
+package sh.nothing.droidbike.ble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CscMeasurementDecoderTest {
+    private final CscMeasurement measurement = new CscMeasurement();
+
+    @Test
+    public void decode_wheelAndCrank() throws Exception {
+        byte[] value = {
+            0x03,
+            0x78, 0x56, 0x34, 0x12, // wheel revolutions
+            (byte) 0xff, (byte) 0xfe, // wheel event time
+            0x34, 0x12, // crank revolutions
+            0x00, (byte) 0x80, // crank event time
+        };
+        assertTrue(CscMeasurementDecoder.decode(value, measurement));
+        assertTrue(measurement.wheelRevolutionsPresent);
+        assertEquals(0x12345678, measurement.wheelRevolutions);
+        assertEquals(0xfeff, measurement.wheelEventTime);
+        assertTrue(measurement.crankRevolutionsPresent);
+        assertEquals(0x1234, measurement.crankRevolutions);
+        assertEquals(0x8000, measurement.crankEventTime);
+    }
+
+    @Test
+    public void decode_crankOnly() throws Exception {
+        byte[] value = {0x02, 0x10, 0x00, 0x00, 0x04};
+        assertTrue(CscMeasurementDecoder.decode(value, measurement));
+        assertFalse(measurement.wheelRevolutionsPresent);
+        assertTrue(measurement.crankRevolutionsPresent);
+        assertEquals(16, measurement.crankRevolutions);
+        assertEquals(1024, measurement.crankEventTime);
+    }
+
+    @Test
+    public void decode_uint32WrapsLikeGetIntValue() throws Exception {
+        byte[] value = {0x01, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x00, 0x00};
+        assertTrue(CscMeasurementDecoder.decode(value, measurement));
+        assertEquals(-1, measurement.wheelRevolutions);
+    }
+
+    @Test
+    public void decode_truncated() throws Exception {
+        assertFalse(CscMeasurementDecoder.decode(null, measurement));
+        assertFalse(CscMeasurementDecoder.decode(new byte[0], measurement));
+        assertFalse(CscMeasurementDecoder.decode(new byte[]{0x03, 0, 0, 0, 0, 0, 0}, measurement));
+        assertFalse(measurement.wheelRevolutionsPresent);
+    }
+
+    @Test
+    public void decode_clearsPreviousValues() throws Exception {
+        CscMeasurementDecoder.decode(new byte[]{0x01, 1, 0, 0, 0, 1, 0}, measurement);
+        assertTrue(CscMeasurementDecoder.decode(new byte[]{0x00}, measurement));
+        assertFalse(measurement.wheelRevolutionsPresent);
+        assertEquals(0, measurement.wheelRevolutions);
+    }
+}
@@ -0,0 +1,347 @@
+package sh.nothing.droidbike.ble;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Properties of CscRevolutionsCounter over many seeded synthetic event streams: revolutions at a
+ * known cadence, reported the way a sensor does, with counters and event clock starting anywhere.
+ */
+
+public class CscRevolutionsCounterTest {
+    private static final int TRIALS = 200;
+    private static final long SECOND = 1_000_000_000L;
+
+    private final Random random = new Random(21);
+
+    @Test
+    public void eventClockWrapsAt65536() {
+        assertEquals(1, CscRevolutionsCounter.timeDiff(0, 65535));
+        assertEquals(1024, CscRevolutionsCounter.timeDiff(512, 65536 - 512));
+        assertEquals(0, CscRevolutionsCounter.timeDiff(7, 7));
+    }
+
+    @Test
+    public void steadyCadenceGivesItsRpm() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            Ride ride = randomRide(trial % 2 == 0);
+            CscRevolutionsCounter counter = ride.counter();
+            while (ride.time < 60) {
+                ride.next();
+                ride.feed(counter);
+                if (ride.time > 10)
+                    assertClose(ride + " at " + ride.time, ride.rpm, counter.lastRpm, 0.01f);
+            }
+            assertEquals(ride.toString(), ride.revolutionsSinceFirst(), counter.revolutions);
+            assertEquals(0, counter.rejectedEvents);
+        }
+    }
+
+    @Test
+    public void repeatedPacketsChangeNothing() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            Ride ride = randomRide(trial % 2 == 0);
+            CscRevolutionsCounter plain = ride.counter();
+            CscRevolutionsCounter repeated = ride.counter();
+            int repeats = 0;
+            while (ride.time < 60) {
+                ride.next();
+                ride.feed(plain);
+                ride.feed(repeated);
+                assertEquals(ride.toString(), plain.lastRpm, repeated.lastRpm, 0.0f);
+                for (int i = random.nextInt(4); i > 0; i--, repeats++) {
+                    repeated.setRevolutionEvent(ride.reportedRevolutions(), ride.reportedEventTime(), ride.realTime + i * 10_000_000L);
+                    assertEquals(ride.toString(), plain.lastRpm, repeated.lastRpm, 0.0f);
+                }
+            }
+            assertEquals(plain.revolutions, repeated.revolutions);
+            assertEquals(plain.duplicateEvents + repeats, repeated.duplicateEvents);
+        }
+    }
+
+    @Test
+    public void burstsOfQueuedPacketsDoNotSpike() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            Ride ride = randomRide(trial % 2 == 0);
+            CscRevolutionsCounter counter = ride.counter();
+            while (ride.time < 60) {
+                ride.next();
+                // the stack holds packets back and hands them all over once a second
+                long delivered = ride.startRealTime + (long) (Math.ceil(ride.time) * SECOND) + SECOND / 10;
+                counter.setRevolutionEvent(ride.reportedRevolutions(), ride.reportedEventTime(), delivered);
+                if (ride.time > 10)
+                    assertClose(ride.toString(), ride.rpm, counter.lastRpm, 0.01f);
+            }
+            assertEquals(ride.revolutionsSinceFirst(), counter.revolutions);
+        }
+    }
+
+    @Test
+    public void singleGlitchesAreDropped() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            Ride ride = randomRide(trial % 2 == 0);
+            CscRevolutionsCounter counter = ride.counter();
+            int glitches = 0;
+            int sinceGlitch = 0;
+            int fed = ride.reportedRevolutions();
+            while (ride.time < 120) {
+                ride.next();
+                sinceGlitch++;
+                if (ride.time > 10 && sinceGlitch > 3 && random.nextInt(5) == 0) {
+                    // a scrambled event time, or a revolution count off by far too many
+                    int eventTime = ride.reportedEventTime();
+                    int revolutions = ride.reportedRevolutions();
+                    if (random.nextBoolean())
+                        eventTime = (eventTime + 32768 + random.nextInt(16384)) & 0xffff;
+                    else
+                        revolutions += 1000 + random.nextInt(1000);
+                    counter.setRevolutionEvent(revolutions, eventTime, ride.realTime);
+                    // a new event time without a new revolution is only a repeat
+                    if (revolutions != fed)
+                        glitches++;
+                    sinceGlitch = 0;
+                } else {
+                    ride.feed(counter);
+                    fed = ride.reportedRevolutions();
+                }
+                if (ride.time > 10)
+                    assertClose(ride.toString(), ride.rpm, counter.lastRpm, 0.01f);
+            }
+            // a glitch is only known for one once the next revolution is in
+            int last = ride.reportedRevolutions();
+            do {
+                ride.next(counter);
+            } while (ride.reportedRevolutions() == last);
+            assertEquals(ride.toString(), ride.revolutionsSinceFirst(), counter.revolutions);
+            assertEquals(glitches, counter.rejectedEvents);
+            assertEquals(0, counter.restarts);
+        }
+    }
+
+    @Test
+    public void followsARealChangeOfCadence() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            Ride ride = randomRide(false);
+            CscRevolutionsCounter counter = ride.counter();
+            float from = ride.rpm;
+            // big enough steps to be held back once, and small ones blending through the window
+            float to = from * (0.3f + random.nextFloat() * 2.2f);
+            to = Math.min(Math.max(to, 20.0f), CscRevolutionsCounter.MAX_CRANK_RPM * 0.9f);
+            while (ride.time < 30)
+                ride.next(counter);
+            ride.setRpm(to);
+            while (ride.time < 30 + 60 / to * 2 + 5)
+                ride.next(counter);
+            assertClose(ride.toString() + " from " + from, to, counter.lastRpm, 0.01f);
+            assertEquals(ride.toString() + " from " + from, ride.revolutionsSinceFirst(), counter.revolutions);
+        }
+    }
+
+    @Test
+    public void stoppingDecaysToZero() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            Ride ride = randomRide(trial % 2 == 0);
+            CscRevolutionsCounter counter = ride.counter();
+            while (ride.time < 20)
+                ride.next(counter);
+            ride.setRpm(0);
+            float last = counter.lastRpm;
+            double stopped = ride.time;
+            while (ride.time < stopped + 10) {
+                ride.next(counter);
+                assertTrue(ride.toString(), counter.lastRpm <= last);
+                last = counter.lastRpm;
+                if (ride.time > stopped + 1 + CscRevolutionsCounter.STOP_NANOS / (double) SECOND)
+                    assertEquals(0.0f, counter.lastRpm, 0.0f);
+            }
+            assertEquals(ride.revolutionsSinceFirst(), counter.revolutions);
+        }
+    }
+
+    @Test
+    public void restartsAfterAPauseLongerThanTheEventClock() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            Ride ride = randomRide(trial % 2 == 0);
+            CscRevolutionsCounter counter = ride.counter();
+            while (ride.time < 20)
+                ride.next(counter);
+            ride.setRpm(0);
+            while (ride.time < 20 + 60 + random.nextInt(40))
+                ride.next(counter);
+            assertEquals(0.0f, counter.lastRpm, 0.0f);
+
+            float rpm = ride.wheel ? 50 + random.nextInt(500) : 30 + random.nextInt(150);
+            ride.setRpm(rpm);
+            double resumed = ride.time;
+            while (ride.time < resumed + 60 / rpm * 2 + 5)
+                ride.next(counter);
+            assertClose(ride.toString(), rpm, counter.lastRpm, 0.01f);
+            assertEquals(ride.revolutionsSinceFirst(), counter.revolutions);
+        }
+    }
+
+    @Test
+    public void aSensorRestartingItsCountersIsFollowed() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            Ride ride = randomRide(true);
+            CscRevolutionsCounter counter = ride.counter();
+            while (ride.time < 20)
+                ride.next(counter);
+            int before = counter.revolutions;
+            ride.restartSensor();
+            while (ride.time < 40) {
+                ride.next(counter);
+                assertTrue(counter.revolutions >= before);
+                before = counter.revolutions;
+            }
+            assertEquals(ride.toString(), 1, counter.restarts);
+            assertClose(ride.toString(), ride.rpm, counter.lastRpm, 0.01f);
+            // at most the revolutions up to the first event after the restart are not counted
+            assertTrue(ride.revolutionsSinceFirst() - counter.revolutions <= ride.rpm / 60 * 2 + 1);
+        }
+    }
+
+    @Test
+    public void arbitraryInputStaysInRange() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            boolean wheel = trial % 2 == 0;
+            CscRevolutionsCounter counter = wheel
+                ? new CscRevolutionsCounter(CscRevolutionsCounter.WHEEL_BITS, CscRevolutionsCounter.MAX_WHEEL_RPM)
+                : new CscRevolutionsCounter(CscRevolutionsCounter.CRANK_BITS, CscRevolutionsCounter.MAX_CRANK_RPM);
+            float max = wheel ? CscRevolutionsCounter.MAX_WHEEL_RPM : CscRevolutionsCounter.MAX_CRANK_RPM;
+            int revolutions = random.nextInt();
+            int eventTime = random.nextInt(65536);
+            long realTime = random.nextLong() / 2;
+            int last = 0;
+            for (int i = 0; i < 500; i++) {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        revolutions = random.nextInt();
+                        eventTime = random.nextInt(65536);
+                        break;
+                    case 1:
+                        revolutions += random.nextInt(4);
+                        eventTime += random.nextInt(2048);
+                        break;
+                    default:
+                        revolutions += random.nextInt(2);
+                        eventTime += random.nextInt(1024);
+                }
+                realTime += random.nextInt(2) * (long) random.nextInt(2 * (int) SECOND);
+                counter.setRevolutionEvent(wheel ? revolutions : revolutions & 0xffff, eventTime & 0xffff, realTime);
+                assertTrue("rpm " + counter.lastRpm, counter.lastRpm >= 0.0f && counter.lastRpm <= max);
+                assertTrue("revolutions " + counter.revolutions + " after " + last, counter.revolutions >= last);
+                last = counter.revolutions;
+            }
+        }
+    }
+
+    private Ride randomRide(boolean wheel) {
+        float rpm = wheel ? 50 + random.nextInt(900) : 30 + random.nextInt(180);
+        double packetInterval = 0.25 + random.nextDouble() * 0.75;
+        int bits = wheel ? CscRevolutionsCounter.WHEEL_BITS : CscRevolutionsCounter.CRANK_BITS;
+        // start close to where the counters wrap
+        int revolutions = wheel ? random.nextInt() : 65536 - random.nextInt(100);
+        return new Ride(wheel, bits, rpm, packetInterval, revolutions, random.nextInt(65536), random.nextLong() / 2);
+    }
+
+    private static void assertClose(String message, float expected, float actual, float tolerance) {
+        assertTrue(message + ": expected " + expected + " but was " + actual,
+            Math.abs(actual - expected) <= expected * tolerance);
+    }
+
+    /**
+     * Revolutions at a cadence that can change at any time, and the packets a sensor sends about
+     * them: cumulative revolutions and the 1/1024 s time of the last one, at its own interval.
+     */
+    private class Ride {
+        final boolean wheel;
+        final int mask;
+        final double packetInterval;
+        final long startRealTime;
+        float rpm;
+
+        int revolutionOffset;
+        final int startTicks;
+        long revolutions;
+        double lastRevolution;
+        double nextRevolution;
+        long revolutionsAtFirst = -1;
+
+        double time;
+        long realTime;
+
+        Ride(boolean wheel, int bits, float rpm, double packetInterval, int revolutionOffset, int startTicks, long startRealTime) {
+            this.wheel = wheel;
+            this.mask = bits >= 32 ? -1 : (1 << bits) - 1;
+            this.rpm = rpm;
+            this.packetInterval = packetInterval;
+            this.revolutionOffset = revolutionOffset;
+            this.startTicks = startTicks;
+            this.startRealTime = startRealTime;
+            // already rolling when the first packet goes out
+            this.nextRevolution = random.nextDouble() * 60 / rpm;
+            this.lastRevolution = nextRevolution - 60 / rpm;
+        }
+
+        CscRevolutionsCounter counter() {
+            return wheel
+                ? new CscRevolutionsCounter(CscRevolutionsCounter.WHEEL_BITS, CscRevolutionsCounter.MAX_WHEEL_RPM)
+                : new CscRevolutionsCounter(CscRevolutionsCounter.CRANK_BITS, CscRevolutionsCounter.MAX_CRANK_RPM);
+        }
+
+        void setRpm(float rpm) {
+            this.rpm = rpm;
+            nextRevolution = rpm == 0 ? Double.POSITIVE_INFINITY
+                : Double.isInfinite(nextRevolution) ? time + 60 / rpm
+                : Math.max(lastRevolution + 60 / rpm, time);
+        }
+
+        void restartSensor() {
+            revolutionOffset = (int) -revolutions;
+        }
+
+        void next() {
+            time += packetInterval * (0.9 + random.nextDouble() * 0.2);
+            while (nextRevolution <= time) {
+                revolutions++;
+                lastRevolution = nextRevolution;
+                nextRevolution += 60 / rpm;
+            }
+            // air and the stack add a little, never the same
+            realTime = startRealTime + (long) ((time + random.nextDouble() * 0.05) * SECOND);
+            if (revolutionsAtFirst < 0)
+                revolutionsAtFirst = revolutions;
+        }
+
+        void next(CscRevolutionsCounter counter) {
+            next();
+            feed(counter);
+        }
+
+        void feed(CscRevolutionsCounter counter) {
+            counter.setRevolutionEvent(reportedRevolutions(), reportedEventTime(), realTime);
+        }
+
+        int reportedRevolutions() {
+            return (int) (revolutions + revolutionOffset) & mask;
+        }
+
+        int reportedEventTime() {
+            return (startTicks + (int) Math.round(lastRevolution * CscRevolutionsCounter.TICKS_PER_SECOND)) & 0xffff;
+        }
+
+        int revolutionsSinceFirst() {
+            return (int) (revolutions - revolutionsAtFirst);
+        }
+
+        @Override
+        public String toString() {
+            return (wheel ? "wheel " : "crank ") + rpm + " rpm, packets every " + packetInterval + " s";
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package sh.nothing.droidbike.ble;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CscSampleRingTest {
+
+    @Test
+    public void pollInOrder() throws Exception {
+        CscSampleRing ring = new CscSampleRing(4);
+        CscSample sample = new CscSample();
+        assertFalse(ring.poll(sample));
+
+        ring.write(10L, 1, 60.0f, 2, 90.0f);
+        ring.write(20L, 3, 61.0f, 4, 91.0f);
+
+        assertTrue(ring.poll(sample));
+        assertEquals(10L, sample.realTime);
+        assertEquals(1, sample.wheelRevolutions);
+        assertEquals(60.0f, sample.wheelRpm, 0.0f);
+        assertEquals(2, sample.crankRevolutions);
+        assertEquals(90.0f, sample.crankRpm, 0.0f);
+
+        assertTrue(ring.poll(sample));
+        assertEquals(20L, sample.realTime);
+        assertFalse(ring.poll(sample));
+        assertEquals(2, ring.getReadCount());
+        assertEquals(0, ring.getDroppedCount());
+    }
+
+    @Test
+    public void negativeValuesSurvivePacking() throws Exception {
+        CscSampleRing ring = new CscSampleRing(2);
+        CscSample sample = new CscSample();
+        ring.write(-1L, -5, -0.0f, Integer.MIN_VALUE, Float.NaN);
+        assertTrue(ring.poll(sample));
+        assertEquals(-5, sample.wheelRevolutions);
+        assertEquals(Float.floatToRawIntBits(-0.0f), Float.floatToRawIntBits(sample.wheelRpm));
+        assertEquals(Integer.MIN_VALUE, sample.crankRevolutions);
+        assertTrue(Float.isNaN(sample.crankRpm));
+    }
+
+    @Test
+    public void overwriteOldestAndCountDrops() throws Exception {
+        CscSampleRing ring = new CscSampleRing(4);
+        CscSample sample = new CscSample();
+        for (int i = 0; i < 10; i++)
+            ring.write(i, i, 0.0f, 0, 0.0f);
+
+        assertTrue(ring.poll(sample));
+        assertEquals(6, sample.wheelRevolutions);
+        assertEquals(6, ring.getDroppedCount());
+
+        assertEquals(3, ring.drain(sample));
+        assertEquals(9, sample.wheelRevolutions);
+        assertEquals(10, ring.getWrittenCount());
+        assertEquals(ring.getWrittenCount(), ring.getReadCount() + ring.getDroppedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePowerOfTwo() throws Exception {
+        new CscSampleRing(6);
+    }
+
+    @Test
+    public void concurrentProducerAndConsumer() throws Exception {
+        final int count = 2_000_000;
+        final CscSampleRing ring = new CscSampleRing(16);
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread producer = new Thread(() -> {
+            for (int i = 1; i <= count; i++)
+                ring.write(i, i, i * 0.5f, i & 0xffff, (i & 0xffff) * 0.25f);
+        });
+        Thread consumer = new Thread(() -> {
+            CscSample sample = new CscSample();
+            long last = 0;
+            while (last < count && failure.get() == null) {
+                if (!ring.poll(sample))
+                    continue;
+                // every field is derived from the same index, so a torn read breaks the relation
+                int i = (int) sample.realTime;
+                if (sample.wheelRevolutions != i
+                    || sample.wheelRpm != i * 0.5f
+                    || sample.crankRevolutions != (i & 0xffff)
+                    || sample.crankRpm != (i & 0xffff) * 0.25f)
+                    failure.set("torn sample at " + i);
+                else if (i <= last)
+                    failure.set("out of order: " + i + " after " + last);
+                last = i;
+            }
+        });
+
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join(30_000);
+
+        assertNull(failure.get());
+        assertFalse(consumer.isAlive());
+        assertEquals(count, ring.getWrittenCount());
+        assertEquals(count, ring.getReadCount() + ring.getDroppedCount());
+    }
+}
@@ -0,0 +1,86 @@
+package sh.nothing.droidbike.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CscSensorHubTest {
+    private CscSensorHub hub;
+    private CscSensorRole lastRole;
+    private int lastWheelRevolutions;
+    private int lastCrankRevolutions;
+
+    @Before
+    public void setUp() throws Exception {
+        hub = new CscSensorHub((role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime) -> {
+            lastRole = role;
+            lastWheelRevolutions = wheelRevolutions;
+            lastCrankRevolutions = crankRevolutions;
+        });
+    }
+
+    @Test
+    public void roleFromFeatures() throws Exception {
+        assertEquals(CscSensorRole.SPEED, CscSensorRole.fromFeatures(0x01));
+        assertEquals(CscSensorRole.CADENCE, CscSensorRole.fromFeatures(0x02));
+        assertEquals(CscSensorRole.COMBO, CscSensorRole.fromFeatures(0x07));
+        assertNull(CscSensorRole.fromFeatures(0x04));
+    }
+
+    @Test
+    public void roleFromFirstMeasurement() throws Exception {
+        CscSensor sensor = hub.addSensor("speed");
+        hub.onMeasurement(sensor, FakeGattSensor.measurement(10, 1024, -1, 0), 0L);
+        assertEquals(CscSensorRole.SPEED, sensor.getRole());
+        assertEquals(CscSensorRole.SPEED, lastRole);
+    }
+
+    @Test
+    public void separateSpeedAndCadenceSensors() throws Exception {
+        CscSensor speed = hub.addSensor("speed");
+        CscSensor cadence = hub.addSensor("cadence");
+        hub.onFeatures(speed, 0x01);
+        hub.onFeatures(cadence, 0x02);
+
+        hub.onMeasurement(speed, FakeGattSensor.measurement(100, 0, -1, 0), 0L);
+        hub.onMeasurement(cadence, FakeGattSensor.measurement(-1, 0, 50, 0), 0L);
+        hub.onMeasurement(speed, FakeGattSensor.measurement(103, 1024, -1, 0), 0L);
+        hub.onMeasurement(cadence, FakeGattSensor.measurement(-1, 0, 52, 1024), 0L);
+
+        assertEquals(CscSensorRole.CADENCE, lastRole);
+        assertEquals(3, lastWheelRevolutions);
+        assertEquals(2, lastCrankRevolutions);
+    }
+
+    @Test
+    public void dedicatedSpeedSensorWinsOverCombo() throws Exception {
+        CscSensor combo = hub.addSensor("combo");
+        hub.onFeatures(combo, 0x03);
+        hub.onMeasurement(combo, FakeGattSensor.measurement(1000, 0, 10, 0), 0L);
+        hub.onMeasurement(combo, FakeGattSensor.measurement(1005, 1024, 11, 1024), 0L);
+        assertEquals(5, lastWheelRevolutions);
+
+        CscSensor speed = hub.addSensor("speed");
+        hub.onFeatures(speed, 0x01);
+        hub.onMeasurement(speed, FakeGattSensor.measurement(7, 0, -1, 0), 0L);
+        hub.onMeasurement(combo, FakeGattSensor.measurement(1010, 2048, 12, 2048), 0L);
+        hub.onMeasurement(speed, FakeGattSensor.measurement(9, 1024, -1, 0), 0L);
+
+        // combo's wheel data is ignored once the speed sensor reports; counts stay continuous
+        assertEquals(7, lastWheelRevolutions);
+        assertEquals(2, lastCrankRevolutions);
+
+        hub.removeSensor(speed);
+        hub.onMeasurement(combo, FakeGattSensor.measurement(1011, 3072, 13, 3072), 0L);
+        assertEquals(8, lastWheelRevolutions);
+    }
+
+    @Test
+    public void malformedMeasurementIsCounted() throws Exception {
+        CscSensor sensor = hub.addSensor("broken");
+        assertFalse(hub.onMeasurement(sensor, new byte[]{0x01, 0x00}, 0L));
+        assertEquals(1, sensor.getMalformedNotifications());
+        assertEquals(0, sensor.getNotifications());
+    }
+}
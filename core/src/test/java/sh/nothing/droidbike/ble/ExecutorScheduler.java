@@ -0,0 +1,42 @@
+package sh.nothing.droidbike.ble;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Real-time Scheduler for multi-threaded harness tests.
+ */
+
+class ExecutorScheduler implements Scheduler {
+    private final ScheduledExecutorService executor;
+    private final Map<Runnable, ScheduledFuture<?>> futures = new ConcurrentHashMap<>();
+
+    ExecutorScheduler(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        futures.put(task, executor.schedule(() -> {
+            futures.remove(task);
+            task.run();
+        }, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        if (task == null)
+            return;
+        ScheduledFuture<?> future = futures.remove(task);
+        if (future != null)
+            future.cancel(false);
+    }
+}
@@ -0,0 +1,125 @@
+package sh.nothing.droidbike.ble;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sh.nothing.droidbike.ble.GattOperationQueue.Step;
+
+/**
+ * Stand-in for one BluetoothGatt connection to a CSC sensor.
+ * <p>
+ * Setup operations complete asynchronously on the shared "Bluetooth stack" executor, like the
+ * real GATT callbacks do, and the number of outstanding operations across all fake connections
+ * is tracked so tests can check that the queue never runs two at once. A share of the
+ * operations can be dropped silently to exercise timeouts and retries.
+ */
+
+class FakeGattSensor {
+    final String address;
+    final int features;
+    final CscSensorHub hub;
+    final GattOperationQueue operations;
+    final ScheduledExecutorService stack;
+    final AtomicInteger outstanding;
+    final AtomicInteger maxOutstanding;
+    final long operationDelayMicros;
+    final Random random;
+    double dropRate;
+    volatile int dropped;
+
+    CscSensor sensor;
+    volatile boolean notifying;
+    volatile long connectedAt;
+    volatile long notifyingAt;
+
+    FakeGattSensor(String address, int features, CscSensorHub hub, GattOperationQueue operations,
+                   ScheduledExecutorService stack, AtomicInteger outstanding, AtomicInteger maxOutstanding,
+                   long operationDelayMicros) {
+        this.address = address;
+        this.features = features;
+        this.hub = hub;
+        this.operations = operations;
+        this.stack = stack;
+        this.outstanding = outstanding;
+        this.maxOutstanding = maxOutstanding;
+        this.operationDelayMicros = operationDelayMicros;
+        this.random = new Random(address.hashCode());
+    }
+
+    /**
+     * Enqueues the same setup sequence as CscManager: connect, discover services,
+     * enable notifications, read CSC Feature.
+     */
+    void connect() {
+        sensor = hub.addSensor(address);
+        final long start = System.nanoTime();
+        operations.enqueue(this, Step.CONNECT, () -> respond(Step.CONNECT, () -> connectedAt = System.nanoTime() - start));
+        operations.enqueue(this, Step.DISCOVER_SERVICES, () -> respond(Step.DISCOVER_SERVICES, null));
+        operations.enqueue(this, Step.WRITE_DESCRIPTOR, () -> respond(Step.WRITE_DESCRIPTOR, () -> {
+            notifyingAt = System.nanoTime() - start;
+            notifying = true;
+        }));
+        operations.enqueue(this, Step.READ_CHARACTERISTIC, () -> respond(Step.READ_CHARACTERISTIC, () -> hub.onFeatures(sensor, features)));
+    }
+
+    boolean hasWheel() {
+        return (features & CscSensorRole.FEATURE_WHEEL_REVOLUTION_DATA_SUPPORTED) != 0;
+    }
+
+    boolean hasCrank() {
+        return (features & CscSensorRole.FEATURE_CRANK_REVOLUTION_DATA_SUPPORTED) != 0;
+    }
+
+    /**
+     * Delivers one notification the way onCharacteristicChanged would.
+     */
+    boolean notify(int wheelRevolutions, int wheelEventTime, int crankRevolutions, int crankEventTime) {
+        return hub.onMeasurement(sensor, measurement(wheelRevolutions, wheelEventTime, crankRevolutions, crankEventTime), System.nanoTime());
+    }
+
+    private boolean respond(Step step, Runnable callback) {
+        synchronized (random) {
+            if (random.nextDouble() < dropRate) {
+                dropped++;
+                return true;
+            }
+        }
+        maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+        stack.schedule(() -> {
+            outstanding.decrementAndGet();
+            if (callback != null)
+                callback.run();
+            operations.complete(this, step, true);
+        }, operationDelayMicros, TimeUnit.MICROSECONDS);
+        return true;
+    }
+
+    /**
+     * @param wheelRevolutions negative to leave wheel data out
+     * @param crankRevolutions negative to leave crank data out
+     */
+    static byte[] measurement(int wheelRevolutions, int wheelEventTime, int crankRevolutions, int crankEventTime) {
+        boolean wheel = wheelRevolutions >= 0;
+        boolean crank = crankRevolutions >= 0;
+        byte[] value = new byte[1 + (wheel ? 6 : 0) + (crank ? 4 : 0)];
+        int offset = 0;
+        value[offset++] = (byte) ((wheel ? 0x01 : 0) | (crank ? 0x02 : 0));
+        if (wheel) {
+            value[offset++] = (byte) wheelRevolutions;
+            value[offset++] = (byte) (wheelRevolutions >> 8);
+            value[offset++] = (byte) (wheelRevolutions >> 16);
+            value[offset++] = (byte) (wheelRevolutions >> 24);
+            value[offset++] = (byte) wheelEventTime;
+            value[offset++] = (byte) (wheelEventTime >> 8);
+        }
+        if (crank) {
+            value[offset++] = (byte) crankRevolutions;
+            value[offset++] = (byte) (crankRevolutions >> 8);
+            value[offset++] = (byte) crankEventTime;
+            value[offset] = (byte) (crankEventTime >> 8);
+        }
+        return value;
+    }
+}
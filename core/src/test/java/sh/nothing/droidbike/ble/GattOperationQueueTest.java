@@ -0,0 +1,178 @@
+package sh.nothing.droidbike.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import sh.nothing.droidbike.ble.GattOperationQueue.Step;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+    private ManualScheduler scheduler;
+    private GattOperationQueue operations;
+    private final List<String> failed = new ArrayList<>();
+    private final Object a = "a";
+    private final Object b = "b";
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new ManualScheduler();
+        operations = new GattOperationQueue(scheduler, 3);
+        operations.setListener((owner, step) -> failed.add(owner + ":" + step));
+    }
+
+    @Test
+    public void runsOneAtATime() throws Exception {
+        int[] executed = new int[2];
+        operations.enqueue(a, Step.WRITE_DESCRIPTOR, () -> ++executed[0] > 0);
+        operations.enqueue(b, Step.WRITE_DESCRIPTOR, () -> ++executed[1] > 0);
+        assertEquals(1, executed[0]);
+        assertEquals(0, executed[1]);
+
+        scheduler.advanceMillis(5);
+        assertTrue(operations.complete(a, Step.WRITE_DESCRIPTOR, true));
+        assertEquals(1, executed[1]);
+        assertEquals(1, operations.getHistogram(Step.WRITE_DESCRIPTOR).getCount());
+        assertEquals(5_000_000, operations.getHistogram(Step.WRITE_DESCRIPTOR).getMaxNanos());
+    }
+
+    @Test
+    public void ignoresCallbackForOtherStep() throws Exception {
+        operations.enqueue(a, Step.DISCOVER_SERVICES, () -> true);
+        assertFalse(operations.complete(a, Step.WRITE_DESCRIPTOR, true));
+        assertFalse(operations.complete(b, Step.DISCOVER_SERVICES, true));
+        assertTrue(operations.complete(a, Step.DISCOVER_SERVICES, true));
+        assertTrue(operations.isIdle());
+    }
+
+    @Test
+    public void retriesAfterTimeout() throws Exception {
+        int[] executed = new int[1];
+        operations.enqueue(a, Step.WRITE_DESCRIPTOR, () -> ++executed[0] > 0);
+
+        scheduler.advanceMillis(operations.getTimeout(Step.WRITE_DESCRIPTOR));
+        assertEquals(1, operations.getTimeouts());
+        assertEquals(1, executed[0]);
+
+        scheduler.advanceMillis(GattOperationQueue.RETRY_DELAY_MILLIS);
+        assertEquals(2, executed[0]);
+        assertTrue(operations.complete(a, Step.WRITE_DESCRIPTOR, true));
+        assertEquals(1, operations.getRetries());
+        assertTrue(failed.isEmpty());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttemptsAndMovesOn() throws Exception {
+        int[] executed = new int[2];
+        operations.enqueue(a, Step.WRITE_DESCRIPTOR, () -> ++executed[0] < 0);
+        operations.enqueue(b, Step.READ_CHARACTERISTIC, () -> ++executed[1] > 0);
+
+        scheduler.advanceMillis(1_000);
+        assertEquals(3, executed[0]);
+        assertEquals(1, executed[1]);
+        assertEquals(1, operations.getFailures());
+        assertEquals(1, failed.size());
+        assertEquals("a:WRITE_DESCRIPTOR", failed.get(0));
+    }
+
+    @Test
+    public void retriesOnFailureStatus() throws Exception {
+        int[] executed = new int[1];
+        operations.enqueue(a, Step.CONNECT, () -> ++executed[0] > 0);
+        assertTrue(operations.complete(a, Step.CONNECT, false));
+        scheduler.advanceMillis(GattOperationQueue.RETRY_DELAY_MILLIS);
+        assertEquals(2, executed[0]);
+        assertTrue(operations.complete(a, Step.CONNECT, true));
+        assertTrue(operations.isIdle());
+    }
+
+    @Test
+    public void lateCallbackAfterTimeoutCompletesRetry() throws Exception {
+        int[] executed = new int[1];
+        operations.enqueue(a, Step.READ_CHARACTERISTIC, () -> ++executed[0] > 0);
+        scheduler.advanceMillis(operations.getTimeout(Step.READ_CHARACTERISTIC));
+        // callback of the first attempt shows up while waiting to retry
+        assertTrue(operations.complete(a, Step.READ_CHARACTERISTIC, true));
+        scheduler.advanceMillis(10_000);
+        assertEquals(1, executed[0]);
+        assertTrue(operations.isIdle());
+    }
+
+    @Test
+    public void synchronousCompletion() throws Exception {
+        List<String> order = new ArrayList<>();
+        operations.enqueue(a, Step.CONNECT, () -> {
+            order.add("connect");
+            operations.complete(a, Step.CONNECT, true);
+            return true;
+        });
+        operations.enqueue(a, Step.DISCOVER_SERVICES, () -> order.add("discover"));
+        assertEquals(2, order.size());
+        assertEquals(1, operations.size());
+    }
+
+    @Test
+    public void cancelDropsPendingOperationsOfOneConnection() throws Exception {
+        int[] executed = new int[2];
+        operations.enqueue(a, Step.CONNECT, () -> ++executed[0] > 0);
+        operations.enqueue(a, Step.DISCOVER_SERVICES, () -> ++executed[0] > 0);
+        operations.enqueue(b, Step.CONNECT, () -> ++executed[1] > 0);
+        assertEquals(3, operations.size());
+
+        operations.cancel(a);
+        assertEquals(1, executed[0]);
+        assertEquals(1, executed[1]);
+        assertFalse(operations.complete(a, Step.DISCOVER_SERVICES, true));
+        assertTrue(operations.complete(b, Step.CONNECT, true));
+        assertTrue(operations.isIdle());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void toStringReportsCountsAndLatencies() throws Exception {
+        operations.enqueue(a, Step.WRITE_DESCRIPTOR, () -> true);
+        scheduler.advanceMillis(5);
+        operations.complete(a, Step.WRITE_DESCRIPTOR, false);
+        scheduler.advanceMillis(GattOperationQueue.RETRY_DELAY_MILLIS);
+        operations.complete(a, Step.WRITE_DESCRIPTOR, true);
+
+        String counters = operations.toString();
+        assertTrue(counters, counters.startsWith("1 retries, 0 timeouts, 0 failures, CONNECT n=0 "));
+        assertTrue(counters, counters.contains(", WRITE_DESCRIPTOR n=1 "));
+    }
+
+    @Test
+    public void startsOperationsAndReportsFailuresWithoutTheLock() throws Exception {
+        int[] sizes = new int[2];
+        operations.setListener((owner, step) -> sizes[1] = sizeOnAnotherThread());
+        operations.enqueue(a, Step.WRITE_DESCRIPTOR, () -> {
+            sizes[0] = sizeOnAnotherThread();
+            return false;
+        });
+
+        scheduler.advanceMillis(1_000);
+        assertEquals(1, sizes[0]);
+        assertEquals(0, sizes[1]);
+        assertEquals(1, operations.getFailures());
+        assertTrue(operations.isIdle());
+    }
+
+    // like the Binder thread in CscManager, which holds another lock while it calls the queue
+    private int sizeOnAnotherThread() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(operations::size).get(1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new AssertionError("queue locked while calling out", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
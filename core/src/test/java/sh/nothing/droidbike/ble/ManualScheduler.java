@@ -0,0 +1,62 @@
+package sh.nothing.droidbike.ble;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fake-clock Scheduler; tasks run only when the test advances time.
+ */
+
+class ManualScheduler implements Scheduler {
+    private static class Task {
+        final Runnable runnable;
+        final long dueNanos;
+
+        Task(Runnable runnable, long dueNanos) {
+            this.runnable = runnable;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    private final List<Task> tasks = new ArrayList<>();
+    private long now;
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        tasks.add(new Task(task, now + delayMillis * 1_000_000));
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            if (tasks.get(i).runnable == task)
+                tasks.remove(i);
+        }
+    }
+
+    void advanceMillis(long millis) {
+        long target = now + millis * 1_000_000;
+        while (true) {
+            Task due = null;
+            for (Task task : tasks) {
+                if (task.dueNanos <= target && (due == null || task.dueNanos < due.dueNanos))
+                    due = task;
+            }
+            if (due == null)
+                break;
+            tasks.remove(due);
+            now = due.dueNanos;
+            due.runnable.run();
+        }
+        now = target;
+    }
+
+    int pending() {
+        return tasks.size();
+    }
+}
@@ -0,0 +1,148 @@
+package sh.nothing.droidbike.ble;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sh.nothing.droidbike.ble.GattOperationQueue.Step;
+import sh.nothing.droidbike.util.LatencyHistogram;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives CscSensorHub and GattOperationQueue with several fake sensors notifying concurrently,
+ * and checks that every notification and operation got through within bounds. The bounds are
+ * generous, to hold on a loaded build machine; CscSensorHubBenchmark has the actual numbers.
+ */
+public class MultiSensorHarnessTest {
+    private static final int NOTIFICATIONS = 20_000;
+    // a real sensor notifies a few times per second
+    private static final double MIN_NOTIFICATIONS_PER_SECOND = 1_000;
+    private static final long MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private ScheduledExecutorService stack;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger maxOutstanding = new AtomicInteger();
+    private volatile int mergedWheelRevolutions;
+    private volatile int mergedCrankRevolutions;
+
+    @Before
+    public void setUp() throws Exception {
+        stack = Executors.newScheduledThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        stack.shutdownNow();
+    }
+
+    @Test
+    public void speedCadenceAndComboSensors() throws Exception {
+        CscSensorHub hub = new CscSensorHub((role, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm, realTime) -> {
+            mergedWheelRevolutions = wheelRevolutions;
+            mergedCrankRevolutions = crankRevolutions;
+        });
+        GattOperationQueue operations = new GattOperationQueue(new ExecutorScheduler(stack));
+
+        FakeGattSensor[] sensors = {
+            new FakeGattSensor("speed", 0x01, hub, operations, stack, outstanding, maxOutstanding, 200),
+            new FakeGattSensor("cadence", 0x02, hub, operations, stack, outstanding, maxOutstanding, 200),
+            new FakeGattSensor("combo", 0x03, hub, operations, stack, outstanding, maxOutstanding, 200),
+        };
+        for (FakeGattSensor sensor : sensors)
+            sensor.connect();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!operations.isIdle() && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        assertTrue(operations.isIdle());
+        assertEquals(1, maxOutstanding.get());
+        for (FakeGattSensor sensor : sensors)
+            assertTrue(sensor.notifying);
+
+        // first notification of each sensor only sets its baseline; sent up front so that
+        // the dedicated sensors are known before combo data could be counted
+        for (FakeGattSensor sensor : sensors)
+            sensor.notify(sensor.hasWheel() ? 1000 : -1, 0, sensor.hasCrank() ? 500 : -1, 0);
+
+        CountDownLatch done = new CountDownLatch(sensors.length);
+        long[] elapsed = new long[sensors.length];
+        for (int s = 0; s < sensors.length; s++) {
+            final int index = s;
+            final FakeGattSensor sensor = sensors[s];
+            new Thread(() -> {
+                long start = System.nanoTime();
+                boolean wheel = sensor.hasWheel();
+                boolean crank = sensor.hasCrank();
+                for (int i = 1; i <= NOTIFICATIONS; i++) {
+                    int time = (i * 512) & 0xffff;
+                    sensor.notify(wheel ? 1000 + i : -1, time, crank ? (500 + i) & 0xffff : -1, time);
+                }
+                elapsed[index] = System.nanoTime() - start;
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+
+        for (int s = 0; s < sensors.length; s++) {
+            CscSensor sensor = sensors[s].sensor;
+            assertEquals(NOTIFICATIONS + 1, sensor.getNotifications());
+            assertTrue(sensors[s].notifyingAt < TimeUnit.SECONDS.toNanos(10));
+            double throughput = NOTIFICATIONS / (elapsed[s] / 1e9);
+            assertTrue(sensor.getAddress() + " " + throughput + " notifications/s", throughput >= MIN_NOTIFICATIONS_PER_SECOND);
+            assertTrue(sensor.getAddress() + " max latency " + sensor.getMaxLatencyNanos() + " ns",
+                sensor.getMaxLatencyNanos() < MAX_LATENCY_NANOS);
+        }
+        assertEquals(CscSensorRole.SPEED, sensors[0].sensor.getRole());
+        assertEquals(CscSensorRole.CADENCE, sensors[1].sensor.getRole());
+        assertEquals(CscSensorRole.COMBO, sensors[2].sensor.getRole());
+
+        // merged counts follow the dedicated sensors only
+        assertEquals(NOTIFICATIONS, mergedWheelRevolutions);
+        assertEquals(NOTIFICATIONS, mergedCrankRevolutions);
+    }
+
+    @Test
+    public void setupSurvivesDroppedOperations() throws Exception {
+        CscSensorHub hub = new CscSensorHub(null);
+        GattOperationQueue operations = new GattOperationQueue(new ExecutorScheduler(stack), 10);
+        for (Step step : Step.values())
+            operations.setTimeout(step, 50);
+
+        FakeGattSensor[] sensors = new FakeGattSensor[6];
+        for (int s = 0; s < sensors.length; s++) {
+            sensors[s] = new FakeGattSensor("sensor" + s, 0x03, hub, operations, stack, outstanding, maxOutstanding, 500);
+            sensors[s].dropRate = 0.2;
+            sensors[s].connect();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (!operations.isIdle() && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        assertTrue(operations.isIdle());
+        assertEquals(1, maxOutstanding.get());
+        assertEquals(0, operations.getFailures());
+
+        int dropped = 0;
+        for (FakeGattSensor sensor : sensors) {
+            assertTrue(sensor.notifying);
+            assertEquals(CscSensorRole.COMBO, sensor.sensor.getRole());
+            dropped += sensor.dropped;
+            assertTrue(sensor.notifyingAt < TimeUnit.SECONDS.toNanos(20));
+        }
+        // every dropped operation timed out and was tried again
+        assertTrue(operations.getTimeouts() >= dropped);
+        assertTrue(operations.getRetries() >= dropped);
+        for (Step step : Step.values()) {
+            LatencyHistogram histogram = operations.getHistogram(step);
+            assertTrue(step + " " + histogram, histogram.getCount() >= sensors.length);
+            assertTrue(step + " " + histogram, histogram.getMaxNanos() < TimeUnit.SECONDS.toNanos(20));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package sh.nothing.droidbike.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReconnectorTest {
+    private ManualScheduler scheduler;
+    private final List<String> calls = new ArrayList<>();
+    private Reconnector reconnector;
+
+    private final Reconnector.Target target = new Reconnector.Target() {
+        @Override
+        public void connectDirect() {
+            calls.add(scheduler.nanoTime() / 1_000_000 + " direct");
+        }
+
+        @Override
+        public void startFilteredScan() {
+            calls.add(scheduler.nanoTime() / 1_000_000 + " scan");
+        }
+
+        @Override
+        public void cancelAttempt() {
+            calls.add(scheduler.nanoTime() / 1_000_000 + " cancel");
+        }
+
+        @Override
+        public void onGaveUp() {
+            calls.add(scheduler.nanoTime() / 1_000_000 + " gave up");
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new ManualScheduler();
+        // direct 5 s, scan 10 s, backoff 2 s doubling up to 8 s, give up at the 5th attempt
+        reconnector = new Reconnector(scheduler, new BackoffReconnectStrategy(5_000, 10_000, 2_000, 8_000, 5), target);
+    }
+
+    @Test
+    public void directConnectFirst() throws Exception {
+        reconnector.start();
+        scheduler.advanceMillis(0);
+        assertEquals("0 direct", calls.get(0));
+
+        scheduler.advanceMillis(1_200);
+        assertTrue(reconnector.onConnected());
+        assertFalse(reconnector.isActive());
+        assertEquals(1, reconnector.getReconnects());
+        assertEquals(1, reconnector.getLastAttempts());
+        assertEquals(1_200_000_000L, reconnector.getLastTimeToReconnectNanos());
+        assertEquals(1_200_000_000L, reconnector.getTimeToReconnect().getMaxNanos());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void fallsBackToScansWithExponentialBackoff() throws Exception {
+        reconnector.start();
+        scheduler.advanceMillis(100_000);
+
+        String[] expected = {
+            "0 direct", "5000 cancel",
+            "7000 scan", "17000 cancel", // +2 s backoff
+            "21000 scan", "31000 cancel", // +4 s
+            "39000 scan", "49000 cancel", // +8 s
+            "57000 scan", "67000 cancel", // capped at 8 s
+            "67000 gave up",
+        };
+        assertArrayEquals(expected, calls.toArray());
+        assertFalse(reconnector.isActive());
+        assertEquals(5, reconnector.getTotalAttempts());
+        assertEquals(0, reconnector.getReconnects());
+    }
+
+    @Test
+    public void reconnectDuringScanRecordsAttempts() throws Exception {
+        reconnector.start();
+        scheduler.advanceMillis(10_000);
+        assertEquals(1, reconnector.getAttempt());
+        assertTrue(reconnector.onConnected());
+        assertEquals(2, reconnector.getLastAttempts());
+        assertEquals(10_000_000_000L, reconnector.getTimeToReconnect().getMaxNanos());
+        assertFalse(reconnector.onConnected());
+    }
+
+    @Test
+    public void startWhileActiveIsIgnored() throws Exception {
+        reconnector.start();
+        scheduler.advanceMillis(3_000);
+        reconnector.start();
+        scheduler.advanceMillis(2_000);
+        assertEquals("5000 cancel", calls.get(1));
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void cancelStopsEverything() throws Exception {
+        reconnector.start();
+        reconnector.cancel();
+        scheduler.advanceMillis(100_000);
+        assertTrue(calls.isEmpty());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void backoffDoesNotOverflow() throws Exception {
+        BackoffReconnectStrategy strategy = new BackoffReconnectStrategy(1, 1, 1_000, Long.MAX_VALUE, 0);
+        assertEquals(ReconnectStrategy.Action.SCAN, strategy.action(1_000));
+        assertTrue(strategy.delayMillis(1_000) > 0);
+    }
+
+    @Test
+    public void callsTheTargetWithoutTheLock() throws Exception {
+        Reconnector.Target reentrant = new Reconnector.Target() {
+            @Override
+            public void connectDirect() {
+                calls.add("direct " + isActiveOnAnotherThread());
+            }
+
+            @Override
+            public void startFilteredScan() {
+                calls.add("scan " + isActiveOnAnotherThread());
+            }
+
+            @Override
+            public void cancelAttempt() {
+                calls.add("cancel " + isActiveOnAnotherThread());
+            }
+
+            @Override
+            public void onGaveUp() {
+                calls.add("gave up " + isActiveOnAnotherThread());
+            }
+        };
+        reconnector = new Reconnector(scheduler, new BackoffReconnectStrategy(5_000, 10_000, 2_000, 8_000, 2), reentrant);
+        reconnector.start();
+        scheduler.advanceMillis(100_000);
+
+        String[] expected = {"direct true", "cancel true", "scan true", "cancel true", "gave up false"};
+        assertArrayEquals(expected, calls.toArray());
+    }
+
+    // like CscManager, whose target takes the GATT queue's lock, while the queue's callers ask
+    // whether a reconnect is running
+    private boolean isActiveOnAnotherThread() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(reconnector::isActive).get(1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new AssertionError("reconnector locked while calling the target", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
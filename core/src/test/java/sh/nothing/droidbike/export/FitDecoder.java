@@ -0,0 +1,88 @@
+package sh.nothing.droidbike.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Just enough of a FIT decoder to check FitWriter output: validates header, sizes and CRCs
+ * and returns the data messages with their fields as unsigned values.
+ */
+
+class FitDecoder {
+    static class Message {
+        final int global;
+        final Map<Integer, Long> fields = new LinkedHashMap<>();
+
+        Message(int global) {
+            this.global = global;
+        }
+
+        long get(int field) {
+            return fields.get(field);
+        }
+    }
+
+    static List<Message> decode(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        int headerSize = buffer.get(0);
+        assertEquals(FitWriter.HEADER_SIZE, headerSize);
+        assertEquals(".FIT", new String(bytes, 8, 4, "US-ASCII"));
+        assertEquals(FitCrc.update(0, bytes, 0, 12), buffer.getShort(12) & 0xffff);
+        long dataSize = buffer.getInt(4) & 0xffffffffL;
+        assertEquals(bytes.length, headerSize + dataSize + 2);
+        // the CRC over a whole file including its own CRC is 0
+        assertEquals(0, FitCrc.update(0, bytes, 0, bytes.length));
+
+        int[][] definitions = new int[16][];
+        int[] globals = new int[16];
+        List<Message> messages = new ArrayList<>();
+        buffer.position(headerSize);
+        while (buffer.position() < headerSize + dataSize) {
+            int header = buffer.get() & 0xff;
+            int local = header & 0x0f;
+            if ((header & 0x40) != 0) {
+                buffer.get();
+                assertEquals(0, buffer.get());
+                globals[local] = buffer.getShort() & 0xffff;
+                int count = buffer.get() & 0xff;
+                int[] fields = new int[count * 3];
+                for (int i = 0; i < fields.length; i++)
+                    fields[i] = buffer.get() & 0xff;
+                definitions[local] = fields;
+            } else {
+                int[] fields = definitions[local];
+                Message message = new Message(globals[local]);
+                for (int i = 0; i < fields.length; i += 3) {
+                    long value;
+                    switch (fields[i + 1]) {
+                        case 1:
+                            value = buffer.get() & 0xffL;
+                            break;
+                        case 2:
+                            value = buffer.getShort() & 0xffffL;
+                            break;
+                        case 4:
+                            value = buffer.getInt() & 0xffffffffL;
+                            break;
+                        default:
+                            throw new AssertionError("size " + fields[i + 1]);
+                    }
+                    message.fields.put(fields[i], value);
+                }
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,113 @@
+package sh.nothing.droidbike.export;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FitWriterTest {
+    private static final long START = 1_488_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesValidActivity() throws IOException {
+        File file = folder.newFile("ride.fit");
+        FitWriter writer = new FitWriter(new RandomAccessFile(file, "rw").getChannel());
+        writer.begin(START);
+
+        TrackPoint point = new TrackPoint();
+        point.time = START;
+        writer.point(point);
+
+        point.time = START + 1000;
+        point.hasPosition = true;
+        point.latitude = 35.681236;
+        point.longitude = -139.767125;
+        point.hasAltitude = true;
+        point.altitude = 40.2f;
+        point.distance = 12.34;
+        point.speed = 8.5f;
+        point.hasCadence = true;
+        point.cadence = 89.6f;
+        writer.point(point);
+
+        TrackSummary summary = new TrackSummary();
+        summary.startTime = START;
+        summary.endTime = START + 1000;
+        summary.timerTime = 1000;
+        summary.distance = 12.34;
+        writer.end(summary);
+
+        List<FitDecoder.Message> messages = FitDecoder.decode(file.toPath());
+        int[] globals = new int[messages.size()];
+        for (int i = 0; i < globals.length; i++)
+            globals[i] = messages.get(i).global;
+        assertEquals(java.util.Arrays.toString(new int[]{
+            FitWriter.MESG_FILE_ID, FitWriter.MESG_EVENT, FitWriter.MESG_RECORD, FitWriter.MESG_RECORD,
+            FitWriter.MESG_EVENT, FitWriter.MESG_LAP, FitWriter.MESG_SESSION, FitWriter.MESG_ACTIVITY
+        }), java.util.Arrays.toString(globals));
+
+        FitDecoder.Message empty = messages.get(2);
+        assertEquals(FitWriter.INVALID_SINT32, empty.get(0));
+        assertEquals(FitWriter.INVALID_UINT16, empty.get(2));
+        assertEquals(FitWriter.INVALID_UINT8, empty.get(4));
+
+        FitDecoder.Message record = messages.get(3);
+        assertEquals(START / 1000 + 1 - FitWriter.FIT_EPOCH_OFFSET, record.get(253));
+        assertEquals(35.681236, (int) record.get(0) / FitWriter.SEMICIRCLES_PER_DEGREE, 1e-6);
+        assertEquals(-139.767125, (int) record.get(1) / FitWriter.SEMICIRCLES_PER_DEGREE, 1e-6);
+        assertEquals(40.2, record.get(2) / 5.0 - 500, 0.2);
+        assertEquals(1234, record.get(5));
+        assertEquals(8500, record.get(6));
+        assertEquals(90, record.get(4));
+
+        FitDecoder.Message session = messages.get(6);
+        assertEquals(2, session.get(5)); // cycling
+        assertEquals(1000, session.get(8));
+        assertEquals(1234, session.get(9));
+    }
+
+    @Test
+    public void spansManyBufferFlushes() throws IOException {
+        File file = folder.newFile("long.fit");
+        FitWriter writer = new FitWriter(new RandomAccessFile(file, "rw").getChannel());
+        writer.begin(START);
+        TrackPoint point = new TrackPoint();
+        int count = 20_000;
+        for (int i = 0; i < count; i++) {
+            point.time = START + i * 1000L;
+            point.distance = i * 5;
+            writer.point(point);
+        }
+        TrackSummary summary = new TrackSummary();
+        summary.startTime = START;
+        summary.endTime = point.time;
+        writer.end(summary);
+
+        int records = 0;
+        for (FitDecoder.Message message : FitDecoder.decode(file.toPath())) {
+            if (message.global == FitWriter.MESG_RECORD)
+                assertEquals(records++ * 500L, message.get(5));
+        }
+        assertEquals(count, records);
+    }
+
+    @Test
+    public void crcCombineMatchesDirectCrc() {
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (i * 31 + 7);
+        int direct = FitCrc.update(0, bytes, 0, bytes.length);
+        int a = FitCrc.update(0, bytes, 0, 14);
+        int b = FitCrc.update(0, bytes, 14, bytes.length - 14);
+        assertEquals(direct, FitCrc.combine(a, b, bytes.length - 14));
+    }
+}
@@ -0,0 +1,67 @@
+package sh.nothing.droidbike.export;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.assertEquals;
+
+public class GpxWriterTest {
+    private static final long START = 1_488_000_000_000L;
+
+    @Test
+    public void writesTrackPointsWithPosition() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GpxWriter writer = new GpxWriter(out, "Morning <ride> & more");
+        writer.begin(START);
+
+        TrackPoint point = new TrackPoint();
+        point.time = START;
+        writer.point(point); // no position yet
+
+        point.hasPosition = true;
+        point.latitude = 0.00001;
+        point.longitude = -139.5;
+        point.hasAltitude = true;
+        point.altitude = -3.25f;
+        point.hasCadence = true;
+        point.cadence = 88.6f;
+        point.time = START + 1000;
+        writer.point(point);
+        writer.end(new TrackSummary());
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals("Morning <ride> & more", document.getElementsByTagName("name").item(0).getTextContent());
+        NodeList points = document.getElementsByTagName("trkpt");
+        assertEquals(1, points.getLength());
+        Element trkpt = (Element) points.item(0);
+        assertEquals("0.0000100", trkpt.getAttribute("lat"));
+        assertEquals("-139.5000000", trkpt.getAttribute("lon"));
+        assertEquals("-3.3", trkpt.getElementsByTagName("ele").item(0).getTextContent());
+        assertEquals("2017-02-25T05:20:01Z", trkpt.getElementsByTagName("time").item(0).getTextContent());
+        assertEquals("89", trkpt.getElementsByTagNameNS("http://www.garmin.com/xmlschemas/TrackPointExtension/v1", "cad").item(0).getTextContent());
+    }
+
+    @Test
+    public void appendFixed() {
+        assertEquals("1.05", fixed(1.05, 2));
+        assertEquals("-0.001", fixed(-0.001, 3));
+        assertEquals("12", fixed(12.4, 0));
+        assertEquals("0.0", fixed(-0.01, 1));
+    }
+
+    private static String fixed(double value, int decimals) {
+        StringBuilder out = new StringBuilder();
+        GpxWriter.appendFixed(out, value, decimals);
+        return out.toString();
+    }
+}
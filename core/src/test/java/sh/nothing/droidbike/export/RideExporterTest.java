@@ -0,0 +1,95 @@
+package sh.nothing.droidbike.export;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import sh.nothing.droidbike.record.SyntheticRide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RideExporterTest {
+    private static final int SECONDS = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = folder.newFile("ride.bin");
+        SyntheticRide.write(log, SECONDS);
+    }
+
+    @Test
+    public void exportsOnePointPerSecond() throws IOException {
+        File fit = folder.newFile("ride.fit");
+        TrackSummary summary = new RideExporter(2000).export(log, new FitWriter(new RandomAccessFile(fit, "rw").getChannel()));
+
+        assertEquals(SECONDS + 1, summary.points);
+        assertEquals(SyntheticRide.START_WALL_CLOCK, summary.startTime);
+        assertEquals(SyntheticRide.START_WALL_CLOCK + SECONDS * 1000, summary.endTime);
+        // one 2 m revolution per second
+        assertEquals(SECONDS * 2, summary.distance, 0.01);
+        // rpm needs two notifications, so the wheel counts as turning from the second one
+        assertEquals(SECONDS * 1000, summary.timerTime, 2000);
+
+        List<FitDecoder.Message> messages = FitDecoder.decode(fit.toPath());
+        int records = 0;
+        FitDecoder.Message last = null;
+        for (FitDecoder.Message message : messages) {
+            if (message.global == FitWriter.MESG_RECORD) {
+                records++;
+                last = message;
+            }
+        }
+        assertEquals(SECONDS + 1, records);
+        assertEquals(SECONDS * 200, last.get(5)); // cm
+        assertEquals(2000, last.get(6), 50); // 2 m/s in mm/s
+        assertEquals(90, last.get(4), 1);
+        // the point may be written just before that second's fix arrives
+        assertEquals(35.0 + SECONDS * 1e-4, (int) last.get(0) / FitWriter.SEMICIRCLES_PER_DEGREE, 1.1e-4);
+    }
+
+    @Test
+    public void gpxAndFitAgree() throws IOException {
+        File gpx = folder.newFile("ride.gpx");
+        TrackSummary fromGpx;
+        try (FileOutputStream out = new FileOutputStream(gpx)) {
+            fromGpx = new RideExporter(2000).export(log, new GpxWriter(out, "ride"));
+        }
+        File fit = folder.newFile("ride.fit");
+        TrackSummary fromFit = new RideExporter(2000).export(log, new FitWriter(new RandomAccessFile(fit, "rw").getChannel()));
+
+        assertEquals(fromFit.points, fromGpx.points);
+        assertEquals(fromFit.distance, fromGpx.distance, 0.0);
+        assertTrue(gpx.length() > 0);
+    }
+
+    @Test
+    public void intervalControlsPointCount() throws IOException {
+        RideExporter exporter = new RideExporter(2000);
+        exporter.setInterval(5000);
+        File fit = folder.newFile("ride.fit");
+        TrackSummary summary = exporter.export(log, new FitWriter(new RandomAccessFile(fit, "rw").getChannel()));
+        assertEquals(SECONDS / 5 + 1, summary.points);
+    }
+
+    @Test
+    public void emptyLogStillProducesValidFile() throws IOException {
+        File empty = folder.newFile("empty.bin");
+        File fit = folder.newFile("empty.fit");
+        TrackSummary summary = new RideExporter(2000).export(empty, new FitWriter(new RandomAccessFile(fit, "rw").getChannel()));
+        assertEquals(0, summary.points);
+        FitDecoder.decode(fit.toPath());
+    }
+}
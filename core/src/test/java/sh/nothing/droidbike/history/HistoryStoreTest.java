@@ -0,0 +1,120 @@
+package sh.nothing.droidbike.history;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryStoreTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+
+    private HistoryStore store;
+
+    @Before
+    public void setUp() {
+        store = new HistoryStore();
+    }
+
+    @Test
+    public void rawForRecentFineSteps() {
+        // 10 Hz ramp
+        for (int i = 0; i < 100; i++)
+            store.add(HistoryStore.SPEED, i * SECOND / 10, i);
+        HistoryRange range = new HistoryRange(20);
+        store.query(HistoryStore.SPEED, 0, 10 * SECOND, range);
+        assertEquals(0, range.getResolution());
+        assertEquals(SECOND / 2, range.getStep());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(5, range.count[i]);
+            assertEquals(i * 5, range.min[i], 0);
+            assertEquals(i * 5 + 4, range.max[i], 0);
+            assertEquals(i * 5 + 2, range.mean[i], 1e-4f);
+        }
+    }
+
+    @Test
+    public void rollupsForCoarseSteps() {
+        for (int i = 0; i < 600; i++)
+            store.add(HistoryStore.CADENCE, i * SECOND / 10, i % 10);
+        HistoryRange range = new HistoryRange(6);
+        store.query(HistoryStore.CADENCE, 0, MINUTE, range);
+        assertEquals(10 * SECOND, range.getResolution());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(100, range.count[i]);
+            assertEquals(0, range.min[i], 0);
+            assertEquals(9, range.max[i], 0);
+            assertEquals(4.5f, range.mean[i], 1e-4f);
+        }
+    }
+
+    @Test
+    public void emptyStepsAreNaN() {
+        store.add(HistoryStore.PRESSURE, 0, 1000);
+        store.add(HistoryStore.PRESSURE, 5 * SECOND, 1001);
+        HistoryRange range = new HistoryRange(10);
+        store.query(HistoryStore.PRESSURE, 0, 10 * SECOND, range);
+        assertEquals(1, range.count[0]);
+        assertEquals(0, range.count[1]);
+        assertTrue(Float.isNaN(range.mean[1]));
+        assertEquals(1001, range.mean[5], 0);
+    }
+
+    @Test
+    public void channelsAreSeparate() {
+        store.add(HistoryStore.GPS_ALTITUDE, 0, 50);
+        store.add(HistoryStore.GPS_SPEED, 0, 20);
+        store.add(HistoryStore.GPS_SPEED, 0, Float.NaN);
+        HistoryRange range = new HistoryRange(1);
+        store.query(HistoryStore.GPS_SPEED, 0, SECOND, range);
+        assertEquals(1, range.count[0]);
+        assertEquals(20, range.mean[0], 0);
+        assertEquals(2, store.getSamples());
+    }
+
+    @Test
+    public void longRideKeepsCoarseHistory() {
+        // 6.5 hours at 5 Hz, speed rising 1 km/h per hour
+        long end = 6 * HOUR + 30 * MINUTE;
+        for (long t = 0; t < end; t += SECOND / 5)
+            store.add(HistoryStore.SPEED, t, (float) t / HOUR);
+
+        // the whole ride only fits the 1 min tier
+        HistoryRange whole = new HistoryRange(39);
+        store.query(HistoryStore.SPEED, 0, end, whole);
+        assertEquals(MINUTE, whole.getResolution());
+        assertEquals(10 * MINUTE, whole.getStep());
+        assertEquals(3000, whole.count[0]);
+        assertEquals(1.0f / 12, whole.mean[0], 1e-3f);
+        assertEquals(6.5f - 1.0f / 12, whole.mean[38], 1e-3f);
+
+        // two hours ago in 1 s steps: the 1 s tier no longer reaches, 10 s still does
+        HistoryRange past = new HistoryRange(120);
+        store.query(HistoryStore.SPEED, end - 2 * HOUR, end - 2 * HOUR + 2 * MINUTE, past);
+        assertEquals(10 * SECOND, past.getResolution());
+        assertEquals(50, past.count[0]);
+        assertEquals(0, past.count[1]);
+
+        // the last minute in 0.5 s steps still comes from raw samples
+        HistoryRange recent = new HistoryRange(120);
+        store.query(HistoryStore.SPEED, end - MINUTE, end, recent);
+        assertEquals(0, recent.getResolution());
+        assertEquals(3, recent.count[0]);
+    }
+
+    @Test
+    public void footprintIndependentOfRideLength() {
+        int footprint = store.getFootprintBytes();
+        for (long t = 0; t < 2 * HOUR; t += SECOND / 25)
+            store.add(HistoryStore.PRESSURE, t, 1000);
+        assertEquals(footprint, store.getFootprintBytes());
+        assertTrue(footprint < 2 * 1024 * 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRangeRejected() {
+        store.query(HistoryStore.SPEED, SECOND, SECOND, new HistoryRange(1));
+    }
+}
@@ -0,0 +1,96 @@
+package sh.nothing.droidbike.location;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import sh.nothing.droidbike.ble.CscMeasurement;
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.record.RideLog;
+import sh.nothing.droidbike.record.RideRecorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeadReckoningEvaluatorTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final int SECONDS = 1200;
+    private static final int CIRCUMFERENCE = 2100;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static File log;
+
+    /**
+     * Twenty minutes at 6 m/s on a winding road, with 2 m of GPS noise, a phone mounted 0.4 rad
+     * off the bike's axis and a noisy compass.
+     */
+    @BeforeClass
+    public static void writeRide() throws IOException {
+        log = folder.newFile("ride.bin");
+        Random random = new Random(18);
+        CscMeasurement measurement = new CscMeasurement();
+        measurement.wheelRevolutionsPresent = true;
+        double north = 0;
+        double east = 0;
+        double distance = 0;
+        long step = SECOND / 100;
+        try (RideRecorder recorder = new RideRecorder(log, 0, 0, RideLog.RECORDS_PER_CHUNK)) {
+            for (long t = 0; t <= SECONDS * SECOND; t += step) {
+                double seconds = t / (double) SECOND;
+                double heading = 0.6 * Math.sin(2 * Math.PI * seconds / 120) + seconds * 0.01;
+                north += 6.0 * Math.cos(heading) / 100;
+                east += 6.0 * Math.sin(heading) / 100;
+                distance += 6.0 / 100;
+                if (t % (SECOND / 4) == 0) {
+                    measurement.wheelRevolutions = (int) (distance * 1000 / CIRCUMFERENCE);
+                    // 1/1024 s time of that revolution, at the constant speed
+                    measurement.wheelEventTime = (int) Math.round(measurement.wheelRevolutions * CIRCUMFERENCE / 6000.0 * 1024) & 0xffff;
+                    recorder.recordCsc(t, 0, CscSensorRole.SPEED, measurement);
+                    double azimuth = heading - 0.4 + random.nextGaussian() * 0.1;
+                    recorder.recordHeading(t, (float) Math.atan2(Math.sin(azimuth), Math.cos(azimuth)));
+                }
+                if (t % SECOND == 0) {
+                    double latitude = 35.0 + Math.toDegrees((north + random.nextGaussian() * 2) / DeadReckoning.EARTH_RADIUS);
+                    double longitude = 139.0 + Math.toDegrees((east + random.nextGaussian() * 2) / DeadReckoning.EARTH_RADIUS / Math.cos(Math.toRadians(35.0)));
+                    recorder.recordLocation(t, latitude, longitude, 0.0f, 0.0f, 6.0f, 4.0f);
+                    recorder.flush();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void everyFixIsUsedAtTheRecordedInterval() throws IOException {
+        DeadReckoningEvaluator.Result result = new DeadReckoningEvaluator(CIRCUMFERENCE).evaluate(log, 1000);
+        assertEquals(SECONDS + 1, result.fixesUsed);
+        assertEquals(0, result.fixesHeldOut);
+    }
+
+    @Test
+    public void deadReckoningBeatsHoldingTheLastFix() throws IOException {
+        DeadReckoningEvaluator evaluator = new DeadReckoningEvaluator(CIRCUMFERENCE);
+        float lastError = 0;
+        for (long interval : new long[]{2000, 5000, 10000}) {
+            DeadReckoningEvaluator.Result result = evaluator.evaluate(log, interval);
+            assertEquals(SECONDS + 1, result.fixesUsed + result.fixesHeldOut);
+            assertTrue(result.calibrations > 0);
+            assertTrue(result.toString(), result.meanError < result.meanHoldError);
+            assertTrue(result.meanError >= lastError);
+            lastError = result.meanError;
+        }
+    }
+
+    @Test
+    public void keepsTheTrackWithinGpsNoiseAtTenSeconds() throws IOException {
+        DeadReckoningEvaluator.Result result = new DeadReckoningEvaluator(CIRCUMFERENCE).evaluate(log, 10000);
+        assertTrue(result.toString(), result.meanError < 6.0f);
+        assertTrue(result.toString(), result.p95Error < 12.0f);
+    }
+}
@@ -0,0 +1,109 @@
+package sh.nothing.droidbike.location;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeadReckoningTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final double LATITUDE = 35.0;
+    private static final double LONGITUDE = 139.0;
+    // degrees per metre
+    private static final double NORTH = Math.toDegrees(1 / DeadReckoning.EARTH_RADIUS);
+    private static final double EAST = NORTH / Math.cos(Math.toRadians(LATITUDE));
+
+    private final DeadReckoning estimator = new DeadReckoning();
+
+    @Test
+    public void staysAtTheFixWithoutAHeading() {
+        estimator.onDistance(0, 0);
+        estimator.onFix(0, LATITUDE, LONGITUDE, 5.0f);
+        estimator.onDistance(SECOND, 50);
+
+        assertTrue(estimator.hasPosition());
+        assertEquals(LATITUDE, estimator.getLatitude(), 0);
+        assertEquals(LONGITUDE, estimator.getLongitude(), 0);
+        assertEquals(50, estimator.getDistanceSinceFix(), 0);
+        assertEquals(5.0f + 50 * DeadReckoning.DRIFT_CHORD, estimator.getAccuracy(), 1e-4);
+    }
+
+    @Test
+    public void followsTheLastChordWithoutACompass() {
+        estimator.onDistance(0, 0);
+        estimator.onFix(0, LATITUDE, LONGITUDE, 5.0f);
+        estimator.onDistance(5 * SECOND, 50);
+        // 30 m east, 40 m north
+        estimator.onFix(5 * SECOND, LATITUDE + 40 * NORTH, LONGITUDE + 30 * EAST, 5.0f);
+        estimator.onDistance(10 * SECOND, 100);
+
+        assertEquals(Math.atan2(3, 4), estimator.getHeading(), 1e-6);
+        assertEquals(LATITUDE + 80 * NORTH, estimator.getLatitude(), 1e-3 * NORTH);
+        assertEquals(LONGITUDE + 60 * EAST, estimator.getLongitude(), 1e-3 * EAST);
+        assertTrue(Double.isNaN(estimator.getOffset()));
+    }
+
+    @Test
+    public void learnsTheCompassOffsetFromTheChord() {
+        // the phone points 90 degrees right of the way the bike goes, so it reads east going north
+        float azimuth = (float) (Math.PI / 2);
+        estimator.onHeading(0, azimuth);
+        estimator.onDistance(0, 0);
+        estimator.onFix(0, LATITUDE, LONGITUDE, 5.0f);
+        estimator.onDistance(5 * SECOND, 50);
+        estimator.onFix(5 * SECOND, LATITUDE + 50 * NORTH, LONGITUDE, 5.0f);
+
+        assertEquals(-Math.PI / 2, estimator.getOffset(), 1e-6);
+        assertEquals(1, estimator.getCalibrationCount());
+
+        // turning right: the compass turns with the bike and the estimate goes east
+        estimator.onHeading(6 * SECOND, (float) Math.PI);
+        estimator.onDistance(10 * SECOND, 100);
+        assertEquals(LATITUDE + 50 * NORTH, estimator.getLatitude(), 1e-3 * NORTH);
+        assertEquals(LONGITUDE + 50 * EAST, estimator.getLongitude(), 1e-3 * EAST);
+        assertEquals(5.0f + 50 * DeadReckoning.DRIFT_COMPASS, estimator.getAccuracy(), 1e-4);
+    }
+
+    @Test
+    public void learnsFromACurvedPathBetweenFixes() {
+        estimator.onHeading(0, 0.0f);
+        estimator.onDistance(0, 0);
+        estimator.onFix(0, LATITUDE, LONGITUDE, 5.0f);
+        // 30 m north, then 30 m east: the chord points north-east, and so does the mean azimuth
+        estimator.onDistance(3 * SECOND, 30);
+        estimator.onHeading(3 * SECOND, (float) (Math.PI / 2));
+        estimator.onDistance(6 * SECOND, 60);
+        estimator.onFix(6 * SECOND, LATITUDE + 30 * NORTH, LONGITUDE + 30 * EAST, 5.0f);
+
+        assertEquals(0, estimator.getOffset(), 1e-6);
+    }
+
+    @Test
+    public void ignoresShortAndFoldedChords() {
+        estimator.onHeading(0, 0.0f);
+        estimator.onDistance(0, 0);
+        estimator.onFix(0, LATITUDE, LONGITUDE, 5.0f);
+        estimator.onDistance(SECOND, 10);
+        estimator.onFix(SECOND, LATITUDE + 10 * NORTH, LONGITUDE, 5.0f);
+        assertEquals(0, estimator.getCalibrationCount());
+
+        // 100 m out and 70 m back
+        estimator.onDistance(10 * SECOND, 180);
+        estimator.onFix(10 * SECOND, LATITUDE + 40 * NORTH, LONGITUDE, 5.0f);
+        assertEquals(0, estimator.getCalibrationCount());
+        assertTrue(Double.isNaN(estimator.getHeading()));
+    }
+
+    @Test
+    public void ignoresACounterRestart() {
+        estimator.onHeading(0, 0.0f);
+        estimator.onDistance(0, 1000);
+        estimator.onFix(0, LATITUDE, LONGITUDE, 5.0f);
+        estimator.onDistance(SECOND, 0);
+        estimator.onDistance(2 * SECOND, 10);
+
+        assertEquals(10, estimator.getDistanceSinceFix(), 0);
+        assertFalse(Double.isNaN(estimator.getLatitude()));
+    }
+}
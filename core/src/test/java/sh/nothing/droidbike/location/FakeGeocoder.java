@@ -0,0 +1,35 @@
+package sh.nothing.droidbike.location;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Names every position after its ~1 km cell, counts lookups, and can block or fail on demand.
+ */
+
+public class FakeGeocoder implements ReverseGeocoder {
+    final AtomicInteger lookups = new AtomicInteger();
+    volatile CountDownLatch gate;
+    volatile IOException failure;
+    volatile boolean noName;
+
+    @Override
+    public String lookup(double latitude, double longitude) throws IOException {
+        lookups.incrementAndGet();
+        CountDownLatch gate = this.gate;
+        if (gate != null) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        if (failure != null)
+            throw failure;
+        if (noName)
+            return null;
+        return String.format(Locale.US, "%.2f,%.2f", latitude, longitude);
+    }
+}
@@ -0,0 +1,183 @@
+package sh.nothing.droidbike.location;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeocodeCacheTest {
+    // Shibuya station; 0.0005 deg is ~50 m, 0.01 deg ~1 km
+    private static final double LAT = 35.6580;
+    private static final double LON = 139.7016;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeGeocoder geocoder;
+    private GeocodeCache cache;
+
+    @Before
+    public void setUp() {
+        geocoder = new FakeGeocoder();
+        cache = new GeocodeCache(geocoder);
+    }
+
+    @Test
+    public void geohash() {
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+        assertEquals("xn76", Geohash.encode(LAT, LON, 4));
+        assertEquals(Geohash.encode(LAT, LON, 7).substring(0, 5), Geohash.encode(LAT, LON, 5));
+    }
+
+    @Test
+    public void nearbyPositionsShareLookup() throws IOException {
+        String name = cache.get(LAT, LON);
+        assertEquals(name, cache.get(LAT + 0.0002, LON + 0.0002));
+        assertEquals(1, geocoder.lookups.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.get(LAT + 0.01, LON);
+        assertEquals(2, geocoder.lookups.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void placesWithoutNameAreCached() throws IOException {
+        geocoder.noName = true;
+        assertNull(cache.get(LAT, LON));
+        assertNull(cache.get(LAT, LON));
+        assertEquals(1, geocoder.lookups.get());
+    }
+
+    @Test
+    public void failuresAreRetried() throws IOException {
+        geocoder.failure = new IOException("offline");
+        try {
+            cache.get(LAT, LON);
+            fail();
+        } catch (IOException expected) {
+            assertEquals("offline", expected.getMessage());
+        }
+        geocoder.failure = null;
+        cache.get(LAT, LON);
+        assertEquals(2, geocoder.lookups.get());
+        assertEquals(1, cache.getFailures());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void runtimeFailureReleasesWaiters() {
+        GeocodeCache broken = new GeocodeCache((latitude, longitude) -> {
+            throw new IllegalStateException("no backend");
+        });
+        try {
+            broken.get(LAT, LON);
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(1, broken.getFailures());
+    }
+
+    @Test
+    public void concurrentRequestsJoinOneLookup() throws Exception {
+        geocoder.gate = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                double offset = i * 0.00001;
+                results.add(executor.submit(() -> cache.get(LAT + offset, LON)));
+            }
+            // every request is either running the lookup or waiting for it
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (cache.getMisses() + cache.getJoined() < results.size() && System.nanoTime() < deadline)
+                Thread.sleep(1);
+            geocoder.gate.countDown();
+            for (Future<String> result : results)
+                assertEquals(results.get(0).get(5, TimeUnit.SECONDS), result.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, geocoder.lookups.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(7, cache.getJoined());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        GeocodeCache small = new GeocodeCache(geocoder, GeocodeCache.DEFAULT_PRECISION, 2);
+        small.get(LAT, LON);
+        small.get(LAT + 0.01, LON);
+        small.get(LAT, LON);
+        small.get(LAT + 0.02, LON);
+        assertEquals(1, small.getEvictions());
+
+        small.get(LAT, LON);
+        assertEquals(3, geocoder.lookups.get());
+        small.get(LAT + 0.01, LON);
+        assertEquals(4, geocoder.lookups.get());
+    }
+
+    @Test
+    public void persistsAcrossRides() throws IOException {
+        File file = folder.newFile("geocode.cache");
+        cache.get(LAT, LON);
+        cache.get(LAT + 0.01, LON);
+        assertTrue(cache.isModified());
+        cache.save(file);
+        assertFalse(cache.isModified());
+
+        FakeGeocoder next = new FakeGeocoder();
+        GeocodeCache loaded = new GeocodeCache(next);
+        assertEquals(2, loaded.load(file));
+        assertEquals(cache.get(LAT, LON), loaded.get(LAT, LON));
+        assertEquals(0, next.lookups.get());
+
+        // keys of another precision do not mean the same cells
+        assertEquals(0, new GeocodeCache(next, 6, 16).load(file));
+        assertEquals(0, loaded.load(new File(folder.getRoot(), "missing")));
+    }
+
+    @Test
+    public void failedSaveKeepsTheEntriesModified() throws IOException {
+        // a non-empty directory cannot be replaced by the written file
+        File file = folder.newFolder("geocode.cache");
+        assertTrue(new File(file, "occupied").createNewFile());
+        cache.get(LAT, LON);
+        try {
+            cache.save(file);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertTrue(cache.isModified());
+    }
+
+    @Test
+    public void hitRateOnRepeatedRoute() throws IOException {
+        // a 25 km/h ride asking once a minute moves ~400 m, three cells, between requests
+        for (int ride = 0; ride < 3; ride++) {
+            for (int minute = 0; minute < 60; minute++)
+                cache.get(LAT + minute * 0.0037, LON);
+        }
+        assertEquals(60, geocoder.lookups.get());
+        assertEquals(2.0 / 3, cache.getHitRate(), 1e-9);
+    }
+}
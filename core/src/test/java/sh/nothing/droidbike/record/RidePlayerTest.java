@@ -0,0 +1,168 @@
+package sh.nothing.droidbike.record;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.ride.RideMetricsEngine;
+import sh.nothing.droidbike.ride.RideState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RidePlayerTest {
+    private static final long SECOND = SyntheticRide.SECOND;
+    private static final int SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    /**
+     * Counts callbacks and feeds a RideMetricsEngine running on the ride clock.
+     */
+    static class Collector implements RidePlayer.Listener {
+        final RideMetricsEngine engine;
+        int csc;
+        int pressure;
+        int location;
+        int heading;
+        long lastRealTime = Long.MIN_VALUE;
+        float lastWheelRpm;
+        float lastCrankRpm;
+        double lastLatitude;
+        boolean ordered = true;
+
+        Collector(RidePlayer player) {
+            engine = new RideMetricsEngine(player.getRideClock());
+            engine.setCircumference(2000);
+        }
+
+        private void time(long realTime) {
+            ordered &= realTime >= lastRealTime;
+            lastRealTime = realTime;
+        }
+
+        @Override
+        public void onUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+            time(realTime);
+            csc++;
+            lastWheelRpm = wheelRpm;
+            lastCrankRpm = crankRpm;
+            engine.onCsc(realTime, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm);
+        }
+
+        @Override
+        public void onPressure(float pressure, long realTime) {
+            time(realTime);
+            this.pressure++;
+            engine.onPressure(realTime, pressure);
+        }
+
+        @Override
+        public void onLocation(RideRecord location) {
+            time(location.realTime);
+            this.location++;
+            lastLatitude = location.latitude;
+            engine.onLocation(location.realTime, location.latitude, location.longitude, location.altitude, location.speed);
+        }
+
+        @Override
+        public void onHeading(float azimuth, long realTime) {
+            time(realTime);
+            heading++;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("ride.bin");
+        SyntheticRide.write(file, SECONDS);
+    }
+
+    @Test
+    public void playsEveryRecordThroughTheCallbacks() throws IOException {
+        RidePlayer player = new RidePlayer(file);
+        Collector collector = new Collector(player);
+        player.registerCallback(collector);
+        player.setPace(RidePlayer.Pace.UNLIMITED);
+
+        long played = player.play();
+        assertEquals((SECONDS * 4 + 1) * 2 + SECONDS * 25 + 1 + SECONDS + 1, played);
+        assertEquals(SECONDS * 4 + 1, collector.csc);
+        assertEquals(SECONDS * 25 + 1, collector.pressure);
+        assertEquals(SECONDS + 1, collector.location);
+        assertEquals(SECONDS * 4 + 1, collector.heading);
+        assertTrue(collector.ordered);
+        assertEquals(35.001, collector.lastLatitude, 1e-9);
+        assertEquals(SyntheticRide.START_WALL_CLOCK, player.getStartWallClock());
+
+        // rpm is recomputed from revolutions and event times by the hub
+        assertEquals(60.0f, collector.lastWheelRpm, 0.5f);
+        assertEquals(90.0f, collector.lastCrankRpm, 1.0f);
+    }
+
+    @Test
+    public void metricsDoNotDependOnPace() throws IOException {
+        RideState unlimited = replay(RidePlayer.Pace.UNLIMITED);
+        RideState fast = replay(RidePlayer.Pace.FAST_FORWARD);
+
+        assertEquals(unlimited.distance, fast.distance, 0.0);
+        assertEquals(unlimited.movingTime, fast.movingTime);
+        assertEquals(unlimited.averageSpeed, fast.averageSpeed, 0.0f);
+        assertEquals(unlimited.altitude, fast.altitude, 0.0f);
+        assertEquals(0.02, unlimited.distance, 1e-9);
+    }
+
+    @Test
+    public void fastForwardTakesAHundredthOfTheRide() throws IOException {
+        long started = System.nanoTime();
+        replay(RidePlayer.Pace.FAST_FORWARD);
+        long elapsed = System.nanoTime() - started;
+
+        assertTrue("elapsed " + elapsed, elapsed >= SECONDS * SECOND / 100);
+        assertTrue("elapsed " + elapsed, elapsed < SECONDS * SECOND / 10);
+    }
+
+    @Test
+    public void stopEndsPlayback() throws Exception {
+        RidePlayer player = new RidePlayer(file);
+        player.registerCallback(new Collector(player) {
+            @Override
+            public void onPressure(float pressure, long realTime) {
+                super.onPressure(pressure, realTime);
+                if (this.pressure == 10)
+                    player.stop();
+            }
+        });
+        player.setPace(RidePlayer.Pace.REAL_TIME);
+
+        long started = System.nanoTime();
+        long played = player.play();
+        assertTrue(played < 20);
+        assertTrue(System.nanoTime() - started < SECOND);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeSpeed() {
+        new RidePlayer(file).setSpeed(-1);
+    }
+
+    private RideState replay(RidePlayer.Pace pace) throws IOException {
+        RidePlayer player = new RidePlayer(file);
+        Collector collector = new Collector(player);
+        player.registerCallback(collector);
+        player.setPace(pace);
+        player.play();
+
+        RideState state = new RideState();
+        collector.engine.read(state);
+        return state;
+    }
+}
@@ -0,0 +1,22 @@
+package sh.nothing.droidbike.record;
+
+import java.io.File;
+
+/**
+ * Records until killed, printing how many records are known to be in the mapping.
+ * Run by RideRecorderTest#killedProcessLosesLessThanAChunk.
+ */
+
+public class RideRecorderCrashChild {
+    public static void main(String[] args) throws Exception {
+        RideRecorder recorder = new RideRecorder(new File(args[0]), 0, 0, 256);
+        long i = 0;
+        while (true) {
+            while (recorder.recordPressure(i, i))
+                i++;
+            recorder.flush();
+            System.out.println(recorder.getWrittenCount());
+            System.out.flush();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package sh.nothing.droidbike.record;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import sh.nothing.droidbike.ble.CscMeasurement;
+import sh.nothing.droidbike.ble.CscSensorRole;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RideRecorderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private RideRecorder recorder;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("ride.bin");
+        recorder = new RideRecorder(file, 1_488_000_000_000L, 5_000L, 256);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        recorder.close();
+    }
+
+    @Test
+    public void roundTripsEveryType() throws IOException {
+        CscMeasurement measurement = new CscMeasurement();
+        measurement.wheelRevolutionsPresent = true;
+        measurement.wheelRevolutions = 0xfffffff0;
+        measurement.wheelEventTime = 0xfffe;
+        measurement.crankRevolutionsPresent = false;
+
+        assertTrue(recorder.recordCsc(10, 2, CscSensorRole.SPEED, measurement));
+        assertTrue(recorder.recordPressure(20, 1003.25f));
+        assertTrue(recorder.recordLocation(30, 35.681, 139.767, 40.5f, 90.0f, 5.5f, 3.0f));
+        recorder.close();
+
+        RideRecord record = new RideRecord();
+        try (RideLogReader reader = new RideLogReader(file)) {
+            assertTrue(reader.next(record));
+            assertEquals(RideLog.TYPE_CSC, record.type);
+            assertEquals(2, record.source);
+            assertEquals(10, record.realTime);
+            assertEquals(CscSensorRole.SPEED.ordinal(), record.role);
+            assertTrue(record.wheelRevolutionsPresent);
+            assertEquals(0xfffffff0, record.wheelRevolutions);
+            assertEquals(0xfffe, record.wheelEventTime);
+            assertFalse(record.crankRevolutionsPresent);
+            assertEquals(1_488_000_000_000L, reader.getStartWallClock());
+            assertEquals(5_000L, reader.getStartRealTime());
+
+            assertTrue(reader.next(record));
+            assertEquals(RideLog.TYPE_PRESSURE, record.type);
+            assertEquals(20, record.realTime);
+            assertEquals(1003.25f, record.pressure, 0.0f);
+
+            assertTrue(reader.next(record));
+            assertEquals(RideLog.TYPE_LOCATION, record.type);
+            assertEquals(35.681, record.latitude, 0.0);
+            assertEquals(139.767, record.longitude, 0.0);
+            assertEquals(40.5f, record.altitude, 0.0f);
+            assertEquals(90.0f, record.bearing, 0.0f);
+            assertEquals(5.5f, record.speed, 0.0f);
+            assertEquals(3.0f, record.accuracy, 0.0f);
+
+            assertFalse(reader.next(record));
+        }
+    }
+
+    @Test
+    public void fullRingDropsInsteadOfBlocking() throws IOException {
+        for (int i = 0; i < 300; i++)
+            recorder.recordPressure(i, i);
+        assertEquals(256, recorder.getRecordedCount());
+        assertEquals(44, recorder.getDroppedCount());
+
+        assertEquals(256, recorder.flush());
+        assertTrue(recorder.recordPressure(300, 300));
+    }
+
+    @Test
+    public void spansChunks() throws IOException {
+        int count = RideLog.RECORDS_PER_CHUNK * 3 + 10;
+        for (int i = 0; i < count; i++) {
+            if (!recorder.recordPressure(i, i)) {
+                recorder.flush();
+                assertTrue(recorder.recordPressure(i, i));
+            }
+        }
+        recorder.close();
+        assertEquals(4, recorder.getChunkCount());
+        assertEquals(4L * RideLog.CHUNK_SIZE, file.length());
+
+        assertEquals(count, readPressures(file));
+    }
+
+    @Test
+    public void appendsAfterExistingLogInNewChunk() throws IOException {
+        recorder.recordPressure(0, 0);
+        recorder.close();
+
+        try (RideRecorder second = new RideRecorder(file, 0, 0, 16)) {
+            second.recordPressure(1, 1);
+        }
+        assertEquals(2L * RideLog.CHUNK_SIZE, file.length());
+        assertEquals(2, readPressures(file));
+    }
+
+    @Test
+    public void skipsBrokenChunk() throws IOException {
+        for (int i = 0; i < RideLog.RECORDS_PER_CHUNK + 1; i++) {
+            if (!recorder.recordPressure(i, i)) {
+                recorder.flush();
+                recorder.recordPressure(i, i);
+            }
+        }
+        recorder.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(RideLog.HEADER_MAGIC);
+            raf.writeInt(0);
+        }
+        RideRecord record = new RideRecord();
+        try (RideLogReader reader = new RideLogReader(file)) {
+            assertTrue(reader.next(record));
+            assertEquals(RideLog.RECORDS_PER_CHUNK, (int) record.pressure);
+            assertFalse(reader.next(record));
+            assertEquals(1, reader.getSkippedChunks());
+        }
+    }
+
+    @Test
+    public void flushedRecordsAreVisibleBeforeClose() throws IOException {
+        recorder.recordPressure(0, 0);
+        recorder.flush();
+        // the mapping is shared with the page cache, so another reader sees it immediately
+        assertEquals(1, readPressures(file));
+    }
+
+    @Test
+    public void writerThreadSustainsOneKilohertz() throws Exception {
+        recorder.close();
+        file.delete();
+        recorder = new RideRecorder(file, 0, 0, RideRecorder.DEFAULT_RING_CAPACITY);
+        recorder.start();
+
+        int count = 200_000;
+        long started = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            while (!recorder.recordPressure(i, i))
+                Thread.yield();
+        }
+        recorder.close();
+        double seconds = (System.nanoTime() - started) / 1e9;
+        double rate = count / seconds;
+
+        // a floor, not a measurement; RideRecorderBenchmark measures throughput
+        assertTrue("rate " + rate, rate > 1000);
+        assertEquals(count, recorder.getWrittenCount());
+        assertEquals(count, readPressures(file));
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+
+        CscMeasurement measurement = new CscMeasurement();
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up; only the second is measured
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < 100_000; i++) {
+                if (!recorder.recordCsc(i, 0, CscSensorRole.COMBO, measurement))
+                    recorder.flush();
+                recorder.recordPressure(i, i);
+                recorder.recordLocation(i, 1, 2, 3, 4, 5, 6);
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            if (round == 1)
+                assertTrue("allocated " + allocated + " bytes", allocated < 64 * 1024);
+        }
+    }
+
+    @Test
+    public void killedProcessLosesLessThanAChunk() throws Exception {
+        recorder.close();
+        File crashed = folder.newFile("crashed.bin");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            RideRecorderCrashChild.class.getName(), crashed.getPath())
+            .redirectErrorStream(true)
+            .start();
+
+        long flushed = 0;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                flushed = Long.parseLong(line.trim());
+                if (flushed > RideLog.RECORDS_PER_CHUNK * 3)
+                    break;
+            }
+            process.destroyForcibly();
+            assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+        }
+
+        // records are the sample numbers, so any gap would show up as a mismatch
+        RideRecord record = new RideRecord();
+        long count = 0;
+        try (RideLogReader reader = new RideLogReader(crashed)) {
+            while (reader.next(record)) {
+                assertEquals(count, record.realTime);
+                count++;
+            }
+        }
+        assertTrue("read " + count + ", flushed " + flushed, count >= flushed);
+    }
+
+    private static int readPressures(File file) throws IOException {
+        RideRecord record = new RideRecord();
+        int count = 0;
+        try (RideLogReader reader = new RideLogReader(file)) {
+            while (reader.next(record)) {
+                assertEquals(RideLog.TYPE_PRESSURE, record.type);
+                assertEquals(count, (int) record.pressure);
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,96 @@
+package sh.nothing.droidbike.record;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.sensor.SensorListener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SensorReplayTest {
+    private static final long SECOND = SyntheticRide.SECOND;
+    private static final int SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static class Updates implements SensorListener {
+        int count;
+        long firstRealTime = -1;
+        long lastRealTime;
+        long minInterval = Long.MAX_VALUE;
+        float lastPressure;
+        float lastPitch;
+        float lastAzimuth;
+
+        @Override
+        public void onSensorUpdate(long realTime, float pressure, float pitch, float azimuth) {
+            if (count++ == 0)
+                firstRealTime = realTime;
+            else
+                minInterval = Math.min(minInterval, realTime - lastRealTime);
+            lastRealTime = realTime;
+            lastPressure = pressure;
+            lastPitch = pitch;
+            lastAzimuth = azimuth;
+        }
+    }
+
+    @Test
+    public void replayedPressureRecordsBecomeSensorUpdates() throws IOException {
+        File file = folder.newFile("ride.bin");
+        SyntheticRide.write(file, SECONDS);
+
+        Updates updates = new Updates();
+        SensorReplay sensors = new SensorReplay(updates);
+        RidePlayer player = new RidePlayer(file);
+        player.registerCallback(new RidePlayer.Listener() {
+            @Override
+            public void onUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+            }
+
+            @Override
+            public void onPressure(float pressure, long realTime) {
+                sensors.onPressure(pressure, realTime);
+            }
+
+            @Override
+            public void onLocation(RideRecord location) {
+            }
+
+            @Override
+            public void onHeading(float azimuth, long realTime) {
+                sensors.onHeading(azimuth, realTime);
+            }
+        });
+        player.setPace(RidePlayer.Pace.UNLIMITED);
+        player.play();
+
+        // the 25 Hz barometer is below the limit, so every record makes an update
+        assertEquals(SECONDS * 25 + 1, updates.count);
+        assertEquals(0, updates.firstRealTime);
+        assertEquals(SECONDS * SECOND, updates.lastRealTime);
+        assertEquals(1000.0f - SECONDS * 0.01f, updates.lastPressure, 0.05f);
+        assertEquals(0.0f, updates.lastAzimuth, 0.0f);
+        assertTrue(Float.isNaN(updates.lastPitch));
+    }
+
+    @Test
+    public void limitsUpdatesTo60PerSecondOfRecordedTime() {
+        Updates updates = new Updates();
+        SensorReplay sensors = new SensorReplay(updates);
+        long start = 123_456_789L;
+        for (long t = 0; t < SECOND; t += SECOND / 1000)
+            sensors.onPressure(1000.0f, start + t);
+
+        assertEquals(start, updates.firstRealTime);
+        assertTrue("min interval " + updates.minInterval, updates.minInterval >= SensorReplay.SENSOR_UPDATE_INTERVAL);
+        assertTrue("count " + updates.count, updates.count >= 55 && updates.count <= 60);
+    }
+}
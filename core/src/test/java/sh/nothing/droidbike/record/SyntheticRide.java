@@ -0,0 +1,43 @@
+package sh.nothing.droidbike.record;
+
+import java.io.File;
+import java.io.IOException;
+
+import sh.nothing.droidbike.ble.CscMeasurement;
+import sh.nothing.droidbike.ble.CscSensorRole;
+
+/**
+ * Writes ride logs of a steady ride: one combo sensor at 60 wheel rpm and 90 crank rpm,
+ * a 25 Hz barometer slowly losing 0.01 hPa/s, a 4 Hz compass and a 1 Hz GPS moving north.
+ */
+
+public class SyntheticRide {
+    public static final long SECOND = 1_000_000_000L;
+    public static final long START_WALL_CLOCK = 1_488_000_000_000L;
+
+    public static void write(File file, int seconds) throws IOException {
+        CscMeasurement measurement = new CscMeasurement();
+        measurement.wheelRevolutionsPresent = true;
+        measurement.crankRevolutionsPresent = true;
+        try (RideRecorder recorder = new RideRecorder(file, START_WALL_CLOCK, 0, RideLog.RECORDS_PER_CHUNK)) {
+            for (long t = 0; t <= seconds * SECOND; t += SECOND / 100) {
+                if (t % (SECOND / 4) == 0) {
+                    long quarters = t / (SECOND / 4);
+                    // one wheel revolution per second, 1.5 crank revolutions per second
+                    measurement.wheelRevolutions = (int) (quarters / 4);
+                    measurement.wheelEventTime = (int) (measurement.wheelRevolutions * 1024L & 0xffff);
+                    measurement.crankRevolutions = (int) (quarters * 3 / 8) & 0xffff;
+                    measurement.crankEventTime = (int) ((quarters * 3 / 8) * 1024 * 2 / 3 & 0xffff);
+                    recorder.recordCsc(t, 0, CscSensorRole.COMBO, measurement);
+                    recorder.recordHeading(t, 0.0f);
+                }
+                if (t % (SECOND / 25) == 0)
+                    recorder.recordPressure(t, 1000.0f - t / (float) SECOND * 0.01f);
+                if (t % SECOND == 0) {
+                    recorder.recordLocation(t, 35.0 + t / (double) SECOND * 1e-4, 139.0, 40.0f, 0.0f, 2.0f, 3.0f);
+                    recorder.flush();
+                }
+            }
+        }
+    }
+}
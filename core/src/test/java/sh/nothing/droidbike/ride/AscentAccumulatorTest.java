@@ -0,0 +1,129 @@
+package sh.nothing.droidbike.ride;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import sh.nothing.droidbike.sensor.PressureFilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AscentAccumulatorTest {
+    private static final long SECOND = 1_000_000_000L;
+    // the MOVING barometer rate
+    private static final int RATE = 5;
+
+    private final AscentAccumulator accumulator = new AscentAccumulator();
+    private final Random random = new Random(24);
+    private long time;
+    private final PressureFilter filter = new PressureFilter();
+    private float smoothed;
+
+    /**
+     * Feeds a barometer sample of altitude with 1 m of noise, smoothed as SensorsManager does.
+     */
+    private void sample(float altitude, boolean moving) {
+        float raw = altitude + (float) random.nextGaussian();
+        time += SECOND / RATE;
+        smoothed = filter.update(time, raw);
+        accumulator.onAltitude(time, smoothed, moving);
+    }
+
+    @Test
+    public void rollingCourseCountsEachHillOnce() {
+        // 20 km at 6 m/s over 20 m hills every 2 km: 200 m up and 200 m down
+        float naive = 0.0f;
+        float last = Float.NaN;
+        for (int i = 0; i <= 20000 / 6 * RATE; i++) {
+            double distance = i * 6.0 / RATE;
+            sample((float) (10 * (1 - Math.cos(2 * Math.PI * distance / 2000))), true);
+            if (!Float.isNaN(last) && smoothed > last)
+                naive += smoothed - last;
+            last = smoothed;
+        }
+
+        assertEquals(200.0f, accumulator.getAscent(), 200.0f * 0.05f);
+        assertEquals(200.0f, accumulator.getDescent(), 200.0f * 0.05f);
+        // summing every rise counts the noise many times over
+        assertTrue("naive " + naive, naive > 2 * accumulator.getAscent());
+    }
+
+    @Test
+    public void flatRideCountsAtMostOneWiggle() {
+        for (int i = 0; i < 3600 * RATE; i++)
+            sample(100.0f, true);
+
+        assertTrue(accumulator.getAscent() < AscentAccumulator.HYSTERESIS);
+        assertTrue(accumulator.getDescent() < AscentAccumulator.HYSTERESIS);
+    }
+
+    @Test
+    public void steadyClimbLosesNothingToTheHysteresis() {
+        // 300 m at 5 % and 5 m/s
+        for (int i = 0; i <= 1200 * RATE; i++)
+            sample(i * 0.25f / RATE, true);
+        for (int i = 0; i < 60 * RATE; i++)
+            sample(300.0f, true);
+
+        // the noise on top adds its highest wiggle
+        assertEquals(300.0f, accumulator.getAscent(), 2.5f);
+        assertTrue(accumulator.getDescent() < AscentAccumulator.HYSTERESIS);
+    }
+
+    @Test
+    public void driftIsLearnedAtStopsAndTakenOff() {
+        // a warming barometer reads 20 m/h higher on flat roads, with a 2 minute stop every 10
+        float drift = 20.0f / 3600.0f;
+        for (int i = 0; i < 3600 * RATE; i++) {
+            float seconds = i / (float) RATE;
+            sample(drift * seconds, seconds % 600 < 480);
+        }
+
+        assertEquals(drift, accumulator.getDriftRate(), drift * 0.25f);
+        // uncorrected it would be 20 m, and 16 m with only the stops left out; what is left is
+        // the first 8 minutes, before any stop told the drift
+        assertTrue("ascent " + accumulator.getAscent(), accumulator.getAscent() < 6.0f);
+    }
+
+    @Test
+    public void climbingOnTopOfDriftStillCounts() {
+        float drift = 20.0f / 3600.0f;
+        float altitude = 0.0f;
+        for (int i = 0; i < 3600 * RATE; i++) {
+            float seconds = i / (float) RATE;
+            boolean moving = seconds % 600 < 480;
+            // 10 m up in the second half of each riding stretch
+            if (moving && seconds % 600 >= 240)
+                altitude += 10.0f / 240 / RATE;
+            sample(altitude + drift * seconds, moving);
+        }
+
+        // 76 m uncorrected; the drift of the first stretch is still in
+        assertEquals(60.0f, accumulator.getAscent(), 5.0f);
+    }
+
+    @Test
+    public void implausibleDriftIsIgnored() {
+        // a long descent while the wheel sensor dropped out is no drift
+        for (int i = 0; i < 300 * RATE; i++)
+            sample(200.0f - i * 0.5f / RATE, false);
+        assertEquals(0.0f, accumulator.getDriftRate(), 0.0f);
+        sample(50.0f, true);
+        assertEquals(0.0f, accumulator.getDriftRate(), 0.0f);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        for (int i = 0; i <= 100 * RATE; i++)
+            sample(i * 0.2f / RATE, true);
+        assertTrue(accumulator.getAscent() > 10.0f);
+
+        accumulator.reset();
+        assertEquals(0.0f, accumulator.getAscent(), 0.0f);
+        assertEquals(0.0f, accumulator.getDescent(), 0.0f);
+        for (int i = 0; i < 60 * RATE; i++)
+            sample(20.0f, true);
+        assertTrue(accumulator.getAscent() < AscentAccumulator.HYSTERESIS);
+    }
+}
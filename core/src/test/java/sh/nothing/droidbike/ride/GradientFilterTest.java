@@ -0,0 +1,185 @@
+package sh.nothing.droidbike.ride;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GradientFilterTest {
+    private static final long MILLI = 1_000_000L;
+
+    interface Road {
+        /**
+         * @return altitude at distance s, m
+         */
+        double altitude(double s);
+
+        double gradient(double s);
+    }
+
+    static Road climb(final double gradient) {
+        return new Road() {
+            @Override
+            public double altitude(double s) {
+                return 100 + gradient * s;
+            }
+
+            @Override
+            public double gradient(double s) {
+                return gradient;
+            }
+        };
+    }
+
+    /**
+     * Flat until start, then climbing at gradient.
+     */
+    static Road step(final double start, final double gradient) {
+        return new Road() {
+            @Override
+            public double altitude(double s) {
+                return 100 + (s > start ? gradient * (s - start) : 0);
+            }
+
+            @Override
+            public double gradient(double s) {
+                return s > start ? gradient : 0;
+            }
+        };
+    }
+
+    /**
+     * Rides at speed with 4 Hz distance, 25 Hz barometer (0.5 m noise) and, if pitchNoise is
+     * not NaN, 60 Hz pitch with the given mount offset and noise. Every 200th pitch is a bump.
+     */
+    static class Ride {
+        final GradientFilter filter = new GradientFilter();
+        final Random random = new Random(42);
+        final Road road;
+        double speed = 5.0; // m/s
+        double pitchOffset;
+        double pitchNoise = Double.NaN;
+        double distance;
+        long time;
+
+        Ride(Road road) {
+            this.road = road;
+        }
+
+        void run(double seconds) {
+            long end = time + (long) (seconds * 1000) * MILLI;
+            for (; time < end; time += MILLI) {
+                long ms = time / MILLI;
+                distance += speed / 1000;
+                if (ms % 250 == 0)
+                    filter.onDistance(distance, time);
+                if (ms % 40 == 0)
+                    filter.onAltitude((float) (road.altitude(distance) + random.nextGaussian() * 0.5), time);
+                if (!Double.isNaN(pitchNoise) && ms % 16 == 0) {
+                    double pitch = road.gradient(distance) + pitchOffset + random.nextGaussian() * pitchNoise;
+                    if ((ms / 16) % 200 == 0)
+                        pitch += 1.0;
+                    filter.onPitch((float) pitch, time);
+                }
+            }
+        }
+
+        /**
+         * @return distance ridden until the gradient estimate is within tolerance of target
+         */
+        double distanceToConverge(double target, double tolerance, double maxSeconds) {
+            double start = distance;
+            for (int i = 0; i < maxSeconds * 10; i++) {
+                run(0.1);
+                if (Math.abs(filter.getGradient() - target) < tolerance)
+                    return distance - start;
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+
+    @Test
+    public void steadyClimbFromBarometerAndDistance() {
+        Ride ride = new Ride(climb(0.05));
+        ride.run(120);
+        assertEquals(0.05, ride.filter.getGradient(), 0.01);
+        assertTrue(ride.filter.getGradientError() < 0.02);
+    }
+
+    @Test
+    public void descentIsNegative() {
+        Ride ride = new Ride(climb(-0.07));
+        ride.run(120);
+        assertEquals(-0.07, ride.filter.getGradient(), 0.01);
+    }
+
+    @Test
+    public void followsGradientChangeWithinEightyMeters() {
+        Ride ride = new Ride(step(300, 0.08));
+        ride.run(60);
+        assertEquals(0.0, ride.filter.getGradient(), 0.01);
+
+        double lag = ride.distanceToConverge(0.08, 0.015, 60);
+        assertTrue("lag " + lag, lag < 80);
+    }
+
+    @Test
+    public void pitchLearnsMountOffsetAndIgnoresBumps() {
+        Ride ride = new Ride(climb(0.04));
+        ride.pitchOffset = 0.12;
+        ride.pitchNoise = 0.1;
+        ride.run(300);
+
+        assertEquals(0.04, ride.filter.getGradient(), 0.01);
+        assertEquals(0.12, ride.filter.getPitchOffset(), 0.02);
+        assertTrue(ride.filter.getRejectedPitches() > 0);
+        // a bump every 200 readings
+        assertTrue(ride.filter.getRejectedPitches() >= ride.filter.getPitchUpdates() / 200 - 1);
+    }
+
+    @Test
+    public void holdsGradientWhileStopped() {
+        Ride ride = new Ride(climb(0.06));
+        ride.pitchOffset = -0.05;
+        ride.pitchNoise = 0.1;
+        ride.run(200);
+        float moving = ride.filter.getGradient();
+
+        ride.speed = 0.0;
+        ride.run(60);
+        assertEquals(moving, ride.filter.getGradient(), 0.01);
+    }
+
+    @Test
+    public void pitchMakesStartOfClimbResponsive() {
+        Ride withoutPitch = new Ride(step(300, 0.08));
+        withoutPitch.run(60);
+        double lagWithoutPitch = withoutPitch.distanceToConverge(0.08, 0.015, 60);
+
+        Ride withPitch = new Ride(step(300, 0.08));
+        withPitch.pitchOffset = 0.1;
+        withPitch.pitchNoise = 0.1;
+        withPitch.run(60);
+        double lagWithPitch = withPitch.distanceToConverge(0.08, 0.015, 60);
+
+        assertTrue(lagWithPitch + " vs " + lagWithoutPitch, lagWithPitch <= lagWithoutPitch);
+    }
+
+    @Test
+    public void ignoresInvalidReadingsAndRestartsOnReset() {
+        GradientFilter filter = new GradientFilter();
+        filter.onAltitude(Float.NaN, 0);
+        filter.onPitch(Float.NaN, 0);
+        filter.onPitch(Float.POSITIVE_INFINITY, 0);
+        assertEquals(0, filter.getAltitudeUpdates());
+        assertEquals(0, filter.getPitchUpdates() + filter.getRejectedPitches());
+
+        filter.onAltitude(50.0f, 0);
+        assertEquals(50.0f, filter.getAltitude(), 0.0f);
+        filter.reset();
+        filter.onAltitude(10.0f, 0);
+        assertEquals(10.0f, filter.getAltitude(), 0.0f);
+    }
+}
@@ -0,0 +1,206 @@
+package sh.nothing.droidbike.ride;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import sh.nothing.droidbike.util.FakeClock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LapDetectorTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private FakeClock clock;
+    private RideMetricsEngine engine;
+    private RideState state;
+    private final Lap lap = new Lap();
+
+    private long time;
+    private double distance; // m
+    private double crank;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        engine = new RideMetricsEngine(clock);
+        engine.setCircumference(2000);
+        state = new RideState();
+    }
+
+    /**
+     * Feeds CSC samples at 4 Hz, as a 2 m wheel at speed m/s and cranks at cadence rpm.
+     */
+    private void ride(float speed, float cadence, int seconds) {
+        for (int i = 0; i < seconds * 4; i++) {
+            time += SECOND / 4;
+            distance += speed / 4;
+            crank += cadence / 240;
+            clock.set(time);
+            engine.onCsc(time, (int) (distance / 2), speed * 30, (int) crank, cadence);
+        }
+    }
+
+    private void stop(int seconds) {
+        ride(0.0f, 0.0f, seconds);
+    }
+
+    @Test
+    public void autoLapsByDistanceDoNotDrift() {
+        engine.setAutoLapDistance(1.0);
+        ride(10.0f, 90.0f, 1050);
+        engine.read(state);
+
+        assertEquals(10, state.laps);
+        double total = state.lap.distance;
+        for (int i = 0; i < state.laps; i++) {
+            engine.readLap(i, lap);
+            assertEquals(i, lap.index);
+            assertEquals(Lap.Trigger.DISTANCE, lap.trigger);
+            assertEquals(1.0, lap.distance, 0.005);
+            assertEquals((i + 1) * 100 * SECOND, lap.endTime, SECOND);
+            assertEquals(36.0f, lap.averageSpeed, 0.5f);
+            total += lap.distance;
+        }
+        assertEquals(state.distance, total, 1e-9);
+        assertEquals(10, state.lap.index);
+        assertEquals(Lap.Trigger.NONE, state.lap.trigger);
+        assertEquals(0.5, state.lap.distance, 0.005);
+    }
+
+    @Test
+    public void autoLapsByTimeCountMovingTimeOnly() {
+        engine.setAutoLapTime(60 * SECOND);
+        ride(5.0f, 90.0f, 40);
+        stop(30);
+        ride(5.0f, 90.0f, 90);
+        engine.read(state);
+
+        assertEquals(2, state.laps);
+        engine.readLap(0, lap);
+        assertEquals(Lap.Trigger.TIME, lap.trigger);
+        assertEquals(60 * SECOND, lap.movingTime, SECOND / 2);
+        assertEquals(1, lap.pauses);
+        assertEquals(30 * SECOND, lap.pausedTime, SECOND / 2);
+        assertEquals(90 * SECOND, lap.getElapsedTime(), SECOND / 2);
+
+        engine.readLap(1, lap);
+        assertEquals(60 * SECOND, lap.movingTime, SECOND / 2);
+        assertEquals(0, lap.pauses);
+        assertEquals(0.3, lap.distance, 0.005);
+    }
+
+    @Test
+    public void lapOfOneKindRestartsTheOther() {
+        engine.setAutoLapDistance(1.0);
+        engine.setAutoLapTime(150 * SECOND);
+        ride(10.0f, 90.0f, 100);
+        ride(2.0f, 90.0f, 160);
+        ride(10.0f, 90.0f, 110);
+        engine.read(state);
+
+        assertEquals(3, state.laps);
+        engine.readLap(0, lap);
+        assertEquals(Lap.Trigger.DISTANCE, lap.trigger);
+        engine.readLap(1, lap);
+        assertEquals(Lap.Trigger.TIME, lap.trigger);
+        assertEquals(150 * SECOND, lap.movingTime, SECOND / 2);
+        // a kilometre from where the time lap started, not from where the distance lap was due
+        engine.readLap(2, lap);
+        assertEquals(Lap.Trigger.DISTANCE, lap.trigger);
+        assertEquals(1.0, lap.distance, 0.005);
+    }
+
+    @Test
+    public void longStopEndsTheLapWhereTheWheelStopped() {
+        engine.setAutoLapPause(60 * SECOND);
+        ride(5.0f, 90.0f, 100);
+        stop(20);
+        ride(5.0f, 90.0f, 100);
+        engine.read(state);
+        assertEquals(0, state.laps);
+        assertEquals(1, state.lap.pauses);
+        assertEquals(20 * SECOND, state.lap.pausedTime, SECOND / 2);
+
+        long stopped = time;
+        stop(120);
+        ride(5.0f, 90.0f, 50);
+        engine.read(state);
+
+        assertEquals(1, state.laps);
+        assertEquals(Lap.Trigger.PAUSE, state.lastLap.trigger);
+        assertEquals(stopped, state.lastLap.endTime, SECOND / 2);
+        assertEquals(1, state.lastLap.pauses);
+        assertEquals(20 * SECOND, state.lastLap.pausedTime, SECOND / 2);
+        assertEquals(200 * SECOND, state.lastLap.movingTime, SECOND / 2);
+        assertEquals(stopped + 120 * SECOND, state.lap.startTime, SECOND / 2);
+        assertEquals(0, state.lap.pauses);
+        assertEquals(0.25, state.lap.distance, 0.005);
+        assertEquals(state.distance, state.lastLap.distance + state.lap.distance, 1e-9);
+    }
+
+    @Test
+    public void manualLapSplitsTheStatistics() {
+        ride(5.0f, 90.0f, 60);
+        clock.set(time);
+        engine.lap();
+        ride(8.0f, 60.0f, 60);
+        engine.read(state);
+
+        assertEquals(1, state.laps);
+        assertEquals(Lap.Trigger.MANUAL, state.lastLap.trigger);
+        assertEquals(18.0f, state.lastLap.averageSpeed, 0.2f);
+        assertEquals(18.0f, state.lastLap.maxSpeed, 0.01f);
+        assertEquals(90.0f, state.lastLap.averageCadence, 1.0f);
+        assertEquals(90.0f, state.lastLap.maxCadence, 0.01f);
+
+        assertEquals(28.8f, state.lap.averageSpeed, 0.2f);
+        assertEquals(28.8f, state.lap.maxSpeed, 0.01f);
+        assertEquals(60.0f, state.lap.averageCadence, 1.0f);
+        assertEquals(60.0f, state.lap.maxCadence, 0.01f);
+        assertEquals(60 * SECOND, state.lap.movingTime, SECOND / 2);
+    }
+
+    @Test
+    public void ascentIgnoresBarometerNoise() {
+        Random random = new Random(23);
+        float altitude = 0.0f;
+        for (int i = 0; i < 2000; i++) {
+            ride(5.0f, 90.0f, 1);
+            // 50 m up over the first 1000 s, then flat
+            if (i < 1000)
+                altitude += 0.05f;
+            engine.onPressure(time, pressure(altitude + (float) random.nextGaussian() * 0.3f));
+            if (i == 999)
+                engine.lap();
+        }
+        engine.read(state);
+
+        // the climb's last few metres may only count once the noise crosses the hysteresis, but
+        // a flat 1000 s adds no more than that
+        assertEquals(50.0f, state.lastLap.ascent + state.lap.ascent, AscentAccumulator.HYSTERESIS);
+        assertTrue(state.lap.ascent < AscentAccumulator.HYSTERESIS);
+    }
+
+    @Test
+    public void resetForgetsTheLaps() {
+        engine.setAutoLapDistance(0.1);
+        ride(10.0f, 90.0f, 60);
+        engine.reset();
+        engine.read(state);
+        assertEquals(0, state.laps);
+        assertEquals(0.0, state.lap.distance, 0.0);
+
+        ride(10.0f, 90.0f, 15);
+        engine.read(state);
+        assertEquals(1, state.laps);
+        assertEquals(0, state.lastLap.index);
+        assertEquals(0.1, state.lastLap.distance, 0.005);
+    }
+
+    private static float pressure(float altitude) {
+        return (float) (Altitude.PRESSURE_STANDARD_ATMOSPHERE * Math.pow(1 - altitude / 44330.0, 5.255));
+    }
+}
@@ -0,0 +1,288 @@
+package sh.nothing.droidbike.ride;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import sh.nothing.droidbike.ble.CscMeasurement;
+import sh.nothing.droidbike.ble.CscSensorRole;
+import sh.nothing.droidbike.record.RideLog;
+import sh.nothing.droidbike.record.RidePlayer;
+import sh.nothing.droidbike.record.RideRecord;
+import sh.nothing.droidbike.record.RideRecorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PowerEstimatorTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final int CIRCUMFERENCE = 2096;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private final PowerEstimator estimator = new PowerEstimator();
+
+    private void ride(float speed, float gradient, int seconds, long interval) {
+        for (long t = 0; t <= seconds * SECOND; t += interval)
+            estimator.onSpeed(t, speed, gradient, true);
+    }
+
+    @Test
+    public void steadyClimbNeedsGravityRollingAndDrag() {
+        ride(5.0f, 0.05f, 60, SECOND / 4);
+
+        // 79 kg at 5 m/s up 5 %: 38.69 N slope, 3.87 N rolling, 4.82 N drag, 97.6 % drivetrain
+        assertEquals(242.7f, estimator.getPower(), 0.1f);
+        assertEquals(242.7f, estimator.getPower3s(), 0.1f);
+        assertEquals(242.7f, estimator.getPower30s(), 0.1f);
+        assertEquals(242.7f, estimator.getAveragePower(), 0.1f);
+        assertEquals(242.7f, estimator.getNormalizedPower(), 0.1f);
+        assertEquals(60, estimator.getSeconds());
+        assertEquals(242.7 * 60, estimator.getEnergy(), 10.0);
+    }
+
+    @Test
+    public void acceleratingCostsTheKineticEnergy() {
+        estimator.setProfile(new RiderProfile(70.0f, 10.0f, 0.0f, 0.0f, 1.0f, 0.0f));
+        for (int i = 0; i <= 40; i++)
+            estimator.onSpeed(i * SECOND / 4, i * 0.25f, 0.0f, true);
+
+        // from 0 to 10 m/s in 10 s: 1/2 80 kg (10 m/s)^2, the last 0.25 m/s of it in the last 0.25 s
+        assertEquals(4000.0, estimator.getEnergy(), 1.0);
+        assertEquals(790.0f, estimator.getPower(), 1.0f);
+    }
+
+    @Test
+    public void coastingAndBrakingTakeNothingFromTheRider() {
+        ride(10.0f, 0.0f, 10, SECOND / 4);
+        assertTrue(estimator.getPower() > 0.0f);
+
+        estimator.onSpeed(11 * SECOND, 10.0f, 0.0f, false);
+        assertEquals(0.0f, estimator.getPower(), 0.0f);
+        estimator.onSpeed(12 * SECOND, 7.0f, 0.0f, true);
+        assertEquals(0.0f, estimator.getPower(), 0.0f);
+    }
+
+    @Test
+    public void averagesDoNotDependOnTheUpdateRate() {
+        Random random = new Random(22);
+        float[] averages = new float[3];
+        float[] normalized = new float[3];
+        long[] intervals = {SECOND, SECOND / 4, 0};
+        for (int r = 0; r < 3; r++) {
+            PowerEstimator estimator = new PowerEstimator();
+            long t = 0;
+            while (t <= 600 * SECOND) {
+                float speed = 8.0f + 3.0f * (float) Math.sin(t / 30e9);
+                estimator.onSpeed(t, speed, 0.02f * (float) Math.cos(t / 90e9), true);
+                t += intervals[r] != 0 ? intervals[r] : SECOND / 10 + random.nextInt((int) SECOND);
+            }
+            averages[r] = estimator.getAveragePower();
+            normalized[r] = estimator.getNormalizedPower();
+        }
+        assertEquals(averages[0], averages[1], averages[0] * 0.01f);
+        assertEquals(averages[0], averages[2], averages[0] * 0.01f);
+        assertEquals(normalized[0], normalized[1], normalized[0] * 0.01f);
+        assertEquals(normalized[0], normalized[2], normalized[0] * 0.01f);
+    }
+
+    @Test
+    public void normalizedPowerWeighsTheHardParts() {
+        // rolling resistance of a light but sticky bike only, so power is linear in speed and
+        // changing it costs next to no kinetic energy: 100 W at 0.51 m/s
+        RiderProfile profile = new RiderProfile(1.0f, 0.0f, 0.0f, 20.0f, 1.0f, 0.0f);
+        float wattsPerSpeed = profile.getMass() * PowerEstimator.GRAVITY * profile.crr;
+        estimator.setProfile(profile);
+        float[] truth = new float[600];
+        for (int i = 0; i < truth.length; i++)
+            truth[i] = (i / 60) % 2 == 0 ? 100.0f : 400.0f;
+        for (int i = 0; i <= truth.length; i++)
+            estimator.onSpeed(i * SECOND, truth[Math.min(i, truth.length - 1)] / wattsPerSpeed, 0.0f, true);
+
+        assertEquals(250.0f, estimator.getAveragePower(), 1.0f);
+        assertEquals(normalizedPower(truth), estimator.getNormalizedPower(), 1.0f);
+        assertTrue(estimator.getNormalizedPower() > 290.0f);
+    }
+
+    @Test
+    public void pausesAreLeftOut() {
+        ride(5.0f, 0.0f, 10, SECOND / 4);
+        float average = estimator.getAveragePower();
+        estimator.onSpeed(70 * SECOND, 5.0f, 0.0f, true);
+        for (long t = 70 * SECOND; t <= 80 * SECOND; t += SECOND / 4)
+            estimator.onSpeed(t, 5.0f, 0.0f, true);
+
+        assertEquals(20, estimator.getSeconds());
+        assertEquals(average, estimator.getAveragePower(), 0.01f);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        ride(5.0f, 0.05f, 60, SECOND / 4);
+        estimator.reset();
+        assertEquals(0, estimator.getSeconds());
+        assertEquals(0.0f, estimator.getPower30s(), 0.0f);
+        assertTrue(Float.isNaN(estimator.getNormalizedPower()));
+        ride(5.0f, 0.0f, 40, SECOND / 4);
+        assertEquals(estimator.getPower(), estimator.getPower30s(), 0.1f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnImpossibleProfile() {
+        new RiderProfile(70.0f, 9.0f, 0.32f, 0.005f, 1.5f, 1.204f);
+    }
+
+    /**
+     * A rider with a known power, pushed through bike physics on a rolling course, recorded as
+     * a ride log with the sensors' resolution, then replayed through RideMetricsEngine like a
+     * recorded ride: the estimate from wheel events and the barometer gradient matches the power
+     * that was put in.
+     */
+    @Test
+    public void replayedRideMatchesThePowerPutIn() throws IOException {
+        int seconds = 1200;
+        File log = folder.newFile("power.bin");
+        float[] truth = simulate(log, seconds);
+
+        RidePlayer player = new RidePlayer(log);
+        player.setPace(RidePlayer.Pace.UNLIMITED);
+        RideMetricsEngine engine = new RideMetricsEngine(player.getRideClock());
+        engine.setCircumference(CIRCUMFERENCE);
+        RideState state = new RideState();
+        float[] power30s = new float[seconds + 1];
+        player.registerCallback(new RidePlayer.Listener() {
+            @Override
+            public void onUpdate(CscSensorRole role, int wheelRevolutions, float wheelRpm, int crankRevolutions, float crankRpm, long realTime) {
+                engine.onCsc(realTime, wheelRevolutions, wheelRpm, crankRevolutions, crankRpm);
+                if (realTime % SECOND == 0) {
+                    engine.read(state);
+                    power30s[(int) (realTime / SECOND)] = state.power30s;
+                }
+            }
+
+            @Override
+            public void onPressure(float pressure, long realTime) {
+                engine.onPressure(realTime, pressure);
+            }
+
+            @Override
+            public void onHeading(float azimuth, long realTime) {
+            }
+
+            @Override
+            public void onLocation(RideRecord location) {
+            }
+        });
+        player.play();
+        engine.read(state);
+
+        double sum = 0;
+        for (float power : truth)
+            sum += power;
+        float average = (float) (sum / truth.length);
+        assertEquals(average, state.averagePower, average * 0.05f);
+        assertEquals(normalizedPower(truth), state.normalizedPower, normalizedPower(truth) * 0.05f);
+
+        // every 30 s average past the first minute within 15 % or 40 W, and 10 W off on average;
+        // the wheel speed lags the rider by a second or two where coasting starts and ends
+        double error = 0;
+        for (int t = 60; t <= seconds; t++) {
+            double window = 0;
+            for (int i = t - 30; i < t; i++)
+                window += truth[i];
+            window /= 30;
+            assertEquals("at " + t + " s", window, power30s[t], Math.max(window * 0.15, 40));
+            error += Math.abs(window - power30s[t]);
+        }
+        assertTrue(error / (seconds - 59) < 10);
+    }
+
+    /**
+     * Rides 200 W with a 350 W minute every four and 20 s of coasting every five, over 30 m
+     * rollers 4 km long.
+     *
+     * @return power put in during each second, W
+     */
+    private static float[] simulate(File log, int seconds) throws IOException {
+        RiderProfile profile = RiderProfile.DEFAULT;
+        Random random = new Random(22);
+        float[] truth = new float[seconds];
+        CscMeasurement measurement = new CscMeasurement();
+        measurement.wheelRevolutionsPresent = true;
+        measurement.crankRevolutionsPresent = true;
+        double circumference = CIRCUMFERENCE / 1000.0;
+        double distance = 0;
+        double speed = 5.0;
+        double crank = 0;
+        long wheelRevolutions = 0;
+        long crankRevolutions = 0;
+        double wheelEventTime = 0;
+        double crankEventTime = 0;
+        long step = SECOND / 100;
+        try (RideRecorder recorder = new RideRecorder(log, 0, 0, RideLog.RECORDS_PER_CHUNK)) {
+            for (long t = 0; t <= seconds * SECOND; t += step) {
+                double time = t / (double) SECOND;
+                int second = (int) time;
+                double power = second % 300 >= 280 ? 0 : second % 240 >= 180 ? 350 : 200;
+                double gradient = 30 * 2 * Math.PI / 4000 * Math.cos(2 * Math.PI * distance / 4000);
+                double secant = Math.sqrt(1 + gradient * gradient);
+                double resistance = profile.getMass() * PowerEstimator.GRAVITY * (profile.crr + gradient) / secant
+                    + 0.5 * profile.airDensity * profile.cda * speed * speed;
+                double acceleration = (power * profile.drivetrainEfficiency / speed - resistance) / profile.getMass();
+                if (second < seconds)
+                    truth[second] += power / 100;
+
+                double newSpeed = Math.max(1.0, speed + acceleration * 0.01);
+                distance += (speed + newSpeed) / 2 * 0.01;
+                speed = newSpeed;
+                while (distance >= (wheelRevolutions + 1) * circumference) {
+                    wheelRevolutions++;
+                    wheelEventTime = time;
+                }
+                if (power > 0) {
+                    crank += 1.5 * 0.01;
+                    if (crank >= crankRevolutions + 1) {
+                        crankRevolutions++;
+                        crankEventTime = time;
+                    }
+                }
+
+                if (t % (SECOND / 4) == 0) {
+                    measurement.wheelRevolutions = (int) wheelRevolutions;
+                    measurement.wheelEventTime = (int) Math.round(wheelEventTime * 1024) & 0xffff;
+                    measurement.crankRevolutions = (int) crankRevolutions & 0xffff;
+                    measurement.crankEventTime = (int) Math.round(crankEventTime * 1024) & 0xffff;
+                    recorder.recordCsc(t, 0, CscSensorRole.COMBO, measurement);
+                }
+                if (t % (SECOND / 25) == 0) {
+                    double altitude = 30 * Math.sin(2 * Math.PI * distance / 4000);
+                    double pressure = Altitude.PRESSURE_STANDARD_ATMOSPHERE * Math.pow(1 - altitude / 44330, 5.255);
+                    recorder.recordPressure(t, (float) (pressure + random.nextGaussian() * 0.01));
+                }
+                if (t % SECOND == 0)
+                    recorder.flush();
+            }
+        }
+        return truth;
+    }
+
+    private static float normalizedPower(float[] powers) {
+        double sum = 0;
+        int count = 0;
+        for (int t = PowerEstimator.WINDOW_SECONDS; t <= powers.length; t++) {
+            double rolling = 0;
+            for (float power : Arrays.copyOfRange(powers, t - PowerEstimator.WINDOW_SECONDS, t))
+                rolling += power;
+            rolling /= PowerEstimator.WINDOW_SECONDS;
+            sum += rolling * rolling * rolling * rolling;
+            count++;
+        }
+        return (float) Math.pow(sum / count, 0.25);
+    }
+}
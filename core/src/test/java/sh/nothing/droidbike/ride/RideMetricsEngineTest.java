@@ -0,0 +1,184 @@
+package sh.nothing.droidbike.ride;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import sh.nothing.droidbike.util.FakeClock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RideMetricsEngineTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private FakeClock clock;
+    private RideMetricsEngine engine;
+    private RideState state;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        engine = new RideMetricsEngine(clock);
+        engine.setCircumference(2000);
+        state = new RideState();
+    }
+
+    /**
+     * Feeds one CSC sample per second at a constant 60 wheel rpm and 90 crank rpm.
+     */
+    private void ride(int seconds, int startSecond) {
+        for (int i = 0; i <= seconds; i++) {
+            long t = (startSecond + i) * SECOND;
+            clock.set(t);
+            engine.onCsc(t, 100 + startSecond + i, 60.0f, 10 + (startSecond + i) * 3 / 2, 90.0f);
+        }
+    }
+
+    @Test
+    public void distanceStartsFromFirstSample() {
+        ride(10, 0);
+        engine.read(state);
+
+        // 10 revolutions of 2 m
+        assertEquals(0.02, state.distance, 1e-9);
+        assertEquals(110, state.wheelRevolutions);
+    }
+
+    @Test
+    public void speedFromWheelRpm() {
+        engine.onCsc(0, 0, 100.0f, 0, 0.0f);
+        engine.read(state);
+
+        // 100 rpm * 2 m = 12 km/h
+        assertEquals(12.0f, state.speed, 1e-4f);
+        assertEquals(12.0f, RideMetricsEngine.speed(100.0f, 2000), 1e-4f);
+    }
+
+    @Test
+    public void averagesNeedFiveSecondsOfMovingTime() {
+        ride(4, 0);
+        engine.read(state);
+        assertTrue(Float.isNaN(state.averageSpeed));
+        assertTrue(Float.isNaN(state.averageCadence));
+
+        ride(6, 4);
+        engine.read(state);
+        assertEquals(10 * SECOND, state.movingTime);
+        // 20 m in 10 s
+        assertEquals(7.2f, state.averageSpeed, 1e-3f);
+        // 15 crank revolutions in 10 s
+        assertEquals(90.0f, state.averageCadence, 1e-3f);
+    }
+
+    @Test
+    public void movingTimeExcludesStops() {
+        ride(10, 0);
+        clock.set(10 * SECOND);
+        engine.onCsc(10 * SECOND, 110, 0.0f, 25, 0.0f);
+
+        // stopped for a minute
+        clock.set(70 * SECOND);
+        engine.onCsc(70 * SECOND, 110, 0.0f, 25, 0.0f);
+        engine.read(state);
+        assertEquals(10 * SECOND, state.movingTime);
+        assertEquals(10 * SECOND, state.pedalingTime);
+
+        engine.onCsc(70 * SECOND, 110, 60.0f, 25, 0.0f);
+        clock.set(75 * SECOND);
+        engine.read(state);
+        assertEquals(15 * SECOND, state.movingTime);
+        assertEquals(10 * SECOND, state.pedalingTime);
+    }
+
+    @Test
+    public void readAdvancesMovingTimeToNow() {
+        engine.onCsc(0, 0, 60.0f, 0, 90.0f);
+        clock.set(3 * SECOND);
+        engine.read(state);
+        assertEquals(3 * SECOND, state.movingTime);
+        assertEquals(3 * SECOND, state.pedalingTime);
+    }
+
+    @Test
+    public void basePressureFollowsUntilRideStarts() {
+        engine.onPressure(0, 1000.0f);
+        engine.onPressure(0, 1001.0f);
+        engine.read(state);
+        assertEquals(1001.0f, state.basePressure, 0.0f);
+        assertEquals(0.0f, state.altitude, 0.0f);
+
+        ride(20, 0);
+        // roughly 8.3 m per hPa near sea level
+        engine.onPressure(20 * SECOND, 1000.0f);
+        engine.read(state);
+        assertEquals(1001.0f, state.basePressure, 0.0f);
+        assertEquals(8.3f, state.altitude, 0.2f);
+
+        engine.resetBasePressure();
+        engine.read(state);
+        assertEquals(1000.0f, state.basePressure, 0.0f);
+        assertEquals(0.0f, state.altitude, 0.0f);
+    }
+
+    @Test
+    public void altitudeMatchesAndroidFormula() {
+        // SensorManager.getAltitude(1013.25f, 900f)
+        assertEquals(988.6f, Altitude.fromPressure(Altitude.PRESSURE_STANDARD_ATMOSPHERE, 900.0f), 0.5f);
+        assertEquals(0.0f, Altitude.relative(950.0f, 950.0f), 0.0f);
+    }
+
+    @Test
+    public void altitudeTableMatchesPow() {
+        for (float p = 200.0f; p <= 1200.0f; p += 0.037f)
+            assertEquals("at " + p + " hPa", Altitude.fromPressureExact(Altitude.PRESSURE_STANDARD_ATMOSPHERE, p),
+                Altitude.fromPressure(Altitude.PRESSURE_STANDARD_ATMOSPHERE, p), 0.02f);
+        // outside of the table
+        assertEquals(Altitude.fromPressureExact(1000.0f, 100.0f), Altitude.fromPressure(1000.0f, 100.0f), 0.0f);
+        assertEquals(Altitude.fromPressureExact(500.0f, 1000.0f), Altitude.fromPressure(500.0f, 1000.0f), 0.0f);
+    }
+
+    /**
+     * Inverse of Altitude.relative for base pressure 1000 hPa.
+     */
+    static float pressureAt(float altitude) {
+        float base = Altitude.fromPressure(Altitude.PRESSURE_STANDARD_ATMOSPHERE, 1000.0f);
+        return (float) (Altitude.PRESSURE_STANDARD_ATMOSPHERE * Math.pow(1.0 - (base + altitude) / 44330.0, 5.255));
+    }
+
+    @Test
+    public void gradientOnSteadyClimb() {
+        engine.onPressure(0, 1000.0f);
+        // 2 m and 0.1 m up per sample is 5%
+        for (int i = 0; i <= 100; i++) {
+            long t = i * SECOND;
+            engine.onCsc(t, i, 60.0f, 0, 0.0f);
+            engine.onPressure(t, pressureAt(i * 0.1f));
+        }
+        engine.read(state);
+        assertEquals(0.05f, state.gradient, 0.01f);
+    }
+
+    @Test
+    public void circumferenceChangeRescalesDistance() {
+        ride(10, 0);
+        engine.setCircumference(1000);
+        engine.read(state);
+        assertEquals(0.01, state.distance, 1e-9);
+
+        engine.setCircumference(0);
+        assertEquals(RideMetricsEngine.DEFAULT_CIRCUMFERENCE, engine.getCircumference());
+    }
+
+    @Test
+    public void locationIsCopied() {
+        engine.read(state);
+        assertFalse(state.hasLocation);
+
+        engine.onLocation(0, 35.0, 139.0, 40.0, 5.0f);
+        engine.read(state);
+        assertTrue(state.hasLocation);
+        assertEquals(35.0, state.latitude, 0.0);
+        assertEquals(18.0f, state.locationSpeed, 1e-4f);
+    }
+}
@@ -0,0 +1,47 @@
+package sh.nothing.droidbike.sensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PressureFilterTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void firstSampleIsTakenAsIs() {
+        PressureFilter filter = new PressureFilter();
+        assertTrue(Float.isNaN(filter.getValue()));
+        assertEquals(1000.0f, filter.update(0, 1000.0f), 0.0f);
+    }
+
+    @Test
+    public void movingRateWeighsLikeTheFormerFilter() {
+        PressureFilter filter = new PressureFilter();
+        filter.update(0, 1000.0f);
+        assertEquals(1000.0f * 0.9f + 1010.0f * 0.1f, filter.update(SECOND / 5, 1010.0f), 1e-3f);
+    }
+
+    @Test
+    public void stepSettlesInTheSameTimeAtAnyRate() {
+        PressureFilter moving = new PressureFilter();
+        PressureFilter stopped = new PressureFilter();
+        moving.update(0, 1000.0f);
+        stopped.update(0, 1000.0f);
+        for (int i = 1; i <= 50; i++)
+            moving.update(i * SECOND / 5, 1010.0f);
+        for (int i = 1; i <= 10; i++)
+            stopped.update(i * SECOND, 1010.0f);
+
+        // 10 s is more than five time constants
+        assertEquals(1010.0f, moving.getValue(), 0.1f);
+        assertEquals(moving.getValue(), stopped.getValue(), 0.1f);
+    }
+
+    @Test
+    public void samplesWithoutElapsedTimeAreIgnored() {
+        PressureFilter filter = new PressureFilter();
+        filter.update(SECOND, 1000.0f);
+        assertEquals(1000.0f, filter.update(SECOND, 1100.0f), 0.0f);
+    }
+}
@@ -0,0 +1,103 @@
+package sh.nothing.droidbike.sensor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingPolicyTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private SamplingPolicy policy;
+
+    @Before
+    public void setUp() {
+        policy = new SamplingPolicy(10_000);
+        policy.start(0);
+    }
+
+    @Test
+    public void startsMoving() {
+        assertEquals(SamplingPolicy.Mode.MOVING, policy.getMode());
+        assertTrue(SamplingPolicy.Mode.MOVING.computeOrientation);
+        assertFalse(SamplingPolicy.Mode.STOPPED.computeOrientation);
+    }
+
+    @Test
+    public void stopsAfterDelayWithoutRpm() {
+        assertFalse(policy.onWheelRpm(0, 5 * SECOND));
+        assertFalse(policy.onWheelRpm(0, 9 * SECOND));
+        assertTrue(policy.onWheelRpm(0, 10 * SECOND));
+        assertEquals(SamplingPolicy.Mode.STOPPED, policy.getMode());
+        assertFalse(policy.onWheelRpm(0, 11 * SECOND));
+        assertEquals(1, policy.getModeChanges());
+    }
+
+    @Test
+    public void stopsWhenNotificationsStop() {
+        policy.onWheelRpm(60, 3 * SECOND);
+        assertFalse(policy.update(12 * SECOND));
+        assertTrue(policy.update(13 * SECOND));
+        assertEquals(SamplingPolicy.Mode.STOPPED, policy.getMode());
+    }
+
+    @Test
+    public void rpmRestartsDelay() {
+        policy.onWheelRpm(60, 8 * SECOND);
+        assertFalse(policy.onWheelRpm(0, 17 * SECOND));
+        assertEquals(SamplingPolicy.Mode.MOVING, policy.getMode());
+    }
+
+    @Test
+    public void firstRpmResumesImmediately() {
+        policy.update(10 * SECOND);
+        assertTrue(policy.onWheelRpm(20, 30 * SECOND));
+        assertEquals(SamplingPolicy.Mode.MOVING, policy.getMode());
+        assertFalse(policy.onWheelRpm(25, 31 * SECOND));
+        assertEquals(2, policy.getModeChanges());
+    }
+
+    @Test
+    public void notStartedIgnoresUpdates() {
+        SamplingPolicy idle = new SamplingPolicy(10_000);
+        assertFalse(idle.onWheelRpm(0, 60 * SECOND));
+        assertEquals(SamplingPolicy.Mode.MOVING, idle.getMode());
+        assertEquals(0, idle.getTimeInMode(SamplingPolicy.Mode.MOVING, 60 * SECOND));
+    }
+
+    @Test
+    public void timeInMode() {
+        policy.update(10 * SECOND);
+        policy.onWheelRpm(60, 40 * SECOND);
+        assertEquals(20 * SECOND, policy.getTimeInMode(SamplingPolicy.Mode.MOVING, 50 * SECOND));
+        assertEquals(30 * SECOND, policy.getTimeInMode(SamplingPolicy.Mode.STOPPED, 50 * SECOND));
+    }
+
+    @Test
+    public void countersReportSavedEvents() {
+        SensorCounters counters = new SensorCounters();
+        // 10 s moving: 5 Hz of each sensor
+        for (int i = 0; i < 50; i++) {
+            counters.onEvent(policy.getMode(), SensorCounters.PRESSURE);
+            counters.onEvent(policy.getMode(), SensorCounters.ACCELEROMETER);
+            counters.onEvent(policy.getMode(), SensorCounters.MAGNETIC_FIELD);
+            counters.onOrientation(policy.getMode().computeOrientation);
+        }
+        policy.update(10 * SECOND);
+        // 10 s stopped: 1 Hz
+        for (int i = 0; i < 10; i++) {
+            counters.onEvent(policy.getMode(), SensorCounters.PRESSURE);
+            counters.onEvent(policy.getMode(), SensorCounters.ACCELEROMETER);
+            counters.onEvent(policy.getMode(), SensorCounters.MAGNETIC_FIELD);
+            counters.onOrientation(policy.getMode().computeOrientation);
+        }
+
+        assertEquals(150, counters.getEvents(SamplingPolicy.Mode.MOVING));
+        assertEquals(10, counters.getEvents(SamplingPolicy.Mode.STOPPED, SensorCounters.PRESSURE));
+        assertEquals(50, counters.getOrientationUpdates());
+        assertEquals(10, counters.getOrientationSkipped());
+        assertEquals(120, counters.getSavedEvents(policy, 20 * SECOND));
+    }
+}
@@ -0,0 +1,58 @@
+package sh.nothing.droidbike.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AnimatedValueTest {
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void smallStepIsLinear() {
+        AnimatedValue value = new AnimatedValue(1000);
+        value.animateTo(10, 0);
+        value.update(1000 * MILLIS);
+        value.animateTo(11, 1000 * MILLIS);
+        assertTrue(value.update(1500 * MILLIS));
+        assertEquals(10.5f, value.getValue(), 1e-4f);
+    }
+
+    @Test
+    public void largeStepDecelerates() {
+        AnimatedValue value = new AnimatedValue(1000);
+        value.animateTo(20, 0);
+        assertTrue(value.update(500 * MILLIS));
+        assertEquals(15.0f, value.getValue(), 1e-4f);
+    }
+
+    @Test
+    public void finishesAtTarget() {
+        AnimatedValue value = new AnimatedValue(1000);
+        value.animateTo(20, 0);
+        assertFalse(value.update(1200 * MILLIS));
+        assertEquals(20.0f, value.getValue(), 0.0f);
+        assertFalse(value.isRunning());
+        assertFalse(value.update(1300 * MILLIS));
+    }
+
+    @Test
+    public void ignoresTinyChanges() {
+        AnimatedValue value = new AnimatedValue(1000);
+        value.animateTo(0.005f, 0);
+        assertFalse(value.isRunning());
+    }
+
+    @Test
+    public void retargetsFromCurrentValue() {
+        AnimatedValue value = new AnimatedValue(1000);
+        value.animateTo(10, 0);
+        value.update(1000 * MILLIS);
+        value.animateTo(11, 1000 * MILLIS);
+        value.update(1500 * MILLIS);
+        value.animateTo(10, 1500 * MILLIS);
+        value.update(2000 * MILLIS);
+        assertEquals(10.25f, value.getValue(), 1e-4f);
+    }
+}
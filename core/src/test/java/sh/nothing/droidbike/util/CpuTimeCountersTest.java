@@ -0,0 +1,92 @@
+package sh.nothing.droidbike.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CpuTimeCountersTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long MILLISECOND = 1_000_000L;
+
+    private CpuTimeCounters counters;
+
+    @Before
+    public void setUp() {
+        counters = new CpuTimeCounters();
+        counters.start(true, 0, 500 * MILLISECOND);
+    }
+
+    @Test
+    public void splitsTimeByScreenState() {
+        counters.onScreen(false, 10 * SECOND, 800 * MILLISECOND);
+        counters.onScreen(true, 70 * SECOND, 1400 * MILLISECOND);
+        counters.update(75 * SECOND, 1500 * MILLISECOND);
+
+        assertEquals(15 * SECOND, counters.getWallTime(CpuTimeCounters.SCREEN_ON));
+        assertEquals(400 * MILLISECOND, counters.getCpuTime(CpuTimeCounters.SCREEN_ON));
+        assertEquals(60 * SECOND, counters.getWallTime(CpuTimeCounters.SCREEN_OFF));
+        assertEquals(600 * MILLISECOND, counters.getCpuTime(CpuTimeCounters.SCREEN_OFF));
+        assertEquals(0.01f, counters.getCpuLoad(CpuTimeCounters.SCREEN_OFF), 1e-6f);
+    }
+
+    @Test
+    public void cpuLoadIsUnknownWithoutWallTime() {
+        assertTrue(Float.isNaN(counters.getCpuLoad(CpuTimeCounters.SCREEN_OFF)));
+    }
+
+    @Test
+    public void wakeLockHoldsUntilTimeout() {
+        counters.onScreen(false, 0, 500 * MILLISECOND);
+        counters.onWakeLockAcquired(10 * SECOND, 500 * MILLISECOND, 60 * SECOND);
+        assertTrue(counters.isWakeLockHeld(69 * SECOND));
+        assertFalse(counters.isWakeLockHeld(70 * SECOND));
+
+        counters.update(100 * SECOND, 500 * MILLISECOND);
+        assertEquals(60 * SECOND, counters.getWakeLockTime(CpuTimeCounters.SCREEN_OFF));
+        assertEquals(1, counters.getWakeLockAcquisitions(CpuTimeCounters.SCREEN_OFF));
+    }
+
+    @Test
+    public void renewingExtendsTheLease() {
+        counters.onWakeLockAcquired(0, 500 * MILLISECOND, 60 * SECOND);
+        counters.onWakeLockAcquired(30 * SECOND, 500 * MILLISECOND, 60 * SECOND);
+        counters.onWakeLockReleased(50 * SECOND, 500 * MILLISECOND);
+        counters.update(100 * SECOND, 500 * MILLISECOND);
+
+        assertEquals(50 * SECOND, counters.getWakeLockTime(CpuTimeCounters.SCREEN_ON));
+        assertEquals(1, counters.getWakeLockAcquisitions(CpuTimeCounters.SCREEN_ON));
+        assertEquals(1, counters.getWakeLockRenewals());
+    }
+
+    @Test
+    public void acquiringAfterTimeoutCountsAgain() {
+        counters.onWakeLockAcquired(0, 500 * MILLISECOND, 10 * SECOND);
+        counters.onWakeLockAcquired(20 * SECOND, 500 * MILLISECOND, 10 * SECOND);
+        counters.update(40 * SECOND, 500 * MILLISECOND);
+
+        assertEquals(20 * SECOND, counters.getWakeLockTime(CpuTimeCounters.SCREEN_ON));
+        assertEquals(2, counters.getWakeLockAcquisitions(CpuTimeCounters.SCREEN_ON));
+        assertEquals(0, counters.getWakeLockRenewals());
+    }
+
+    @Test
+    public void heldWakeLockIsSplitAtScreenChanges() {
+        counters.onWakeLockAcquired(0, 500 * MILLISECOND, 60 * SECOND);
+        counters.onScreen(false, 20 * SECOND, 500 * MILLISECOND);
+        counters.update(90 * SECOND, 500 * MILLISECOND);
+
+        assertEquals(20 * SECOND, counters.getWakeLockTime(CpuTimeCounters.SCREEN_ON));
+        assertEquals(40 * SECOND, counters.getWakeLockTime(CpuTimeCounters.SCREEN_OFF));
+    }
+
+    @Test
+    public void toStringReportsTheCurrentState() {
+        counters.onScreen(false, 60 * SECOND, 1500 * MILLISECOND);
+        assertEquals(
+            "screen on 60s cpu 1000ms 1.7% wake lock 0s, screen off 60s cpu 300ms 0.5% wake lock 0s, 0 acquired 0 renewed",
+            counters.toString(120 * SECOND, 1800 * MILLISECOND));
+    }
+}
@@ -0,0 +1,22 @@
+package sh.nothing.droidbike.util;
+
+/**
+ * Clock advanced by hand.
+ */
+
+public class FakeClock implements Clock {
+    private long now;
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    public void set(long nanos) {
+        now = nanos;
+    }
+
+    public void advanceMillis(long millis) {
+        now += millis * 1_000_000L;
+    }
+}
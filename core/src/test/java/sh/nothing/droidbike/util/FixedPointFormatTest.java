@@ -0,0 +1,91 @@
+package sh.nothing.droidbike.util;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FixedPointFormatTest {
+    private final char[] buffer = new char[32];
+
+    @Test
+    public void matchesStringFormat() {
+        double[] values = {0, -0.0, 0.04, -0.04, 0.05, 0.25, 1, 9.95, 12.3, -3.75, 99.99, 1234.5, 42195.123};
+        for (double value : values) {
+            for (int decimals = 0; decimals <= 3; decimals++)
+                assertFixed(value, decimals);
+        }
+    }
+
+    @Test
+    public void matchesStringFormatForDashboardFloats() {
+        // the dashboard formats floats with one decimal
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            float value = (random.nextFloat() - 0.5f) * 2000;
+            assertEquals(String.valueOf(value), String.format(Locale.US, "%.1f", value), fixed(value, 1));
+        }
+    }
+
+    @Test
+    public void nonFinite() {
+        assertEquals("NaN", fixed(Double.NaN, 1));
+        assertEquals("Infinity", fixed(Double.POSITIVE_INFINITY, 1));
+        assertEquals("-Infinity", fixed(Double.NEGATIVE_INFINITY, 1));
+    }
+
+    @Test
+    public void formatInt() {
+        assertEquals("00", text(FixedPointFormat.formatInt(buffer, 0, 0, 2)));
+        assertEquals("07", text(FixedPointFormat.formatInt(buffer, 0, 7, 2)));
+        assertEquals("123", text(FixedPointFormat.formatInt(buffer, 0, 123, 2)));
+        assertEquals("-5", text(FixedPointFormat.formatInt(buffer, 0, -5, 1)));
+        assertEquals(Long.toString(Long.MAX_VALUE), text(FixedPointFormat.formatInt(buffer, 0, Long.MAX_VALUE, 1)));
+        assertEquals(Long.toString(Long.MIN_VALUE), text(FixedPointFormat.formatInt(buffer, 0, Long.MIN_VALUE, 1)));
+    }
+
+    @Test
+    public void appendsAtOffset() {
+        int end = FixedPointFormat.append(buffer, 0, "LAT ");
+        end = FixedPointFormat.formatFixed(buffer, end, 35.6812, 2);
+        end = FixedPointFormat.append(buffer, end, " ALT ");
+        end = FixedPointFormat.formatFixed(buffer, end, -3.25, 1);
+        assertEquals(String.format(Locale.US, "LAT %.2f ALT %.1f", 35.6812, -3.25), text(end));
+        assertEquals(6, FixedPointFormat.indexOf(buffer, 0, end, '.'));
+        assertEquals(-1, FixedPointFormat.indexOf(buffer, 0, end, '!'));
+    }
+
+    @Test
+    public void charTextSkipsUnchanged() {
+        CharText text = new CharText(2);
+        int end = FixedPointFormat.formatFixed(buffer, 0, 12.3, 1);
+        assertTrue(text.update(buffer, 0, end));
+        char[] shown = text.chars();
+        assertEquals("12.3", text.toString());
+
+        end = FixedPointFormat.formatFixed(buffer, 0, 12.31, 1);
+        assertFalse(text.update(buffer, 0, end));
+        assertTrue(text.update(buffer, 0, 2));
+        assertEquals("12", text.toString());
+        assertTrue(shown == text.chars());
+
+        text.invalidate();
+        assertTrue(text.update(buffer, 0, 2));
+    }
+
+    private void assertFixed(double value, int decimals) {
+        assertEquals(value + " " + decimals, String.format(Locale.US, "%." + decimals + "f", value), fixed(value, decimals));
+    }
+
+    private String fixed(double value, int decimals) {
+        return text(FixedPointFormat.formatFixed(buffer, 0, value, decimals));
+    }
+
+    private String text(int end) {
+        return new String(buffer, 0, end);
+    }
+}
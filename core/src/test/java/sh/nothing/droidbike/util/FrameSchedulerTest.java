@@ -0,0 +1,142 @@
+package sh.nothing.droidbike.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameSchedulerTest {
+    private static final long VSYNC = 16_666_667L;
+
+    private final FakeClock clock = new FakeClock();
+    private final List<Integer> rendered = new ArrayList<>();
+    private int requests;
+    private int animateFrames;
+    private long vsync;
+    private FrameScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new FrameScheduler(clock, () -> requests++, (dirty, frameTimeNanos) -> {
+            rendered.add(dirty);
+            clock.advanceMillis(2);
+            return animateFrames-- > 0;
+        });
+        scheduler.start();
+    }
+
+    @Test
+    public void coalescesUpdatesIntoOneFrame() {
+        scheduler.invalidate(1);
+        scheduler.invalidate(2);
+        scheduler.invalidate(1);
+        assertEquals(1, requests);
+
+        frame();
+        assertEquals(1, rendered.size());
+        assertEquals(3, (int) rendered.get(0));
+        assertEquals(3, scheduler.getMaxUpdatesPerFrame());
+        assertEquals(1, scheduler.getFrames());
+        assertEquals(2_000_000, scheduler.getRenderTime().getMaxNanos());
+    }
+
+    @Test
+    public void requestsAgainAfterFrame() {
+        scheduler.invalidate(1);
+        frame();
+        scheduler.invalidate(4);
+        assertEquals(2, requests);
+        frame();
+        assertEquals(4, (int) rendered.get(1));
+    }
+
+    @Test
+    public void idleWithoutUpdates() {
+        scheduler.invalidate(1);
+        frame();
+        assertEquals(1, requests);
+    }
+
+    @Test
+    public void keepsFramesComingWhileAnimating() {
+        animateFrames = 2;
+        scheduler.invalidate(1);
+        frame();
+        frame();
+        frame();
+        assertEquals(3, requests);
+        assertEquals(0, (int) rendered.get(2));
+        assertEquals(2, scheduler.getAnimationFrames());
+    }
+
+    @Test
+    public void stoppedDefersUpdatesUntilStart() {
+        scheduler.stop();
+        scheduler.invalidate(8);
+        assertEquals(0, requests);
+        frame();
+        assertEquals(0, rendered.size());
+
+        scheduler.start();
+        assertEquals(1, requests);
+        frame();
+        assertEquals(8, (int) rendered.get(0));
+    }
+
+    @Test
+    public void countsTraversals() {
+        scheduler.invalidate(1);
+        frame();
+        scheduler.onLayout();
+        scheduler.onDraw();
+        scheduler.invalidate(1);
+        frame();
+        scheduler.onDraw();
+        scheduler.onDraw();
+        assertEquals(1, scheduler.getLayouts());
+        assertEquals(3, scheduler.getDraws());
+        assertEquals(1, scheduler.getExtraTraversals());
+
+        doFrame(vsync);
+        assertEquals(1, scheduler.getDuplicateFrames());
+    }
+
+    @Test
+    public void concurrentProducersLoseNoFlags() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        CountDownLatch ready = new CountDownLatch(1);
+        for (int i = 0; i < threads.length; i++) {
+            int flag = 1 << i;
+            threads[i] = new Thread(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 10_000; j++)
+                    scheduler.invalidate(flag);
+            });
+            threads[i].start();
+        }
+        ready.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        frame();
+        assertEquals(0xf, (int) rendered.get(0));
+        assertEquals(40_000, scheduler.getUpdates());
+    }
+
+    private void frame() {
+        vsync += VSYNC;
+        doFrame(vsync);
+    }
+
+    private void doFrame(long frameTimeNanos) {
+        scheduler.doFrame(frameTimeNanos);
+    }
+}
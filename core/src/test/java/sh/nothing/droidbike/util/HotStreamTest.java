@@ -0,0 +1,130 @@
+package sh.nothing.droidbike.util;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HotStreamTest {
+    private final HotStream<Integer> stream = new HotStream<>();
+    private final TestScheduler scheduler = new TestScheduler();
+
+    @Test
+    public void latestSkipsToTheNewestWhileTheSubscriberIsBusy() {
+        TestSubscriber<Integer> ui = stream.latest(scheduler).test();
+        for (int i = 0; i < 10_000; i++)
+            stream.emit(i);
+        scheduler.triggerActions();
+
+        // the one taken before the subscriber got to run, then the newest
+        ui.assertValues(0, 9_999);
+        assertEquals(0, stream.getDroppedCount());
+    }
+
+    @Test
+    public void bufferedDeliversEveryUpdateInOrder() {
+        TestSubscriber<Integer> recorder = stream.buffered(scheduler, 1024).test();
+        for (int i = 0; i < 1000; i++)
+            stream.emit(i);
+        scheduler.triggerActions();
+
+        recorder.assertValueCount(1000);
+        List<Integer> values = recorder.values();
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i, (int) values.get(i));
+        assertEquals(0, stream.getDroppedCount());
+    }
+
+    @Test
+    public void bufferedDropsTheOldestBeyondItsCapacity() {
+        TestSubscriber<Integer> recorder = stream.buffered(scheduler, 100).test();
+        for (int i = 0; i < 1000; i++)
+            stream.emit(i);
+        scheduler.triggerActions();
+
+        // what observeOn already took, then the newest capacity
+        List<Integer> values = recorder.values();
+        assertEquals(HotStream.PREFETCH + 100, values.size());
+        assertEquals(0, (int) values.get(0));
+        assertEquals(HotStream.PREFETCH - 1, (int) values.get(HotStream.PREFETCH - 1));
+        assertEquals(900, (int) values.get(HotStream.PREFETCH));
+        assertEquals(999, (int) values.get(values.size() - 1));
+        assertEquals(1000 - HotStream.PREFETCH - 100, stream.getDroppedCount());
+        recorder.assertNoErrors();
+    }
+
+    @Test
+    public void aSlowSubscriberDoesNotHoldBackTheOthers() {
+        TestScheduler slow = new TestScheduler();
+        TestSubscriber<Integer> ui = stream.latest(slow).test();
+        TestSubscriber<Integer> metrics = stream.buffered(scheduler, 64).test();
+        TestSubscriber<Integer> inline = stream.asFlowable().test();
+
+        for (int i = 0; i < 100_000; i++) {
+            stream.emit(i);
+            if (i % 32 == 31)
+                scheduler.triggerActions();
+        }
+        scheduler.triggerActions();
+
+        inline.assertValueCount(100_000);
+        metrics.assertValueCount(100_000);
+        assertEquals(0, stream.getDroppedCount());
+        ui.assertNoValues();
+        slow.triggerActions();
+        ui.assertValues(0, 99_999);
+    }
+
+    @Test
+    public void keepsUpWithAMillionUpdates() {
+        TestSubscriber<Integer> ui = stream.latest(scheduler).test();
+        TestSubscriber<Integer> metrics = stream.buffered(scheduler, 256).test();
+        for (int i = 0; i < 1_000_000; i++) {
+            stream.emit(i);
+            // the consumers run every 100 updates, like 60 frames per second against 6000 updates
+            if (i % 100 == 99)
+                scheduler.triggerActions();
+        }
+
+        assertEquals(1_000_000, stream.getEmittedCount());
+        metrics.assertValueCount(1_000_000);
+        assertEquals(0, stream.getDroppedCount());
+        assertTrue(ui.valueCount() <= 2 * 10_000);
+        assertEquals(999_999, (int) ui.values().get(ui.valueCount() - 1));
+    }
+
+    @Test
+    public void concurrentEmittersAreSerialized() throws InterruptedException {
+        TestSubscriber<Integer> metrics = stream.buffered(scheduler, 100_000).test();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++)
+                    stream.emit(i);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        scheduler.triggerActions();
+
+        metrics.assertValueCount(40_000);
+        metrics.assertNoErrors();
+    }
+
+    @Test
+    public void hasSubscribersFollowsSubscriptions() {
+        assertFalse(stream.hasSubscribers());
+        Disposable ui = stream.latest(scheduler).subscribe(value -> {});
+        assertTrue(stream.hasSubscribers());
+        ui.dispose();
+        assertFalse(stream.hasSubscribers());
+    }
+}
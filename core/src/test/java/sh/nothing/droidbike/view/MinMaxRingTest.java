@@ -0,0 +1,122 @@
+package sh.nothing.droidbike.view;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MinMaxRingTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void keepsMinMaxPerColumn() {
+        MinMaxRing ring = new MinMaxRing(4, SECOND);
+        ring.add(0, 5);
+        ring.add(SECOND / 2, 3);
+        ring.add(SECOND - 1, 8);
+        ring.add(SECOND, 1);
+        assertEquals(2, ring.size());
+        assertEquals(3, ring.getMin(0), 0);
+        assertEquals(8, ring.getMax(0), 0);
+        assertEquals(1, ring.getMin(1), 0);
+        assertEquals(1, ring.getMax(1), 0);
+    }
+
+    @Test
+    public void dropsOldestAndLeavesGaps() {
+        MinMaxRing ring = new MinMaxRing(4, SECOND);
+        for (int i = 0; i < 6; i++)
+            ring.add(i * SECOND, i);
+        ring.add(7 * SECOND, 7);
+        assertEquals(4, ring.size());
+        assertEquals(4, ring.getMin(0), 0);
+        assertEquals(5, ring.getMin(1), 0);
+        assertTrue(Float.isNaN(ring.getMin(2)));
+        assertEquals(7, ring.getMax(3), 0);
+
+        // a jump past the whole window clears it
+        ring.add(100 * SECOND, 1);
+        assertEquals(4, ring.size());
+        assertTrue(Float.isNaN(ring.getMax(0)));
+        assertEquals(1, ring.getMax(3), 0);
+    }
+
+    @Test
+    public void reportsVisibleChanges() {
+        MinMaxRing ring = new MinMaxRing(4, SECOND);
+        assertTrue(ring.add(0, 5));
+        assertFalse(ring.add(10, 5));
+        assertTrue(ring.add(20, 6));
+        assertFalse(ring.add(30, Float.NaN));
+        assertTrue(ring.advanceTo(SECOND));
+        assertFalse(ring.advanceTo(SECOND + 1));
+        // late samples fold into the newest column
+        assertTrue(ring.add(0, 1));
+        assertEquals(1, ring.getMin(1), 0);
+    }
+
+    @Test
+    public void negativeTimes() {
+        MinMaxRing ring = new MinMaxRing(4, SECOND);
+        ring.add(-1, 1);
+        ring.add(0, 2);
+        assertEquals(2, ring.size());
+    }
+
+    @Test
+    public void rebinsIntoCoarserRing() {
+        MinMaxRing fine = new MinMaxRing(100, SECOND);
+        for (int i = 0; i < 100; i++)
+            fine.add(i * SECOND, i % 10);
+        MinMaxRing coarse = new MinMaxRing(10, 10 * SECOND);
+        coarse.addAll(fine);
+        assertEquals(10, coarse.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, coarse.getMin(i), 0);
+            assertEquals(9, coarse.getMax(i), 0);
+        }
+    }
+
+    @Test
+    public void drawCostIndependentOfSamples() {
+        MinMaxRing ring = new MinMaxRing(300, SECOND / 10);
+        // 100 Hz for 30 s: 3000 samples into 300 columns
+        for (int i = 0; i < 3000; i++)
+            ring.add(i * SECOND / 100, (float) Math.sin(i / 100.0));
+        float[] points = new float[ring.capacity() * 4];
+        assertEquals(300 * 4, ring.toLines(points, 300, 1, 100, 100, -1, 1));
+    }
+
+    @Test
+    public void linesAreContinuous() {
+        MinMaxRing ring = new MinMaxRing(3, SECOND);
+        ring.add(0, 0);
+        ring.add(SECOND, 10);
+        ring.add(2 * SECOND, 10);
+        float[] points = new float[12];
+        assertEquals(12, ring.toLines(points, 30, 10, 100, 100, 0, 10));
+        // column 0 at x 5 is a 1 px dot at the bottom
+        assertEquals(5, points[0], 0);
+        assertEquals(100, points[1], 0);
+        assertEquals(99, points[3], 0);
+        // column 1 reaches down to column 0
+        assertEquals(15, points[4], 0);
+        assertEquals(100, points[5], 0);
+        assertEquals(0, points[7], 0);
+        // column 2 is flat at the top
+        assertEquals(25, points[8], 0);
+        assertEquals(0, points[9], 0);
+        assertEquals(-1, points[11], 0);
+    }
+
+    @Test
+    public void gapsAreSkipped() {
+        MinMaxRing ring = new MinMaxRing(3, SECOND);
+        ring.add(0, 5);
+        ring.add(2 * SECOND, 5);
+        float[] points = new float[12];
+        assertEquals(8, ring.toLines(points, 30, 10, 100, 100, 0, 10));
+        assertEquals(25, points[4], 0);
+    }
+}
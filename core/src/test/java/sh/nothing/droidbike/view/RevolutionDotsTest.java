@@ -0,0 +1,101 @@
+package sh.nothing.droidbike.view;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RevolutionDotsTest {
+    private static final long VSYNC = 16_666_667L;
+
+    private RevolutionDots dots;
+    private long frameTime = 1_000_000_000L;
+
+    @Before
+    public void setUp() {
+        dots = new RevolutionDots();
+        dots.setSize(160, 100);
+    }
+
+    @Test
+    public void noDrawsWhenStopped() {
+        dots.setRpm(0);
+        assertEquals(0, drawsPerSecond(10));
+        assertFalse(dots.isMoving());
+    }
+
+    @Test
+    public void eightDrawsPerRevolution() {
+        dots.setRpm(90);
+        // 1.5 rev/s; the first frame only starts the clock
+        assertEquals(12, drawsPerSecond(10), 1);
+        assertEquals(120, dots.getSteps(), 1);
+    }
+
+    @Test
+    public void invalidRpmStops() {
+        dots.setRpm(60);
+        assertTrue(dots.setRpm(Float.NaN));
+        assertFalse(dots.isMoving());
+        dots.setRpm(Float.POSITIVE_INFINITY);
+        assertFalse(dots.isMoving());
+        dots.setRpm(-10);
+        assertFalse(dots.isMoving());
+        assertFalse(dots.onFrame(frameTime));
+    }
+
+    @Test
+    public void reportsAppearing() {
+        assertTrue(dots.setRpm(60));
+        assertFalse(dots.setRpm(70));
+        assertTrue(dots.setRpm(0));
+    }
+
+    @Test
+    public void positionsCenteredInSquare() {
+        // 100x100 square centered in 160x100
+        assertEquals(80, dots.getCenterX(), 0);
+        assertEquals(50, dots.getCenterY(), 0);
+        assertEquals(6, dots.getCenterRadius(), 0);
+        assertEquals(12, dots.getDotRadius(), 0);
+        // step 0 is left of center, step 2 above it
+        assertEquals(80 - 37.5f, dots.getDotX(), 1e-4f);
+        assertEquals(50, dots.getDotY(), 1e-4f);
+    }
+
+    @Test
+    public void dirtyBoundsCoverBothPositions() {
+        dots.setRpm(60);
+        // 1 rev/s: a step every 125 ms
+        do {
+            frameTime += VSYNC;
+        } while (!dots.onFrame(frameTime));
+        assertEquals(1, dots.getStep());
+
+        int[] bounds = new int[4];
+        dots.getDirtyBounds(bounds);
+        float r = dots.getDotRadius();
+        assertTrue(bounds[0] <= 80 - 37.5f - r);
+        assertTrue(bounds[1] <= dots.getDotY() - r);
+        assertTrue(bounds[2] >= dots.getDotX() + r);
+        assertTrue(bounds[3] >= 50 + r);
+        // a fraction of the view, not all of it
+        assertTrue((bounds[2] - bounds[0]) * (bounds[3] - bounds[1]) < 160 * 100 / 4);
+    }
+
+    /**
+     * Runs 60 fps for seconds and returns the draws the dot asked for per second.
+     */
+    private long drawsPerSecond(int seconds) {
+        long draws = 0;
+        int frames = seconds * 60;
+        for (int i = 0; i < frames; i++) {
+            frameTime += VSYNC;
+            if (dots.onFrame(frameTime))
+                draws++;
+        }
+        return draws / seconds;
+    }
+}